@@ -0,0 +1,95 @@
+package org.alex_hashtag.benchmark;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+
+/**
+ * Measures time-to-first-token: how long it takes from launching {@code rainforest tokenize} until
+ * the first token row of its dump appears on standard output. That covers process startup, the
+ * static initialization that is not done at image build time, and lexing up to the first token,
+ * which is what a user waits for in an editor or a watch loop.
+ * <p>
+ * Usage: {@code StartupBenchmark <runs> <command...>}, e.g.
+ * {@code StartupBenchmark 20 build/native/nativeCompile/rainforest tokenize src/pgo/corpus/training/Program.toucan}.
+ * The first few runs warm the file system cache and are not counted.
+ */
+public class StartupBenchmark
+{
+    private static final int WARMUP_RUNS = 3;
+
+    /// A row of the token table, e.g. `    START          |   | 0   | 0`; the header row is `Type | ...`.
+    private static final Pattern TOKEN_ROW = Pattern.compile("^\\s*[A-Z][A-Z_]*\\s+\\|");
+
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        if (args.length < 2)
+        {
+            System.err.println("Usage: StartupBenchmark <runs> <command...>");
+            System.exit(2);
+        }
+        int runs = Integer.parseInt(args[0]);
+        List<String> command = Arrays.asList(args).subList(1, args.length);
+
+        long[] firstToken = new long[runs];
+        long[] exit = new long[runs];
+        for (int i = -WARMUP_RUNS; i < runs; i++)
+        {
+            long[] sample = run(command);
+            if (i >= 0)
+            {
+                firstToken[i] = sample[0];
+                exit[i] = sample[1];
+            }
+        }
+
+        System.out.println(String.join(" ", command));
+        report("time to first token", firstToken);
+        report("time to exit", exit);
+    }
+
+    /**
+     * @return the nanoseconds until the first token row and until the process exited.
+     */
+    private static long[] run(List<String> command) throws IOException, InterruptedException
+    {
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command)
+                .redirectError(ProcessBuilder.Redirect.DISCARD)
+                .start();
+
+        long firstToken = -1;
+        try (BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8)))
+        {
+            String line;
+            while ((line = out.readLine()) != null)
+            {
+                if (firstToken < 0 && TOKEN_ROW.matcher(line).lookingAt())
+                    firstToken = System.nanoTime() - start;
+            }
+        }
+        int status = process.waitFor();
+        long exit = System.nanoTime() - start;
+
+        if (firstToken < 0)
+            throw new IllegalStateException("No token in the output of " + command + " (exit status " + status + ")");
+        return new long[]{firstToken, exit};
+    }
+
+    private static void report(String what, long[] nanos)
+    {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        System.out.printf("%-20s min %8.2f ms   median %8.2f ms   p90 %8.2f ms   (%d runs)%n",
+                what,
+                sorted[0] / 1e6,
+                sorted[sorted.length / 2] / 1e6,
+                sorted[(int) Math.ceil(sorted.length * 0.9) - 1] / 1e6,
+                sorted.length);
+    }
+}
@@ -8,6 +8,7 @@ public record Build(
         Path executable,
         Path logs,
         Path intermediates,
+        long intermediatesLimit,
         String os,
         String architecture,
         boolean debugSymbols
@@ -0,0 +1,249 @@
+package org.alex_hashtag.buildSystem;
+
+import org.alex_hashtag.internal_representation.ast.AbstractSyntaxTree;
+import org.alex_hashtag.internal_representation.macros.MacroIndex;
+import org.alex_hashtag.lib.cancellation.CancellationToken;
+import org.alex_hashtag.lib.cancellation.CancelledException;
+import org.alex_hashtag.lib.errors.Diagnostics;
+import org.alex_hashtag.lib.profiling.Phase;
+import org.alex_hashtag.lib.profiling.PhaseTimer;
+import org.alex_hashtag.tokenizationOLD.ImportDeclaration;
+import org.alex_hashtag.tokenizationOLD.TokenStream;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+
+/**
+ * Keeps the token streams and macros of a project in memory and, on every {@link #update()},
+ * re-processes only what changed since the previous one.
+ * <ul>
+ *     <li>Files that are new or whose size or modification time changed are read and tokenized again,</li>
+ *     <li>their dependents, the files that import their package or share it, have their macros
+ *     collected again together with them,</li>
+ *     <li>everything else is reused as it is, and its diagnostics are not reported again.</li>
+ * </ul>
+ * Macros are then merged into a fresh {@link MacroIndex}, which is cheap compared to parsing.
+ * Duplicate macros are found by that merge, so they are reported for the round, not kept with a file.
+ * An update can be cancelled, e.g. when the files change again while it runs; the build then stays
+ * as it was after the previous update. Not thread-safe; a build belongs to a single watch loop.
+ */
+public final class IncrementalBuild
+{
+    private final ProjectScanner scanner;
+    private final Diagnostics diagnostics;
+    private final Map<Path, Unit> units = new HashMap<>();
+    private int rounds;
+
+    /**
+     * The result of one update.
+     *
+     * @param changed  files that were tokenized again.
+     * @param affected changed files and their dependents, whose macros were collected again.
+     * @param removed  files that no longer exist.
+     * @param ast      the tree over every file that tokenized without errors.
+     */
+    public record Round(int number,
+                        List<Path> changed,
+                        List<Path> affected,
+                        List<Path> removed,
+                        AbstractSyntaxTree ast,
+                        boolean hasErrors)
+    {
+        /**
+         * @return whether no source file changed, e.g. when only other files of the directory did.
+         */
+        public boolean isEmpty()
+        {
+            return changed.isEmpty() && removed.isEmpty();
+        }
+    }
+
+    /// What is kept of one file between rounds.
+    private record Unit(ProjectScanner.SourceFile file, TokenStream stream, MacroIndex.FileMacros macros)
+    {
+        boolean hasErrors()
+        {
+            return stream.hasErrors() || (macros != null && macros.errorManager().hasErrors());
+        }
+    }
+
+    public IncrementalBuild(ProjectScanner scanner, Diagnostics diagnostics)
+    {
+        this.scanner = scanner;
+        this.diagnostics = diagnostics;
+    }
+
+    /**
+     * Brings the build up to date with the files on disk. The first call processes every file.
+     *
+     * @throws IOException if a changed file cannot be read.
+     */
+    public Round update() throws IOException
+    {
+        return update(CancellationToken.NONE);
+    }
+
+    /**
+     * Like {@link #update()}, but gives up as soon as {@code cancellation} is cancelled or its
+     * deadline passes. What was computed is then dropped: the kept units are only replaced once
+     * every file of the round was processed, so the next update redoes the same work.
+     *
+     * @throws CancelledException if it gave up.
+     * @throws IOException        if a changed file cannot be read.
+     */
+    public Round update(CancellationToken cancellation) throws IOException
+    {
+        List<ProjectScanner.SourceFile> files;
+        try (PhaseTimer.Scope ignored = PhaseTimer.get().start(Phase.DISCOVERY))
+        {
+            files = scanner.scan();
+        } catch (UncheckedIOException e)
+        {
+            throw e.getCause();
+        }
+
+        Map<Path, ProjectScanner.SourceFile> current = new HashMap<>();
+        List<ProjectScanner.SourceFile> changed = new ArrayList<>();
+        for (ProjectScanner.SourceFile file : files)
+        {
+            current.put(file.path(), file);
+            Unit unit = units.get(file.path());
+            if (unit == null || unit.file().size() != file.size() || !unit.file().modified().equals(file.modified()))
+                changed.add(file);
+        }
+        List<Path> removed = units.keySet().stream()
+                .filter(path -> !current.containsKey(path))
+                .sorted()
+                .toList();
+
+        // Packages whose contents changed, before and after the edit
+        Set<String> packages = new HashSet<>();
+        for (Path path : removed)
+            packages.add(packageOf(units.get(path).stream()));
+        for (ProjectScanner.SourceFile file : changed)
+        {
+            Unit previous = units.get(file.path());
+            if (previous != null)
+                packages.add(packageOf(previous.stream()));
+        }
+
+        Map<Path, TokenStream> tokenized = tokenize(changed, cancellation);
+        for (TokenStream stream : tokenized.values())
+            packages.add(packageOf(stream));
+
+        Set<Path> affected = new TreeSet<>(tokenized.keySet());
+        for (Map.Entry<Path, Unit> entry : units.entrySet())
+            if (current.containsKey(entry.getKey())
+                    && !affected.contains(entry.getKey())
+                    && dependsOn(entry.getValue().stream(), packages))
+                affected.add(entry.getKey());
+
+        // Collect the macros of every affected file that tokenized cleanly
+        Map<Path, MacroIndex.FileMacros> collected = new HashMap<>();
+        affected.parallelStream()
+                .map(path ->
+                {
+                    TokenStream stream = tokenized.containsKey(path) ? tokenized.get(path) : units.get(path).stream();
+                    return Map.entry(path, stream);
+                })
+                .filter(entry -> !entry.getValue().hasErrors())
+                .map(entry -> Map.entry(entry.getKey(),
+                        MacroIndex.FileMacros.parse(entry.getValue(), diagnostics, cancellation)))
+                .toList()
+                .forEach(entry -> collected.put(entry.getKey(), entry.getValue()));
+
+        // Everything was computed, so the round can no longer be cancelled half-way
+        for (Path path : removed)
+            units.remove(path);
+        for (Path path : affected)
+        {
+            Unit previous = units.get(path);
+            ProjectScanner.SourceFile file = previous != null && !tokenized.containsKey(path)
+                    ? previous.file()
+                    : current.get(path);
+            TokenStream stream = tokenized.containsKey(path) ? tokenized.get(path) : previous.stream();
+            units.put(path, new Unit(file, stream, collected.get(path)));
+        }
+
+        List<MacroIndex.FileMacros> macros = units.values().stream()
+                .map(Unit::macros)
+                .filter(Objects::nonNull)
+                .toList();
+        MacroIndex index = MacroIndex.merge(macros);
+        AbstractSyntaxTree ast = new AbstractSyntaxTree(index);
+
+        rounds++;
+        return new Round(
+                rounds,
+                List.copyOf(new TreeSet<>(tokenized.keySet())),
+                List.copyOf(affected),
+                removed,
+                ast,
+                index.hasErrors() || units.values().stream().anyMatch(Unit::hasErrors)
+        );
+    }
+
+    /**
+     * @return the token streams of all files, including those with errors, by path.
+     */
+    public Map<Path, TokenStream> getStreams()
+    {
+        Map<Path, TokenStream> streams = new TreeMap<>();
+        units.forEach((path, unit) -> streams.put(path, unit.stream()));
+        return streams;
+    }
+
+    private Map<Path, TokenStream> tokenize(List<ProjectScanner.SourceFile> files, CancellationToken cancellation)
+            throws IOException
+    {
+        try
+        {
+            Map<Path, TokenStream> streams = new HashMap<>();
+            files.parallelStream()
+                    .map(file ->
+                    {
+                        String source;
+                        try (PhaseTimer.Scope ignored = PhaseTimer.get().start(Phase.READ, file.path().toString()))
+                        {
+                            source = Files.readString(file.path());
+                        } catch (IOException e)
+                        {
+                            throw new UncheckedIOException(e);
+                        }
+                        return new TokenStream(file.path(), source, diagnostics, cancellation);
+                    })
+                    .toList()
+                    .forEach(stream -> streams.put(Path.of(stream.getFilename()), stream));
+            return streams;
+        } catch (UncheckedIOException e)
+        {
+            throw e.getCause();
+        }
+    }
+
+    private static String packageOf(TokenStream stream)
+    {
+        return stream.getPackageName() == null ? "" : stream.getPackageName();
+    }
+
+    /// A file depends on a package if it lives in it or imports it, or something declared in it.
+    private static boolean dependsOn(TokenStream stream, Set<String> packages)
+    {
+        if (packages.contains(packageOf(stream)))
+            return true;
+        for (ImportDeclaration declaration : stream.getImports())
+        {
+            String name = declaration.fullName();
+            if (packages.contains(name))
+                return true;
+            int dot = name.lastIndexOf('.');
+            if (dot > 0 && packages.contains(name.substring(0, dot)))
+                return true;
+        }
+        return false;
+    }
+}
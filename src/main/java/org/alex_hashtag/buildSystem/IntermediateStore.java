@@ -0,0 +1,362 @@
+package org.alex_hashtag.buildSystem;
+
+import org.alex_hashtag.lib.results.Option;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+
+/**
+ * A content-addressed store for build artifacts such as token dumps and serialized trees, kept in
+ * the {@code intermediates} directory of {@code rainforest.toml}.
+ * <p>
+ * An artifact is stored under the SHA-256 of its kind, its inputs and the compiler version, so an
+ * artifact is never stale and identical inputs are never processed twice, whichever project or
+ * branch they come from. Pointing several checkouts at the same directory, with an absolute
+ * {@code intermediates} path or the {@value #ENVIRONMENT_VARIABLE} environment variable, shares
+ * the work between them.
+ * <p>
+ * Every write goes to a temporary file that is then atomically renamed, so concurrent compilers
+ * never see a partial artifact. Reads refresh the modification time of an artifact, and
+ * {@link #collectGarbage(long)} evicts the least recently used ones once the store exceeds its limit.
+ * Failing to read or write an artifact is never an error: the work is simply done again.
+ */
+public final class IntermediateStore implements AutoCloseable
+{
+    public static final String ENVIRONMENT_VARIABLE = "RAINFOREST_INTERMEDIATES";
+    public static final long DEFAULT_LIMIT = 1L << 30;
+
+    private static final String OBJECTS = "objects";
+    private static final String SIZE_FILE = "size";
+    private static final String TEMPORARY_PREFIX = ".tmp-";
+
+    /// Temporary files older than this were left behind by a compiler that died mid-write.
+    private static final Duration ABANDONED = Duration.ofHours(1);
+
+    /**
+     * The address of an artifact.
+     */
+    public record Key(String hash)
+    {
+        @Override
+        public String toString()
+        {
+            return hash;
+        }
+    }
+
+    /**
+     * What a garbage collection found and removed.
+     */
+    public record Collection(int artifacts, long bytes, int removed, long freed)
+    {
+    }
+
+    private final Path directory;
+    private final long limit;
+    private final AtomicLong written = new AtomicLong();
+
+    /**
+     * @param directory where the artifacts are kept; created on the first write.
+     * @param limit     the size in bytes above which {@link #close()} evicts artifacts.
+     */
+    public IntermediateStore(Path directory, long limit)
+    {
+        this.directory = directory.toAbsolutePath().normalize();
+        this.limit = limit;
+    }
+
+    /**
+     * Opens the store of the project in {@code directory}: the {@value #ENVIRONMENT_VARIABLE}
+     * directory if that variable is set, and otherwise the {@code intermediates} directory and
+     * limit of its {@code rainforest.toml}, or their defaults.
+     */
+    public static IntermediateStore forProject(Path directory)
+    {
+        Rainforest config = ProjectScanner.forProject(directory).getConfig();
+        Path intermediates = Paths.get("build/intermediate");
+        long limit = DEFAULT_LIMIT;
+        if (config != null && config.build != null)
+        {
+            intermediates = config.build.intermediates();
+            limit = config.build.intermediatesLimit();
+        }
+
+        String shared = System.getenv(ENVIRONMENT_VARIABLE);
+        if (shared != null && !shared.isBlank())
+            return new IntermediateStore(Paths.get(shared), limit);
+        return new IntermediateStore(directory.resolve(intermediates), limit);
+    }
+
+    /**
+     * Parses a size such as {@code 512M} or {@code 2G}; the suffixes are powers of 1024.
+     *
+     * @throws IllegalArgumentException if the size is malformed.
+     */
+    public static long parseSize(String size)
+    {
+        String trimmed = size.trim().toUpperCase();
+        if (trimmed.endsWith("B"))
+            trimmed = trimmed.substring(0, trimmed.length() - 1);
+        int shift = 0;
+        if (!trimmed.isEmpty())
+        {
+            switch (trimmed.charAt(trimmed.length() - 1))
+            {
+                case 'K' -> shift = 10;
+                case 'M' -> shift = 20;
+                case 'G' -> shift = 30;
+                case 'T' -> shift = 40;
+                default -> { }
+            }
+        }
+        if (shift != 0)
+            trimmed = trimmed.substring(0, trimmed.length() - 1);
+        try
+        {
+            long value = Long.parseLong(trimmed.trim());
+            if (value < 0 || value > Long.MAX_VALUE >> shift)
+                throw new IllegalArgumentException("Size out of range: " + size);
+            return value << shift;
+        } catch (NumberFormatException e)
+        {
+            throw new IllegalArgumentException("Invalid size: " + size);
+        }
+    }
+
+    public Path getDirectory()
+    {
+        return directory;
+    }
+
+    public long getLimit()
+    {
+        return limit;
+    }
+
+    /**
+     * Computes the key of an artifact. Each input is length-prefixed, so different splits of the
+     * same bytes never collide.
+     *
+     * @param kind   what the artifact is, e.g. {@code "tokens"}; also versions its format.
+     * @param inputs everything the artifact is derived from.
+     */
+    public static Key key(String kind, byte[]... inputs)
+    {
+        MessageDigest digest;
+        try
+        {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        update(digest, Rainforest.COMPILER_VERSION.getBytes(StandardCharsets.UTF_8));
+        update(digest, kind.getBytes(StandardCharsets.UTF_8));
+        for (byte[] input : inputs)
+            update(digest, input);
+        return new Key(HexFormat.of().formatHex(digest.digest()));
+    }
+
+    private static void update(MessageDigest digest, byte[] input)
+    {
+        int length = input.length;
+        digest.update(new byte[]{(byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8), (byte) length});
+        digest.update(input);
+    }
+
+    /**
+     * @return the artifact stored under {@code key}, if any.
+     */
+    public Option<byte[]> get(Key key)
+    {
+        Path path = pathOf(key);
+        try
+        {
+            byte[] data = Files.readAllBytes(path);
+            touch(path);
+            return Option.some(data);
+        } catch (IOException e)
+        {
+            return Option.none();
+        }
+    }
+
+    /**
+     * Stores an artifact, unless one is already stored under {@code key}.
+     *
+     * @return whether the artifact is now stored.
+     */
+    public boolean put(Key key, byte[] data)
+    {
+        Path path = pathOf(key);
+        if (Files.exists(path))
+        {
+            touch(path);
+            return true;
+        }
+
+        Path temporary = null;
+        try
+        {
+            Files.createDirectories(path.getParent());
+            temporary = path.resolveSibling(TEMPORARY_PREFIX + Long.toHexString(ThreadLocalRandom.current().nextLong()));
+            Files.write(temporary, data, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            try
+            {
+                Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e)
+            {
+                Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+            written.addAndGet(data.length);
+            return true;
+        } catch (IOException e)
+        {
+            if (temporary != null)
+            {
+                try
+                {
+                    Files.deleteIfExists(temporary);
+                } catch (IOException ignored)
+                {
+                    // Removed by the next collection
+                }
+            }
+            return Files.exists(path);
+        }
+    }
+
+    /**
+     * Evicts the least recently used artifacts until the store holds at most {@code maxBytes},
+     * and removes temporary files abandoned by interrupted writes.
+     */
+    public Collection collectGarbage(long maxBytes) throws IOException
+    {
+        Path objects = directory.resolve(OBJECTS);
+        if (!Files.isDirectory(objects))
+            return new Collection(0, 0, 0, 0);
+
+        record Artifact(Path path, long size, FileTime used)
+        {
+        }
+
+        List<Artifact> artifacts = new ArrayList<>();
+        FileTime abandoned = FileTime.from(Instant.now().minus(ABANDONED));
+        try (Stream<Path> paths = Files.walk(objects))
+        {
+            for (Path path : (Iterable<Path>) paths::iterator)
+            {
+                BasicFileAttributes attributes;
+                try
+                {
+                    attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                } catch (NoSuchFileException e)
+                {
+                    continue; // Evicted by another compiler
+                }
+                if (!attributes.isRegularFile())
+                    continue;
+                if (path.getFileName().toString().startsWith(TEMPORARY_PREFIX))
+                {
+                    if (attributes.lastModifiedTime().compareTo(abandoned) < 0)
+                        Files.deleteIfExists(path);
+                    continue;
+                }
+                artifacts.add(new Artifact(path, attributes.size(), attributes.lastModifiedTime()));
+            }
+        }
+
+        long total = 0;
+        for (Artifact artifact : artifacts)
+            total += artifact.size();
+        long bytes = total;
+
+        artifacts.sort(Comparator.comparing(Artifact::used));
+        int removed = 0;
+        for (Artifact artifact : artifacts)
+        {
+            if (total <= maxBytes)
+                break;
+            if (Files.deleteIfExists(artifact.path()))
+            {
+                total -= artifact.size();
+                removed++;
+            }
+        }
+
+        writeSize(total);
+        written.set(0);
+        return new Collection(artifacts.size(), bytes, removed, bytes - total);
+    }
+
+    /**
+     * Collects garbage if this store may have grown past its limit since the last collection.
+     * A collection that fails is left to the next one.
+     */
+    @Override
+    public void close()
+    {
+        if (written.get() > 0 && readSize() + written.get() > limit)
+        {
+            try
+            {
+                collectGarbage(limit);
+            } catch (IOException | UncheckedIOException e)
+            {
+                // Not an error, see the class comment
+            }
+        }
+    }
+
+    private Path pathOf(Key key)
+    {
+        return directory.resolve(OBJECTS).resolve(key.hash().substring(0, 2)).resolve(key.hash().substring(2));
+    }
+
+    /// The modification time doubles as the last use, which is what eviction goes by.
+    private static void touch(Path path)
+    {
+        try
+        {
+            Files.setLastModifiedTime(path, FileTime.from(Instant.now()));
+        } catch (IOException ignored)
+        {
+            // Evicted concurrently, or a read-only store
+        }
+    }
+
+    /// The size of the store as of the last collection; unknown sizes count as full.
+    private long readSize()
+    {
+        try
+        {
+            return Long.parseLong(Files.readString(directory.resolve(SIZE_FILE)).trim());
+        } catch (IOException | NumberFormatException e)
+        {
+            return limit;
+        }
+    }
+
+    private void writeSize(long size) throws IOException
+    {
+        Path temporary = directory.resolve(OBJECTS).resolve(TEMPORARY_PREFIX + Long.toHexString(ThreadLocalRandom.current().nextLong()));
+        Files.writeString(temporary, Long.toString(size));
+        Files.move(temporary, directory.resolve(SIZE_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
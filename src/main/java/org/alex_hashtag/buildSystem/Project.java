@@ -1,12 +1,18 @@
 package org.alex_hashtag.buildSystem;
 
 import java.nio.file.Path;
+import java.util.List;
 
 
+/**
+ * @param ignore glob patterns, relative to the source root, of files and directories that are not
+ *               part of the project's sources.
+ */
 public record Project(
         GenericVersion version,
         String root,
-        Path main
+        Path main,
+        List<String> ignore
 )
 {
 }
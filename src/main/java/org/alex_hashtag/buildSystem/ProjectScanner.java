@@ -0,0 +1,411 @@
+package org.alex_hashtag.buildSystem;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+
+/**
+ * Finds the {@code .toucan} sources of a project.
+ * <p>
+ * The source root is walked in parallel, one fork/join task per directory. Without a watcher
+ * every {@link #scan()} walks the tree again, since nothing tells it what changed. After
+ * {@link #watch()} the listing of every directory is cached and a {@link WatchService} tracks the
+ * walked directories: the next scan re-lists only the directories that changed, so repeated
+ * scans from a daemon or a watch loop cost next to nothing on an unchanged tree.
+ * <p>
+ * Hidden directories, the build output directories of {@code rainforest.toml} and everything
+ * matching one of the project's {@code ignore} globs are skipped.
+ */
+public final class ProjectScanner implements AutoCloseable
+{
+    public static final String EXTENSION = ".toucan";
+    public static final String CONFIG_FILE = "rainforest.toml";
+
+    /// One scanner per project directory, shared by every command of the process.
+    private static final Map<Path, ProjectScanner> SCANNERS = new ConcurrentHashMap<>();
+
+    /**
+     * A source file as of the last scan.
+     */
+    public record SourceFile(Path path, long size, FileTime modified)
+    {
+    }
+
+    private record Listing(List<SourceFile> files, List<Path> directories)
+    {
+    }
+
+    private final Path root;
+    private final Rainforest config;
+    private final List<PathMatcher> ignored;
+    private final Set<Path> ignoredDirectories;
+
+    private final Map<Path, Listing> listings = new ConcurrentHashMap<>();
+    private final Map<WatchKey, Path> watchKeys = new ConcurrentHashMap<>();
+    private final Set<Path> dirty = new HashSet<>();
+    private WatchService watcher;
+    private boolean complete;
+    private List<SourceFile> files;
+
+    /**
+     * @param root           the directory to scan.
+     * @param ignorePatterns globs relative to {@code root}, in {@link FileSystem#getPathMatcher} syntax
+     *                       without the {@code glob:} prefix.
+     */
+    public ProjectScanner(Path root, List<String> ignorePatterns)
+    {
+        this(root, null, ignorePatterns, Set.of());
+    }
+
+    private ProjectScanner(Path root, Rainforest config, List<String> ignorePatterns, Set<Path> ignoredDirectories)
+    {
+        this.root = root.toAbsolutePath().normalize();
+        this.config = config;
+        this.ignored = ignorePatterns.stream()
+                .map(pattern -> this.root.getFileSystem().getPathMatcher("glob:" + pattern))
+                .toList();
+        this.ignoredDirectories = ignoredDirectories;
+    }
+
+    /**
+     * Returns the scanner of the project in {@code directory}, reading its {@code rainforest.toml}
+     * only the first time. Without a configuration file the whole directory is scanned.
+     * <p>
+     * The source root is {@code directory/<project.root>} if that directory exists, and
+     * {@code directory} itself otherwise.
+     */
+    public static ProjectScanner forProject(Path directory)
+    {
+        return SCANNERS.computeIfAbsent(directory.toAbsolutePath().normalize(), ProjectScanner::load);
+    }
+
+    private static ProjectScanner load(Path directory)
+    {
+        if (!Files.isRegularFile(directory.resolve(CONFIG_FILE)))
+            return new ProjectScanner(directory, null, List.of(), Set.of());
+
+        Rainforest config = new Rainforest(directory.toString());
+        Path root = directory;
+        List<String> ignore = List.of();
+        if (config.project != null)
+        {
+            Path configured = directory.resolve(config.project.root()).normalize();
+            if (Files.isDirectory(configured))
+                root = configured;
+            ignore = config.project.ignore();
+        }
+
+        Set<Path> outputs = new HashSet<>();
+        if (config.build != null)
+            for (Path output : List.of(config.build.executable(), config.build.logs(), config.build.intermediates()))
+                outputs.add(directory.resolve(output).normalize());
+        return new ProjectScanner(root, config, ignore, Set.copyOf(outputs));
+    }
+
+    public Path getRoot()
+    {
+        return root;
+    }
+
+    /**
+     * @return the parsed {@code rainforest.toml}, or null if the project has none.
+     */
+    public Rainforest getConfig()
+    {
+        return config;
+    }
+
+    /**
+     * @return every source file under the root, sorted by path. Without {@link #watch()} this
+     * walks the whole tree on every call.
+     * @throws UncheckedIOException if a directory cannot be read.
+     */
+    public synchronized List<SourceFile> scan()
+    {
+        drainEvents();
+        if (!complete || watcher == null)
+        {
+            listings.clear();
+            ForkJoinPool.commonPool().invoke(new ScanDirectory(root));
+            complete = true;
+            dirty.clear();
+            files = null;
+        }
+        else if (!dirty.isEmpty())
+        {
+            List<Path> changed = new ArrayList<>(dirty);
+            dirty.clear();
+            changed.sort(Comparator.naturalOrder());
+            for (Path directory : changed)
+                rescan(directory);
+            files = null;
+        }
+
+        if (files == null)
+        {
+            List<SourceFile> all = new ArrayList<>();
+            for (Listing listing : listings.values())
+                all.addAll(listing.files());
+            all.sort(Comparator.comparing(SourceFile::path));
+            files = Collections.unmodifiableList(all);
+        }
+        return files;
+    }
+
+    /**
+     * Forgets every cached listing; the next {@link #scan()} walks the whole tree again.
+     */
+    public synchronized void invalidate()
+    {
+        complete = false;
+        files = null;
+    }
+
+    /**
+     * Starts watching the scanned directories for changes. Directories found later are watched as
+     * soon as they are scanned.
+     */
+    public synchronized void watch() throws IOException
+    {
+        if (watcher != null)
+            return;
+        watcher = root.getFileSystem().newWatchService();
+        for (Path directory : listings.keySet())
+            register(directory);
+    }
+
+    /**
+     * Blocks until a watched directory changes or the timeout expires.
+     *
+     * @return whether something changed; the next {@link #scan()} picks the change up.
+     * @throws IllegalStateException if {@link #watch()} was not called.
+     */
+    public boolean awaitChange(long timeout, TimeUnit unit) throws InterruptedException
+    {
+        WatchService service;
+        synchronized (this)
+        {
+            if (watcher == null)
+                throw new IllegalStateException("Not watching " + root);
+            if (!dirty.isEmpty() || !complete)
+                return true;
+            service = watcher;
+        }
+
+        WatchKey key = service.poll(timeout, unit);
+        if (key == null)
+            return false;
+        synchronized (this)
+        {
+            handle(key);
+            drainEvents();
+            return !dirty.isEmpty() || !complete;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException
+    {
+        if (watcher != null)
+        {
+            watcher.close();
+            watcher = null;
+            watchKeys.clear();
+        }
+    }
+
+    // ==================================================
+    // ===================== WALKING ====================
+    // ==================================================
+
+    /// Lists one directory and forks a task per subdirectory.
+    private final class ScanDirectory extends RecursiveAction
+    {
+        private final Path directory;
+
+        ScanDirectory(Path directory)
+        {
+            this.directory = directory;
+        }
+
+        @Override
+        protected void compute()
+        {
+            Listing listing = list(directory);
+            listings.put(directory, listing);
+            if (watcher != null)
+                register(directory);
+            invokeAll(listing.directories().stream().map(ScanDirectory::new).toList());
+        }
+    }
+
+    private Listing list(Path directory)
+    {
+        List<SourceFile> found = new ArrayList<>();
+        List<Path> directories = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory))
+        {
+            for (Path entry : entries)
+            {
+                BasicFileAttributes attributes;
+                try
+                {
+                    attributes = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                } catch (NoSuchFileException e)
+                {
+                    continue; // Deleted while listing
+                }
+
+                if (attributes.isDirectory())
+                {
+                    if (!isIgnoredDirectory(entry))
+                        directories.add(entry);
+                }
+                else if (attributes.isRegularFile()
+                        && entry.getFileName().toString().endsWith(EXTENSION)
+                        && !isIgnored(entry))
+                {
+                    found.add(new SourceFile(entry, attributes.size(), attributes.lastModifiedTime()));
+                }
+            }
+        } catch (NoSuchFileException e)
+        {
+            return new Listing(List.of(), List.of());
+        } catch (IOException e)
+        {
+            throw new UncheckedIOException("Cannot list " + directory, e);
+        }
+        return new Listing(found, directories);
+    }
+
+    private boolean isIgnoredDirectory(Path directory)
+    {
+        return directory.getFileName().toString().startsWith(".")
+                || ignoredDirectories.contains(directory)
+                || isIgnored(directory);
+    }
+
+    private boolean isIgnored(Path path)
+    {
+        if (ignored.isEmpty())
+            return false;
+        Path relative = root.relativize(path);
+        for (PathMatcher matcher : ignored)
+            if (matcher.matches(relative))
+                return true;
+        return false;
+    }
+
+    /// Re-lists a directory that changed, scans directories that appeared in it and forgets the
+    /// ones that disappeared.
+    private void rescan(Path directory)
+    {
+        Listing previous = listings.get(directory);
+        if (previous == null)
+            return; // Removed together with a parent that was rescanned first
+
+        if (!Files.isDirectory(directory, LinkOption.NOFOLLOW_LINKS))
+        {
+            forget(directory);
+            return;
+        }
+
+        Listing current = list(directory);
+        listings.put(directory, current);
+        for (Path old : previous.directories())
+            if (!current.directories().contains(old))
+                forget(old);
+        List<ScanDirectory> added = current.directories().stream()
+                .filter(path -> !listings.containsKey(path))
+                .map(ScanDirectory::new)
+                .toList();
+        if (!added.isEmpty())
+            ForkJoinPool.commonPool().invoke(new RecursiveAction()
+            {
+                @Override
+                protected void compute()
+                {
+                    invokeAll(added);
+                }
+            });
+    }
+
+    private void forget(Path directory)
+    {
+        listings.keySet().removeIf(path -> path.startsWith(directory));
+        watchKeys.entrySet().removeIf(entry ->
+        {
+            if (!entry.getValue().startsWith(directory))
+                return false;
+            entry.getKey().cancel();
+            return true;
+        });
+    }
+
+    // ==================================================
+    // ==================== WATCHING ====================
+    // ==================================================
+
+    private void register(Path directory)
+    {
+        try
+        {
+            watchKeys.put(directory.register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), directory);
+        } catch (ClosedWatchServiceException | NoSuchFileException e)
+        {
+            // Closed concurrently or deleted while scanning; the parent's events cover it
+        } catch (IOException e)
+        {
+            throw new UncheckedIOException("Cannot watch " + directory, e);
+        }
+    }
+
+    private void drainEvents()
+    {
+        if (watcher == null)
+            return;
+        WatchKey key;
+        while ((key = watcher.poll()) != null)
+            handle(key);
+    }
+
+    /// Only sources and directories change what a scan returns; other files, e.g. the output a
+    /// watch loop writes into the project, must not start a new round.
+    private boolean affectsScan(Path directory, WatchEvent<?> event)
+    {
+        if (!(event.context() instanceof Path name))
+            return true;
+        Path path = directory.resolve(name);
+        return name.toString().endsWith(EXTENSION)
+                || listings.containsKey(path)
+                || Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS);
+    }
+
+    private void handle(WatchKey key)
+    {
+        Path directory = watchKeys.get(key);
+        for (WatchEvent<?> event : key.pollEvents())
+        {
+            if (event.kind() == OVERFLOW || directory == null)
+                complete = false; // Events were lost; only a full walk is reliable
+            else if (affectsScan(directory, event))
+                dirty.add(directory);
+        }
+        if (!key.reset())
+        {
+            watchKeys.remove(key);
+            if (directory != null && directory.getParent() != null)
+                dirty.add(directory.getParent());
+        }
+    }
+}
@@ -3,6 +3,8 @@ package org.alex_hashtag.buildSystem;
 import com.moandjiezana.toml.Toml;
 import jakarta.mail.internet.InternetAddress;
 import org.alex_hashtag.errors.TomlErrorManager;
+import org.alex_hashtag.lib.profiling.Phase;
+import org.alex_hashtag.lib.profiling.PhaseTimer;
 
 import java.net.URI;
 import java.net.URISyntaxException;
@@ -14,6 +16,12 @@ import java.util.List;
 
 public class Rainforest
 {
+    /**
+     * The version of this compiler. Part of the key of every cached artifact, so it must change
+     * whenever an artifact such as a token dump or a tree would come out differently.
+     */
+    public static final String COMPILER_VERSION = "0.3";
+
     public Project project;
     public Metadata metadata;
     public Build build;
@@ -25,6 +33,14 @@ public class Rainforest
      * @param path The path to the rainforest.toml file.
      */
     public Rainforest(String path)
+    {
+        try (PhaseTimer.Scope ignored = PhaseTimer.get().start(Phase.TOML_LOAD, path))
+        {
+            load(path);
+        }
+    }
+
+    private void load(String path)
     {
         TomlErrorManager errorManager = new TomlErrorManager();
         Path configFilePath = Paths.get(path, "rainforest.toml");
@@ -46,7 +62,9 @@ public class Rainforest
                     String mainPathStr = projectConfig.getString("main", "src/Main.toucan");
                     Path mainPath = Paths.get(mainPathStr);
 
-                    project = new Project(compilerVersion, root, mainPath);
+                    List<String> ignore = projectConfig.getList("ignore", new ArrayList<>());
+
+                    project = new Project(compilerVersion, root, mainPath, List.copyOf(ignore));
                 } catch (IllegalArgumentException e)
                 {
                     errorManager.addError("Project Section", e.getMessage());
@@ -155,6 +173,7 @@ public class Rainforest
                     Path executable = Paths.get(buildConfig.getString("executable", "build/output"));
                     Path logs = Paths.get(buildConfig.getString("logs", "build/logs"));
                     Path intermediates = Paths.get(buildConfig.getString("intermediates", "build/intermediate"));
+                    long intermediatesLimit = IntermediateStore.parseSize(buildConfig.getString("intermediates_limit", "1G"));
                     String os = buildConfig.getString("os", "linux");
                     String architecture = buildConfig.getString("architecture", "x86_64");
                     boolean debugSymbols = buildConfig.getBoolean("debug_symbols", false);
@@ -164,6 +183,7 @@ public class Rainforest
                             executable,
                             logs,
                             intermediates,
+                            intermediatesLimit,
                             os,
                             architecture,
                             debugSymbols
@@ -180,6 +200,7 @@ public class Rainforest
                         Paths.get("build/output"),
                         Paths.get("build/logs"),
                         Paths.get("build/intermediate"),
+                        IntermediateStore.DEFAULT_LIMIT,
                         "linux",
                         "x86_64",
                         false
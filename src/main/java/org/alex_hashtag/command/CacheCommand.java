@@ -0,0 +1,88 @@
+package org.alex_hashtag.command;
+
+import org.alex_hashtag.buildSystem.IntermediateStore;
+import picocli.CommandLine;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.Callable;
+
+
+@CommandLine.Command(
+        name = "cache",
+        mixinStandardHelpOptions = true,
+        description = "Manages the store of intermediate build artifacts.",
+        subcommands = {CacheCommand.Gc.class}
+)
+public class CacheCommand implements Callable<Integer>
+{
+    @Override
+    public Integer call()
+    {
+        System.out.println("No cache command provided. Use 'cache --help' for usage instructions.");
+        return 0;
+    }
+
+    @CommandLine.Command(
+            name = "gc",
+            mixinStandardHelpOptions = true,
+            description = "Evicts the least recently used artifacts until the store fits its size limit."
+    )
+    public static class Gc implements Callable<Integer>
+    {
+        @CommandLine.Parameters(
+                arity = "0..1",
+                description = "The project directory (default: current directory)."
+        )
+        private Path project = Paths.get(".");
+
+        @CommandLine.Option(
+                names = {"--max-size"},
+                description = "Size to shrink the store to, e.g. 512M; 0 empties it (default: the project's intermediates_limit)."
+        )
+        private String maxSize;
+
+        @Override
+        public Integer call()
+        {
+            IntermediateStore store = IntermediateStore.forProject(project.toAbsolutePath().normalize());
+            long limit;
+            try
+            {
+                limit = maxSize == null ? store.getLimit() : IntermediateStore.parseSize(maxSize);
+            } catch (IllegalArgumentException e)
+            {
+                System.err.println(e.getMessage());
+                return 1;
+            }
+
+            try
+            {
+                IntermediateStore.Collection collection = store.collectGarbage(limit);
+                System.out.printf("%s: removed %d of %d artifacts, freed %s, %s left.%n",
+                        store.getDirectory(),
+                        collection.removed(),
+                        collection.artifacts(),
+                        formatSize(collection.freed()),
+                        formatSize(collection.bytes() - collection.freed()));
+                return 0;
+            } catch (IOException e)
+            {
+                System.err.println("Error collecting the cache: " + e.getMessage());
+                return 1;
+            }
+        }
+
+        private static String formatSize(long bytes)
+        {
+            if (bytes < 1024)
+                return bytes + " B";
+            if (bytes < 1024 * 1024)
+                return String.format("%.1f KiB", bytes / 1024.0);
+            if (bytes < 1024 * 1024 * 1024)
+                return String.format("%.1f MiB", bytes / (1024.0 * 1024));
+            return String.format("%.1f GiB", bytes / (1024.0 * 1024 * 1024));
+        }
+    }
+}
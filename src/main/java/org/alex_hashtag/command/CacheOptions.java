@@ -0,0 +1,48 @@
+package org.alex_hashtag.command;
+
+import org.alex_hashtag.buildSystem.IntermediateStore;
+import org.alex_hashtag.lib.results.Option;
+import picocli.CommandLine;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+
+/**
+ * The {@code --no-cache} option of the commands that reuse artifacts from the
+ * {@link IntermediateStore} of the project.
+ */
+public class CacheOptions
+{
+    @CommandLine.Option(
+            names = {"--no-cache"},
+            description = "Neither reuse nor store intermediate artifacts."
+    )
+    private boolean noCache;
+
+    /**
+     * @param paths the command's path arguments; the store of the first directory among them is used.
+     * @return the store, or none if caching is disabled or no directory was given.
+     */
+    public Option<IntermediateStore> open(List<Path> paths)
+    {
+        if (noCache)
+            return Option.none();
+        return projectDirectory(paths).map(IntermediateStore::forProject);
+    }
+
+    /**
+     * @return the first directory among the command's path arguments, absolute; artifacts should
+     * name files relative to it.
+     */
+    static Option<Path> projectDirectory(List<Path> paths)
+    {
+        return paths.stream()
+                .map(path -> path.toAbsolutePath().normalize())
+                .filter(Files::isDirectory)
+                .findFirst()
+                .map(Option::some)
+                .orElse(Option.none());
+    }
+}
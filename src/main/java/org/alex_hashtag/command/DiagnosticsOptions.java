@@ -0,0 +1,49 @@
+package org.alex_hashtag.command;
+
+import org.alex_hashtag.lib.errors.DiagnosticSink;
+import org.alex_hashtag.lib.errors.Diagnostics;
+import picocli.CommandLine;
+
+import java.io.PrintStream;
+
+
+/**
+ * Options shared by every command that reports diagnostics.
+ * Diagnostics are written to standard error, so they never mix with a command's regular output.
+ */
+public class DiagnosticsOptions
+{
+    public enum Format
+    {
+        human, json, sarif
+    }
+
+    @CommandLine.Option(
+            names = {"--error-format"},
+            description = "How diagnostics are printed: ${COMPLETION-CANDIDATES} (default: ${DEFAULT-VALUE}).",
+            defaultValue = "human"
+    )
+    private Format format;
+
+    @CommandLine.Option(
+            names = {"--error-limit"},
+            description = "Stop working on a file after this many errors, 0 for no limit (default: ${DEFAULT-VALUE}).",
+            defaultValue = "" + Diagnostics.DEFAULT_ERROR_LIMIT
+    )
+    private int errorLimit;
+
+    /**
+     * @return a new diagnostics engine; close it once the command is done so the output is complete.
+     */
+    public Diagnostics create()
+    {
+        PrintStream out = System.err;
+        DiagnosticSink sink = switch (format)
+        {
+            case human -> DiagnosticSink.ansi(out);
+            case json -> DiagnosticSink.json(out);
+            case sarif -> DiagnosticSink.sarif(out);
+        };
+        return new Diagnostics(sink, errorLimit);
+    }
+}
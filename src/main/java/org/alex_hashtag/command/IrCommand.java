@@ -0,0 +1,126 @@
+package org.alex_hashtag.command;
+
+import org.alex_hashtag.buildSystem.Optimization;
+import org.alex_hashtag.internal_representation.ir.IrModule;
+import org.alex_hashtag.internal_representation.ir.passes.PassManager;
+import org.alex_hashtag.lib.errors.Diagnostics;
+import org.alex_hashtag.lib.profiling.Phase;
+import org.alex_hashtag.lib.profiling.PhaseTimer;
+import picocli.CommandLine;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+
+@CommandLine.Command(
+        name = "ir",
+        mixinStandardHelpOptions = true,
+        description = "Lowers the functions of .toucan files to SSA form and prints them after optimization."
+)
+public class IrCommand implements Callable<Integer>
+{
+
+    @CommandLine.Parameters(
+            arity = "0..*",
+            description = "Directories or files to compile (default: current directory)."
+    )
+    private final List<Path> paths = List.of(Paths.get("."));  // default is "."
+
+    @CommandLine.Option(
+            names = {"-O", "--opt-level"},
+            description = "Optimization level, one of ${COMPLETION-CANDIDATES} (default: the build.optimization of rainforest.toml, or O0)."
+    )
+    private Optimization optimization;
+
+    @CommandLine.Option(
+            names = {"--time-passes"},
+            description = "Print how long each optimization pass took."
+    )
+    private boolean timePasses;
+
+    @CommandLine.Option(
+            names = {"-v", "--verbose"},
+            description = "Enable verbose logging."
+    )
+    private boolean verbose;
+
+    @CommandLine.Option(
+            names = {"-o", "--output-file"},
+            description = "Specify a file to write the IR to. If not specified, output is printed to the console."
+    )
+    private Path outputFile;
+
+    @CommandLine.Mixin
+    private DiagnosticsOptions diagnosticsOptions = new DiagnosticsOptions();
+
+    @CommandLine.Mixin
+    private TimingOptions timingOptions = new TimingOptions();
+
+    @Override
+    public Integer call()
+    {
+        timingOptions.begin();
+        try (Diagnostics diagnostics = diagnosticsOptions.create())
+        {
+            List<Path> toucanFiles;
+            try (PhaseTimer.Scope ignored = PhaseTimer.get().start(Phase.DISCOVERY))
+            {
+                toucanFiles = SourceFiles.collect(paths, true, verbose);
+            }
+            if (toucanFiles.isEmpty())
+            {
+                System.out.println("No .toucan files found to compile in the specified paths.");
+                return 0;
+            }
+
+            // 1) Index every file, then lower the bodies of its functions
+            IrModule ir = Lowering.lower(toucanFiles, diagnostics, verbose);
+            if (diagnostics.hasErrors())
+                return 1;
+
+            // 2) Optimize at the requested level
+            Optimization level = Lowering.level(optimization, paths);
+            PassManager passes = PassManager.forLevel(level);
+            passes.run(ir);
+            if (timePasses)
+                passes.printTimings(System.err);
+
+            writeIr(ir.toString(), level);
+            return 0;
+
+        } catch (IOException e)
+        {
+            System.err.println("Error processing files: " + e.getMessage());
+            return 1;
+        } finally
+        {
+            timingOptions.end();
+        }
+    }
+
+    private void writeIr(String ir, Optimization level)
+    {
+        if (outputFile != null)
+        {
+            try (BufferedWriter writer = Files.newBufferedWriter(outputFile))
+            {
+                writer.write(ir);
+            } catch (IOException e)
+            {
+                System.err.println("Error writing output: " + e.getMessage());
+                return;
+            }
+            System.out.printf("Compilation complete (-%s). Output written to '%s'.\n", level, outputFile);
+        }
+        else
+        {
+            System.out.printf("Compilation complete (-%s). IR:\n", level);
+            System.out.println(ir);
+        }
+    }
+}
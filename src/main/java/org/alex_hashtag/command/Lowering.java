@@ -0,0 +1,87 @@
+package org.alex_hashtag.command;
+
+import org.alex_hashtag.buildSystem.Optimization;
+import org.alex_hashtag.buildSystem.ProjectScanner;
+import org.alex_hashtag.buildSystem.Rainforest;
+import org.alex_hashtag.internal_representation.Expression.LazyBody;
+import org.alex_hashtag.internal_representation.ir.IrBuilder;
+import org.alex_hashtag.internal_representation.ir.IrModule;
+import org.alex_hashtag.lexer.LexModule;
+import org.alex_hashtag.lib.errors.Diagnostics;
+import org.alex_hashtag.lib.profiling.Phase;
+import org.alex_hashtag.lib.profiling.PhaseTimer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Lowers source files to an {@link IrModule}, for the commands that work on the IR.
+ */
+final class Lowering
+{
+    private Lowering()
+    {
+    }
+
+    /**
+     * Indexes every file, then lowers the bodies of its functions. Functions are named by their
+     * qualified names, and so are the callees declared in the same file.
+     */
+    static IrModule lower(List<Path> files, Diagnostics diagnostics, boolean verbose) throws IOException
+    {
+        IrModule ir = new IrModule();
+        for (Path file : files)
+        {
+            String code;
+            try (PhaseTimer.Scope ignored = PhaseTimer.get().start(Phase.READ, file.toString()))
+            {
+                code = Files.readString(file);
+            }
+            LexModule module = LexModule.create(code, file.toString(), diagnostics);
+            if (verbose)
+            {
+                System.out.println("---- Lowering file: " + file);
+            }
+
+            try (PhaseTimer.Scope scope = PhaseTimer.get().start(Phase.IR_BUILD, file.toString()))
+            {
+                for (Map.Entry<String, LazyBody> body : module.getBodies().entrySet())
+                {
+                    String name = body.getKey();
+                    ir.add(IrBuilder.build(
+                            module.qualify(name),
+                            module.getParameters().getOrDefault(name, List.of()),
+                            module.getInlined().contains(name),
+                            body.getValue().get(),
+                            callee -> module.getLocations().containsKey(callee) ? module.qualify(callee) : callee));
+                }
+                scope.nodes(module.getBodies().size());
+            }
+        }
+        return ir;
+    }
+
+    /**
+     * @return the level given on the command line, else the one in the {@code rainforest.toml} of
+     * the first directory argument, else {@code O0}.
+     */
+    static Optimization level(Optimization requested, List<Path> paths)
+    {
+        if (requested != null)
+            return requested;
+        for (Path path : paths)
+        {
+            if (!Files.isDirectory(path))
+                continue;
+            Rainforest config = ProjectScanner.forProject(path).getConfig();
+            if (config != null && config.build != null)
+                return config.build.optimization();
+            break;
+        }
+        return Optimization.O0;
+    }
+}
@@ -0,0 +1,34 @@
+package org.alex_hashtag.command;
+
+import org.alex_hashtag.lsp.LanguageServer;
+import picocli.CommandLine;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.Callable;
+
+
+@CommandLine.Command(
+        name = "lsp",
+        mixinStandardHelpOptions = true,
+        description = "Runs a Language Server Protocol server on standard input and output, for editors."
+)
+public class LspCommand implements Callable<Integer>
+{
+
+    @Override
+    public Integer call()
+    {
+        // Standard output carries the protocol; anything else printed there would corrupt it
+        PrintStream protocol = System.out;
+        System.setOut(System.err);
+        try
+        {
+            return new LanguageServer(System.in, protocol).run();
+        } catch (IOException e)
+        {
+            System.err.println("Language server stopped: " + e.getMessage());
+            return 1;
+        }
+    }
+}
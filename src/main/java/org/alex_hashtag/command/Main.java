@@ -1,5 +1,6 @@
 package org.alex_hashtag.command;
 
+import org.alex_hashtag.buildSystem.Rainforest;
 import picocli.CommandLine;
 
 import java.util.concurrent.Callable;
@@ -7,7 +8,7 @@ import java.util.concurrent.Callable;
 
 @CommandLine.Command(
         name = "rainforest",
-        version = "Rainforest 0.2",
+        version = "Rainforest " + Rainforest.COMPILER_VERSION,
         mixinStandardHelpOptions = true,
         description = "A command-line interface for the Toucan programming language."
 )
@@ -19,6 +20,10 @@ public class Main implements Callable<Integer>
         int exitCode = new CommandLine(new Main())
                 .addSubcommand("tokenize", new TokenizeCommand())
                 .addSubcommand("parse", new ParseCommand())
+                .addSubcommand("ir", new IrCommand())
+                .addSubcommand("run", new RunCommand())
+                .addSubcommand("cache", new CacheCommand())
+                .addSubcommand("lsp", new LspCommand())
                 // Additional subcommands can go here, e.g. "build", "run", etc.
                 .execute(args);
         System.exit(exitCode);
@@ -1,19 +1,23 @@
 package org.alex_hashtag.command;
 
-import org.alex_hashtag.buildSystem.Rainforest;
+import org.alex_hashtag.buildSystem.IntermediateStore;
 import org.alex_hashtag.internal_representation.ast.AbstractSyntaxTree;
+import org.alex_hashtag.lib.errors.Diagnostics;
+import org.alex_hashtag.lib.profiling.Phase;
+import org.alex_hashtag.lib.profiling.PhaseTimer;
+import org.alex_hashtag.lib.results.Option;
 import org.alex_hashtag.tokenizationOLD.TokenStream;
 import picocli.CommandLine;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Callable;
-import java.util.stream.Stream;
 
 
 @CommandLine.Command(
@@ -56,35 +60,39 @@ public class ParseCommand implements Callable<Integer>
     )
     private Path outputFile;
 
+    @CommandLine.Option(
+            names = {"-w", "--watch"},
+            description = "Keep running and re-parse only what changes in the project directory."
+    )
+    private boolean watch;
+
+    @CommandLine.Mixin
+    private DiagnosticsOptions diagnosticsOptions = new DiagnosticsOptions();
+
+    @CommandLine.Mixin
+    private TimingOptions timingOptions = new TimingOptions();
+
+    @CommandLine.Mixin
+    private CacheOptions cacheOptions = new CacheOptions();
+
     @Override
     public Integer call()
     {
         List<TokenStream> tokenStreams = new ArrayList<>();
 
-        try
+        timingOptions.begin();
+        try (Diagnostics diagnostics = diagnosticsOptions.create())
         {
+            if (watch)
+            {
+                return WatchLoop.run(paths, diagnostics, timingOptions, (build, round) -> writeAst(round.ast().toString()));
+            }
+
             // 1) Gather .toucan files
-            List<Path> toucanFiles = new ArrayList<>();
-            for (Path path : paths)
+            List<Path> toucanFiles;
+            try (PhaseTimer.Scope ignored = PhaseTimer.get().start(Phase.DISCOVERY))
             {
-                path = path.toAbsolutePath().normalize();
-                if (verbose)
-                {
-                    System.out.println("Processing path: " + path);
-                }
-                Rainforest rainforest = new Rainforest(path + "");
-                if (Files.isDirectory(path))
-                {
-                    try (Stream<Path> fileStream = recursive ? Files.walk(path) : Files.list(path))
-                    {
-                        fileStream.filter(p -> p.toString().endsWith(".toucan"))
-                                .forEach(toucanFiles::add);
-                    }
-                }
-                else if (path.toString().endsWith(".toucan"))
-                {
-                    toucanFiles.add(path);
-                }
+                toucanFiles = SourceFiles.collect(paths, recursive, verbose);
             }
 
             // 2) If dry-run, list files and return
@@ -102,46 +110,110 @@ public class ParseCommand implements Callable<Integer>
                 return 0;
             }
 
-            // 4) Parse files
+            // 4) Read files
+            List<String> sources = new ArrayList<>();
             for (Path file : toucanFiles)
             {
-                if (verbose)
+                try (PhaseTimer.Scope ignored = PhaseTimer.get().start(Phase.READ, file.toString()))
                 {
-                    System.out.println("---- Parsing file: " + file);
+                    sources.add(Files.readString(file));
                 }
-                String source = Files.readString(file);
-
-                // Create TokenStream
-                TokenStream ts = new TokenStream(file, source);
-                tokenStreams.add(ts);
             }
 
-            // 5) Create AST from token streams
-            AbstractSyntaxTree ast = new AbstractSyntaxTree(tokenStreams);
-
-            // 6) Write output to file or console
-            if (outputFile != null)
+            // 5) Reuse the output of an identical earlier run; only runs without errors are stored.
+            //    The artifact is the text this command prints, not the AstWriter image: a hit is then
+            //    written out as it is, without decoding a tree and rendering it again
+            Option<IntermediateStore> store = cacheOptions.open(paths);
+            try
             {
-                try (BufferedWriter writer = Files.newBufferedWriter(outputFile))
+                IntermediateStore.Key key = null;
+                if (store.isSome())
                 {
-                    writer.write(ast.toString());
+                    // Paths relative to the project, so that other checkouts can share the artifact
+                    Path root = CacheOptions.projectDirectory(paths).unwrap();
+                    byte[][] inputs = new byte[2 * toucanFiles.size()][];
+                    for (int i = 0; i < toucanFiles.size(); i++)
+                    {
+                        String relative = root.relativize(toucanFiles.get(i).toAbsolutePath().normalize())
+                                .toString().replace('\\', '/');
+                        inputs[2 * i] = relative.getBytes(StandardCharsets.UTF_8);
+                        inputs[2 * i + 1] = sources.get(i).getBytes(StandardCharsets.UTF_8);
+                    }
+                    key = IntermediateStore.key("ast", inputs);
+                    Option<byte[]> cached = store.unwrap().get(key);
+                    if (cached.isSome())
+                    {
+                        if (verbose)
+                        {
+                            System.out.println("---- Reusing cached AST " + key);
+                        }
+                        writeAst(new String(cached.unwrap(), StandardCharsets.UTF_8));
+                        System.out.printf("Parsing complete. %d files parsed.\n", toucanFiles.size());
+                        return 0;
+                    }
                 }
-                System.out.printf("Parsing complete. Output written to '%s'.\n", outputFile);
-            }
-            else
+
+                // 6) Parse files
+                for (int i = 0; i < toucanFiles.size(); i++)
+                {
+                    Path file = toucanFiles.get(i);
+                    if (verbose)
+                    {
+                        System.out.println("---- Parsing file: " + file);
+                    }
+
+                    // Create TokenStream; a file that does not tokenize is not parsed further
+                    TokenStream ts = new TokenStream(file, sources.get(i), diagnostics);
+                    if (!ts.hasErrors())
+                        tokenStreams.add(ts);
+                }
+
+                // 7) Create AST from token streams
+                String ast = new AbstractSyntaxTree(tokenStreams, diagnostics).toString();
+                if (key != null && !diagnostics.hasErrors())
+                    store.unwrap().put(key, ast.getBytes(StandardCharsets.UTF_8));
+
+                // 8) Write output to file or console
+                writeAst(ast);
+
+                // 9) Success message
+                System.out.printf("Parsing complete. %d files parsed.\n", toucanFiles.size());
+                return diagnostics.hasErrors() ? 1 : 0;
+            } finally
             {
-                System.out.println("Parsing complete. Parsed output:");
-                System.out.println(ast);
+                // Only once the output is written; collecting garbage may take a while
+                if (store.isSome())
+                    store.unwrap().close();
             }
 
-            // 7) Success message
-            System.out.printf("Parsing complete. %d files parsed.\n", toucanFiles.size());
-            return 0;
-
         } catch (IOException e)
         {
             System.err.println("Error processing files: " + e.getMessage());
             return 1;
+        } finally
+        {
+            timingOptions.end();
+        }
+    }
+
+    private void writeAst(String ast)
+    {
+        if (outputFile != null)
+        {
+            try (BufferedWriter writer = Files.newBufferedWriter(outputFile))
+            {
+                writer.write(ast);
+            } catch (IOException e)
+            {
+                System.err.println("Error writing output: " + e.getMessage());
+                return;
+            }
+            System.out.printf("Parsing complete. Output written to '%s'.\n", outputFile);
+        }
+        else
+        {
+            System.out.println("Parsing complete. Parsed output:");
+            System.out.println(ast);
         }
     }
 }
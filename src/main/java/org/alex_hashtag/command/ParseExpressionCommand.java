@@ -1,7 +1,9 @@
 package org.alex_hashtag.command;
 
-import org.alex_hashtag.buildSystem.Rainforest;
 import org.alex_hashtag.internal_representation.ast.AbstractSyntaxTree;
+import org.alex_hashtag.lib.errors.Diagnostics;
+import org.alex_hashtag.lib.profiling.Phase;
+import org.alex_hashtag.lib.profiling.PhaseTimer;
 import org.alex_hashtag.tokenizationOLD.TokenStream;
 import picocli.CommandLine;
 
@@ -13,7 +15,6 @@ import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Callable;
-import java.util.stream.Stream;
 
 
 @CommandLine.Command(
@@ -36,32 +37,25 @@ public class ParseExpressionCommand implements Callable<Integer>
     )
     private Path outputFile;
 
+    @CommandLine.Mixin
+    private DiagnosticsOptions diagnosticsOptions = new DiagnosticsOptions();
+
+    @CommandLine.Mixin
+    private TimingOptions timingOptions = new TimingOptions();
+
     @Override
     public Integer call()
     {
         List<TokenStream> tokenStreams = new ArrayList<>();
 
-        try
+        timingOptions.begin();
+        try (Diagnostics diagnostics = diagnosticsOptions.create())
         {
             // 1) Gather .toucan files
-            List<Path> toucanFiles = new ArrayList<>();
-            for (Path path : paths)
+            List<Path> toucanFiles;
+            try (PhaseTimer.Scope ignored = PhaseTimer.get().start(Phase.DISCOVERY))
             {
-                path = path.toAbsolutePath().normalize();
-
-                Rainforest rainforest = new Rainforest(path + "");
-                if (Files.isDirectory(path))
-                {
-                    try (Stream<Path> fileStream = Files.list(path))
-                    {
-                        fileStream.filter(p -> p.toString().endsWith(".toucan"))
-                                .forEach(toucanFiles::add);
-                    }
-                }
-                else if (path.toString().endsWith(".toucan"))
-                {
-                    toucanFiles.add(path);
-                }
+                toucanFiles = SourceFiles.collect(paths, false, false);
             }
 
 
@@ -75,15 +69,20 @@ public class ParseExpressionCommand implements Callable<Integer>
             // 4) Parse files
             for (Path file : toucanFiles)
             {
-                String source = Files.readString(file);
+                String source;
+                try (PhaseTimer.Scope ignored = PhaseTimer.get().start(Phase.READ, file.toString()))
+                {
+                    source = Files.readString(file);
+                }
 
-                // Create TokenStream
-                TokenStream ts = new TokenStream(file, source);
-                tokenStreams.add(ts);
+                // Create TokenStream; a file that does not tokenize is not parsed further
+                TokenStream ts = new TokenStream(file, source, diagnostics);
+                if (!ts.hasErrors())
+                    tokenStreams.add(ts);
             }
 
             // 5) Create AST from token streams
-            AbstractSyntaxTree ast = new AbstractSyntaxTree(tokenStreams);
+            AbstractSyntaxTree ast = new AbstractSyntaxTree(tokenStreams, diagnostics);
 
             // 6) Write output to file or console
             if (outputFile != null)
@@ -102,12 +101,15 @@ public class ParseExpressionCommand implements Callable<Integer>
 
             // 7) Success message
             System.out.printf("Parsing complete. %d files parsed.\n", toucanFiles.size());
-            return 0;
+            return diagnostics.hasErrors() ? 1 : 0;
 
         } catch (IOException e)
         {
             System.err.println("Error processing files: " + e.getMessage());
             return 1;
+        } finally
+        {
+            timingOptions.end();
         }
     }
 }
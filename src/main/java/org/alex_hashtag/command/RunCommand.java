@@ -0,0 +1,125 @@
+package org.alex_hashtag.command;
+
+import org.alex_hashtag.buildSystem.Optimization;
+import org.alex_hashtag.internal_representation.ir.IrModule;
+import org.alex_hashtag.internal_representation.ir.passes.PassManager;
+import org.alex_hashtag.lib.errors.Diagnostics;
+import org.alex_hashtag.lib.profiling.Phase;
+import org.alex_hashtag.lib.profiling.PhaseTimer;
+import org.alex_hashtag.vm.BytecodeCompiler;
+import org.alex_hashtag.vm.Interpreter;
+import org.alex_hashtag.vm.Program;
+import org.alex_hashtag.vm.VmException;
+import picocli.CommandLine;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+
+@CommandLine.Command(
+        name = "run",
+        mixinStandardHelpOptions = true,
+        description = "Compiles .toucan files to bytecode and runs them in the interpreter, without a native toolchain."
+)
+public class RunCommand implements Callable<Integer>
+{
+
+    @CommandLine.Parameters(
+            arity = "0..*",
+            description = "Directories or files to run (default: current directory)."
+    )
+    private final List<Path> paths = List.of(Paths.get("."));  // default is "."
+
+    @CommandLine.Option(
+            names = {"-e", "--entry"},
+            description = "The function to run, by simple or qualified name (default: main).",
+            defaultValue = "main"
+    )
+    private String entry;
+
+    @CommandLine.Option(
+            names = {"-O", "--opt-level"},
+            description = "Optimization level, one of ${COMPLETION-CANDIDATES} (default: the build.optimization of rainforest.toml, or O0)."
+    )
+    private Optimization optimization;
+
+    @CommandLine.Option(
+            names = {"--dump-bytecode"},
+            description = "Print the bytecode before running it."
+    )
+    private boolean dumpBytecode;
+
+    @CommandLine.Option(
+            names = {"-v", "--verbose"},
+            description = "Enable verbose logging."
+    )
+    private boolean verbose;
+
+    @CommandLine.Mixin
+    private DiagnosticsOptions diagnosticsOptions = new DiagnosticsOptions();
+
+    @CommandLine.Mixin
+    private TimingOptions timingOptions = new TimingOptions();
+
+    /**
+     * @return the value {@code entry} returns if it is an integer, so programs can set the exit code.
+     */
+    @Override
+    public Integer call()
+    {
+        timingOptions.begin();
+        try (Diagnostics diagnostics = diagnosticsOptions.create())
+        {
+            List<Path> toucanFiles;
+            try (PhaseTimer.Scope ignored = PhaseTimer.get().start(Phase.DISCOVERY))
+            {
+                toucanFiles = SourceFiles.collect(paths, true, verbose);
+            }
+            if (toucanFiles.isEmpty())
+            {
+                System.out.println("No .toucan files found to run in the specified paths.");
+                return 0;
+            }
+
+            IrModule ir = Lowering.lower(toucanFiles, diagnostics, verbose);
+            if (diagnostics.hasErrors())
+                return 1;
+            PassManager.forLevel(Lowering.level(optimization, paths)).run(ir);
+
+            Program program;
+            try (PhaseTimer.Scope ignored = PhaseTimer.get().start(Phase.CODEGEN))
+            {
+                program = BytecodeCompiler.compile(ir);
+            }
+            if (dumpBytecode)
+                System.out.println(program);
+            if (program.function(entry).isNone())
+            {
+                System.err.println("No function '" + entry + "' to run.");
+                return 1;
+            }
+
+            Object result;
+            try (PhaseTimer.Scope ignored = PhaseTimer.get().start(Phase.EXECUTE))
+            {
+                result = new Interpreter(program, System.out).call(entry);
+            }
+            return result instanceof Long code ? (int) (long) code : 0;
+
+        } catch (VmException e)
+        {
+            System.err.println("Runtime error: " + e.getMessage());
+            return 1;
+        } catch (IOException e)
+        {
+            System.err.println("Error processing files: " + e.getMessage());
+            return 1;
+        } finally
+        {
+            timingOptions.end();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package org.alex_hashtag.command;
+
+import org.alex_hashtag.buildSystem.ProjectScanner;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+
+/**
+ * Turns the path arguments of a command into the list of source files to process.
+ */
+final class SourceFiles
+{
+    private SourceFiles()
+    {
+    }
+
+    /**
+     * Directories are scanned recursively with their project's cached {@link ProjectScanner}, or
+     * listed one level deep if {@code recursive} is false; files are taken as they are.
+     * Every file appears once, in argument order.
+     */
+    static List<Path> collect(List<Path> paths, boolean recursive, boolean verbose) throws IOException
+    {
+        Set<Path> files = new LinkedHashSet<>();
+        for (Path path : paths)
+        {
+            path = path.toAbsolutePath().normalize();
+            if (verbose)
+            {
+                System.out.println("Processing path: " + path);
+            }
+
+            if (Files.isDirectory(path))
+            {
+                if (recursive)
+                {
+                    try
+                    {
+                        for (ProjectScanner.SourceFile file : ProjectScanner.forProject(path).scan())
+                            files.add(file.path());
+                    } catch (UncheckedIOException e)
+                    {
+                        throw e.getCause();
+                    }
+                }
+                else
+                {
+                    try (Stream<Path> fileStream = Files.list(path))
+                    {
+                        fileStream.filter(p -> p.toString().endsWith(ProjectScanner.EXTENSION))
+                                .sorted()
+                                .forEach(files::add);
+                    }
+                }
+            }
+            else if (path.toString().endsWith(ProjectScanner.EXTENSION))
+            {
+                files.add(path);
+            }
+        }
+        return new ArrayList<>(files);
+    }
+}
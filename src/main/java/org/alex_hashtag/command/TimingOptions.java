@@ -0,0 +1,52 @@
+package org.alex_hashtag.command;
+
+import org.alex_hashtag.lib.profiling.PhaseTimer;
+import picocli.CommandLine;
+
+
+/**
+ * The {@code --time-report} option: prints how long each compiler phase took, how much CPU time
+ * and memory it used, and which files were the slowest. Written to standard error once the
+ * command is done.
+ * <p>
+ * The same measurements are available as {@code org.alex_hashtag.Phase} JFR events, e.g. with
+ * {@code -XX:StartFlightRecording}, whether or not this option is given.
+ */
+public class TimingOptions
+{
+    @CommandLine.Option(
+            names = {"--time-report"},
+            description = "Print wall time, CPU time and allocations per compiler phase."
+    )
+    private boolean timeReport;
+
+    /**
+     * Call before the measured work starts.
+     */
+    public void begin()
+    {
+        if (timeReport)
+        {
+            PhaseTimer.get().reset();
+            PhaseTimer.get().enable();
+        }
+    }
+
+    /**
+     * Call once the command is done.
+     */
+    public void end()
+    {
+        if (timeReport)
+            PhaseTimer.get().printReport(System.err);
+    }
+
+    /**
+     * Call instead of {@link #end()} when the measured work is not worth a report.
+     */
+    public void discard()
+    {
+        if (timeReport)
+            PhaseTimer.get().reset();
+    }
+}
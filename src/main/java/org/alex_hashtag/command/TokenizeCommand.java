@@ -1,18 +1,23 @@
 package org.alex_hashtag.command;
 
-import org.alex_hashtag.buildSystem.Rainforest;
+import org.alex_hashtag.buildSystem.IncrementalBuild;
+import org.alex_hashtag.buildSystem.IntermediateStore;
+import org.alex_hashtag.lib.errors.Diagnostics;
+import org.alex_hashtag.lib.profiling.Phase;
+import org.alex_hashtag.lib.profiling.PhaseTimer;
+import org.alex_hashtag.lib.results.Option;
 import org.alex_hashtag.tokenizationOLD.TokenStream;
 import picocli.CommandLine;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
-import java.util.stream.Stream;
 
 
 @CommandLine.Command(
@@ -54,6 +59,21 @@ public class TokenizeCommand implements Callable<Integer>
     )
     private boolean verbose;
 
+    @CommandLine.Option(
+            names = {"-w", "--watch"},
+            description = "Keep running and re-tokenize only the files that change in the project directory."
+    )
+    private boolean watch;
+
+    @CommandLine.Mixin
+    private DiagnosticsOptions diagnosticsOptions = new DiagnosticsOptions();
+
+    @CommandLine.Mixin
+    private TimingOptions timingOptions = new TimingOptions();
+
+    @CommandLine.Mixin
+    private CacheOptions cacheOptions = new CacheOptions();
+
     @Override
     public Integer call()
     {
@@ -61,29 +81,19 @@ public class TokenizeCommand implements Callable<Integer>
 
         String topDir = "test_project";  // e.g. "src" or "mySrcDir"
 
-        try
+        timingOptions.begin();
+        try (Diagnostics diagnostics = diagnosticsOptions.create())
         {
+            if (watch)
+            {
+                return WatchLoop.run(paths, diagnostics, timingOptions, this::writeTokens);
+            }
 
             // 3) Gather .toucan files
-            List<Path> toucanFiles = new ArrayList<>();
-            for (Path path : paths)
+            List<Path> toucanFiles;
+            try (PhaseTimer.Scope ignored = PhaseTimer.get().start(Phase.DISCOVERY))
             {
-
-                path = path.toAbsolutePath().normalize();
-                System.out.println(path);
-                Rainforest rainforest = new Rainforest(path+"");
-                if (Files.isDirectory(path))
-                {
-                    try (Stream<Path> fileStream = recursive ? Files.walk(path) : Files.list(path))
-                    {
-                        fileStream.filter(p -> p.toString().endsWith(".toucan"))
-                                .forEach(toucanFiles::add);
-                    }
-                }
-                else if (path.toString().endsWith(".toucan"))
-                {
-                    toucanFiles.add(path);
-                }
+                toucanFiles = SourceFiles.collect(paths, recursive, verbose);
             }
 
             // 4) If dry-run, just list the files found
@@ -104,6 +114,7 @@ public class TokenizeCommand implements Callable<Integer>
             // 6) If an output file is specified, write tokens there; otherwise print to console
             if (outputFile != null)
             {
+                Option<IntermediateStore> store = cacheOptions.open(paths);
                 try (BufferedWriter writer = Files.newBufferedWriter(outputFile))
                 {
                     for (Path file : toucanFiles)
@@ -112,16 +123,25 @@ public class TokenizeCommand implements Callable<Integer>
                         {
                             System.out.println("---- Tokenizing file: " + file);
                         }
-                        String source = Files.readString(file);
+                        String source;
+                        try (PhaseTimer.Scope ignored = PhaseTimer.get().start(Phase.READ, file.toString()))
+                        {
+                            source = Files.readString(file);
+                        }
 
-                        // The TokenStream internally manages errors and will exit if any
-                        TokenStream ts = new TokenStream(file, source);
+                        // Errors are streamed to the diagnostics engine; such files are skipped
+                        Option<String> tokens = tokenDump(file, source, diagnostics, store);
+                        if (tokens.isNone())
+                            continue;
 
-                        // If we reach here, no errors => we write tokens to the file
                         writer.write("---- Tokenizing file: " + file + "\n");
-                        writer.write(ts.getTokensAsString());
+                        writer.write(tokens.unwrap());
                         writer.write("\n");
                     }
+                } finally
+                {
+                    if (store.isSome())
+                        store.unwrap().close();
                 }
             }
             else
@@ -133,24 +153,87 @@ public class TokenizeCommand implements Callable<Integer>
                     {
                         System.out.println("---- Tokenizing file: " + file);
                     }
-                    String source = Files.readString(file);
+                    String source;
+                    try (PhaseTimer.Scope ignored = PhaseTimer.get().start(Phase.READ, file.toString()))
+                    {
+                        source = Files.readString(file);
+                    }
 
                     // TokenStream creation & error check
-                    TokenStream ts = new TokenStream(file, source);
+                    TokenStream ts = new TokenStream(file, source, diagnostics);
+                    if (ts.hasErrors())
+                        continue;
 
                     // If no errors, print tokens
                     System.out.println(ts);
                 }
             }
 
-            // 7) If we processed everything without immediate errors, success
+            // 7) Fail if any file had errors
             System.out.printf("Parsing complete. %d files tokenized.\n", toucanFiles.size());
-            return 0;
+            return diagnostics.hasErrors() ? 1 : 0;
 
         } catch (IOException e)
         {
             System.err.println("Error processing files: " + e.getMessage());
             return 1;
+        } finally
+        {
+            timingOptions.end();
+        }
+    }
+
+    /// The token dump of a file, reused from the store if the same source was tokenized before.
+    /// None if the file has errors; such files are never stored, so their errors are always reported.
+    private static Option<String> tokenDump(Path file, String source, Diagnostics diagnostics, Option<IntermediateStore> store)
+    {
+        IntermediateStore.Key key = null;
+        if (store.isSome())
+        {
+            key = IntermediateStore.key("tokens", source.getBytes(StandardCharsets.UTF_8));
+            Option<byte[]> cached = store.unwrap().get(key);
+            if (cached.isSome())
+                return Option.some(new String(cached.unwrap(), StandardCharsets.UTF_8));
+        }
+
+        TokenStream ts = new TokenStream(file, source, diagnostics);
+        if (ts.hasErrors())
+            return Option.none();
+        String tokens = ts.getTokensAsString();
+        if (key != null)
+            store.unwrap().put(key, tokens.getBytes(StandardCharsets.UTF_8));
+        return Option.some(tokens);
+    }
+
+    /// In watch mode: prints the tokens of the files that changed, or rewrites the output file.
+    private void writeTokens(IncrementalBuild build, IncrementalBuild.Round round)
+    {
+        Map<Path, TokenStream> streams = build.getStreams();
+        if (outputFile != null)
+        {
+            try (BufferedWriter writer = Files.newBufferedWriter(outputFile))
+            {
+                for (Map.Entry<Path, TokenStream> entry : streams.entrySet())
+                {
+                    if (entry.getValue().hasErrors())
+                        continue;
+                    writer.write("---- Tokenizing file: " + entry.getKey() + "\n");
+                    writer.write(entry.getValue().getTokensAsString());
+                    writer.write("\n");
+                }
+            } catch (IOException e)
+            {
+                System.err.println("Error writing output: " + e.getMessage());
+            }
+        }
+        else
+        {
+            for (Path file : round.changed())
+            {
+                TokenStream ts = streams.get(file);
+                if (!ts.hasErrors())
+                    System.out.println(ts);
+            }
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,152 @@
+package org.alex_hashtag.command;
+
+import org.alex_hashtag.buildSystem.IncrementalBuild;
+import org.alex_hashtag.buildSystem.ProjectScanner;
+import org.alex_hashtag.lib.cancellation.CancellationToken;
+import org.alex_hashtag.lib.cancellation.CancelledException;
+import org.alex_hashtag.lib.errors.Diagnostics;
+import org.alex_hashtag.lib.results.Option;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+
+/**
+ * The {@code --watch} mode of the commands: builds the project once, then waits for changes and
+ * re-processes only what they affect, until interrupted. A round that is still running when the
+ * files change again is abandoned in favour of a new one.
+ */
+final class WatchLoop
+{
+    /// Editors often write a file in several steps; wait this long after the first event.
+    private static final long SETTLE_MILLIS = 50;
+
+    private WatchLoop()
+    {
+    }
+
+    /**
+     * @param paths   the command's path arguments; the first directory among them is watched.
+     * @param onRound called after every update, e.g. to print its results.
+     * @return the exit code, once the loop is interrupted.
+     */
+    static int run(List<Path> paths,
+                   Diagnostics diagnostics,
+                   TimingOptions timingOptions,
+                   BiConsumer<IncrementalBuild, IncrementalBuild.Round> onRound) throws IOException
+    {
+        Path directory = paths.stream()
+                .map(path -> path.toAbsolutePath().normalize())
+                .filter(Files::isDirectory)
+                .findFirst()
+                .orElse(null);
+        if (directory == null)
+        {
+            System.err.println("--watch needs a project directory.");
+            return 1;
+        }
+
+        ProjectScanner scanner = ProjectScanner.forProject(directory);
+        scanner.scan();
+        scanner.watch();
+        IncrementalBuild build = new IncrementalBuild(scanner, diagnostics);
+        System.out.println("Watching " + scanner.getRoot() + " (Ctrl+C to stop)");
+
+        try
+        {
+            while (true)
+            {
+                timingOptions.begin();
+                long start = System.nanoTime();
+                Option<IncrementalBuild.Round> update = update(scanner, build);
+                if (update.isSome() && update.unwrap().number() > 1 && update.unwrap().isEmpty())
+                {
+                    // Nothing to report, and writing the output again could trigger yet another round
+                    timingOptions.discard();
+                }
+                else if (update.isSome())
+                {
+                    IncrementalBuild.Round round = update.unwrap();
+                    onRound.accept(build, round);
+                    System.out.printf("[watch] round %d: %d changed, %d re-processed, %d removed in %.1f ms%s%n",
+                            round.number(),
+                            round.changed().size(),
+                            round.affected().size(),
+                            round.removed().size(),
+                            (System.nanoTime() - start) / 1e6,
+                            round.hasErrors() ? " (with errors)" : "");
+                    timingOptions.end();
+                }
+                else
+                {
+                    // The phases timed so far belong to no round, so they are not reported
+                    timingOptions.discard();
+                    System.out.printf("[watch] files changed again, abandoned after %.1f ms%n",
+                            (System.nanoTime() - start) / 1e6);
+                }
+
+                while (!scanner.awaitChange(1, TimeUnit.SECONDS))
+                {
+                    // Keep waiting
+                }
+                Thread.sleep(SETTLE_MILLIS);
+            }
+        } catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return 0;
+        } finally
+        {
+            scanner.close();
+        }
+    }
+
+    /**
+     * Runs one update, cancelling it as soon as a watched directory changes again.
+     *
+     * @return the round, or none if it was abandoned.
+     */
+    private static Option<IncrementalBuild.Round> update(ProjectScanner scanner, IncrementalBuild build)
+            throws IOException
+    {
+        // Take in the changes this round is for, so only newer ones cancel it
+        try
+        {
+            scanner.scan();
+        } catch (UncheckedIOException e)
+        {
+            throw e.getCause();
+        }
+
+        CancellationToken cancellation = CancellationToken.create();
+        Thread watcher = Thread.ofVirtual().start(() ->
+        {
+            try
+            {
+                while (!scanner.awaitChange(1, TimeUnit.SECONDS))
+                {
+                    // Keep waiting
+                }
+                cancellation.cancel();
+            } catch (InterruptedException e)
+            {
+                // The round is over
+            }
+        });
+        try
+        {
+            return Option.some(build.update(cancellation));
+        } catch (CancelledException e)
+        {
+            return Option.none();
+        } finally
+        {
+            watcher.interrupt();
+        }
+    }
+}
@@ -1,25 +1,57 @@
 package org.alex_hashtag.errors;
 
 import lombok.Getter;
+import org.alex_hashtag.lib.errors.CompilerError;
+import org.alex_hashtag.lib.errors.Diagnostics;
+import org.alex_hashtag.lib.profiling.DiagnosticEvent;
 
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 
 public class ParsingErrorManager
 {
 
-    private final List<ParsingError> errors = new ArrayList<>();
+    private final List<ParsingError> errors = Collections.synchronizedList(new ArrayList<>());
     private final String fileName;        // store which file we're tokenizing
     private List<String> sourceLines;     // for line-by-line references
+    private final Diagnostics.File diagnostics; // null unless errors are streamed
 
     public ParsingErrorManager(String fileName, String source)
     {
         this.fileName = fileName;
+        this.diagnostics = null;
         setSource(source);
     }
 
+    /**
+     * Creates a manager that streams every error to the given engine as soon as it is reported.
+     */
+    public ParsingErrorManager(String fileName, String source, Diagnostics diagnostics)
+    {
+        this.fileName = fileName;
+        this.diagnostics = diagnostics.file(fileName, source);
+        setSource(source);
+    }
+
+    private ParsingErrorManager(String fileName, List<String> sourceLines, Diagnostics.File diagnostics)
+    {
+        this.fileName = fileName;
+        this.sourceLines = sourceLines;
+        this.diagnostics = diagnostics;
+    }
+
+    /**
+     * @return a manager without errors for the same file, streaming to the same engine; for errors
+     * that are found again on every build instead of once per parse.
+     */
+    public ParsingErrorManager sibling()
+    {
+        return new ParsingErrorManager(fileName, sourceLines, diagnostics);
+    }
+
     private void setSource(String source)
     {
         this.sourceLines = List.of(source.split("\n", -1));
@@ -27,7 +59,12 @@ public class ParsingErrorManager
 
     public void reportError(ParsingError error)
     {
+        DiagnosticEvent event = new DiagnosticEvent();
+        event.begin();
         errors.add(error);
+        if (diagnostics != null)
+            diagnostics.report(error);
+        event.commit(fileName, error.getCode(), error.getLine(), error.getColumn(), error.getToken());
     }
 
     public boolean hasErrors()
@@ -35,11 +72,42 @@ public class ParsingErrorManager
         return !errors.isEmpty();
     }
 
+    /**
+     * @return whether an error of the given type was already reported at the given position.
+     */
+    public boolean hasError(ErrorType type, int line, int column)
+    {
+        synchronized (errors)
+        {
+            for (ParsingError error : errors)
+                if (error.getType() == type && error.getLine() == line && error.getColumn() == column)
+                    return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return whether the error limit was reached for this file, in which case work on it should
+     * stop. Always false when errors are not streamed.
+     */
+    public boolean limitReached()
+    {
+        return diagnostics != null && diagnostics.limitReached();
+    }
+
+    /**
+     * Prints the collected errors; does nothing when they were already streamed.
+     */
     public void printErrors(PrintStream out)
     {
-        for (ParsingError error : errors)
+        if (diagnostics != null)
+            return;
+        synchronized (errors)
         {
-            printSingleError(out, error);
+            for (ParsingError error : errors)
+            {
+                printSingleError(out, error);
+            }
         }
     }
 
@@ -110,7 +178,11 @@ public class ParsingErrorManager
     public enum ErrorType
     {
         EXPECTED_FOUND("Expected %s found %s"),
-        SYNTAX_ERROR("%s is not a valid basic literal.");
+        SYNTAX_ERROR("%s is not a valid basic literal."),
+        UNKNOWN_MACRO("Macro %s is not defined"),
+        DUPLICATE_MACRO("Macro %s is already defined in %s"),
+        NO_MATCHING_ARM("No arm of macro %s matches %s"),
+        MACRO_DEPTH_EXCEEDED("Expanding %s exceeded the macro depth limit of %s");
 
         private final String description;
 
@@ -122,7 +194,7 @@ public class ParsingErrorManager
     }
 
     @Getter
-    public static class ParsingError
+    public static class ParsingError implements CompilerError
     {
         private final ErrorType type;
         private final String message;
@@ -172,5 +244,11 @@ public class ParsingErrorManager
             return new ParsingError(type, message, line, column, token, null, args);
         }
 
+        @Override
+        public String getCode()
+        {
+            return type.name();
+        }
+
     }
 }
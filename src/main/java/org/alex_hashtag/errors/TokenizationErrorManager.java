@@ -1,20 +1,37 @@
 package org.alex_hashtag.errors;
 
+import org.alex_hashtag.lib.errors.CompilerError;
+import org.alex_hashtag.lib.errors.Diagnostics;
+import org.alex_hashtag.lib.profiling.DiagnosticEvent;
+
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 
 public class TokenizationErrorManager
 {
 
-    private final List<TokenizationError> errors = new ArrayList<>();
+    private final List<TokenizationError> errors = Collections.synchronizedList(new ArrayList<>());
     private final String fileName;        // store which file we're tokenizing
     private List<String> sourceLines;     // for line-by-line references
+    private final Diagnostics.File diagnostics; // null unless errors are streamed
 
     public TokenizationErrorManager(String fileName, String source)
     {
         this.fileName = fileName;
+        this.diagnostics = null;
+        setSource(source);
+    }
+
+    /**
+     * Creates a manager that streams every error to the given engine as soon as it is reported.
+     */
+    public TokenizationErrorManager(String fileName, String source, Diagnostics diagnostics)
+    {
+        this.fileName = fileName;
+        this.diagnostics = diagnostics.file(fileName, source);
         setSource(source);
     }
 
@@ -25,7 +42,12 @@ public class TokenizationErrorManager
 
     public void reportError(TokenizationError error)
     {
+        DiagnosticEvent event = new DiagnosticEvent();
+        event.begin();
         errors.add(error);
+        if (diagnostics != null)
+            diagnostics.report(error);
+        event.commit(fileName, error.getCode(), error.getLine(), error.getColumn(), error.getToken());
     }
 
     public boolean hasErrors()
@@ -33,11 +55,28 @@ public class TokenizationErrorManager
         return !errors.isEmpty();
     }
 
+    /**
+     * @return whether the error limit was reached for this file, in which case work on it should
+     * stop. Always false when errors are not streamed.
+     */
+    public boolean limitReached()
+    {
+        return diagnostics != null && diagnostics.limitReached();
+    }
+
+    /**
+     * Prints the collected errors; does nothing when they were already streamed.
+     */
     public void printErrors(PrintStream out)
     {
-        for (TokenizationError error : errors)
+        if (diagnostics != null)
+            return;
+        synchronized (errors)
         {
-            printSingleError(out, error);
+            for (TokenizationError error : errors)
+            {
+                printSingleError(out, error);
+            }
         }
     }
 
@@ -105,7 +144,7 @@ public class TokenizationErrorManager
         }
     }
 
-    public static class TokenizationError
+    public static class TokenizationError implements CompilerError
     {
         private final ErrorType type;
         private final String message;
@@ -167,5 +206,11 @@ public class TokenizationErrorManager
         {
             return hint;
         }
+
+        @Override
+        public String getCode()
+        {
+            return type.name();
+        }
     }
 }
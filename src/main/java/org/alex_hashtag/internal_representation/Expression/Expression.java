@@ -12,14 +12,15 @@ public sealed interface Expression
 {
     record Empty(Coordinates coordinates) implements Expression {}
     record Binary(Coordinates coordinates, Expression left, Expression right, Token.Operator operator) implements Expression {}
+    record Unary(Coordinates coordinates, Expression operand, Token.Operator operator, boolean postfix) implements Expression {}
     record If(Coordinates coordinates, Expression condition, List<Expression> statements, Option<If> elseExpression) implements Expression {}
     record Loop(Coordinates coordinates, Option<Expression> numberOfIteration, List<Expression> statements) implements Expression {}
     record While(Coordinates coordinated, Expression condition, List<Expression> statements) implements Expression {}
     record doWhile(Coordinates coordinated, List<Expression> statements, Expression condition) implements Expression {}
-    record For(Coordinates coordinates, ArgsList init, ArgsList conditions, ArgsList updates) implements Expression {}
-    record ForEach(Coordinates coordinates, Expression item, Expression list) implements Expression {}
+    record For(Coordinates coordinates, ArgsList init, ArgsList conditions, ArgsList updates, List<Expression> statements) implements Expression {}
+    record ForEach(Coordinates coordinates, Expression item, Expression list, List<Expression> statements) implements Expression {}
     record Switch(Coordinates coordinates, Expression compare, List<Case> cases) implements Expression {
-        record Case(Coordinates coordinates, List<Expression> pattern, Expression resolve) {}
+        public record Case(Coordinates coordinates, List<Expression> pattern, Expression resolve) {}
     }
 
     record Break(Coordinates coordinates) implements Expression {}
@@ -37,10 +38,17 @@ public sealed interface Expression
     record InstanceAccessStruct(Coordinates coordinates, Expression variable, String index) implements Expression {}
     record InstanceAccessEnum(Coordinates coordinates, Expression variable, int index) implements Expression {}
     record InstanceAccessArray(Coordinates coordinates, Expression variable, int index) implements Expression {}
+    record Index(Coordinates coordinates, Expression variable, Expression index) implements Expression {}
     record StaticAccessLambda(Coordinates coordinates, Expression variable, String index) implements Expression {}
 
     record FunctionInvocation(Coordinates coordinates, Expression expression, ArgsList arguments) implements Expression {}
-    record AnonFunctionLamnda(Coordinates coordinates, ArgsList arguments, List<Expression> statements) implements Expression {}
+    record AnonFunctionLamnda(Coordinates coordinates, ArgsList arguments, LazyBody body) implements Expression {
+        /// Parses the lambda body on first access, see [LazyBody].
+        public List<Expression> statements()
+        {
+            return body.get();
+        }
+    }
 
     record IdentifierVar(Coordinates coordinates, String name) implements Expression {}
     record IdentifierType(Coordinates coordinates, String name) implements Expression {}
@@ -57,6 +65,8 @@ public sealed interface Expression
         record Char(Coordinates coordinates, String value) implements Literal {}
         record Rune(Coordinates coordinates, String value) implements Literal {}
         record Str(Coordinates coordinates, String value) implements Literal {}
+        record Bool(Coordinates coordinates, String value) implements Literal {}
+        record Null(Coordinates coordinates) implements Literal {}
         record Array(Coordinates coordinates, IdentifierType type, Expression size, List<Expression> elements) implements Literal {}
         record Struct(Coordinates coordinates, IdentifierType type, List<VariableAssigment> assigments) implements Literal {}
         record Enum(Coordinates coordinates, IdentifierType type, String variant, ArgsList arguments) implements Literal {}
@@ -71,6 +81,7 @@ public sealed interface Expression
                 case Char(Coordinates coordinates, _) -> new TypeHolder.Resolved(coordinates, "char");
                 case Rune(Coordinates coordinates, _) -> new TypeHolder.Resolved(coordinates, "rune");
                 case Str(Coordinates coordinates, _) -> new TypeHolder.Resolved(coordinates, "string");
+                case Bool(Coordinates coordinates, _) -> new TypeHolder.Resolved(coordinates, "bool");
                 case Literal ignored -> new TypeHolder() {};
             };
         }
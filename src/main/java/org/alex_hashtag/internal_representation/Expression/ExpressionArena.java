@@ -0,0 +1,596 @@
+package org.alex_hashtag.internal_representation.Expression;
+
+import org.alex_hashtag.lib.results.Option;
+import org.alex_hashtag.lib.tokenization.Coordinates;
+import org.alex_hashtag.lib.tokenization.Token;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * A flat, index-based encoding of {@link Expression} trees.
+ * <p>
+ * Every node is a row across a handful of growable {@code int} arrays (kind, line, column, symbol,
+ * extra payload, and a range into a shared child pool) instead of a record plus a {@link Coordinates}
+ * object plus a {@link List} per child collection. Names, literal values and operators are interned
+ * into a symbol table and referenced by id. A whole program therefore costs a few large arrays
+ * rather than millions of small objects.
+ * <p>
+ * Nodes are addressed by their {@code int} index. The index accessors ({@link #kind(int)},
+ * {@link #child(int, int)}, ...) allow allocation-free traversal; {@link Node} is a thin typed view
+ * over the same data. {@link #add(Expression)} and {@link #toExpression(int)} convert from and to the
+ * record form so existing code can keep working with records.
+ */
+public final class ExpressionArena
+{
+    /// Marks an absent child, e.g. an `if` without `else`.
+    public static final int NONE = -1;
+
+    /**
+     * The kind of a node. Children layouts are listed next to each kind; {@code LIST} groups a
+     * child collection of a record, everything else maps one-to-one onto an {@link Expression} record.
+     */
+    public enum Kind
+    {
+        EMPTY,                  // -
+        BINARY,                 // left, right, OPERATOR
+        UNARY,                  // operand, OPERATOR; extra = postfix
+        IF,                     // condition, LIST statements, else IF or NONE
+        LOOP,                   // iterations or NONE, LIST statements
+        WHILE,                  // condition, LIST statements
+        DO_WHILE,               // LIST statements, condition
+        FOR,                    // ARGS init, ARGS conditions, ARGS updates, LIST statements
+        FOR_EACH,               // item, list, LIST statements
+        SWITCH,                 // compare, LIST cases
+        CASE,                   // LIST patterns, resolve
+        BREAK,                  // -
+        CONTINUE,               // -
+        RETURN,                 // value
+        YIELD,                  // value
+        SIZEOF,                 // value
+        TYPEOF,                 // value
+        SCOPE,                  // statements...
+        UNSAFE,                 // statements...
+        ACCESS_STRUCT,          // variable; symbol = member
+        ACCESS_ENUM,            // variable; extra = index
+        ACCESS_ARRAY,           // variable; extra = index
+        INDEX,                  // variable, index
+        STATIC_ACCESS,          // variable; symbol = member
+        INVOCATION,             // callee, ARGS
+        LAMBDA,                 // ARGS; extra = lambda body slot
+        IDENTIFIER_VAR,         // symbol = name
+        IDENTIFIER_TYPE,        // symbol = name
+        IDENTIFIER_FUNC,        // symbol = name
+        DECLARATION,            // IDENTIFIER_TYPE; symbol = name
+        ASSIGNMENT,             // value; symbol = name
+        DECLARATION_ASSIGNMENT, // IDENTIFIER_TYPE, value; symbol = name
+        INT,                    // symbol = value
+        FLOAT,                  // symbol = value
+        CHAR,                   // symbol = value
+        RUNE,                   // symbol = value
+        STR,                    // symbol = value
+        BOOL,                   // symbol = value
+        NULL,                   // -
+        ARRAY,                  // IDENTIFIER_TYPE, size, LIST elements
+        STRUCT,                 // IDENTIFIER_TYPE, LIST ASSIGNMENT
+        ENUM,                   // IDENTIFIER_TYPE, ARGS; symbol = variant
+        ARGS,                   // arguments...
+        LIST,                   // elements...
+        OPERATOR;               // symbol = operator
+
+        private static final Kind[] VALUES = values();
+    }
+
+    private final IntArray kinds = new IntArray();
+    private final IntArray lines = new IntArray();
+    private final IntArray columns = new IntArray();
+    private final IntArray symbols = new IntArray();
+    private final IntArray extras = new IntArray();
+    private final IntArray firstChildren = new IntArray();
+    private final IntArray childCounts = new IntArray();
+    private final IntArray childPool = new IntArray();
+
+    private final List<String> symbolTable = new ArrayList<>();
+    private final Map<String, Integer> symbolIds = new HashMap<>();
+    private final List<LazyBody> lambdaBodies = new ArrayList<>();
+
+    // ==================================================
+    // ================= INDEX ACCESSORS ================
+    // ==================================================
+
+    /**
+     * @return the number of nodes in the arena.
+     */
+    public int size()
+    {
+        return kinds.size;
+    }
+
+    public Kind kind(int node)
+    {
+        return Kind.VALUES[kinds.data[node]];
+    }
+
+    public int line(int node)
+    {
+        return lines.data[node];
+    }
+
+    public int column(int node)
+    {
+        return columns.data[node];
+    }
+
+    /**
+     * @return the symbol id of the node, or {@link #NONE} if its kind carries no symbol.
+     */
+    public int symbol(int node)
+    {
+        return symbols.data[node];
+    }
+
+    /**
+     * @return the interned text of a symbol id.
+     */
+    public String symbolText(int symbol)
+    {
+        return symbolTable.get(symbol);
+    }
+
+    /**
+     * @return the number of distinct symbols in the arena.
+     */
+    public int symbolCount()
+    {
+        return symbolTable.size();
+    }
+
+    public int extra(int node)
+    {
+        return extras.data[node];
+    }
+
+    public int childCount(int node)
+    {
+        return childCounts.data[node];
+    }
+
+    /**
+     * @return the index of the i-th child, or {@link #NONE} for an absent optional child.
+     */
+    public int child(int node, int i)
+    {
+        if (i < 0 || i >= childCounts.data[node])
+            throw new IndexOutOfBoundsException("Node " + node + " has no child " + i);
+        return childPool.data[firstChildren.data[node] + i];
+    }
+
+    /**
+     * @return the body of a {@link Kind#LAMBDA} node.
+     */
+    public LazyBody lambdaBody(int node)
+    {
+        if (kind(node) != Kind.LAMBDA)
+            throw new IllegalArgumentException("Node " + node + " is a " + kind(node) + ", not a LAMBDA");
+        return lambdaBodies.get(extras.data[node]);
+    }
+
+    /**
+     * @return a typed view of the node.
+     */
+    public Node node(int node)
+    {
+        if (node < 0 || node >= size())
+            throw new IndexOutOfBoundsException("No node " + node);
+        return new Node(this, node);
+    }
+
+    // ==================================================
+    // ================ RECORDS -> ARENA ================
+    // ==================================================
+
+    /**
+     * Appends an expression tree and returns the index of its root. Children are always stored
+     * before their parent, so a node index is also a valid post-order position.
+     */
+    public int add(Expression expression)
+    {
+        return switch (expression)
+        {
+            case Expression.Empty(Coordinates c) -> leaf(Kind.EMPTY, c, NONE, 0);
+            case Expression.Binary(Coordinates c, Expression left, Expression right, Token.Operator operator) ->
+                    node(Kind.BINARY, c, NONE, 0, add(left), add(right), operator(operator));
+            case Expression.Unary(Coordinates c, Expression operand, Token.Operator operator, boolean postfix) ->
+                    node(Kind.UNARY, c, NONE, postfix ? 1 : 0, add(operand), operator(operator));
+            case Expression.If anIf -> addIf(anIf);
+            case Expression.Loop(Coordinates c, Option<Expression> iterations, List<Expression> statements) ->
+                    node(Kind.LOOP, c, NONE, 0, iterations.isSome() ? add(iterations.unwrap()) : NONE, list(statements));
+            case Expression.While(Coordinates c, Expression condition, List<Expression> statements) ->
+                    node(Kind.WHILE, c, NONE, 0, add(condition), list(statements));
+            case Expression.doWhile(Coordinates c, List<Expression> statements, Expression condition) ->
+                    node(Kind.DO_WHILE, c, NONE, 0, list(statements), add(condition));
+            case Expression.For(Coordinates c, Expression.ArgsList init, Expression.ArgsList conditions,
+                                Expression.ArgsList updates, List<Expression> statements) ->
+                    node(Kind.FOR, c, NONE, 0, add(init), add(conditions), add(updates), list(statements));
+            case Expression.ForEach(Coordinates c, Expression item, Expression list, List<Expression> statements) ->
+                    node(Kind.FOR_EACH, c, NONE, 0, add(item), add(list), list(statements));
+            case Expression.Switch(Coordinates c, Expression compare, List<Expression.Switch.Case> cases) ->
+            {
+                int[] caseNodes = new int[cases.size()];
+                for (int i = 0; i < caseNodes.length; i++)
+                {
+                    Expression.Switch.Case aCase = cases.get(i);
+                    caseNodes[i] = node(Kind.CASE, aCase.coordinates(), NONE, 0,
+                            list(aCase.pattern()), add(aCase.resolve()));
+                }
+                int compareNode = add(compare);
+                yield node(Kind.SWITCH, c, NONE, 0, compareNode, node(Kind.LIST, c, NONE, 0, caseNodes));
+            }
+            case Expression.Break(Coordinates c) -> leaf(Kind.BREAK, c, NONE, 0);
+            case Expression.Continue(Coordinates c) -> leaf(Kind.CONTINUE, c, NONE, 0);
+            case Expression.Return(Coordinates c, Expression value) -> node(Kind.RETURN, c, NONE, 0, add(value));
+            case Expression.Yield(Coordinates c, Expression value) -> node(Kind.YIELD, c, NONE, 0, add(value));
+            case Expression.Sizeof(Coordinates c, Expression value) -> node(Kind.SIZEOF, c, NONE, 0, add(value));
+            case Expression.Typeof(Coordinates c, Expression value) -> node(Kind.TYPEOF, c, NONE, 0, add(value));
+            case Expression.Scope(Coordinates c, List<Expression> statements) ->
+                    node(Kind.SCOPE, c, NONE, 0, addEach(statements));
+            case Expression.Unsafe(Coordinates c, List<Expression> statements) ->
+                    node(Kind.UNSAFE, c, NONE, 0, addEach(statements));
+            case Expression.InstanceAccessStruct(Coordinates c, Expression variable, String member) ->
+                    node(Kind.ACCESS_STRUCT, c, intern(member), 0, add(variable));
+            case Expression.InstanceAccessEnum(Coordinates c, Expression variable, int index) ->
+                    node(Kind.ACCESS_ENUM, c, NONE, index, add(variable));
+            case Expression.InstanceAccessArray(Coordinates c, Expression variable, int index) ->
+                    node(Kind.ACCESS_ARRAY, c, NONE, index, add(variable));
+            case Expression.Index(Coordinates c, Expression variable, Expression index) ->
+                    node(Kind.INDEX, c, NONE, 0, add(variable), add(index));
+            case Expression.StaticAccessLambda(Coordinates c, Expression variable, String member) ->
+                    node(Kind.STATIC_ACCESS, c, intern(member), 0, add(variable));
+            case Expression.FunctionInvocation(Coordinates c, Expression callee, Expression.ArgsList arguments) ->
+                    node(Kind.INVOCATION, c, NONE, 0, add(callee), add(arguments));
+            case Expression.AnonFunctionLamnda(Coordinates c, Expression.ArgsList arguments, LazyBody body) ->
+            {
+                int slot = addLambdaBody(body);
+                yield node(Kind.LAMBDA, c, NONE, slot, add(arguments));
+            }
+            case Expression.IdentifierVar(Coordinates c, String name) -> leaf(Kind.IDENTIFIER_VAR, c, intern(name), 0);
+            case Expression.IdentifierType(Coordinates c, String name) -> leaf(Kind.IDENTIFIER_TYPE, c, intern(name), 0);
+            case Expression.IdentifierFunc(Coordinates c, String name) -> leaf(Kind.IDENTIFIER_FUNC, c, intern(name), 0);
+            case Expression.VariableDeclaration(Coordinates c, Expression.IdentifierType type, String name) ->
+                    node(Kind.DECLARATION, c, intern(name), 0, add(type));
+            case Expression.VariableAssigment(Coordinates c, String name, Expression value) ->
+                    node(Kind.ASSIGNMENT, c, intern(name), 0, add(value));
+            case Expression.VariableDeclarationAssigment(Coordinates c, Expression.IdentifierType type, String name,
+                                                         Expression value) ->
+                    node(Kind.DECLARATION_ASSIGNMENT, c, intern(name), 0, add(type), add(value));
+            case Expression.Literal.Int(Coordinates c, String value) -> leaf(Kind.INT, c, intern(value), 0);
+            case Expression.Literal.Float(Coordinates c, String value) -> leaf(Kind.FLOAT, c, intern(value), 0);
+            case Expression.Literal.Char(Coordinates c, String value) -> leaf(Kind.CHAR, c, intern(value), 0);
+            case Expression.Literal.Rune(Coordinates c, String value) -> leaf(Kind.RUNE, c, intern(value), 0);
+            case Expression.Literal.Str(Coordinates c, String value) -> leaf(Kind.STR, c, intern(value), 0);
+            case Expression.Literal.Bool(Coordinates c, String value) -> leaf(Kind.BOOL, c, intern(value), 0);
+            case Expression.Literal.Null(Coordinates c) -> leaf(Kind.NULL, c, NONE, 0);
+            case Expression.Literal.Array(Coordinates c, Expression.IdentifierType type, Expression size,
+                                          List<Expression> elements) ->
+                    node(Kind.ARRAY, c, NONE, 0, add(type), add(size), list(elements));
+            case Expression.Literal.Struct(Coordinates c, Expression.IdentifierType type,
+                                           List<Expression.VariableAssigment> assignments) ->
+                    node(Kind.STRUCT, c, NONE, 0, add(type), list(assignments));
+            case Expression.Literal.Enum(Coordinates c, Expression.IdentifierType type, String variant,
+                                         Expression.ArgsList arguments) ->
+                    node(Kind.ENUM, c, intern(variant), 0, add(type), add(arguments));
+            case Expression.ArgsList(Coordinates c, List<Expression> arguments) ->
+                    node(Kind.ARGS, c, NONE, 0, addEach(arguments));
+        };
+    }
+
+    /**
+     * Appends a statement list as a single {@link Kind#LIST} node and returns its index.
+     */
+    public int addStatements(List<? extends Expression> statements)
+    {
+        return list(statements);
+    }
+
+    /**
+     * Appends a node row as-is, without going through the record form. Used to load a serialized arena;
+     * the children must already be in the arena (or be {@link #NONE}).
+     */
+    public int appendNode(Kind kind, int line, int column, String symbol, int extra, int... children)
+    {
+        for (int child : children)
+            if (child != NONE && (child < 0 || child >= size()))
+                throw new IndexOutOfBoundsException("Child " + child + " is not in the arena");
+        return node(kind, line, column, symbol == null ? NONE : intern(symbol), extra, children);
+    }
+
+    /**
+     * Registers a lambda body and returns the slot to use as the {@code extra} of a {@link Kind#LAMBDA} node.
+     */
+    public int addLambdaBody(LazyBody body)
+    {
+        lambdaBodies.add(body);
+        return lambdaBodies.size() - 1;
+    }
+
+    private int addIf(Expression.If anIf)
+    {
+        int condition = add(anIf.condition());
+        int statements = list(anIf.statements());
+        int elseBranch = anIf.elseExpression().isSome() ? addIf(anIf.elseExpression().unwrap()) : NONE;
+        return node(Kind.IF, anIf.coordinates(), NONE, 0, condition, statements, elseBranch);
+    }
+
+    /// A LIST takes the position of its first element.
+    private int list(List<? extends Expression> elements)
+    {
+        int[] nodes = addEach(elements);
+        if (nodes.length == 0)
+            return node(Kind.LIST, 0, 0, NONE, 0);
+        return node(Kind.LIST, line(nodes[0]), column(nodes[0]), NONE, 0, nodes);
+    }
+
+    private int[] addEach(List<? extends Expression> expressions)
+    {
+        int[] nodes = new int[expressions.size()];
+        for (int i = 0; i < nodes.length; i++)
+            nodes[i] = add(expressions.get(i));
+        return nodes;
+    }
+
+    private int operator(Token.Operator operator)
+    {
+        return leaf(Kind.OPERATOR, operator.position(), intern(operator.getValue()), 0);
+    }
+
+    private int leaf(Kind kind, Coordinates position, int symbol, int extra)
+    {
+        return node(kind, position, symbol, extra);
+    }
+
+    private int node(Kind kind, Coordinates position, int symbol, int extra, int... children)
+    {
+        return node(kind, position.line(), position.column(), symbol, extra, children);
+    }
+
+    private int node(Kind kind, int line, int column, int symbol, int extra, int... children)
+    {
+        int index = kinds.size;
+        kinds.add(kind.ordinal());
+        lines.add(line);
+        columns.add(column);
+        symbols.add(symbol);
+        extras.add(extra);
+        firstChildren.add(childPool.size);
+        childCounts.add(children.length);
+        childPool.addAll(children);
+        return index;
+    }
+
+    private int intern(String text)
+    {
+        Integer id = symbolIds.get(text);
+        if (id == null)
+        {
+            id = symbolTable.size();
+            symbolTable.add(text);
+            symbolIds.put(text, id);
+        }
+        return id;
+    }
+
+    // ==================================================
+    // ================ ARENA -> RECORDS ================
+    // ==================================================
+
+    /**
+     * Rebuilds the record form of the node and everything below it.
+     */
+    public Expression toExpression(int node)
+    {
+        Coordinates c = new Coordinates(line(node), column(node));
+        return switch (kind(node))
+        {
+            case EMPTY -> new Expression.Empty(c);
+            case BINARY -> new Expression.Binary(c, toExpression(child(node, 0)), toExpression(child(node, 1)),
+                    toOperator(child(node, 2)));
+            case UNARY -> new Expression.Unary(c, toExpression(child(node, 0)), toOperator(child(node, 1)),
+                    extra(node) != 0);
+            case IF -> toIf(node);
+            case LOOP -> new Expression.Loop(c,
+                    child(node, 0) == NONE ? Option.none() : Option.some(toExpression(child(node, 0))),
+                    toList(child(node, 1)));
+            case WHILE -> new Expression.While(c, toExpression(child(node, 0)), toList(child(node, 1)));
+            case DO_WHILE -> new Expression.doWhile(c, toList(child(node, 0)), toExpression(child(node, 1)));
+            case FOR -> new Expression.For(c, toArgs(child(node, 0)), toArgs(child(node, 1)), toArgs(child(node, 2)),
+                    toList(child(node, 3)));
+            case FOR_EACH -> new Expression.ForEach(c, toExpression(child(node, 0)), toExpression(child(node, 1)),
+                    toList(child(node, 2)));
+            case SWITCH ->
+            {
+                int caseList = child(node, 1);
+                List<Expression.Switch.Case> cases = new ArrayList<>(childCount(caseList));
+                for (int i = 0; i < childCount(caseList); i++)
+                {
+                    int aCase = child(caseList, i);
+                    cases.add(new Expression.Switch.Case(new Coordinates(line(aCase), column(aCase)),
+                            toList(child(aCase, 0)), toExpression(child(aCase, 1))));
+                }
+                yield new Expression.Switch(c, toExpression(child(node, 0)), cases);
+            }
+            case BREAK -> new Expression.Break(c);
+            case CONTINUE -> new Expression.Continue(c);
+            case RETURN -> new Expression.Return(c, toExpression(child(node, 0)));
+            case YIELD -> new Expression.Yield(c, toExpression(child(node, 0)));
+            case SIZEOF -> new Expression.Sizeof(c, toExpression(child(node, 0)));
+            case TYPEOF -> new Expression.Typeof(c, toExpression(child(node, 0)));
+            case SCOPE -> new Expression.Scope(c, toList(node));
+            case UNSAFE -> new Expression.Unsafe(c, toList(node));
+            case ACCESS_STRUCT -> new Expression.InstanceAccessStruct(c, toExpression(child(node, 0)), text(node));
+            case ACCESS_ENUM -> new Expression.InstanceAccessEnum(c, toExpression(child(node, 0)), extra(node));
+            case ACCESS_ARRAY -> new Expression.InstanceAccessArray(c, toExpression(child(node, 0)), extra(node));
+            case INDEX -> new Expression.Index(c, toExpression(child(node, 0)), toExpression(child(node, 1)));
+            case STATIC_ACCESS -> new Expression.StaticAccessLambda(c, toExpression(child(node, 0)), text(node));
+            case INVOCATION -> new Expression.FunctionInvocation(c, toExpression(child(node, 0)), toArgs(child(node, 1)));
+            case LAMBDA -> new Expression.AnonFunctionLamnda(c, toArgs(child(node, 0)), lambdaBody(node));
+            case IDENTIFIER_VAR -> new Expression.IdentifierVar(c, text(node));
+            case IDENTIFIER_TYPE -> toType(node);
+            case IDENTIFIER_FUNC -> new Expression.IdentifierFunc(c, text(node));
+            case DECLARATION -> new Expression.VariableDeclaration(c, toType(child(node, 0)), text(node));
+            case ASSIGNMENT -> new Expression.VariableAssigment(c, text(node), toExpression(child(node, 0)));
+            case DECLARATION_ASSIGNMENT -> new Expression.VariableDeclarationAssigment(c, toType(child(node, 0)),
+                    text(node), toExpression(child(node, 1)));
+            case INT -> new Expression.Literal.Int(c, text(node));
+            case FLOAT -> new Expression.Literal.Float(c, text(node));
+            case CHAR -> new Expression.Literal.Char(c, text(node));
+            case RUNE -> new Expression.Literal.Rune(c, text(node));
+            case STR -> new Expression.Literal.Str(c, text(node));
+            case BOOL -> new Expression.Literal.Bool(c, text(node));
+            case NULL -> new Expression.Literal.Null(c);
+            case ARRAY -> new Expression.Literal.Array(c, toType(child(node, 0)), toExpression(child(node, 1)),
+                    toList(child(node, 2)));
+            case STRUCT ->
+            {
+                int assignmentList = child(node, 1);
+                List<Expression.VariableAssigment> assignments = new ArrayList<>(childCount(assignmentList));
+                for (int i = 0; i < childCount(assignmentList); i++)
+                    assignments.add((Expression.VariableAssigment) toExpression(child(assignmentList, i)));
+                yield new Expression.Literal.Struct(c, toType(child(node, 0)), assignments);
+            }
+            case ENUM -> new Expression.Literal.Enum(c, toType(child(node, 0)), text(node), toArgs(child(node, 1)));
+            case ARGS -> toArgs(node);
+            case LIST, CASE, OPERATOR ->
+                    throw new IllegalArgumentException("Node " + node + " is a " + kind(node) + ", not an expression");
+        };
+    }
+
+    /**
+     * Rebuilds the elements of a {@link Kind#LIST}, {@link Kind#SCOPE}, {@link Kind#UNSAFE} or
+     * {@link Kind#ARGS} node.
+     */
+    public List<Expression> toList(int node)
+    {
+        List<Expression> elements = new ArrayList<>(childCount(node));
+        for (int i = 0; i < childCount(node); i++)
+            elements.add(toExpression(child(node, i)));
+        return elements;
+    }
+
+    private Expression.If toIf(int node)
+    {
+        int elseNode = child(node, 2);
+        return new Expression.If(new Coordinates(line(node), column(node)), toExpression(child(node, 0)),
+                toList(child(node, 1)), elseNode == NONE ? Option.none() : Option.some(toIf(elseNode)));
+    }
+
+    private Expression.ArgsList toArgs(int node)
+    {
+        return new Expression.ArgsList(new Coordinates(line(node), column(node)), toList(node));
+    }
+
+    private Expression.IdentifierType toType(int node)
+    {
+        return new Expression.IdentifierType(new Coordinates(line(node), column(node)), text(node));
+    }
+
+    private Token.Operator toOperator(int node)
+    {
+        return new Token.Operator(new Coordinates(line(node), column(node)), text(node));
+    }
+
+    private String text(int node)
+    {
+        return symbolTable.get(symbols.data[node]);
+    }
+
+    // ==================================================
+    // =================== TYPED VIEW ===================
+    // ==================================================
+
+    /**
+     * A typed, read-only view of one node. Creating a view is cheap; all data stays in the arena.
+     */
+    public record Node(ExpressionArena arena, int index)
+    {
+        public Kind kind()
+        {
+            return arena.kind(index);
+        }
+
+        public Coordinates coordinates()
+        {
+            return new Coordinates(arena.line(index), arena.column(index));
+        }
+
+        /**
+         * @return the name, literal value or operator of the node, if its kind carries one.
+         */
+        public Option<String> text()
+        {
+            int symbol = arena.symbol(index);
+            return symbol == NONE ? Option.none() : Option.some(arena.symbolText(symbol));
+        }
+
+        public int extra()
+        {
+            return arena.extra(index);
+        }
+
+        public int childCount()
+        {
+            return arena.childCount(index);
+        }
+
+        /**
+         * @return the i-th child, or none for an absent optional child.
+         */
+        public Option<Node> child(int i)
+        {
+            int child = arena.child(index, i);
+            return child == NONE ? Option.none() : Option.some(new Node(arena, child));
+        }
+
+        /**
+         * @return every child slot in order, so {@code children().get(i)} is {@link #child(int) child(i)};
+         * absent optional children are none.
+         */
+        public List<Option<Node>> children()
+        {
+            List<Option<Node>> children = new ArrayList<>(childCount());
+            for (int i = 0; i < childCount(); i++)
+                children.add(child(i));
+            return children;
+        }
+
+        public Expression toExpression()
+        {
+            return arena.toExpression(index);
+        }
+    }
+
+    /// A growable `int[]`; exposes its backing array so reads stay a plain array access.
+    private static final class IntArray
+    {
+        int[] data = new int[64];
+        int size;
+
+        void add(int value)
+        {
+            if (size == data.length)
+                data = Arrays.copyOf(data, size * 2);
+            data[size++] = value;
+        }
+
+        void addAll(int[] values)
+        {
+            if (size + values.length > data.length)
+                data = Arrays.copyOf(data, Math.max(size * 2, size + values.length));
+            System.arraycopy(values, 0, data, size, values.length);
+            size += values.length;
+        }
+    }
+}
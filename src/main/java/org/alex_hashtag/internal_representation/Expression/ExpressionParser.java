@@ -1,16 +1,856 @@
 package org.alex_hashtag.internal_representation.Expression;
 
-import org.alex_hashtag.lexer.Package;
+import org.alex_hashtag.lexer.LexerError;
+import org.alex_hashtag.lib.errors.ErrorManager;
 import org.alex_hashtag.lib.results.Option;
+import org.alex_hashtag.lib.tokenization.Coordinates;
+import org.alex_hashtag.lib.tokenization.Token;
 import org.alex_hashtag.lib.tokenization.TokenList;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
 
+
+/**
+ * Recursive-descent parser turning a range of tokens (usually a {@link LazyBody}) into {@link Expression} trees.
+ * <p>
+ * Errors are reported to the given {@link ErrorManager}; the parser then skips to the end of the
+ * offending statement and carries on, so a single mistake does not hide the rest of the body.
+ */
 public class ExpressionParser
 {
+    /// Binary operators from the loosest to the tightest binding level.
+    private static final List<Set<String>> BINARY_LEVELS = List.of(
+            Set.of("or"),
+            Set.of("and"),
+            Set.of("|"),
+            Set.of("^"),
+            Set.of("&"),
+            Set.of("==", "!="),
+            Set.of("<", ">", "<=", ">="),
+            Set.of("<<", ">>", ">>>"),
+            Set.of("+", "-"),
+            Set.of("*", "/", "%")
+    );
+
+    private static final Set<String> PREFIX_OPERATORS = Set.of("!", "-", "+", "~", "++", "--");
+    private static final Set<String> ASSIGNMENT_OPERATORS = Set.of(
+            "=", "+=", "-=", "*=", "/=", "%=", "&=", "|=", "^=", "<<=", ">>=", ">>>=");
+    private static final Set<String> DECLARATION_MODIFIERS = Set.of("mutable", "const", "static");
+
+    private final TokenList tokens;
+    private final TokenList.LookAheadIterator iterator;
+    private final int offset;
+    private final Token boundary;
+    private final ErrorManager<LexerError> errorManager;
+
+    private ExpressionParser(TokenList tokens, int start, int end, ErrorManager<LexerError> errorManager)
+    {
+        this.tokens = tokens;
+        this.iterator = tokens.iterator(start, end);
+        this.offset = start;
+        this.boundary = tokens.get(Math.min(end, tokens.size() - 1));
+        this.errorManager = errorManager;
+    }
+
+    /**
+     * Parses every statement in {@code tokens[start, end)}.
+     */
+    public static List<Expression> parseStatements(TokenList tokens, int start, int end,
+                                                   ErrorManager<LexerError> errorManager)
+    {
+        ExpressionParser parser = new ExpressionParser(tokens, start, end, errorManager);
+        List<Expression> statements = new ArrayList<>();
+        while (parser.peek() != null && !errorManager.limitReached())
+            parser.parseStatementOrSkip().ifSome(statements::add);
+        return statements;
+    }
+
+    /**
+     * Reads a type such as {@code int32}, {@code List<string>} or {@code float64[]}.
+     * Nothing is consumed when the upcoming tokens do not form a type.
+     */
     public static Option<Expression.IdentifierType> nextTypeExpression(TokenList.LookAheadIterator iterator)
     {
-        return Option.none();
+        iterator.mark();
+        Token first = nextSignificant(iterator);
+        if (!(first instanceof Token.Identifier identifier) || !identifier.type().equals("default"))
+        {
+            iterator.rollback();
+            return Option.none();
+        }
+
+        StringBuilder name = new StringBuilder(identifier.getValue());
+        if (isSymbol(peekSignificant(iterator, 0), "<"))
+        {
+            int depth = 0;
+            do
+            {
+                Token token = nextSignificant(iterator);
+                int change = token == null ? 0 : switch (token.getValue())
+                {
+                    case "<" -> 1;
+                    case ">" -> -1;
+                    case ">>" -> -2;
+                    case ">>>" -> -3;
+                    default -> 0;
+                };
+                boolean valid = token instanceof Token.Identifier part && part.type().equals("default")
+                        || (change != 0 && isSymbol(token, token.getValue()))
+                        || isSymbol(token, ",");
+                if (!valid)
+                {
+                    iterator.rollback();
+                    return Option.none();
+                }
+                depth += change;
+                name.append(token.getValue());
+                if (isSymbol(token, ","))
+                    name.append(' ');
+            } while (depth > 0);
+
+            if (depth < 0)
+            {
+                iterator.rollback();
+                return Option.none();
+            }
+        }
+
+        // Function types: `int32(int32, float64)`
+        if (isSymbol(peekSignificant(iterator, 0), "("))
+        {
+            iterator.mark();
+            nextSignificant(iterator);
+            StringBuilder parameters = new StringBuilder("(");
+            boolean valid = true;
+            while (valid && !isSymbol(peekSignificant(iterator, 0), ")"))
+            {
+                Option<Expression.IdentifierType> parameter = nextTypeExpression(iterator);
+                valid = parameter.isSome();
+                if (!valid)
+                    break;
+                parameters.append(parameter.unwrap().name());
+                if (isSymbol(peekSignificant(iterator, 0), ","))
+                {
+                    nextSignificant(iterator);
+                    parameters.append(", ");
+                }
+                else
+                    valid = isSymbol(peekSignificant(iterator, 0), ")");
+            }
+            if (valid)
+            {
+                nextSignificant(iterator);
+                iterator.commit();
+                name.append(parameters).append(')');
+            }
+            else
+                iterator.rollback();
+        }
+
+        while (isSymbol(peekSignificant(iterator, 0), "[") && isSymbol(peekSignificant(iterator, 1), "]"))
+        {
+            nextSignificant(iterator);
+            nextSignificant(iterator);
+            name.append("[]");
+        }
+
+        iterator.commit();
+        return Option.some(new Expression.IdentifierType(first.getPosition(), name.toString()));
+    }
+
+    // ==================================================
+    // =================== STATEMENTS ===================
+    // ==================================================
+
+    private Option<Expression> parseStatementOrSkip()
+    {
+        int before = iterator.position();
+        try
+        {
+            return Option.some(parseStatement());
+        }
+        catch (Recovery recovery)
+        {
+            synchronize();
+            if (iterator.position() == before)
+                advance(); // Always make progress, even on a stray '}'
+            return Option.none();
+        }
+    }
+
+    private Expression parseStatement()
+    {
+        Token token = peek();
+        Coordinates position = token.getPosition();
+
+        if (isSymbol(token, "{"))
+            return new Expression.Scope(position, parseBlock());
+        if (isSymbol(token, ";"))
+        {
+            advance();
+            return new Expression.Empty(position);
+        }
+
+        if (token instanceof Token.Keyword keyword)
+        {
+            switch (keyword.getValue())
+            {
+                case "if":
+                    return parseIf();
+                case "while":
+                {
+                    advance();
+                    Expression condition = parseParenthesized();
+                    return new Expression.While(position, condition, parseBlock());
+                }
+                case "do":
+                {
+                    advance();
+                    List<Expression> statements = parseBlock();
+                    expect("while");
+                    Expression condition = parseParenthesized();
+                    expect(";");
+                    return new Expression.doWhile(position, statements, condition);
+                }
+                case "loop":
+                {
+                    advance();
+                    Option<Expression> iterations = at("(") ? Option.some(parseParenthesized()) : Option.none();
+                    return new Expression.Loop(position, iterations, parseBlock());
+                }
+                case "for":
+                    return parseFor();
+                case "switch":
+                    return parseSwitch();
+                case "return", "yield":
+                {
+                    advance();
+                    Expression value = at(";") ? new Expression.Empty(position) : parseExpression();
+                    expect(";");
+                    return keyword.getValue().equals("return")
+                            ? new Expression.Return(position, value)
+                            : new Expression.Yield(position, value);
+                }
+                case "break", "continue":
+                {
+                    advance();
+                    expect(";");
+                    return keyword.getValue().equals("break")
+                            ? new Expression.Break(position)
+                            : new Expression.Continue(position);
+                }
+                case "unsafe":
+                {
+                    advance();
+                    return new Expression.Unsafe(position, parseBlock());
+                }
+                default:
+                    break;
+            }
+        }
+
+        Expression simple = parseSimpleStatement();
+        expect(";");
+        return simple;
+    }
+
+    /// A declaration, an assignment or a bare expression, without the trailing ';'.
+    private Expression parseSimpleStatement()
+    {
+        while (peek() instanceof Token.Keyword keyword && DECLARATION_MODIFIERS.contains(keyword.getValue()))
+            advance();
+
+        Option<Expression> declaration = tryDeclaration();
+        if (declaration.isSome())
+            return declaration.unwrap();
+
+        Expression target = parseExpression();
+        Token operator = peek();
+        if (!(operator instanceof Token.Operator) || !ASSIGNMENT_OPERATORS.contains(operator.getValue()))
+            return target;
+
+        advance();
+        Expression value = parseExpression();
+        if (!(target instanceof Expression.IdentifierVar variable))
+            return new Expression.Binary(position(target), target, value, (Token.Operator) operator);
+
+        if (!operator.getValue().equals("="))
+        {
+            // `x += 1` is stored as `x = x + 1`
+            String binary = operator.getValue().substring(0, operator.getValue().length() - 1);
+            value = new Expression.Binary(variable.coordinates(), variable, value,
+                    new Token.Operator(operator.getPosition(), binary));
+        }
+        return new Expression.VariableAssigment(variable.coordinates(), variable.name(), value);
+    }
+
+    /// `Type name` or `Type name = value`; nothing is consumed if the tokens are not a declaration.
+    private Option<Expression> tryDeclaration()
+    {
+        iterator.mark();
+        Option<Expression.IdentifierType> type = nextTypeExpression(iterator);
+        if (type.isNone() || !(peek() instanceof Token.Identifier name) || !name.type().equals("default"))
+        {
+            iterator.rollback();
+            return Option.none();
+        }
+        iterator.commit();
+        advance();
+
+        Expression.IdentifierType declared = type.unwrap();
+        if (at("="))
+        {
+            advance();
+            return Option.some(new Expression.VariableDeclarationAssigment(
+                    declared.coordinates(), declared, name.getValue(), parseExpression()));
+        }
+        return Option.some(new Expression.VariableDeclaration(declared.coordinates(), declared, name.getValue()));
+    }
+
+    private Expression.If parseIf()
+    {
+        Token keyword = advance();
+        Expression condition = parseParenthesized();
+        List<Expression> statements = parseBlock();
+
+        Option<Expression.If> elseBranch = Option.none();
+        if (at("else"))
+        {
+            Token elseKeyword = advance();
+            if (at("if"))
+            {
+                elseBranch = Option.some(parseIf());
+            }
+            else
+            {
+                // A plain `else` is an If whose condition is Empty
+                Coordinates position = elseKeyword.getPosition();
+                elseBranch = Option.some(new Expression.If(position, new Expression.Empty(position), parseBlock(),
+                        Option.none()));
+            }
+        }
+        return new Expression.If(keyword.getPosition(), condition, statements, elseBranch);
+    }
+
+    /// `for (init; conditions; updates) { ... }` or `for (Type item : list) { ... }`.
+    private Expression parseFor()
+    {
+        Coordinates position = advance().getPosition();
+        expect("(");
+
+        iterator.mark();
+        Option<Expression.IdentifierType> type = nextTypeExpression(iterator);
+        if (type.isSome() && peek() instanceof Token.Identifier item && isSymbol(peekAt(1), ":"))
+        {
+            iterator.commit();
+            advance();
+            advance();
+            Expression list = parseExpression();
+            expect(")");
+            Expression.IdentifierType itemType = type.unwrap();
+            return new Expression.ForEach(position,
+                    new Expression.VariableDeclaration(itemType.coordinates(), itemType, item.getValue()),
+                    list, parseBlock());
+        }
+        iterator.rollback();
+
+        Expression.ArgsList init = parseForClause(";", true);
+        Expression.ArgsList conditions = parseForClause(";", false);
+        Expression.ArgsList updates = parseForClause(")", true);
+        return new Expression.For(position, init, conditions, updates, parseBlock());
+    }
+
+    private Expression.ArgsList parseForClause(String terminator, boolean statements)
+    {
+        Coordinates position = peekPosition();
+        List<Expression> items = new ArrayList<>();
+        while (!at(terminator))
+        {
+            items.add(statements ? parseSimpleStatement() : parseExpression());
+            if (!at(terminator))
+                expect(",");
+        }
+        advance();
+        return new Expression.ArgsList(position, items);
+    }
+
+    /// `switch (value) { a, b -> result; c -> { ... } }`.
+    private Expression parseSwitch()
+    {
+        Coordinates position = advance().getPosition();
+        Expression compare = parseParenthesized();
+        expect("{");
+
+        List<Expression.Switch.Case> cases = new ArrayList<>();
+        while (!at("}"))
+        {
+            Coordinates casePosition = peekPosition();
+            List<Expression> patterns = new ArrayList<>();
+            patterns.add(parseExpression());
+            while (at(","))
+            {
+                advance();
+                patterns.add(parseExpression());
+            }
+            expect("->");
+
+            Expression resolve;
+            if (at("{"))
+            {
+                Coordinates scopePosition = peekPosition();
+                resolve = new Expression.Scope(scopePosition, parseBlock());
+            }
+            else
+            {
+                resolve = parseExpression();
+                expect(";");
+            }
+            cases.add(new Expression.Switch.Case(casePosition, patterns, resolve));
+        }
+        advance();
+        return new Expression.Switch(position, compare, cases);
+    }
+
+    /// `{ statements }`; errors inside the block are recovered from without leaving it.
+    private List<Expression> parseBlock()
+    {
+        expect("{");
+        List<Expression> statements = new ArrayList<>();
+        while (peek() != null && !at("}"))
+            parseStatementOrSkip().ifSome(statements::add);
+        expect("}");
+        return statements;
+    }
+
+    // ==================================================
+    // =================== EXPRESSIONS ==================
+    // ==================================================
+
+    private Expression parseExpression()
+    {
+        return parseBinary(0);
+    }
+
+    private Expression parseBinary(int level)
+    {
+        if (level == BINARY_LEVELS.size())
+            return parseUnary();
+
+        Expression left = parseBinary(level + 1);
+        while (true)
+        {
+            Token token = peek();
+            if (!isBinaryOperator(token) || !BINARY_LEVELS.get(level).contains(token.getValue()))
+                return left;
+            advance();
+            Expression right = parseBinary(level + 1);
+            left = new Expression.Binary(position(left), left, right,
+                    new Token.Operator(token.getPosition(), token.getValue()));
+        }
+    }
+
+    private Expression parseUnary()
+    {
+        Token token = peek();
+        if (token instanceof Token.Operator operator && PREFIX_OPERATORS.contains(operator.getValue()))
+        {
+            advance();
+            return new Expression.Unary(operator.position(), parseUnary(), operator, false);
+        }
+        if (isSymbol(token, "sizeof"))
+        {
+            advance();
+            return new Expression.Sizeof(token.getPosition(), parseParenthesized());
+        }
+        if (isSymbol(token, "typeof"))
+        {
+            advance();
+            return new Expression.Typeof(token.getPosition(), parseParenthesized());
+        }
+        return parsePostfix(parsePrimary());
+    }
+
+    private Expression parsePostfix(Expression expression)
+    {
+        while (true)
+        {
+            Token token = peek();
+            Coordinates position = position(expression);
+
+            if (isSymbol(token, "("))
+            {
+                Expression callee = expression instanceof Expression.IdentifierVar variable
+                        ? new Expression.IdentifierFunc(variable.coordinates(), variable.name())
+                        : expression;
+                expression = new Expression.FunctionInvocation(position, callee, parseArguments("(", ")"));
+            }
+            else if (isSymbol(token, "."))
+            {
+                advance();
+                Token member = advance();
+                if (member instanceof Token.Identifier identifier)
+                    expression = new Expression.InstanceAccessStruct(position, expression, identifier.getValue());
+                else if (member instanceof Token.Literal literal && literal.type().equals("integer"))
+                    expression = new Expression.InstanceAccessEnum(position, expression, parseIndex(literal));
+                else
+                    throw error(member, "Expected a member name after '.', found " + describe(member),
+                            "Members are accessed as 'value.name'.");
+            }
+            else if (isSymbol(token, "["))
+            {
+                advance();
+                Expression index = parseExpression();
+                expect("]");
+                expression = index instanceof Expression.Literal.Int(Coordinates ignored, String value)
+                        && value.matches("\\d{1,9}")
+                        ? new Expression.InstanceAccessArray(position, expression, Integer.parseInt(value))
+                        : new Expression.Index(position, expression, index);
+            }
+            else if (isSymbol(token, "::"))
+            {
+                advance();
+                Token member = advance();
+                if (!(member instanceof Token.Identifier identifier))
+                    throw error(member, "Expected a name after '::', found " + describe(member),
+                            "Static members are accessed as 'Type::name'.");
+                expression = new Expression.StaticAccessLambda(position, expression, identifier.getValue());
+            }
+            else if (token instanceof Token.Operator operator
+                    && (operator.getValue().equals("++") || operator.getValue().equals("--")))
+            {
+                advance();
+                expression = new Expression.Unary(position, expression, operator, true);
+            }
+            else
+            {
+                return expression;
+            }
+        }
+    }
+
+    private Expression parsePrimary()
+    {
+        Token token = peek();
+        if (token == null)
+            throw error(null, "Expected an expression, found the end of the body.", "");
+        Coordinates position = token.getPosition();
+
+        switch (token)
+        {
+            case Token.Literal literal ->
+            {
+                advance();
+                return switch (literal.type())
+                {
+                    case "integer" -> new Expression.Literal.Int(position, literal.getValue());
+                    case "float" -> new Expression.Literal.Float(position, literal.getValue());
+                    case "char" -> new Expression.Literal.Char(position, literal.getValue());
+                    case "rune" -> new Expression.Literal.Rune(position, literal.getValue());
+                    case "boolean" -> new Expression.Literal.Bool(position, literal.getValue());
+                    case "null" -> new Expression.Literal.Null(position);
+                    default -> new Expression.Literal.Str(position, literal.getValue());
+                };
+            }
+            case Token.Identifier identifier when identifier.type().equals("default") ->
+            {
+                advance();
+                if (isStructLiteralAhead())
+                    return parseStructLiteral(new Expression.IdentifierType(position, identifier.getValue()));
+                return new Expression.IdentifierVar(position, identifier.getValue());
+            }
+            case Token.Identifier identifier when identifier.type().equals("macro") ->
+            {
+                advance();
+                return new Expression.IdentifierFunc(position, identifier.getValue() + "!");
+            }
+            case Token.Keyword keyword when keyword.getValue().equals("echo") ->
+            {
+                advance();
+                return new Expression.IdentifierFunc(position, "echo");
+            }
+            case Token.Delimiter delimiter when delimiter.getValue().equals("(") ->
+            {
+                Option<Expression> lambda = tryLambda();
+                if (lambda.isSome())
+                    return lambda.unwrap();
+                return parseParenthesized();
+            }
+            case Token.Delimiter delimiter when delimiter.getValue().equals("[") ->
+            {
+                Expression.ArgsList elements = parseArguments("[", "]");
+                return new Expression.Literal.Array(position, new Expression.IdentifierType(position, "_"),
+                        new Expression.Literal.Int(position, String.valueOf(elements.arguments().size())),
+                        elements.arguments());
+            }
+            default -> throw error(token, "Expected an expression, found " + describe(token),
+                    "Expressions start with a literal, a name, '(' or '['.");
+        }
+    }
+
+    /// `(Type a, Type b) -> { ... }`; the body is kept as a [LazyBody].
+    private Option<Expression> tryLambda()
+    {
+        iterator.mark();
+        Coordinates position = advance().getPosition();
+        List<Expression> parameters = new ArrayList<>();
+        while (!at(")"))
+        {
+            Option<Expression.IdentifierType> type = nextTypeExpression(iterator);
+            if (type.isNone() || !(peek() instanceof Token.Identifier name))
+            {
+                iterator.rollback();
+                return Option.none();
+            }
+            advance();
+            Expression.IdentifierType parameterType = type.unwrap();
+            parameters.add(new Expression.VariableDeclaration(parameterType.coordinates(), parameterType, name.getValue()));
+            if (at(","))
+                advance();
+            else if (!at(")"))
+            {
+                iterator.rollback();
+                return Option.none();
+            }
+        }
+        advance();
+        if (!at("->"))
+        {
+            iterator.rollback();
+            return Option.none();
+        }
+        iterator.commit();
+        advance();
+
+        expect("{");
+        int start = offset + iterator.position();
+        int depth = 1;
+        while (depth > 0)
+        {
+            Token token = advance();
+            if (token == null)
+                throw error(null, "Unclosed lambda body.", "Add the missing '}'.");
+            if (isSymbol(token, "{")) depth++;
+            else if (isSymbol(token, "}")) depth--;
+        }
+        int end = offset + iterator.position() - 1;
+        return Option.some(new Expression.AnonFunctionLamnda(position,
+                new Expression.ArgsList(position, parameters),
+                new LazyBody(tokens, start, end, errorManager)));
     }
 
+    /// `Type { }` or `Type { name = ...`: tells a struct literal apart from a following block.
+    private boolean isStructLiteralAhead()
+    {
+        if (!at("{"))
+            return false;
+        Token first = peekAt(1);
+        return isSymbol(first, "}")
+                || (first instanceof Token.Identifier && isSymbol(peekAt(2), "="));
+    }
+
+    private Expression parseStructLiteral(Expression.IdentifierType type)
+    {
+        expect("{");
+        List<Expression.VariableAssigment> assignments = new ArrayList<>();
+        while (!at("}"))
+        {
+            Token field = advance();
+            if (!(field instanceof Token.Identifier identifier))
+                throw error(field, "Expected a field name, found " + describe(field),
+                        "Struct literals look like 'Type { field = value, ... }'.");
+            expect("=");
+            assignments.add(new Expression.VariableAssigment(identifier.position(), identifier.getValue(),
+                    parseExpression()));
+            if (!at("}"))
+                expect(",");
+        }
+        advance();
+        return new Expression.Literal.Struct(type.coordinates(), type, assignments);
+    }
+
+    private Expression.ArgsList parseArguments(String open, String close)
+    {
+        Coordinates position = expect(open).getPosition();
+        List<Expression> arguments = new ArrayList<>();
+        while (!at(close))
+        {
+            arguments.add(parseExpression());
+            if (!at(close))
+                expect(",");
+        }
+        advance();
+        return new Expression.ArgsList(position, arguments);
+    }
 
+    private Expression parseParenthesized()
+    {
+        expect("(");
+        Expression expression = parseExpression();
+        expect(")");
+        return expression;
+    }
+
+    private int parseIndex(Token.Literal literal)
+    {
+        if (!literal.isLong() || literal.longValue() > Integer.MAX_VALUE)
+            throw error(literal, "Index " + literal.getValue() + " is out of range.", "");
+        return (int) literal.longValue();
+    }
+
+    // ==================================================
+    // ================= TOKEN HELPERS ==================
+    // ==================================================
+
+    private Token peek()
+    {
+        return peekAt(0);
+    }
+
+    private Token peekAt(int n)
+    {
+        return peekSignificant(iterator, n);
+    }
+
+    private Coordinates peekPosition()
+    {
+        Token token = peek();
+        return (token == null ? boundary : token).getPosition();
+    }
+
+    private Token advance()
+    {
+        return nextSignificant(iterator);
+    }
+
+    private boolean at(String value)
+    {
+        return isSymbol(peek(), value);
+    }
+
+    private Token expect(String value)
+    {
+        Token token = peek();
+        if (!isSymbol(token, value))
+            throw error(token, "Expected '" + value + "', found " + describe(token), "");
+        return advance();
+    }
+
+    /// Skips to just after the next ';' or to the '}' closing the current block.
+    private void synchronize()
+    {
+        int depth = 0;
+        Token token;
+        while ((token = peek()) != null)
+        {
+            if (isSymbol(token, "}"))
+            {
+                if (depth == 0)
+                    return;
+                depth--;
+            }
+            else if (isSymbol(token, "{"))
+                depth++;
+            advance();
+            if (depth == 0 && isSymbol(token, ";"))
+                return;
+        }
+    }
+
+    private Recovery error(Token token, String message, String hint)
+    {
+        Token at = token == null ? boundary : token;
+        errorManager.reportError(new LexerError(message, at.getPosition().line(), at.getPosition().column(), at, hint));
+        return new Recovery();
+    }
+
+    private static String describe(Token token)
+    {
+        return token == null ? "the end of the body" : "'" + token.getValue() + "'";
+    }
+
+    private static Coordinates position(Expression expression)
+    {
+        return switch (expression)
+        {
+            case Expression.IdentifierVar variable -> variable.coordinates();
+            case Expression.IdentifierFunc function -> function.coordinates();
+            case Expression.IdentifierType type -> type.coordinates();
+            case Expression.Binary binary -> binary.coordinates();
+            case Expression.Unary unary -> unary.coordinates();
+            case Expression.FunctionInvocation invocation -> invocation.coordinates();
+            case Expression.InstanceAccessStruct access -> access.coordinates();
+            case Expression.InstanceAccessEnum access -> access.coordinates();
+            case Expression.InstanceAccessArray access -> access.coordinates();
+            case Expression.Index index -> index.coordinates();
+            case Expression.StaticAccessLambda access -> access.coordinates();
+            case Expression.AnonFunctionLamnda lambda -> lambda.coordinates();
+            case Expression.Sizeof sizeof -> sizeof.coordinates();
+            case Expression.Typeof typeof -> typeof.coordinates();
+            case Expression.Literal.Int literal -> literal.coordinates();
+            case Expression.Literal.Float literal -> literal.coordinates();
+            case Expression.Literal.Char literal -> literal.coordinates();
+            case Expression.Literal.Rune literal -> literal.coordinates();
+            case Expression.Literal.Str literal -> literal.coordinates();
+            case Expression.Literal.Bool literal -> literal.coordinates();
+            case Expression.Literal.Null literal -> literal.coordinates();
+            case Expression.Literal.Array literal -> literal.coordinates();
+            case Expression.Literal.Struct literal -> literal.coordinates();
+            case Expression.ArgsList args -> args.coordinates();
+            default -> new Coordinates(0, 0);
+        };
+    }
+
+    /// Operators only; `<` and `>` are lexed as delimiters because they also close generic
+    /// arguments, so they are the two delimiters accepted as comparisons.
+    private static boolean isBinaryOperator(Token token)
+    {
+        return token instanceof Token.Operator
+                || token instanceof Token.Delimiter delimiter
+                && (delimiter.getValue().equals("<") || delimiter.getValue().equals(">"));
+    }
+
+    /// Whether the token is the given delimiter, operator or keyword (never a literal or name).
+    private static boolean isSymbol(Token token, String value)
+    {
+        return (token instanceof Token.Delimiter || token instanceof Token.Operator || token instanceof Token.Keyword)
+                && token.getValue().equals(value);
+    }
+
+    private static Token nextSignificant(TokenList.LookAheadIterator iterator)
+    {
+        while (iterator.hasNext())
+        {
+            Token token = iterator.next();
+            if (token instanceof Token.End)
+                return null;
+            if (!(token instanceof Token.Comment) && !(token instanceof Token.Start))
+                return token;
+        }
+        return null;
+    }
+
+    private static Token peekSignificant(TokenList.LookAheadIterator iterator, int n)
+    {
+        for (int steps = 0; ; steps++)
+        {
+            Token token = iterator.lookAhead(steps);
+            if (token == null || token instanceof Token.End)
+                return null;
+            if (token instanceof Token.Comment || token instanceof Token.Start)
+                continue;
+            if (n-- == 0)
+                return token;
+        }
+    }
+
+    /// Unwinds to the enclosing statement after an error has been reported.
+    private static final class Recovery extends RuntimeException
+    {
+        private Recovery()
+        {
+            super(null, null, false, false);
+        }
+    }
 }
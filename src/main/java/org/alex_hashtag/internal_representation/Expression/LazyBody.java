@@ -0,0 +1,114 @@
+package org.alex_hashtag.internal_representation.Expression;
+
+import org.alex_hashtag.lexer.LexerError;
+import org.alex_hashtag.lib.errors.ErrorManager;
+import org.alex_hashtag.lib.tokenization.TokenList;
+
+import java.util.List;
+
+
+/**
+ * The body of a function or lambda, kept as a range of tokens until someone asks for it.
+ * <p>
+ * The header pass only records where a body starts and ends; {@link #get()} parses it into
+ * {@link Expression} trees the first time it is called and caches the result. Parsing happens
+ * at most once even when several threads ask for the same body concurrently, and errors found
+ * while parsing are reported to the error manager of the module the body belongs to.
+ */
+public final class LazyBody
+{
+    private final TokenList tokens;
+    private final int start;
+    private final int end;
+    private final ErrorManager<LexerError> errorManager;
+
+    private volatile List<Expression> statements;
+
+    /**
+     * @param tokens       the token list of the whole file.
+     * @param start        index of the first token inside the braces.
+     * @param end          index of the closing brace (exclusive end of the body).
+     * @param errorManager where parse errors of this body are reported.
+     */
+    public LazyBody(TokenList tokens, int start, int end, ErrorManager<LexerError> errorManager)
+    {
+        if (start < 0 || end < start || end > tokens.size())
+            throw new IndexOutOfBoundsException("Invalid body range [" + start + ", " + end + ")");
+        this.tokens = tokens;
+        this.start = start;
+        this.end = end;
+        this.errorManager = errorManager;
+    }
+
+    private LazyBody(List<Expression> statements)
+    {
+        this.tokens = null;
+        this.start = 0;
+        this.end = 0;
+        this.errorManager = null;
+        this.statements = List.copyOf(statements);
+    }
+
+    /**
+     * @return a body that was already parsed elsewhere, e.g. loaded from a serialized AST.
+     */
+    public static LazyBody materialized(List<Expression> statements)
+    {
+        return new LazyBody(statements);
+    }
+
+    /**
+     * @return the statements of the body, parsing them on the first call.
+     */
+    public List<Expression> get()
+    {
+        List<Expression> result = statements;
+        if (result == null)
+        {
+            synchronized (this)
+            {
+                result = statements;
+                if (result == null)
+                {
+                    result = List.copyOf(ExpressionParser.parseStatements(tokens, start, end, errorManager));
+                    statements = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return whether {@link #get()} has already parsed this body.
+     */
+    public boolean isMaterialized()
+    {
+        return statements != null;
+    }
+
+    public int getStart()
+    {
+        return start;
+    }
+
+    public int getEnd()
+    {
+        return end;
+    }
+
+    /**
+     * @return the number of tokens in the body, a cheap proxy for its size before parsing.
+     */
+    public int tokenCount()
+    {
+        return end - start;
+    }
+
+    @Override
+    public String toString()
+    {
+        return isMaterialized()
+                ? "LazyBody" + statements
+                : "LazyBody[tokens " + start + ".." + end + ", not parsed]";
+    }
+}
@@ -1,11 +1,15 @@
 package org.alex_hashtag.internal_representation.ast;
 
+import lombok.Getter;
 import org.alex_hashtag.internal_representation.function.Function;
 import org.alex_hashtag.internal_representation.macros.Annotation;
 import org.alex_hashtag.internal_representation.macros.Macro;
-import org.alex_hashtag.internal_representation.macros.MacroParser;
+import org.alex_hashtag.internal_representation.macros.MacroIndex;
 import org.alex_hashtag.internal_representation.types.Field;
 import org.alex_hashtag.internal_representation.types.Type;
+import org.alex_hashtag.lib.errors.Diagnostics;
+import org.alex_hashtag.lib.profiling.Phase;
+import org.alex_hashtag.lib.profiling.PhaseTimer;
 import org.alex_hashtag.tokenizationOLD.TokenStream;
 
 import java.util.ArrayList;
@@ -15,7 +19,10 @@ import java.util.List;
 public class AbstractSyntaxTree
 {
 
+    @Getter
     private final List<Macro> macros = new ArrayList<>();
+    @Getter
+    private final MacroIndex macroIndex;
     private final List<Annotation> annotations = new ArrayList<>();
     private final List<Type> types = new ArrayList<>();
     private final List<Function> functions = new ArrayList<>();
@@ -23,9 +30,23 @@ public class AbstractSyntaxTree
 
     public AbstractSyntaxTree(List<TokenStream> tokenStreams)
     {
-        // Use the MacroParser to parse macros
-        MacroParser macroParser = new MacroParser();
-        this.macros.addAll(macroParser.parseAllMacros(tokenStreams));
+        this(tokenStreams, null);
+    }
+
+    /**
+     * @param diagnostics where errors are streamed to, or null to print them to {@code System.out}.
+     */
+    public AbstractSyntaxTree(List<TokenStream> tokenStreams, Diagnostics diagnostics)
+    {
+        try (PhaseTimer.Scope scope = PhaseTimer.get().start(Phase.AST_BUILD))
+        {
+            // Parse the macros of all files in parallel and index them by qualified name
+            this.macroIndex = MacroIndex.build(tokenStreams, diagnostics);
+            this.macros.addAll(macroIndex.getMacros());
+            scope.nodes(macros.size());
+        }
+        if (diagnostics == null && macroIndex.hasErrors())
+            macroIndex.printErrors(System.out);
 
 
         // initAnnotations(tokenStreams);
@@ -33,6 +54,19 @@ public class AbstractSyntaxTree
         // initFunctions(tokenStreams);
     }
 
+    /**
+     * Builds the tree from macros that were already indexed, e.g. by an incremental build.
+     */
+    public AbstractSyntaxTree(MacroIndex macroIndex)
+    {
+        try (PhaseTimer.Scope scope = PhaseTimer.get().start(Phase.AST_BUILD))
+        {
+            this.macroIndex = macroIndex;
+            this.macros.addAll(macroIndex.getMacros());
+            scope.nodes(macros.size());
+        }
+    }
+
     @Override
     public String toString()
     {
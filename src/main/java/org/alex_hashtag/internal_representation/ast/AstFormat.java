@@ -0,0 +1,160 @@
+package org.alex_hashtag.internal_representation.ast;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+
+/**
+ * Constants and primitive encodings shared by {@link AstWriter} and {@link AstReader}.
+ * <p>
+ * Layout of a file (all multi-byte integers are unsigned LEB128 varints unless noted):
+ * <pre>
+ * magic       int32, big endian, "TAST"
+ * version     varint
+ * strings     varint count, then per string: varint byte length, UTF-8 bytes
+ * sections    repeated: tag byte, varint payload length, payload
+ * end         tag byte SECTION_END
+ * </pre>
+ * Strings are referenced by their index in the string table; optional strings are stored as
+ * {@code index + 1} with {@code 0} meaning absent. Readers skip sections with unknown tags,
+ * so new sections can be added without bumping the version.
+ */
+final class AstFormat
+{
+    static final int MAGIC = 0x54415354; // "TAST"
+    static final int VERSION = 1;
+
+    static final byte SECTION_END = 0;
+    static final byte SECTION_MODULE = 1;
+    static final byte SECTION_MACROS = 2;
+    static final byte SECTION_BODIES = 3;
+
+    // Import.Type
+    static final byte IMPORT_CLASS = 0;
+    static final byte IMPORT_ENUM = 1;
+    static final byte IMPORT_TRAIT = 2;
+    static final byte IMPORT_VAR = 3;
+    static final byte IMPORT_FUNC = 4;
+    static final byte IMPORT_MACRO = 5;
+    static final byte IMPORT_ANNOTATION = 6;
+
+    // Prototype
+    static final byte PROTOTYPE_VARIABLE = 0;
+    static final byte PROTOTYPE_FUNCTION = 1;
+    static final byte PROTOTYPE_CLASS = 2;
+    static final byte PROTOTYPE_ENUM = 3;
+    static final byte PROTOTYPE_TRAIT = 4;
+
+    // TypeHolder
+    static final byte TYPE_RESOLVED = 0;
+    static final byte TYPE_INCOMPATIBLE = 1;
+
+    // Macro.Pattern.PatternElement
+    static final byte ELEMENT_LITERAL = 0;
+    static final byte ELEMENT_VARIABLE = 1;
+    static final byte ELEMENT_REPETITION = 2;
+
+    private AstFormat()
+    {
+    }
+
+    static int readVarint(ByteBuffer buffer)
+    {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7)
+        {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+        }
+        throw new IllegalArgumentException("Malformed varint at offset " + (buffer.position() - 5));
+    }
+
+    static int readSignedVarint(ByteBuffer buffer)
+    {
+        int raw = readVarint(buffer);
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+
+    static int zigzag(int value)
+    {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    /// A growable heap buffer that writers append to.
+    static final class Sink
+    {
+        private ByteBuffer buffer = ByteBuffer.allocate(256);
+
+        void put(int b)
+        {
+            ensure(1);
+            buffer.put((byte) b);
+        }
+
+        void putInt(int value)
+        {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        void putVarint(int value)
+        {
+            ensure(5);
+            while ((value & ~0x7F) != 0)
+            {
+                buffer.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+
+        void putSignedVarint(int value)
+        {
+            putVarint(zigzag(value));
+        }
+
+        void putBytes(byte[] bytes)
+        {
+            ensure(bytes.length);
+            buffer.put(bytes);
+        }
+
+        void putSink(Sink other)
+        {
+            ByteBuffer data = other.flipped();
+            ensure(data.remaining());
+            buffer.put(data);
+        }
+
+        int size()
+        {
+            return buffer.position();
+        }
+
+        /// A read-only view of everything written so far.
+        ByteBuffer flipped()
+        {
+            return buffer.duplicate().flip().asReadOnlyBuffer();
+        }
+
+        private void ensure(int bytes)
+        {
+            if (buffer.remaining() >= bytes)
+                return;
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+            buffer.flip();
+            bigger.put(buffer);
+            buffer = bigger;
+        }
+    }
+
+    /// Turns running off the end of the data into a format error.
+    static IllegalArgumentException truncated(BufferUnderflowException cause)
+    {
+        IllegalArgumentException exception = new IllegalArgumentException("Truncated AST data");
+        exception.initCause(cause);
+        return exception;
+    }
+}
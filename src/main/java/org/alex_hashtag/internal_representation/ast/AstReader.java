@@ -0,0 +1,464 @@
+package org.alex_hashtag.internal_representation.ast;
+
+import org.alex_hashtag.internal_representation.Expression.ExpressionArena;
+import org.alex_hashtag.internal_representation.Expression.LazyBody;
+import org.alex_hashtag.internal_representation.macros.Macro;
+import org.alex_hashtag.internal_representation.types.TypeHolder;
+import org.alex_hashtag.lexer.Import;
+import org.alex_hashtag.lexer.Prototype;
+import org.alex_hashtag.lib.tokenization.Coordinates;
+import org.alex_hashtag.tokenizationOLD.CoordinatesOLD;
+import org.alex_hashtag.tokenizationOLD.Token;
+import org.alex_hashtag.tokenizationOLD.TokenStream;
+import org.alex_hashtag.tokenizationOLD.TokenType;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import static org.alex_hashtag.internal_representation.ast.AstFormat.*;
+
+
+/**
+ * Decodes the binary format written by {@link AstWriter} back into a {@link ModuleImage}.
+ * Malformed or truncated data is reported as an {@link IllegalArgumentException}.
+ */
+public final class AstReader
+{
+    private static final ExpressionArena.Kind[] KINDS = ExpressionArena.Kind.values();
+    private static final Macro.Pattern.MacroVarType[] VAR_TYPES = Macro.Pattern.MacroVarType.values();
+    private static final Macro.Pattern.RepetitionKind[] REPETITIONS = Macro.Pattern.RepetitionKind.values();
+
+    /// The child slots of each kind as written: `e` expression, `o` optional expression, `l` LIST,
+    /// `a` ARGS, `t` IDENTIFIER_TYPE, `p` OPERATOR, `i` optional IF, `s` LIST of CASE and `m` LIST of
+    /// ASSIGNMENT; `*` is any number of children. Kinds that are not listed have no children.
+    /// A LAMBDA is written with its statement list as an extra last child.
+    private static final Map<ExpressionArena.Kind, String> LAYOUTS = new EnumMap<>(Map.ofEntries(
+            Map.entry(ExpressionArena.Kind.BINARY, "eep"),
+            Map.entry(ExpressionArena.Kind.UNARY, "ep"),
+            Map.entry(ExpressionArena.Kind.IF, "eli"),
+            Map.entry(ExpressionArena.Kind.LOOP, "ol"),
+            Map.entry(ExpressionArena.Kind.WHILE, "el"),
+            Map.entry(ExpressionArena.Kind.DO_WHILE, "le"),
+            Map.entry(ExpressionArena.Kind.FOR, "aaal"),
+            Map.entry(ExpressionArena.Kind.FOR_EACH, "eel"),
+            Map.entry(ExpressionArena.Kind.SWITCH, "es"),
+            Map.entry(ExpressionArena.Kind.CASE, "le"),
+            Map.entry(ExpressionArena.Kind.RETURN, "e"),
+            Map.entry(ExpressionArena.Kind.YIELD, "e"),
+            Map.entry(ExpressionArena.Kind.SIZEOF, "e"),
+            Map.entry(ExpressionArena.Kind.TYPEOF, "e"),
+            Map.entry(ExpressionArena.Kind.SCOPE, "*"),
+            Map.entry(ExpressionArena.Kind.UNSAFE, "*"),
+            Map.entry(ExpressionArena.Kind.ACCESS_STRUCT, "e"),
+            Map.entry(ExpressionArena.Kind.ACCESS_ENUM, "e"),
+            Map.entry(ExpressionArena.Kind.ACCESS_ARRAY, "e"),
+            Map.entry(ExpressionArena.Kind.INDEX, "ee"),
+            Map.entry(ExpressionArena.Kind.STATIC_ACCESS, "e"),
+            Map.entry(ExpressionArena.Kind.INVOCATION, "ea"),
+            Map.entry(ExpressionArena.Kind.LAMBDA, "al"),
+            Map.entry(ExpressionArena.Kind.DECLARATION, "t"),
+            Map.entry(ExpressionArena.Kind.ASSIGNMENT, "e"),
+            Map.entry(ExpressionArena.Kind.DECLARATION_ASSIGNMENT, "te"),
+            Map.entry(ExpressionArena.Kind.ARRAY, "tel"),
+            Map.entry(ExpressionArena.Kind.STRUCT, "tm"),
+            Map.entry(ExpressionArena.Kind.ENUM, "ta"),
+            Map.entry(ExpressionArena.Kind.ARGS, "*"),
+            Map.entry(ExpressionArena.Kind.LIST, "*")));
+
+    /// Kinds whose symbol holds their name, value or operator.
+    private static final Set<ExpressionArena.Kind> NAMED = EnumSet.of(
+            ExpressionArena.Kind.ACCESS_STRUCT, ExpressionArena.Kind.STATIC_ACCESS,
+            ExpressionArena.Kind.IDENTIFIER_VAR, ExpressionArena.Kind.IDENTIFIER_TYPE, ExpressionArena.Kind.IDENTIFIER_FUNC,
+            ExpressionArena.Kind.DECLARATION, ExpressionArena.Kind.ASSIGNMENT, ExpressionArena.Kind.DECLARATION_ASSIGNMENT,
+            ExpressionArena.Kind.INT, ExpressionArena.Kind.FLOAT, ExpressionArena.Kind.CHAR, ExpressionArena.Kind.RUNE,
+            ExpressionArena.Kind.STR, ExpressionArena.Kind.BOOL, ExpressionArena.Kind.ENUM, ExpressionArena.Kind.OPERATOR);
+
+    private final ByteBuffer buffer;
+    private String[] strings;
+
+    private AstReader(ByteBuffer buffer)
+    {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Memory-maps the file and decodes it; the mapping is dropped once decoding is done.
+     */
+    public static ModuleImage read(Path path) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            return decode(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Decodes an image starting at the buffer's current position.
+     */
+    public static ModuleImage decode(ByteBuffer buffer)
+    {
+        try
+        {
+            return new AstReader(buffer.duplicate()).readImage();
+        }
+        catch (BufferUnderflowException e)
+        {
+            throw truncated(e);
+        }
+    }
+
+    private ModuleImage readImage()
+    {
+        if (buffer.getInt() != MAGIC)
+            throw new IllegalArgumentException("Not a Toucan AST file");
+        int version = readVarint(buffer);
+        if (version != VERSION)
+            throw new IllegalArgumentException("Unsupported AST format version " + version + ", expected " + VERSION);
+
+        strings = new String[readCount()];
+        for (int i = 0; i < strings.length; i++)
+        {
+            byte[] bytes = new byte[readCount()];
+            buffer.get(bytes);
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        String fileName = "";
+        List<String> namespace = List.of();
+        List<Import> imports = List.of();
+        List<Prototype> prototypes = List.of();
+        List<Macro> macros = List.of();
+        ExpressionArena bodies = new ExpressionArena();
+        Map<String, Integer> bodyRoots = Map.of();
+
+        for (byte tag = buffer.get(); tag != SECTION_END; tag = buffer.get())
+        {
+            int length = readCount();
+            int end = buffer.position() + length;
+            switch (tag)
+            {
+                case SECTION_MODULE ->
+                {
+                    fileName = readString();
+                    namespace = readStrings();
+                    imports = readImports();
+                    prototypes = readPrototypes();
+                }
+                case SECTION_MACROS -> macros = readMacros();
+                case SECTION_BODIES -> bodyRoots = readBodies(bodies);
+                default ->
+                {
+                    // Unknown section from a newer writer: skip it
+                }
+            }
+            buffer.position(end);
+        }
+
+        return new ModuleImage(fileName, namespace, imports, prototypes, macros, bodies, bodyRoots);
+    }
+
+    // ==================================================
+    // ===================== MODULE =====================
+    // ==================================================
+
+    private List<Import> readImports()
+    {
+        int count = readCount();
+        List<Import> imports = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+        {
+            byte kind = buffer.get();
+            Import.Type type = switch (kind)
+            {
+                case IMPORT_CLASS -> new Import.Type.Class();
+                case IMPORT_ENUM -> new Import.Type.Enum();
+                case IMPORT_TRAIT -> new Import.Type.Trait();
+                case IMPORT_VAR -> new Import.Type.Var(readType());
+                case IMPORT_FUNC -> new Import.Type.Func(readType());
+                case IMPORT_MACRO -> new Import.Type.Macro();
+                case IMPORT_ANNOTATION -> new Import.Type.Annotation();
+                default -> throw new IllegalArgumentException("Unknown import kind " + kind);
+            };
+            imports.add(new Import(type, readStrings()));
+        }
+        return imports;
+    }
+
+    private List<Prototype> readPrototypes()
+    {
+        int count = readCount();
+        List<Prototype> prototypes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+        {
+            byte kind = buffer.get();
+            prototypes.add(switch (kind)
+            {
+                case PROTOTYPE_VARIABLE ->
+                {
+                    TypeHolder type = readType();
+                    yield new Prototype.Variable(type, readString());
+                }
+                case PROTOTYPE_FUNCTION ->
+                {
+                    TypeHolder type = readType();
+                    yield new Prototype.Function(type, readString());
+                }
+                case PROTOTYPE_CLASS -> new Prototype.Class(readString());
+                case PROTOTYPE_ENUM ->
+                {
+                    String name = readString();
+                    int variantCount = readCount();
+                    Map<String, TypeHolder> variants = new LinkedHashMap<>();
+                    for (int v = 0; v < variantCount; v++)
+                    {
+                        String variant = readString();
+                        variants.put(variant, readType());
+                    }
+                    yield new Prototype.Enum(name, variants);
+                }
+                case PROTOTYPE_TRAIT -> new Prototype.Trait(readString());
+                default -> throw new IllegalArgumentException("Unknown prototype kind " + kind);
+            });
+        }
+        return prototypes;
+    }
+
+    private TypeHolder readType()
+    {
+        byte kind = buffer.get();
+        Coordinates position = new Coordinates(readVarint(buffer), readVarint(buffer));
+        return switch (kind)
+        {
+            case TYPE_RESOLVED -> new TypeHolder.Resolved(position, readString());
+            case TYPE_INCOMPATIBLE ->
+            {
+                String left = readString();
+                yield new TypeHolder.IncompatibleTypesInBinaryExpression(position, left, readString());
+            }
+            default -> throw new IllegalArgumentException("Unknown type kind " + kind);
+        };
+    }
+
+    // ==================================================
+    // ===================== MACROS =====================
+    // ==================================================
+
+    private List<Macro> readMacros()
+    {
+        int count = readCount();
+        List<Macro> macros = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+        {
+            String name = readString();
+            CoordinatesOLD location = new CoordinatesOLD(readVarint(buffer), readVarint(buffer));
+            Macro macro = new Macro(location, name, buffer.get() != 0);
+            int arms = readCount();
+            for (int a = 0; a < arms; a++)
+            {
+                Macro.Pattern pattern = readPattern();
+                macro.addArm(pattern, readTokens());
+            }
+            macros.add(macro);
+        }
+        return macros;
+    }
+
+    private Macro.Pattern readPattern()
+    {
+        int count = readCount();
+        List<Macro.Pattern.PatternElement> elements = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+        {
+            byte kind = buffer.get();
+            elements.add(switch (kind)
+            {
+                case ELEMENT_LITERAL -> new Macro.Pattern.LiteralElement(readString());
+                case ELEMENT_VARIABLE ->
+                {
+                    String name = readString();
+                    yield new Macro.Pattern.VariableElement(name, VAR_TYPES[readOrdinal(VAR_TYPES.length)]);
+                }
+                case ELEMENT_REPETITION ->
+                {
+                    Macro.Pattern.RepetitionKind repetition = REPETITIONS[readOrdinal(REPETITIONS.length)];
+                    String separator = readOptionalString();
+                    yield new Macro.Pattern.RepetitionElement(readPattern(), repetition, separator);
+                }
+                default -> throw new IllegalArgumentException("Unknown pattern element kind " + kind);
+            });
+        }
+        return new Macro.Pattern(elements);
+    }
+
+    private TokenStream readTokens()
+    {
+        String filename = readOptionalString();
+        int count = readCount();
+        List<Token> tokens = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+        {
+            TokenType type = TokenType.valueOf(readString());
+            int row = readVarint(buffer);
+            int column = readVarint(buffer);
+            String internal = readOptionalString();
+            tokens.add(internal == null ? Token.basic(row, column, type) : Token.stored(row, column, type, internal));
+        }
+        return new TokenStream(filename, "", tokens);
+    }
+
+    // ==================================================
+    // ===================== BODIES =====================
+    // ==================================================
+
+    private Map<String, Integer> readBodies(ExpressionArena arena)
+    {
+        int nodes = readCount();
+        for (int index = 0; index < nodes; index++)
+        {
+            ExpressionArena.Kind kind = KINDS[readOrdinal(KINDS.length)];
+            int line = readVarint(buffer);
+            int column = readVarint(buffer);
+            String symbol = readOptionalString();
+            int extra = readSignedVarint(buffer);
+            int[] children = new int[readCount()];
+            for (int i = 0; i < children.length; i++)
+            {
+                // Children come before their parent, so a delta reaches back at most to node 0
+                int delta = readVarint(buffer);
+                if (delta < 0 || delta > index)
+                    throw new IllegalArgumentException("Child delta " + delta + " of node " + index + " is out of range");
+                children[i] = delta == 0 ? ExpressionArena.NONE : index - delta;
+            }
+
+            checkLayout(arena, index, kind, symbol, children);
+            if (kind == ExpressionArena.Kind.LAMBDA)
+            {
+                // The parsed lambda body travels as an extra last child, after the parameters
+                int body = children[1];
+                extra = arena.addLambdaBody(LazyBody.materialized(arena.toList(body)));
+                children = Arrays.copyOf(children, children.length - 1);
+            }
+            arena.appendNode(kind, line, column, symbol, extra, children);
+        }
+
+        int rootCount = readCount();
+        Map<String, Integer> roots = new LinkedHashMap<>();
+        for (int i = 0; i < rootCount; i++)
+        {
+            String name = readString();
+            int root = readVarint(buffer);
+            if (root < 0 || root >= nodes || arena.kind(root) != ExpressionArena.Kind.LIST)
+                throw new IllegalArgumentException("Body root " + root + " of '" + name + "' is not a statement list");
+            roots.put(name, root);
+        }
+        return roots;
+    }
+
+    /// Checks a node row against the layout of its kind, so that converting the arena back to
+    /// records can never run into a missing child or a child of the wrong kind.
+    private static void checkLayout(ExpressionArena arena, int index, ExpressionArena.Kind kind, String symbol,
+                                    int[] children)
+    {
+        if (symbol == null && NAMED.contains(kind))
+            throw new IllegalArgumentException("Node " + index + " (" + kind + ") has no symbol");
+
+        String layout = LAYOUTS.getOrDefault(kind, "");
+        boolean variadic = layout.equals("*");
+        if (!variadic && children.length != layout.length())
+            throw new IllegalArgumentException("Node " + index + " (" + kind + ") has " + children.length
+                    + " children, expected " + layout.length());
+
+        for (int i = 0; i < children.length; i++)
+        {
+            int child = children[i];
+            ExpressionArena.Kind childKind = child == ExpressionArena.NONE ? null : arena.kind(child);
+            boolean valid = switch (variadic ? '*' : layout.charAt(i))
+            {
+                case '*' -> childKind != null && childKind != ExpressionArena.Kind.LIST
+                        && childKind != ExpressionArena.Kind.OPERATOR;
+                case 'o' -> childKind == null || isExpression(childKind);
+                case 'e' -> childKind != null && isExpression(childKind);
+                case 'i' -> childKind == null || childKind == ExpressionArena.Kind.IF;
+                case 'l' -> childKind == ExpressionArena.Kind.LIST;
+                case 'a' -> childKind == ExpressionArena.Kind.ARGS;
+                case 't' -> childKind == ExpressionArena.Kind.IDENTIFIER_TYPE;
+                case 'p' -> childKind == ExpressionArena.Kind.OPERATOR;
+                case 's' -> isListOf(arena, child, ExpressionArena.Kind.CASE);
+                case 'm' -> isListOf(arena, child, ExpressionArena.Kind.ASSIGNMENT);
+                default -> false;
+            };
+            if (!valid)
+                throw new IllegalArgumentException("Child " + i + " of node " + index + " (" + kind + ") is "
+                        + (childKind == null ? "missing" : "a " + childKind));
+        }
+    }
+
+    private static boolean isExpression(ExpressionArena.Kind kind)
+    {
+        return kind != ExpressionArena.Kind.LIST && kind != ExpressionArena.Kind.CASE
+                && kind != ExpressionArena.Kind.OPERATOR;
+    }
+
+    private static boolean isListOf(ExpressionArena arena, int node, ExpressionArena.Kind elementKind)
+    {
+        if (node == ExpressionArena.NONE || arena.kind(node) != ExpressionArena.Kind.LIST)
+            return false;
+        for (int i = 0; i < arena.childCount(node); i++)
+            if (arena.kind(arena.child(node, i)) != elementKind)
+                return false;
+        return true;
+    }
+
+    // ==================================================
+    // ===================== HELPERS ====================
+    // ==================================================
+
+    private int readCount()
+    {
+        int count = readVarint(buffer);
+        if (count < 0 || count > buffer.remaining() + 1)
+            throw new IllegalArgumentException("Invalid count " + count + " at offset " + buffer.position());
+        return count;
+    }
+
+    private int readOrdinal(int limit)
+    {
+        int ordinal = buffer.get() & 0xFF;
+        if (ordinal >= limit)
+            throw new IllegalArgumentException("Invalid enum ordinal " + ordinal + " at offset " + buffer.position());
+        return ordinal;
+    }
+
+    private String readString()
+    {
+        int id = readVarint(buffer);
+        if (id < 0 || id >= strings.length)
+            throw new IllegalArgumentException("Invalid string id " + id);
+        return strings[id];
+    }
+
+    private String readOptionalString()
+    {
+        int id = readVarint(buffer);
+        if (id == 0)
+            return null;
+        if (id > strings.length)
+            throw new IllegalArgumentException("Invalid string id " + (id - 1));
+        return strings[id - 1];
+    }
+
+    private List<String> readStrings()
+    {
+        int count = readCount();
+        List<String> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            values.add(readString());
+        return values;
+    }
+}
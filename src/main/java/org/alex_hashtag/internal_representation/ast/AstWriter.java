@@ -0,0 +1,356 @@
+package org.alex_hashtag.internal_representation.ast;
+
+import org.alex_hashtag.internal_representation.Expression.ExpressionArena;
+import org.alex_hashtag.internal_representation.macros.Macro;
+import org.alex_hashtag.internal_representation.types.TypeHolder;
+import org.alex_hashtag.lexer.Import;
+import org.alex_hashtag.lexer.Prototype;
+import org.alex_hashtag.tokenizationOLD.Token;
+import org.alex_hashtag.tokenizationOLD.TokenStream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import static org.alex_hashtag.internal_representation.ast.AstFormat.*;
+
+
+/**
+ * Encodes a {@link ModuleImage} into the compact binary format described in {@link AstFormat}.
+ */
+public final class AstWriter
+{
+    private final List<String> strings = new ArrayList<>();
+    private final Map<String, Integer> stringIds = new HashMap<>();
+    private int emittedNodes;
+
+    private AstWriter()
+    {
+    }
+
+    /**
+     * @return the encoded image, ready to be read from position 0.
+     */
+    public static ByteBuffer encode(ModuleImage image)
+    {
+        ByteBuffer[] parts = new AstWriter().encodeParts(image);
+        ByteBuffer result = ByteBuffer.allocate(parts[0].remaining() + parts[1].remaining());
+        result.put(parts[0]).put(parts[1]).flip();
+        return result;
+    }
+
+    /**
+     * Writes the encoded image to a file. The data goes to a temporary file first and is then moved
+     * into place, so readers never observe a half-written file.
+     */
+    public static void write(ModuleImage image, Path path) throws IOException
+    {
+        ByteBuffer[] parts = new AstWriter().encodeParts(image);
+        Path directory = path.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temporary = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+        try
+        {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING))
+            {
+                while (parts[0].hasRemaining() || parts[1].hasRemaining())
+                    channel.write(parts);
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally
+        {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /// The header (magic, version, strings) and the sections; the string table is only complete
+    /// once every section has been written, so the two are produced separately.
+    private ByteBuffer[] encodeParts(ModuleImage image)
+    {
+        Sink sections = new Sink();
+        writeSection(sections, SECTION_MODULE, sink -> writeModule(sink, image));
+        writeSection(sections, SECTION_MACROS, sink -> writeMacros(sink, image.macros()));
+        writeSection(sections, SECTION_BODIES, sink -> writeBodies(sink, image.bodies(), image.bodyRoots()));
+        sections.put(SECTION_END);
+
+        Sink header = new Sink();
+        header.putInt(MAGIC);
+        header.putVarint(VERSION);
+        header.putVarint(strings.size());
+        for (String string : strings)
+        {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            header.putVarint(bytes.length);
+            header.putBytes(bytes);
+        }
+        return new ByteBuffer[]{header.flipped(), sections.flipped()};
+    }
+
+    private void writeSection(Sink out, byte tag, java.util.function.Consumer<Sink> body)
+    {
+        Sink payload = new Sink();
+        body.accept(payload);
+        out.put(tag);
+        out.putVarint(payload.size());
+        out.putSink(payload);
+    }
+
+    // ==================================================
+    // ===================== MODULE =====================
+    // ==================================================
+
+    private void writeModule(Sink out, ModuleImage image)
+    {
+        putString(out, image.fileName());
+        putStrings(out, image.namespace());
+
+        out.putVarint(image.imports().size());
+        for (Import anImport : image.imports())
+        {
+            switch (anImport.type())
+            {
+                case Import.Type.Class ignored -> out.put(IMPORT_CLASS);
+                case Import.Type.Enum ignored -> out.put(IMPORT_ENUM);
+                case Import.Type.Trait ignored -> out.put(IMPORT_TRAIT);
+                case Import.Type.Var var ->
+                {
+                    out.put(IMPORT_VAR);
+                    writeType(out, var.type());
+                }
+                case Import.Type.Func func ->
+                {
+                    out.put(IMPORT_FUNC);
+                    writeType(out, func.type());
+                }
+                case Import.Type.Macro ignored -> out.put(IMPORT_MACRO);
+                case Import.Type.Annotation ignored -> out.put(IMPORT_ANNOTATION);
+                default -> throw new IllegalArgumentException("Unknown import type: " + anImport.type());
+            }
+            putStrings(out, anImport.fragments());
+        }
+
+        out.putVarint(image.prototypes().size());
+        for (Prototype prototype : image.prototypes())
+        {
+            switch (prototype)
+            {
+                case Prototype.Variable variable ->
+                {
+                    out.put(PROTOTYPE_VARIABLE);
+                    writeType(out, variable.type());
+                    putString(out, variable.name());
+                }
+                case Prototype.Function function ->
+                {
+                    out.put(PROTOTYPE_FUNCTION);
+                    writeType(out, function.type());
+                    putString(out, function.name());
+                }
+                case Prototype.Class clazz ->
+                {
+                    out.put(PROTOTYPE_CLASS);
+                    putString(out, clazz.name());
+                }
+                case Prototype.Enum enumeration ->
+                {
+                    out.put(PROTOTYPE_ENUM);
+                    putString(out, enumeration.name());
+                    out.putVarint(enumeration.variants().size());
+                    enumeration.variants().forEach((variant, type) ->
+                    {
+                        putString(out, variant);
+                        writeType(out, type);
+                    });
+                }
+                case Prototype.Trait trait ->
+                {
+                    out.put(PROTOTYPE_TRAIT);
+                    putString(out, trait.name());
+                }
+                default -> throw new IllegalArgumentException("Unknown prototype: " + prototype);
+            }
+        }
+    }
+
+    private void writeType(Sink out, TypeHolder type)
+    {
+        switch (type)
+        {
+            case TypeHolder.Resolved resolved ->
+            {
+                out.put(TYPE_RESOLVED);
+                out.putVarint(resolved.position().line());
+                out.putVarint(resolved.position().column());
+                putString(out, resolved.name());
+            }
+            case TypeHolder.IncompatibleTypesInBinaryExpression incompatible ->
+            {
+                out.put(TYPE_INCOMPATIBLE);
+                out.putVarint(incompatible.position().line());
+                out.putVarint(incompatible.position().column());
+                putString(out, incompatible.leftType());
+                putString(out, incompatible.rightType());
+            }
+            default -> throw new IllegalArgumentException("Type " + type + " cannot be serialized");
+        }
+    }
+
+    // ==================================================
+    // ===================== MACROS =====================
+    // ==================================================
+
+    private void writeMacros(Sink out, List<Macro> macros)
+    {
+        out.putVarint(macros.size());
+        for (Macro macro : macros)
+        {
+            putString(out, macro.getName());
+            out.putVarint(macro.getLocation().row());
+            out.putVarint(macro.getLocation().column());
+            out.put(macro.isPub() ? 1 : 0);
+            out.putVarint(macro.getArms().size());
+            for (Macro.Arm arm : macro.getArms())
+            {
+                writePattern(out, arm.pattern());
+                writeTokens(out, arm.codeSnippets());
+            }
+        }
+    }
+
+    private void writePattern(Sink out, Macro.Pattern pattern)
+    {
+        out.putVarint(pattern.getElements().size());
+        for (Macro.Pattern.PatternElement element : pattern.getElements())
+        {
+            switch (element)
+            {
+                case Macro.Pattern.LiteralElement literal ->
+                {
+                    out.put(ELEMENT_LITERAL);
+                    putString(out, literal.getToken());
+                }
+                case Macro.Pattern.VariableElement variable ->
+                {
+                    out.put(ELEMENT_VARIABLE);
+                    putString(out, variable.getName());
+                    out.put(variable.getType().ordinal());
+                }
+                case Macro.Pattern.RepetitionElement repetition ->
+                {
+                    out.put(ELEMENT_REPETITION);
+                    out.put(repetition.getRepetition().ordinal());
+                    putOptionalString(out, repetition.getSeparator());
+                    writePattern(out, repetition.getSubPattern());
+                }
+                default -> throw new IllegalArgumentException("Unknown pattern element: " + element);
+            }
+        }
+    }
+
+    private void writeTokens(Sink out, TokenStream stream)
+    {
+        putOptionalString(out, stream.getFilename());
+        out.putVarint(stream.tokens.size());
+        for (Token token : stream.tokens)
+        {
+            putString(out, token.type.name());
+            out.putVarint(token.coordinates.row());
+            out.putVarint(token.coordinates.column());
+            putOptionalString(out, token.internal.orElse(null));
+        }
+    }
+
+    // ==================================================
+    // ===================== BODIES =====================
+    // ==================================================
+
+    /// Nodes are written in post-order with children as backward deltas, so a reader can append them
+    /// to a fresh arena one by one. Lambda bodies are parsed and written as an extra last child.
+    private void writeBodies(Sink out, ExpressionArena arena, Map<String, Integer> roots)
+    {
+        Sink rows = new Sink();
+        emittedNodes = 0;
+        Map<String, Integer> newRoots = new LinkedHashMap<>();
+        roots.forEach((name, root) -> newRoots.put(name, emit(rows, arena, root)));
+
+        out.putVarint(emittedNodes);
+        out.putSink(rows);
+        out.putVarint(newRoots.size());
+        newRoots.forEach((name, root) ->
+        {
+            putString(out, name);
+            out.putVarint(root);
+        });
+    }
+
+    private int emit(Sink rows, ExpressionArena arena, int node)
+    {
+        if (node == ExpressionArena.NONE)
+            return ExpressionArena.NONE;
+
+        ExpressionArena.Kind kind = arena.kind(node);
+        int count = arena.childCount(node);
+        boolean lambda = kind == ExpressionArena.Kind.LAMBDA;
+        int[] children = new int[lambda ? count + 1 : count];
+        for (int i = 0; i < count; i++)
+            children[i] = emit(rows, arena, arena.child(node, i));
+        if (lambda)
+        {
+            ExpressionArena body = new ExpressionArena();
+            children[count] = emit(rows, body, body.addStatements(arena.lambdaBody(node).get()));
+        }
+
+        int index = emittedNodes++;
+        rows.put(kind.ordinal());
+        rows.putVarint(arena.line(node));
+        rows.putVarint(arena.column(node));
+        int symbol = arena.symbol(node);
+        putOptionalString(rows, symbol == ExpressionArena.NONE ? null : arena.symbolText(symbol));
+        rows.putSignedVarint(lambda ? 0 : arena.extra(node));
+        rows.putVarint(children.length);
+        for (int child : children)
+            rows.putVarint(child == ExpressionArena.NONE ? 0 : index - child);
+        return index;
+    }
+
+    // ==================================================
+    // ===================== STRINGS ====================
+    // ==================================================
+
+    private void putString(Sink out, String string)
+    {
+        out.putVarint(intern(Objects.requireNonNull(string)));
+    }
+
+    private void putOptionalString(Sink out, String string)
+    {
+        out.putVarint(string == null ? 0 : intern(string) + 1);
+    }
+
+    private void putStrings(Sink out, List<String> values)
+    {
+        out.putVarint(values.size());
+        for (String value : values)
+            putString(out, value);
+    }
+
+    private int intern(String string)
+    {
+        Integer id = stringIds.get(string);
+        if (id == null)
+        {
+            id = strings.size();
+            strings.add(string);
+            stringIds.put(string, id);
+        }
+        return id;
+    }
+}
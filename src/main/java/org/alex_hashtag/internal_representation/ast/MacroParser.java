@@ -3,6 +3,9 @@ package org.alex_hashtag.internal_representation.macros;
 import org.alex_hashtag.errors.ParsingErrorManager;
 import org.alex_hashtag.errors.ParsingErrorManager.ErrorType;
 import org.alex_hashtag.errors.ParsingErrorManager.ParsingError;
+import org.alex_hashtag.lib.cancellation.CancellationToken;
+import org.alex_hashtag.lib.cancellation.CancelledException;
+import org.alex_hashtag.lib.profiling.MacroParseEvent;
 import org.alex_hashtag.tokenizationOLD.CoordinatesOLD;
 import org.alex_hashtag.tokenizationOLD.Token;
 import org.alex_hashtag.tokenizationOLD.TokenStream;
@@ -21,6 +24,25 @@ public class MacroParser
     private Token storedPeek = null;
     private boolean hasPeek = false;
 
+    private final CancellationToken cancellation;
+    /// Tokens looked at so far, for {@link CancellationToken#checkpoint(int)}.
+    private int steps;
+
+    public MacroParser()
+    {
+        this(CancellationToken.NONE);
+    }
+
+    /**
+     * A parser that gives up, throwing {@link CancelledException}, as soon as {@code cancellation}
+     * is cancelled or its deadline passes. The macros of the file being parsed are then dropped
+     * and its errors are not printed.
+     */
+    public MacroParser(CancellationToken cancellation)
+    {
+        this.cancellation = cancellation;
+    }
+
     /**
      * Public entry point. Parses all macros from the given list of TokenStreams,
      * returning a combined List of macros.
@@ -31,40 +53,74 @@ public class MacroParser
         for (TokenStream stream : tokenStreams)
         {
             ParsingErrorManager errorManager = new ParsingErrorManager(stream.getFilename(), stream.getSource());
-            Iterator<Token> iterator = stream.iterator();
-
-            boolean isPublic = false; // Flag to track if the next macro is public
+            allMacros.addAll(parseMacros(stream, errorManager));
 
-            while (iterator.hasNext())
+            // Print all collected errors for this file (if any)
+            if (errorManager.hasErrors())
             {
-                Token current = iterator.next();
+                errorManager.printErrors(System.out);
+            }
+        }
+        return allMacros;
+    }
 
-                if (current.type == PUBLIC)
-                {
-                    isPublic = true;
-                    continue;
-                }
+    /**
+     * Parses the macros of a single file, reporting problems to the given manager.
+     * A parser keeps state between tokens, so use one parser per thread.
+     */
+    public List<Macro> parseMacros(TokenStream stream, ParsingErrorManager errorManager)
+    {
+        cancellation.throwIfCancelled();
+        List<Macro> macros = new ArrayList<>();
+        Iterator<Token> iterator = stream.iterator();
+        storedPeek = null;
+        hasPeek = false;
 
-                // Look for the 'macro' keyword
-                if (current.type == MACRO)
-                {
-                    parseSingleMacro(iterator, current, errorManager, stream, isPublic, allMacros);
-                    isPublic = false; // Reset after processing
-                }
-                else
-                {
-                    // If we saw something else, reset the "public" flag
-                    isPublic = false;
-                }
+        boolean isPublic = false; // Flag to track if the next macro is public
+
+        while (hasPeek || iterator.hasNext())
+        {
+            cancellation.checkpoint(++steps);
+            Token current = consumePeekIfAny(iterator);
+
+            if (current.type == PUBLIC)
+            {
+                isPublic = true;
+                continue;
             }
 
-            // Print all collected errors for this file (if any)
-            if (errorManager.hasErrors())
+            // Look for the 'macro' keyword
+            if (current.type == MACRO)
             {
-                errorManager.printErrors(System.out);
+                MacroParseEvent event = new MacroParseEvent();
+                int parsed = macros.size();
+                event.begin();
+                parseSingleMacro(iterator, current, errorManager, stream, isPublic, macros);
+                event.end();
+                if (event.shouldCommit())
+                    commitEvent(event, stream, macros.size() > parsed ? macros.getLast() : null);
+                isPublic = false; // Reset after processing
+            }
+            else
+            {
+                // If we saw something else, reset the "public" flag
+                isPublic = false;
             }
         }
-        return allMacros;
+        return macros;
+    }
+
+    /// @param macro the macro that was parsed, or null if its declaration was invalid.
+    private static void commitEvent(MacroParseEvent event, TokenStream stream, Macro macro)
+    {
+        event.file = stream.getFilename();
+        event.bytes = stream.getSource() == null ? 0 : stream.getSource().length();
+        if (macro != null)
+        {
+            event.macro = macro.getName();
+            event.tokens = macro.getArms().stream().mapToLong(arm -> arm.codeSnippets().tokens.size()).sum();
+        }
+        event.commit();
     }
 
     /**
@@ -240,9 +296,9 @@ public class MacroParser
         List<Macro.Pattern.PatternElement> elements = new ArrayList<>();
         int parenLevel = 1;
 
-        while (iterator.hasNext() && parenLevel > 0)
+        while ((hasPeek || iterator.hasNext()) && parenLevel > 0)
         {
-            Token current = iterator.next();
+            Token current = consumePeekIfAny(iterator);
             if (current.type == COMMENT) // Skip comments
                 continue;
             else if (current.type == BRACE_OPEN)
@@ -264,36 +320,9 @@ public class MacroParser
             }
             else if (current.type == MACRO_REPEAT_OPEN)
             { // '$('
-                // Detected `$(`
-                Macro.Pattern subPat = parseSubPatternInsideRepetition(iterator, errorManager);
-
-                // Check for repetition kind and separator
-                String separator = null;
-                Macro.Pattern.RepetitionKind repKind = Macro.Pattern.RepetitionKind.ZERO_OR_MORE;
-
-                Token nextToken = peekNextNonComment(iterator);
-                if (nextToken != null)
-                {
-                    if (nextToken.type == QUESTION)
-                    { // Optional
-                        repKind = Macro.Pattern.RepetitionKind.ZERO_OR_ONE;
-                        consumeNonComment(iterator); // Consume '?'
-                    }
-                    else if (nextToken.type == ADDITION)
-                    { // One or more
-                        repKind = Macro.Pattern.RepetitionKind.ONE_OR_MORE;
-                        consumeNonComment(iterator); // Consume '+'
-                    }
-                    // Add more repetition kinds if needed
-                }
-
-                // For simplicity, assuming comma as separator if applicable
-                // You can modify this as per your syntax rules
-                separator = ",";
-
-                Macro.Pattern.RepetitionElement repElem =
-                        new Macro.Pattern.RepetitionElement(subPat, repKind, separator);
-                elements.add(repElem);
+                // Detected `$(`, the sub-pattern may itself contain repetitions
+                Macro.Pattern subPat = parseMacroPattern(iterator, errorManager, stream);
+                parseRepetitionSuffix(iterator, subPat, elements);
             }
             else if (isMacroTypeKeyword(current))
             {
@@ -343,79 +372,47 @@ public class MacroParser
     }
 
     /**
-     * Parse sub-pattern inside `$( ... )`.
-     * We stop on the left unmatched ')' or when level goes to 0.
+     * Reads what follows a `$( ... )` sub-pattern: an optional separator (',' or ';') and
+     * the repetition kind ('*', '+' or '?'). Without a separator the repetitions are comma separated.
      */
-    private Macro.Pattern parseSubPatternInsideRepetition(Iterator<Token> iterator,
-                                                          ParsingErrorManager errorManager)
+    private void parseRepetitionSuffix(Iterator<Token> iterator,
+                                       Macro.Pattern subPat,
+                                       List<Macro.Pattern.PatternElement> elements)
     {
-        List<Macro.Pattern.PatternElement> subElements = new ArrayList<>();
-        int level = 1; // Already inside '$('
-
-        while (iterator.hasNext() && level > 0)
+        String separator = ",";
+        Token nextToken = peekNextNonComment(iterator);
+        if (nextToken != null && (nextToken.type == COMMA || nextToken.type == SEMI_COLON))
         {
-            Token current = iterator.next();
-            if (current.type == COMMENT) // Skip comments
-                continue;
-            else if (current.type == BRACE_OPEN)
-            { // '('
-                level++;
-                subElements.add(new Macro.Pattern.LiteralElement("("));
-            }
-            else if (current.type == BRACE_CLOSED)
-            { // ')'
-                level--;
-                if (level == 0)
-                    break;
-                subElements.add(new Macro.Pattern.LiteralElement(")"));
-            }
-            else if (current.type == COMMA)
+            consumeNonComment(iterator); // Consume the separator candidate
+            Token kindToken = peekNextNonComment(iterator);
+            if (kindToken == null || !isRepetitionKind(kindToken))
             {
-                subElements.add(new Macro.Pattern.LiteralElement(","));
-                continue;
+                // Not a separator after all, e.g. `$( $x )*, $y` written without the kind
+                elements.add(new Macro.Pattern.RepetitionElement(subPat, Macro.Pattern.RepetitionKind.ZERO_OR_MORE, separator));
+                elements.add(new Macro.Pattern.LiteralElement(nextToken.type == COMMA ? "," : nextToken.toString()));
+                return;
             }
-            else if (isMacroTypeKeyword(current))
-            {
-                // Handle typed macro variables
-                Macro.Pattern.MacroVarType varType = convertToMacroVarType(current);
-                Token varToken = consumeNonComment(iterator);
-                if (varToken == null || varToken.type != MACRO_VARIABLE)
-                {
-                    if (varToken != null)
-                    {
-                        errorManager.reportError(
-                                ParsingError.withHint(
-                                        ErrorType.EXPECTED_FOUND,
-                                        ErrorType.EXPECTED_FOUND.getDescription(),
-                                        varToken.coordinates.row(),
-                                        varToken.coordinates.column(),
-                                        varToken.toString(),
-                                        "Expected a macro variable (e.g., $name) after type keyword inside $(...)",
-                                        "MACRO_VARIABLE",
-                                        varToken.describeContents()
-                                )
-                        );
-                    }
-                    continue;
-                }
-                String varName = varToken.internal.orElse("$");
-                subElements.add(new Macro.Pattern.VariableElement(varName, varType));
-            }
-            else if (current.type == MACRO_VARIABLE)
+            separator = nextToken.type == COMMA ? "," : ";";
+            nextToken = kindToken;
+        }
+
+        Macro.Pattern.RepetitionKind repKind = Macro.Pattern.RepetitionKind.ZERO_OR_MORE;
+        if (nextToken != null && isRepetitionKind(nextToken))
+        {
+            repKind = switch (nextToken.type)
             {
-                // Untyped macro variable, defaulting to EXPRESSION
-                String varName = current.internal.orElse("$");
-                subElements.add(new Macro.Pattern.VariableElement(
-                        varName, Macro.Pattern.MacroVarType.EXPRESSION));
-            }
-            else
-            { // Treat as literal
-                subElements.add(new Macro.Pattern.LiteralElement(
-                        current.internal.orElse(current.toString())));
-            }
+                case QUESTION -> Macro.Pattern.RepetitionKind.ZERO_OR_ONE;
+                case ADDITION -> Macro.Pattern.RepetitionKind.ONE_OR_MORE;
+                default -> Macro.Pattern.RepetitionKind.ZERO_OR_MORE;
+            };
+            consumeNonComment(iterator); // Consume '?', '+' or '*'
         }
+        elements.add(new Macro.Pattern.RepetitionElement(subPat, repKind, separator));
+    }
 
-        return new Macro.Pattern(subElements);
+    private boolean isRepetitionKind(Token t)
+    {
+        return t.type == QUESTION || t.type == ADDITION || t.type == MULTIPLICATION;
     }
 
     /**
@@ -429,6 +426,7 @@ public class MacroParser
 
         while (iterator.hasNext() && braceCount > 0)
         {
+            cancellation.checkpoint(++steps);
             Token t = iterator.next();
             if (t.type == CURLY_OPEN)
             {
@@ -0,0 +1,69 @@
+package org.alex_hashtag.internal_representation.ast;
+
+import org.alex_hashtag.internal_representation.Expression.Expression;
+import org.alex_hashtag.internal_representation.Expression.ExpressionArena;
+import org.alex_hashtag.internal_representation.macros.Macro;
+import org.alex_hashtag.lexer.Import;
+import org.alex_hashtag.lexer.LexModule;
+import org.alex_hashtag.lexer.Prototype;
+import org.alex_hashtag.lib.results.Option;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Everything the front end knows about one source file, in the shape that {@link AstWriter} stores
+ * and {@link AstReader} loads: the module header, its macros, and its function bodies as a flat
+ * {@link ExpressionArena} with one root per function.
+ *
+ * @param fileName    the source file the image was built from.
+ * @param namespace   the package of the module, empty for the default package.
+ * @param imports     the import statements of the module.
+ * @param prototypes  the top-level declarations of the module.
+ * @param macros      the macros declared in the module.
+ * @param bodies      the parsed function bodies.
+ * @param bodyRoots   function name to the {@link ExpressionArena.Kind#LIST} node holding its statements.
+ */
+public record ModuleImage(String fileName,
+                          List<String> namespace,
+                          List<Import> imports,
+                          List<Prototype> prototypes,
+                          List<Macro> macros,
+                          ExpressionArena bodies,
+                          Map<String, Integer> bodyRoots)
+{
+    /**
+     * Captures a module, parsing every function body that has not been parsed yet.
+     */
+    public static ModuleImage of(LexModule module)
+    {
+        ExpressionArena arena = new ExpressionArena();
+        Map<String, Integer> roots = new LinkedHashMap<>();
+        module.getBodies().entrySet().stream()
+                .sorted(Map.Entry.comparingByKey())
+                .forEach(entry -> roots.put(entry.getKey(), arena.addStatements(entry.getValue().get())));
+
+        return new ModuleImage(module.getFileName(), module.getModuleName().namespace(), module.getImports(),
+                module.getPrototypes(), module.getMacros(), arena, roots);
+    }
+
+    /**
+     * Captures the macros of an {@link AbstractSyntaxTree}; the tree has no module header or bodies.
+     */
+    public static ModuleImage of(String fileName, AbstractSyntaxTree tree)
+    {
+        return new ModuleImage(fileName, List.of(), List.of(), List.of(), tree.getMacros(),
+                new ExpressionArena(), Map.of());
+    }
+
+    /**
+     * @return the statements of the named function, rebuilt as records.
+     */
+    public Option<List<Expression>> body(String function)
+    {
+        Integer root = bodyRoots.get(function);
+        return root == null ? Option.none() : Option.some(bodies.toList(root));
+    }
+}
@@ -0,0 +1,99 @@
+package org.alex_hashtag.internal_representation.constants;
+
+import org.alex_hashtag.lib.results.Option;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+
+/**
+ * A value known at compile time. Numeric constants are either typed, with the width they were
+ * declared or converted to, or untyped, like a bare literal: an untyped constant is exact and takes
+ * the type of the typed operand it is combined with.
+ */
+public sealed interface Constant
+{
+    /**
+     * @return the name of the type of this constant, with untyped literals given their default type.
+     */
+    String typeName();
+
+    record Int(BigInteger value, Option<Primitive> type) implements Constant
+    {
+        private static final BigInteger INT32_MAX = BigInteger.valueOf(Integer.MAX_VALUE);
+        private static final BigInteger INT32_MIN = BigInteger.valueOf(Integer.MIN_VALUE);
+
+        public static Int untyped(BigInteger value)
+        {
+            return new Int(value, Option.none());
+        }
+
+        /// An untyped integer is an `int32` if it fits, else the narrowest wider signed type.
+        @Override
+        public String typeName()
+        {
+            if (type.isSome())
+                return type.unwrap().getTypeName();
+            if (value.compareTo(INT32_MIN) >= 0 && value.compareTo(INT32_MAX) <= 0)
+                return Primitive.INT32.getTypeName();
+            return (value.bitLength() < 64 ? Primitive.INT64 : Primitive.INT128).getTypeName();
+        }
+
+        @Override
+        public String toString()
+        {
+            return value.toString();
+        }
+    }
+
+    record Float(BigDecimal value, Option<Primitive> type) implements Constant
+    {
+        public static Float untyped(BigDecimal value)
+        {
+            return new Float(value, Option.none());
+        }
+
+        @Override
+        public String typeName()
+        {
+            return type.isSome() ? type.unwrap().getTypeName() : Primitive.FLOAT64.getTypeName();
+        }
+
+        @Override
+        public String toString()
+        {
+            return value.toString();
+        }
+    }
+
+    record Bool(boolean value) implements Constant
+    {
+        @Override
+        public String typeName()
+        {
+            return Primitive.BOOL.getTypeName();
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.valueOf(value);
+        }
+    }
+
+    /// The result of `typeof`.
+    record Type(String name) implements Constant
+    {
+        @Override
+        public String typeName()
+        {
+            return "type";
+        }
+
+        @Override
+        public String toString()
+        {
+            return name;
+        }
+    }
+}
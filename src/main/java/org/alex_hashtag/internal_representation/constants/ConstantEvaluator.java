@@ -0,0 +1,443 @@
+package org.alex_hashtag.internal_representation.constants;
+
+import org.alex_hashtag.internal_representation.Expression.Expression;
+import org.alex_hashtag.internal_representation.Expression.ExpressionArena;
+import org.alex_hashtag.lib.results.Option;
+import org.alex_hashtag.lib.results.Result;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.*;
+
+
+/**
+ * Evaluates the constant expressions of a function body: arithmetic, bitwise, comparison and
+ * logical operators over literals and constant bindings, {@code sizeof} and {@code typeof}.
+ * <p>
+ * Integers are computed exactly and wrapped to the width of their type, two's complement, as the
+ * machine would; floats are rounded to the precision of theirs, and a float that overflows to
+ * infinity is left to run time. Untyped literals stay exact until they meet a typed operand or a
+ * typed declaration. Anything that is not constant, or whose meaning depends on a conversion the
+ * language does not make implicitly, evaluates to an error describing why.
+ * <p>
+ * A constant binding is a local that is declared once with an initializer and never assigned
+ * again; the parser does not keep {@code const} modifiers, and such a local cannot change anyway.
+ * A caller whose own arithmetic does not follow every width, such as the untyped IR, can limit
+ * the types a binding may have; locals of other types are then left to run time.
+ * Results are memoized per node, by identity, so asking again for the same subtree is free.
+ */
+public final class ConstantEvaluator
+{
+    /// Digits kept by untyped float division, which is inexact; the other operators are exact.
+    private static final MathContext UNTYPED = new MathContext(50, RoundingMode.HALF_EVEN);
+    /// Shifting an untyped integer further than this is almost certainly a mistake.
+    private static final int MAX_UNTYPED_SHIFT = 1024;
+
+    private final Map<String, Expression> initializers;
+    private final Map<String, String> declaredTypes;
+    private final Set<Primitive> bindingTypes;
+    private final Map<Expression, Result<Constant, String>> results = new IdentityHashMap<>();
+    private final Map<String, Result<Constant, String>> bindings = new HashMap<>();
+    private final Set<String> resolving = new HashSet<>();
+
+    private ConstantEvaluator(Map<String, Expression> initializers, Map<String, String> declaredTypes,
+                              Set<Primitive> bindingTypes)
+    {
+        this.initializers = initializers;
+        this.declaredTypes = declaredTypes;
+        this.bindingTypes = bindingTypes;
+    }
+
+    /**
+     * Finds the constant bindings and declared local types of a function body.
+     *
+     * @param parameters the names of the parameters, which are never constant.
+     */
+    public static ConstantEvaluator forBody(List<String> parameters, List<Expression> body)
+    {
+        return forBody(parameters, body, EnumSet.allOf(Primitive.class));
+    }
+
+    /**
+     * Like {@link #forBody(List, List)}, but only locals declared with one of {@code bindingTypes}
+     * are constant bindings.
+     */
+    public static ConstantEvaluator forBody(List<String> parameters, List<Expression> body,
+                                            Set<Primitive> bindingTypes)
+    {
+        ExpressionArena arena = new ExpressionArena();
+        arena.addStatements(body);
+
+        // `Type { name = ... }` fields are ASSIGNMENT nodes too, but assign no local
+        Set<Integer> fields = new HashSet<>();
+        for (int node = 0; node < arena.size(); node++)
+        {
+            if (arena.kind(node) != ExpressionArena.Kind.STRUCT)
+                continue;
+            int list = arena.child(node, 1);
+            for (int i = 0; i < arena.childCount(list); i++)
+                fields.add(arena.child(list, i));
+        }
+
+        Map<String, Integer> declarations = new HashMap<>();
+        Map<String, String> types = new HashMap<>();
+        Map<String, Integer> initializerNodes = new HashMap<>();
+        Set<String> assigned = new HashSet<>(parameters);
+        for (int node = 0; node < arena.size(); node++)
+        {
+            switch (arena.kind(node))
+            {
+                case DECLARATION, DECLARATION_ASSIGNMENT ->
+                {
+                    String name = arena.symbolText(arena.symbol(node));
+                    declarations.merge(name, 1, Integer::sum);
+                    types.put(name, arena.symbolText(arena.symbol(arena.child(node, 0))));
+                    if (arena.kind(node) == ExpressionArena.Kind.DECLARATION_ASSIGNMENT)
+                        initializerNodes.put(name, arena.child(node, 1));
+                }
+                case ASSIGNMENT ->
+                {
+                    if (!fields.contains(node))
+                        assigned.add(arena.symbolText(arena.symbol(node)));
+                }
+                case UNARY ->
+                {
+                    String operator = arena.symbolText(arena.symbol(arena.child(node, 1)));
+                    int operand = arena.child(node, 0);
+                    if ((operator.equals("++") || operator.equals("--"))
+                            && arena.kind(operand) == ExpressionArena.Kind.IDENTIFIER_VAR)
+                        assigned.add(arena.symbolText(arena.symbol(operand)));
+                }
+                default ->
+                {
+                }
+            }
+        }
+
+        Map<String, Expression> initializers = new HashMap<>();
+        Map<String, String> declaredTypes = new HashMap<>();
+        declarations.forEach((name, count) ->
+        {
+            if (count != 1 || parameters.contains(name))
+                return;
+            declaredTypes.put(name, types.get(name));
+            Integer initializer = initializerNodes.get(name);
+            if (initializer != null && !assigned.contains(name))
+                initializers.put(name, arena.toExpression(initializer));
+        });
+        return new ConstantEvaluator(initializers, declaredTypes, Set.copyOf(bindingTypes));
+    }
+
+    /**
+     * @return the value of {@code expression}, or why it is not a constant.
+     */
+    public Result<Constant, String> evaluate(Expression expression)
+    {
+        Result<Constant, String> known = results.get(expression);
+        if (known == null)
+        {
+            known = compute(expression);
+            results.put(expression, known);
+        }
+        return known;
+    }
+
+    private Result<Constant, String> compute(Expression expression)
+    {
+        return switch (expression)
+        {
+            case Expression.Literal.Int literal -> Result.ok(Constant.Int.untyped(new BigInteger(literal.value())));
+            case Expression.Literal.Float literal ->
+            {
+                try
+                {
+                    yield Result.ok(Constant.Float.untyped(new BigDecimal(literal.value())));
+                } catch (NumberFormatException e)
+                {
+                    yield Result.err("'" + literal.value() + "' is not a number");
+                }
+            }
+            case Expression.Literal.Bool literal -> Result.ok(new Constant.Bool(literal.value().equals("true")));
+            case Expression.IdentifierVar variable -> binding(variable.name());
+            case Expression.Binary binary -> binary(binary.operator().getValue(), binary.left(), binary.right());
+            case Expression.Unary unary when !unary.postfix() -> unary(unary.operator().getValue(), unary.operand());
+            case Expression.Sizeof sizeof ->
+            {
+                Result<String, String> type = staticType(sizeof.expr());
+                yield type.isOk() ? sizeOf(type.unwrap()) : Result.err(errorOf(type));
+            }
+            case Expression.Typeof typeof -> staticType(typeof.expr()).map(Constant.Type::new);
+            default -> Result.err("not a constant expression");
+        };
+    }
+
+    private Result<Constant, String> binding(String name)
+    {
+        Result<Constant, String> known = bindings.get(name);
+        if (known != null)
+            return known;
+        Expression initializer = initializers.get(name);
+        if (initializer == null)
+            return Result.err("'" + name + "' is not a constant");
+        Option<Primitive> type = Primitive.byName(declaredTypes.get(name));
+        if (type.isSome() && !bindingTypes.contains(type.unwrap()))
+            return Result.err("'" + name + "' is a " + type.unwrap() + " local, which is left to run time");
+        if (!resolving.add(name))
+            return Result.err("'" + name + "' is defined in terms of itself");
+
+        Result<Constant, String> value = evaluate(initializer);
+        if (value.isOk())
+            value = convert(value.unwrap(), declaredTypes.get(name));
+        resolving.remove(name);
+        bindings.put(name, value);
+        return value;
+    }
+
+    /// The type a `sizeof` or `typeof` operand names or has.
+    private Result<String, String> staticType(Expression expression)
+    {
+        return switch (expression)
+        {
+            case Expression.IdentifierType type -> Result.ok(type.name());
+            case Expression.IdentifierVar variable when Primitive.byName(variable.name()).isSome() ->
+                    Result.ok(variable.name());
+            case Expression.IdentifierVar variable when declaredTypes.containsKey(variable.name()) ->
+                    Result.ok(declaredTypes.get(variable.name()));
+            case Expression.Literal.Str ignored -> Result.ok(Primitive.STRING.getTypeName());
+            case Expression.Literal.Char ignored -> Result.ok(Primitive.CHAR.getTypeName());
+            case Expression.Literal.Rune ignored -> Result.ok(Primitive.RUNE.getTypeName());
+            default -> evaluate(expression).map(Constant::typeName);
+        };
+    }
+
+    private static Result<Constant, String> sizeOf(String type)
+    {
+        Option<Integer> size = Primitive.sizeOf(type);
+        if (size.isNone())
+            return Result.err("the size of " + type + " is not known before layout");
+        return Result.ok(new Constant.Int(BigInteger.valueOf(size.unwrap()), Option.some(Primitive.USIZE)));
+    }
+
+    /// The conversion a declaration `type name = constant;` makes.
+    private static Result<Constant, String> convert(Constant constant, String typeName)
+    {
+        Option<Primitive> target = Primitive.byName(typeName);
+        if (target.isNone())
+            return Result.err(typeName + " constants are not supported");
+        Primitive type = target.unwrap();
+        return switch (constant)
+        {
+            case Constant.Int integer when type.isInteger() ->
+                    Result.ok(new Constant.Int(type.wrap(integer.value()), target));
+            case Constant.Int integer when type.isFloat() -> toFloat(new BigDecimal(integer.value()), type);
+            case Constant.Float real when type.isFloat() -> toFloat(real.value(), type);
+            case Constant.Bool bool when type == Primitive.BOOL -> Result.ok(bool);
+            default -> Result.err("cannot convert " + constant.typeName() + " to " + typeName + " implicitly");
+        };
+    }
+
+    private static Result<Constant, String> toFloat(BigDecimal value, Primitive type)
+    {
+        Option<BigDecimal> rounded = type.round(value);
+        if (rounded.isNone())
+            return Result.err(value + " overflows " + type);
+        return Result.ok(new Constant.Float(rounded.unwrap(), Option.some(type)));
+    }
+
+    // ==================================================
+    // ==================== OPERATORS ===================
+    // ==================================================
+
+    private Result<Constant, String> unary(String operator, Expression operand)
+    {
+        Result<Constant, String> evaluated = evaluate(operand);
+        if (evaluated.isErr())
+            return evaluated;
+        Constant value = evaluated.unwrap();
+        return switch (value)
+        {
+            case Constant.Int integer when operator.equals("-") ->
+                    Result.ok(typedInt(integer.value().negate(), integer.type()));
+            case Constant.Int integer when operator.equals("~") ->
+                    Result.ok(typedInt(integer.value().not(), integer.type()));
+            case Constant.Float real when operator.equals("-") ->
+                    Result.ok(new Constant.Float(real.value().negate(), real.type()));
+            case Constant.Bool bool when operator.equals("!") -> Result.ok(new Constant.Bool(!bool.value()));
+            case Constant.Int ignored when operator.equals("+") -> evaluated;
+            case Constant.Float ignored when operator.equals("+") -> evaluated;
+            default -> Result.err("cannot apply '" + operator + "' to " + value.typeName());
+        };
+    }
+
+    private Result<Constant, String> binary(String operator, Expression leftOperand, Expression rightOperand)
+    {
+        Result<Constant, String> leftResult = evaluate(leftOperand);
+        if (leftResult.isErr())
+            return leftResult;
+        Result<Constant, String> rightResult = evaluate(rightOperand);
+        if (rightResult.isErr())
+            return rightResult;
+        Constant left = leftResult.unwrap();
+        Constant right = rightResult.unwrap();
+
+        if (left instanceof Constant.Bool a && right instanceof Constant.Bool b)
+            return logical(operator, a.value(), b.value());
+        if (left instanceof Constant.Type a && right instanceof Constant.Type b)
+            return switch (operator)
+            {
+                case "==" -> Result.ok(new Constant.Bool(a.name().equals(b.name())));
+                case "!=" -> Result.ok(new Constant.Bool(!a.name().equals(b.name())));
+                default -> Result.err("cannot apply '" + operator + "' to types");
+            };
+        if (operator.equals("<<") || operator.equals(">>") || operator.equals(">>>"))
+            return shift(operator, left, right);
+
+        // Both operands must end up with the same type; an untyped one adopts the other's
+        if (left instanceof Constant.Int a && right instanceof Constant.Int b)
+        {
+            Result<Option<Primitive>, String> type = common(a.type(), b.type());
+            if (type.isErr())
+                return Result.err(errorOf(type));
+            Option<Primitive> width = type.unwrap();
+            return integer(operator, typedInt(a.value(), width), typedInt(b.value(), width));
+        }
+        Result<Constant.Float, String> a = asFloat(left, right);
+        if (a.isErr())
+            return Result.err("cannot apply '" + operator + "' to " + left.typeName() + " and " + right.typeName());
+        Result<Constant.Float, String> b = asFloat(right, left);
+        if (b.isErr())
+            return Result.err("cannot apply '" + operator + "' to " + left.typeName() + " and " + right.typeName());
+        Result<Option<Primitive>, String> type = common(a.unwrap().type(), b.unwrap().type());
+        if (type.isErr())
+            return Result.err(errorOf(type));
+        return real(operator, a.unwrap().value(), b.unwrap().value(), type.unwrap());
+    }
+
+    private static Result<Constant, String> logical(String operator, boolean a, boolean b)
+    {
+        return switch (operator)
+        {
+            case "and", "&" -> Result.ok(new Constant.Bool(a && b));
+            case "or", "|" -> Result.ok(new Constant.Bool(a || b));
+            case "^", "!=" -> Result.ok(new Constant.Bool(a != b));
+            case "==" -> Result.ok(new Constant.Bool(a == b));
+            default -> Result.err("cannot apply '" + operator + "' to bool");
+        };
+    }
+
+    private static Result<Constant, String> integer(String operator, Constant.Int left, Constant.Int right)
+    {
+        BigInteger a = left.value();
+        BigInteger b = right.value();
+        Option<Primitive> type = left.type();
+        if ((operator.equals("/") || operator.equals("%")) && b.signum() == 0)
+            return Result.err("division by zero");
+        return switch (operator)
+        {
+            case "+" -> Result.ok(typedInt(a.add(b), type));
+            case "-" -> Result.ok(typedInt(a.subtract(b), type));
+            case "*" -> Result.ok(typedInt(a.multiply(b), type));
+            case "/" -> Result.ok(typedInt(a.divide(b), type));   // Truncates, like the machine
+            case "%" -> Result.ok(typedInt(a.remainder(b), type)); // Takes the sign of the dividend
+            case "&" -> Result.ok(typedInt(a.and(b), type));
+            case "|" -> Result.ok(typedInt(a.or(b), type));
+            case "^" -> Result.ok(typedInt(a.xor(b), type));
+            default -> compare(operator, a.compareTo(b));
+        };
+    }
+
+    private static Result<Constant, String> real(String operator, BigDecimal a, BigDecimal b, Option<Primitive> type)
+    {
+        if ((operator.equals("/") || operator.equals("%")) && b.signum() == 0)
+            return Result.err("division by zero");
+        BigDecimal result = switch (operator)
+        {
+            case "+" -> a.add(b);
+            case "-" -> a.subtract(b);
+            case "*" -> a.multiply(b);
+            case "/" -> a.divide(b, UNTYPED);
+            case "%" -> a.remainder(b);
+            default -> null;
+        };
+        if (result == null)
+            return compare(operator, a.compareTo(b));
+        if (type.isNone())
+            return Result.ok(Constant.Float.untyped(result));
+        return toFloat(result, type.unwrap());
+    }
+
+    private static Result<Constant, String> compare(String operator, int comparison)
+    {
+        return switch (operator)
+        {
+            case "==" -> Result.ok(new Constant.Bool(comparison == 0));
+            case "!=" -> Result.ok(new Constant.Bool(comparison != 0));
+            case "<" -> Result.ok(new Constant.Bool(comparison < 0));
+            case "<=" -> Result.ok(new Constant.Bool(comparison <= 0));
+            case ">" -> Result.ok(new Constant.Bool(comparison > 0));
+            case ">=" -> Result.ok(new Constant.Bool(comparison >= 0));
+            default -> Result.err("'" + operator + "' is not a constant operator");
+        };
+    }
+
+    /// The left operand decides the type; `>>` is arithmetic on signed types and `>>>` always logical.
+    private static Result<Constant, String> shift(String operator, Constant left, Constant right)
+    {
+        if (!(left instanceof Constant.Int value) || !(right instanceof Constant.Int distance))
+            return Result.err("cannot shift " + left.typeName() + " by " + right.typeName());
+        int limit = value.type().isSome() ? value.type().unwrap().getBits() : MAX_UNTYPED_SHIFT;
+        if (distance.value().signum() < 0 || distance.value().compareTo(BigInteger.valueOf(limit)) >= 0)
+            return Result.err("shift distance " + distance.value() + " is out of range for " + value.typeName());
+        int by = distance.value().intValue();
+
+        BigInteger shifted;
+        if (operator.equals("<<"))
+            shifted = value.value().shiftLeft(by);
+        else if (value.type().isNone())
+        {
+            if (operator.equals(">>>") && value.value().signum() < 0)
+                return Result.err("'>>>' needs a typed operand to know the width of " + value.value());
+            shifted = value.value().shiftRight(by);
+        }
+        else
+        {
+            Primitive type = value.type().unwrap();
+            boolean logical = operator.equals(">>>") || type.getCategory() == Primitive.Category.UNSIGNED;
+            shifted = logical ? type.unsigned(value.value()).shiftRight(by) : value.value().shiftRight(by);
+        }
+        return Result.ok(typedInt(shifted, value.type()));
+    }
+
+    private static Constant.Int typedInt(BigInteger value, Option<Primitive> type)
+    {
+        return new Constant.Int(type.isSome() ? type.unwrap().wrap(value) : value, type);
+    }
+
+    /// `value` as a float, next to `other`: only an untyped integer converts implicitly.
+    private static Result<Constant.Float, String> asFloat(Constant value, Constant other)
+    {
+        return switch (value)
+        {
+            case Constant.Float real -> Result.ok(real);
+            case Constant.Int integer when integer.type().isNone() && other instanceof Constant.Float ->
+                    Result.ok(Constant.Float.untyped(new BigDecimal(integer.value())));
+            default -> Result.err(value.typeName());
+        };
+    }
+
+    private static String errorOf(Result<?, String> result)
+    {
+        return ((Result.Err<?, String>) result).error();
+    }
+
+    private static Result<Option<Primitive>, String> common(Option<Primitive> a, Option<Primitive> b)
+    {
+        if (a.isNone())
+            return Result.ok(b);
+        if (b.isNone() || a.unwrap() == b.unwrap())
+            return Result.ok(a);
+        return Result.err("mismatched types " + a.unwrap() + " and " + b.unwrap());
+    }
+}
@@ -0,0 +1,183 @@
+package org.alex_hashtag.internal_representation.constants;
+
+import org.alex_hashtag.lib.results.Option;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
+
+
+/**
+ * The primitive types of {@link org.alex_hashtag.internal_representation.types.TypeRegistry} with
+ * the width, signedness and storage size constant evaluation needs.
+ */
+public enum Primitive
+{
+    INT8("int8", Category.SIGNED, 8, 1),
+    INT16("int16", Category.SIGNED, 16, 2),
+    INT32("int32", Category.SIGNED, 32, 4),
+    INT64("int64", Category.SIGNED, 64, 8),
+    INT128("int128", Category.SIGNED, 128, 16),
+    UINT8("uint8", Category.UNSIGNED, 8, 1),
+    UINT16("uint16", Category.UNSIGNED, 16, 2),
+    UINT32("uint32", Category.UNSIGNED, 32, 4),
+    UINT64("uint64", Category.UNSIGNED, 64, 8),
+    UINT128("uint128", Category.UNSIGNED, 128, 16),
+    USIZE("usize", Category.UNSIGNED, 64, 8),
+    FLOAT16("float16", Category.FLOAT, 16, 2),
+    FLOAT32("float32", Category.FLOAT, 32, 4),
+    FLOAT64("float64", Category.FLOAT, 64, 8),
+    FLOAT80("float80", Category.FLOAT, 80, 16), // Padded to 16 bytes, like x86-64 long double
+    FLOAT128("float128", Category.FLOAT, 128, 16),
+    BOOL("bool", Category.OTHER, 8, 1),
+    CHAR("char", Category.OTHER, 8, 1),
+    RUNE("rune", Category.OTHER, 32, 4),
+    STRING("string", Category.OTHER, 128, 16), // Pointer and length
+    VOID("void", Category.OTHER, 0, 0);
+
+    public enum Category
+    {
+        SIGNED,
+        UNSIGNED,
+        FLOAT,
+        OTHER
+    }
+
+    /// Size of a reference, and of the pointer half of arrays and strings.
+    public static final int POINTER_SIZE = 8;
+
+    /// Largest finite values of the floats wider than a double.
+    private static final BigDecimal FLOAT80_MAX = new BigDecimal("1.18973149535723176502e4932");
+    private static final BigDecimal FLOAT128_MAX = new BigDecimal("1.18973149535723176508575932662800702e4932");
+
+    private static final Primitive[] VALUES = values();
+
+    private final String typeName;
+    private final Category category;
+    private final int bits;
+    private final int size;
+
+    Primitive(String typeName, Category category, int bits, int size)
+    {
+        this.typeName = typeName;
+        this.category = category;
+        this.bits = bits;
+        this.size = size;
+    }
+
+    public static Option<Primitive> byName(String name)
+    {
+        for (Primitive primitive : VALUES)
+            if (primitive.typeName.equals(name))
+                return Option.some(primitive);
+        return Option.none();
+    }
+
+    /**
+     * @return the size in bytes of a value of the named type, for primitives, references
+     * ({@code &T}) and arrays ({@code T[]}, a pointer and a length).
+     */
+    public static Option<Integer> sizeOf(String type)
+    {
+        if (type.startsWith("&"))
+            return Option.some(POINTER_SIZE);
+        if (type.endsWith("[]"))
+            return Option.some(2 * POINTER_SIZE);
+        return byName(type).map(Primitive::getSize);
+    }
+
+    public String getTypeName()
+    {
+        return typeName;
+    }
+
+    public Category getCategory()
+    {
+        return category;
+    }
+
+    public int getBits()
+    {
+        return bits;
+    }
+
+    public int getSize()
+    {
+        return size;
+    }
+
+    public boolean isInteger()
+    {
+        return category == Category.SIGNED || category == Category.UNSIGNED;
+    }
+
+    public boolean isFloat()
+    {
+        return category == Category.FLOAT;
+    }
+
+    /**
+     * Wraps {@code value} to this integer width, two's complement, as the machine would.
+     */
+    public BigInteger wrap(BigInteger value)
+    {
+        BigInteger modulus = BigInteger.ONE.shiftLeft(bits);
+        BigInteger wrapped = value.mod(modulus);
+        if (category == Category.SIGNED && wrapped.testBit(bits - 1))
+            wrapped = wrapped.subtract(modulus);
+        return wrapped;
+    }
+
+    /**
+     * @return the bits of {@code value}, a value of this width, read as unsigned.
+     */
+    public BigInteger unsigned(BigInteger value)
+    {
+        return value.signum() < 0 ? value.add(BigInteger.ONE.shiftLeft(bits)) : value;
+    }
+
+    /**
+     * Rounds {@code value} to the precision of this float width. Widths up to 64 bits round through
+     * the matching Java type; the wider ones keep the significant decimal digits their mantissa
+     * holds.
+     *
+     * @return the rounded value, or none if it overflows to infinity.
+     */
+    public Option<BigDecimal> round(BigDecimal value)
+    {
+        return switch (this)
+        {
+            case FLOAT16 ->
+            {
+                float half = Float.float16ToFloat(Float.floatToFloat16(value.floatValue()));
+                yield Float.isInfinite(half) ? Option.none() : Option.some(new BigDecimal(half));
+            }
+            case FLOAT32 ->
+            {
+                float single = value.floatValue();
+                yield Float.isInfinite(single) ? Option.none() : Option.some(new BigDecimal(single));
+            }
+            case FLOAT64 ->
+            {
+                double full = value.doubleValue();
+                yield Double.isInfinite(full) ? Option.none() : Option.some(new BigDecimal(full));
+            }
+            case FLOAT80 -> roundWide(value, 21, FLOAT80_MAX);
+            case FLOAT128 -> roundWide(value, 36, FLOAT128_MAX);
+            default -> throw new IllegalStateException(typeName + " is not a float type");
+        };
+    }
+
+    private static Option<BigDecimal> roundWide(BigDecimal value, int digits, BigDecimal max)
+    {
+        BigDecimal rounded = value.round(new MathContext(digits, RoundingMode.HALF_EVEN));
+        return rounded.abs().compareTo(max) > 0 ? Option.none() : Option.some(rounded);
+    }
+
+    @Override
+    public String toString()
+    {
+        return typeName;
+    }
+}
@@ -0,0 +1,77 @@
+package org.alex_hashtag.internal_representation.ir;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * A basic block: phis, then straight-line instructions, then a {@link Terminator}.
+ */
+public final class Block
+{
+    private final int id;
+    private final List<Instruction> instructions = new ArrayList<>();
+    private Terminator terminator = new Terminator.Unreachable();
+
+    Block(int id)
+    {
+        this.id = id;
+    }
+
+    public int getId()
+    {
+        return id;
+    }
+
+    /**
+     * @return the instructions of this block, phis first; passes edit the list in place.
+     */
+    public List<Instruction> getInstructions()
+    {
+        return instructions;
+    }
+
+    public List<Instruction.Phi> getPhis()
+    {
+        List<Instruction.Phi> phis = new ArrayList<>();
+        for (Instruction instruction : instructions)
+        {
+            if (!(instruction instanceof Instruction.Phi phi))
+                break;
+            phis.add(phi);
+        }
+        return phis;
+    }
+
+    public Terminator getTerminator()
+    {
+        return terminator;
+    }
+
+    public void setTerminator(Terminator terminator)
+    {
+        this.terminator = terminator;
+    }
+
+    /**
+     * Adds an instruction after the phis if it is a phi, or at the end otherwise.
+     */
+    public void add(Instruction instruction)
+    {
+        if (instruction instanceof Instruction.Phi)
+            instructions.add(getPhis().size(), instruction);
+        else
+            instructions.add(instruction);
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append("  b").append(id).append(":\n");
+        for (Instruction instruction : instructions)
+            sb.append("    ").append(instruction).append('\n');
+        sb.append("    ").append(terminator).append('\n');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,215 @@
+package org.alex_hashtag.internal_representation.ir;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+
+/**
+ * An SSA instruction. Every instruction defines exactly one register, its {@link #target()}, which
+ * is assigned nowhere else in the function.
+ * <p>
+ * Instructions are immutable; passes rewrite them with {@link #withOperands(List)}.
+ */
+public sealed interface Instruction
+{
+    /// Operators whose result is fully determined by their operands, wherever they are evaluated.
+    Set<String> PURE_BINARY = Set.of(
+            "+", "-", "*", "&", "|", "^", "<<", ">>", ">>>", "==", "!=", "<", ">", "<=", ">=");
+
+    int target();
+
+    List<Value> operands();
+
+    Instruction withOperands(List<Value> operands);
+
+    /**
+     * @return whether the instruction must be kept even if its result is never used.
+     */
+    boolean hasSideEffects();
+
+    /// The {@code index}-th argument of the function.
+    record Parameter(int target, int index, String name) implements Instruction
+    {
+        @Override
+        public List<Value> operands()
+        {
+            return List.of();
+        }
+
+        @Override
+        public Instruction withOperands(List<Value> operands)
+        {
+            return this;
+        }
+
+        @Override
+        public boolean hasSideEffects()
+        {
+            return true; // Removing one would shift the others
+        }
+
+        @Override
+        public String toString()
+        {
+            return "%" + target + " = param " + index + " " + name;
+        }
+    }
+
+    record Binary(int target, String operator, Value left, Value right) implements Instruction
+    {
+        @Override
+        public List<Value> operands()
+        {
+            return List.of(left, right);
+        }
+
+        @Override
+        public Instruction withOperands(List<Value> operands)
+        {
+            return new Binary(target, operator, operands.get(0), operands.get(1));
+        }
+
+        /// A division may trap unless the divisor is a known non-zero constant.
+        @Override
+        public boolean hasSideEffects()
+        {
+            if (PURE_BINARY.contains(operator))
+                return false;
+            if (operator.equals("/") || operator.equals("%"))
+                return !(right instanceof Value.Int(long divisor) && divisor != 0) && !(right instanceof Value.Float);
+            return true;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "%" + target + " = " + left + " " + operator + " " + right;
+        }
+    }
+
+    record Unary(int target, String operator, Value operand) implements Instruction
+    {
+        @Override
+        public List<Value> operands()
+        {
+            return List.of(operand);
+        }
+
+        @Override
+        public Instruction withOperands(List<Value> operands)
+        {
+            return new Unary(target, operator, operands.get(0));
+        }
+
+        @Override
+        public boolean hasSideEffects()
+        {
+            return false;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "%" + target + " = " + operator + operand;
+        }
+    }
+
+    /// A call to a named function; whatever the callee does is unknown to the caller.
+    record Call(int target, String function, List<Value> arguments) implements Instruction
+    {
+        @Override
+        public List<Value> operands()
+        {
+            return arguments;
+        }
+
+        @Override
+        public Instruction withOperands(List<Value> operands)
+        {
+            return new Call(target, function, List.copyOf(operands));
+        }
+
+        @Override
+        public boolean hasSideEffects()
+        {
+            return true;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "%" + target + " = call " + function + "(" + join(arguments) + ")";
+        }
+    }
+
+    /// Chooses a value depending on the predecessor control came from. Phis come first in a block.
+    record Phi(int target, List<Incoming> incoming) implements Instruction
+    {
+        public record Incoming(int block, Value value)
+        {
+        }
+
+        @Override
+        public List<Value> operands()
+        {
+            return incoming.stream().map(Incoming::value).toList();
+        }
+
+        @Override
+        public Instruction withOperands(List<Value> operands)
+        {
+            List<Incoming> rewritten = new ArrayList<>(incoming.size());
+            for (int i = 0; i < incoming.size(); i++)
+                rewritten.add(new Incoming(incoming.get(i).block(), operands.get(i)));
+            return new Phi(target, List.copyOf(rewritten));
+        }
+
+        @Override
+        public boolean hasSideEffects()
+        {
+            return false;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "%" + target + " = phi " + incoming.stream()
+                    .map(in -> "[b" + in.block() + ": " + in.value() + "]")
+                    .collect(Collectors.joining(", "));
+        }
+    }
+
+    /**
+     * A construct the IR does not model yet, such as member access or struct literals, kept with
+     * its operands so the values it depends on stay alive.
+     *
+     * @param pure whether it can be removed when unused, e.g. a literal.
+     */
+    record Opaque(int target, String description, List<Value> operands, boolean pure) implements Instruction
+    {
+        @Override
+        public Instruction withOperands(List<Value> operands)
+        {
+            return new Opaque(target, description, List.copyOf(operands), pure);
+        }
+
+        @Override
+        public boolean hasSideEffects()
+        {
+            return !pure;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "%" + target + " = " + description + (operands.isEmpty() ? "" : " " + join(operands));
+        }
+    }
+
+    private static String join(List<Value> values)
+    {
+        return values.stream().map(Value::toString).collect(Collectors.joining(", "));
+    }
+}
@@ -0,0 +1,872 @@
+package org.alex_hashtag.internal_representation.ir;
+
+import org.alex_hashtag.internal_representation.Expression.Expression;
+import org.alex_hashtag.internal_representation.constants.Constant;
+import org.alex_hashtag.internal_representation.constants.ConstantEvaluator;
+import org.alex_hashtag.internal_representation.constants.Primitive;
+import org.alex_hashtag.lib.results.Option;
+import org.alex_hashtag.lib.results.Result;
+import org.alex_hashtag.lib.tokenization.Coordinates;
+
+import java.util.*;
+import java.util.function.IntFunction;
+import java.util.function.UnaryOperator;
+
+
+/**
+ * Lowers the {@link Expression} trees of a function body to SSA form.
+ * <p>
+ * SSA is built directly while walking the tree, following Braun et al., <i>Simple and Efficient
+ * Construction of Static Single Assignment Form</i>: the current value of every local variable is
+ * tracked per block, phis are created lazily when a variable is read in a block with several
+ * predecessors, and blocks whose predecessors are not all known yet (loop headers) get incomplete
+ * phis that are filled in once the block is sealed. Phis that turn out to merge a single value are
+ * removed at the end.
+ * <p>
+ * Locals live only in registers; names that are not declared in the function are globals and are
+ * read and written with {@link Instruction.Opaque} loads and stores. Operators, {@code sizeof} and
+ * {@code typeof} over constants are evaluated by a {@link ConstantEvaluator} first and lowered to
+ * the value they produce. IR integers carry no width and the VM computes every one at 64 bits, so
+ * only {@code int64}, {@code float64} and {@code bool} locals are folded through; an {@code int8}
+ * local wraps when it is evaluated as a constant but not at run time, so it is left to run time.
+ */
+public final class IrBuilder
+{
+    private static final Set<String> COMPARISONS = Set.of("==", "!=", "<=", ">=");
+    /// The types of locals whose value is the same whether folded or computed by the VM.
+    private static final Set<Primitive> FOLDED_BINDINGS = EnumSet.of(Primitive.INT64, Primitive.FLOAT64, Primitive.BOOL);
+
+    private final IrFunction function;
+    private final UnaryOperator<String> functionNames;
+    private final ConstantEvaluator constants;
+
+    /// Variable key, then block id, to the value the variable has at the end of that block.
+    private final Map<String, Map<Integer, Value>> definitions = new HashMap<>();
+    private final Map<Integer, List<Integer>> predecessors = new HashMap<>();
+    private final Set<Integer> sealed = new HashSet<>();
+    private final Map<Integer, Map<String, Integer>> incompletePhis = new HashMap<>();
+
+    /// Source names to variable keys, innermost scope first; keys are unique so shadowing works.
+    private final Deque<Map<String, String>> scopes = new ArrayDeque<>();
+    private final Deque<LoopTargets> loops = new ArrayDeque<>();
+    private final Deque<SwitchTarget> switches = new ArrayDeque<>();
+    private int variables;
+    private Block current;
+
+    private record LoopTargets(Block continueTarget, Block breakTarget)
+    {
+    }
+
+    private record SwitchTarget(String result, Block join)
+    {
+    }
+
+    private IrBuilder(IrFunction function, UnaryOperator<String> functionNames, ConstantEvaluator constants)
+    {
+        this.function = function;
+        this.functionNames = functionNames;
+        this.constants = constants;
+    }
+
+    /**
+     * Like {@link #build(String, List, boolean, List, UnaryOperator)}, with callee names used as written.
+     */
+    public static IrFunction build(String name, List<String> parameters, boolean inline, List<Expression> body)
+    {
+        return build(name, parameters, inline, body, UnaryOperator.identity());
+    }
+
+    /**
+     * @param parameters    the names of the parameters, in order.
+     * @param inline        whether the function was declared {@code inline}.
+     * @param functionNames maps the callee names written in the body to the names functions are
+     *                      known by in the {@link IrModule}, e.g. their qualified names.
+     */
+    public static IrFunction build(String name, List<String> parameters, boolean inline, List<Expression> body,
+                                   UnaryOperator<String> functionNames)
+    {
+        IrFunction function = new IrFunction(name, parameters, inline);
+        IrBuilder builder = new IrBuilder(function, functionNames, ConstantEvaluator.forBody(parameters, body, FOLDED_BINDINGS));
+
+        builder.current = builder.newBlock();
+        builder.seal(builder.current);
+        builder.scopes.push(new HashMap<>());
+        for (int i = 0; i < parameters.size(); i++)
+        {
+            int index = i;
+            Value value = builder.emit(target -> new Instruction.Parameter(target, index, parameters.get(index)));
+            builder.write(builder.declare(parameters.get(i)), value);
+        }
+
+        for (Expression statement : body)
+            builder.lower(statement);
+        builder.terminate(new Terminator.Return(Value.UNIT));
+
+        for (Block block : function.getBlocks())
+            if (!builder.sealed.contains(block.getId()))
+                builder.seal(block);
+        function.removeUnreachableBlocks();
+        function.removeTrivialPhis();
+        return function;
+    }
+
+    // ==================================================
+    // ================ SSA CONSTRUCTION ================
+    // ==================================================
+
+    private Block newBlock()
+    {
+        Block block = function.newBlock();
+        predecessors.put(block.getId(), new ArrayList<>());
+        return block;
+    }
+
+    /// Where code after a `return`, `break` or `continue` goes; removed at the end.
+    private void startDeadBlock()
+    {
+        current = newBlock();
+        seal(current);
+    }
+
+    private void terminate(Terminator terminator)
+    {
+        current.setTerminator(terminator);
+        for (int successor : terminator.successors())
+            predecessors.get(successor).add(current.getId());
+    }
+
+    private void jump(Block target)
+    {
+        terminate(new Terminator.Jump(target.getId()));
+    }
+
+    /// Declares that every predecessor of the block is known.
+    private void seal(Block block)
+    {
+        Map<String, Integer> phis = incompletePhis.remove(block.getId());
+        if (phis != null)
+            phis.forEach((variable, phi) -> addPhiOperands(variable, phi, block));
+        sealed.add(block.getId());
+    }
+
+    private void write(String variable, Value value)
+    {
+        write(variable, current, value);
+    }
+
+    private void write(String variable, Block block, Value value)
+    {
+        definitions.computeIfAbsent(variable, ignored -> new HashMap<>()).put(block.getId(), value);
+    }
+
+    private Value read(String variable, Block block)
+    {
+        Value value = definitions.getOrDefault(variable, Map.of()).get(block.getId());
+        return value != null ? value : readRecursive(variable, block);
+    }
+
+    private Value readRecursive(String variable, Block block)
+    {
+        List<Integer> from = predecessors.get(block.getId());
+        Value value;
+        if (!sealed.contains(block.getId()))
+        {
+            int phi = newPhi(block);
+            incompletePhis.computeIfAbsent(block.getId(), ignored -> new HashMap<>()).put(variable, phi);
+            value = new Value.Register(phi);
+        }
+        else if (from.isEmpty())
+        {
+            value = Value.UNIT; // Read before any assignment
+        }
+        else if (from.size() == 1)
+        {
+            value = read(variable, function.block(from.getFirst()));
+        }
+        else
+        {
+            // Break cycles through loops by defining the phi before reading its operands
+            int phi = newPhi(block);
+            write(variable, block, new Value.Register(phi));
+            value = addPhiOperands(variable, phi, block);
+        }
+        write(variable, block, value);
+        return value;
+    }
+
+    private int newPhi(Block block)
+    {
+        int target = function.newRegister();
+        block.add(new Instruction.Phi(target, List.of()));
+        return target;
+    }
+
+    private Value addPhiOperands(String variable, int phi, Block block)
+    {
+        List<Instruction.Phi.Incoming> incoming = new ArrayList<>();
+        for (int predecessor : predecessors.get(block.getId()))
+            incoming.add(new Instruction.Phi.Incoming(predecessor, read(variable, function.block(predecessor))));
+
+        List<Instruction> instructions = block.getInstructions();
+        for (int i = 0; i < instructions.size(); i++)
+            if (instructions.get(i) instanceof Instruction.Phi existing && existing.target() == phi)
+                instructions.set(i, new Instruction.Phi(phi, List.copyOf(incoming)));
+        return new Value.Register(phi);
+    }
+
+    // ==================================================
+    // ===================== SCOPES =====================
+    // ==================================================
+
+    private String declare(String name)
+    {
+        String variable = name + "#" + variables++;
+        scopes.getFirst().put(name, variable);
+        return variable;
+    }
+
+    private String lookup(String name)
+    {
+        for (Map<String, String> scope : scopes)
+        {
+            String variable = scope.get(name);
+            if (variable != null)
+                return variable;
+        }
+        return null;
+    }
+
+    private Value readName(String name)
+    {
+        String variable = lookup(name);
+        if (variable == null)
+            return opaque("load " + name, List.of(), false);
+        return read(variable, current);
+    }
+
+    private void assignName(String name, Value value)
+    {
+        String variable = lookup(name);
+        if (variable == null)
+            opaque("store " + name, List.of(value), false);
+        else
+            write(variable, value);
+    }
+
+    private void lowerScoped(List<Expression> statements)
+    {
+        scopes.push(new HashMap<>());
+        for (Expression statement : statements)
+            lower(statement);
+        scopes.pop();
+    }
+
+    // ==================================================
+    // ===================== EMITTING ===================
+    // ==================================================
+
+    private Value emit(IntFunction<Instruction> instruction)
+    {
+        int target = function.newRegister();
+        current.add(instruction.apply(target));
+        return new Value.Register(target);
+    }
+
+    private Value opaque(String description, List<Value> operands, boolean pure)
+    {
+        return emit(target -> new Instruction.Opaque(target, description, List.copyOf(operands), pure));
+    }
+
+    private List<Value> lowerAll(List<Expression> expressions)
+    {
+        List<Value> values = new ArrayList<>(expressions.size());
+        for (Expression expression : expressions)
+            values.add(lower(expression));
+        return values;
+    }
+
+    // ==================================================
+    // ==================== LOWERING ====================
+    // ==================================================
+
+    private Value lower(Expression expression)
+    {
+        return switch (expression)
+        {
+            case Expression.Empty ignored -> Value.UNIT;
+            case Expression.Literal literal -> lowerLiteral(literal);
+            case Expression.IdentifierVar variable -> readName(variable.name());
+            case Expression.IdentifierFunc name -> opaque("function " + name.name(), List.of(), true);
+            case Expression.IdentifierType type -> opaque("type " + type.name(), List.of(), true);
+            case Expression.Binary binary -> folded(binary).unwrapOrElse(() -> lowerBinary(binary));
+            case Expression.Unary unary -> folded(unary).unwrapOrElse(() -> lowerUnary(unary));
+            case Expression.VariableDeclaration declaration ->
+            {
+                write(declare(declaration.name()), Value.UNIT);
+                yield Value.UNIT;
+            }
+            case Expression.VariableDeclarationAssigment declaration ->
+            {
+                Value value = lower(declaration.assignTo());
+                write(declare(declaration.name()), value);
+                yield Value.UNIT;
+            }
+            case Expression.VariableAssigment assignment ->
+            {
+                Value value = lower(assignment.assignTo());
+                assignName(assignment.name(), value);
+                yield value;
+            }
+            case Expression.If branch -> lowerIf(branch);
+            case Expression.While loop -> lowerWhile(loop.condition(), loop.statements());
+            case Expression.doWhile loop -> lowerDoWhile(loop.statements(), loop.condition());
+            case Expression.Loop loop -> lowerLoop(loop);
+            case Expression.For loop -> lowerFor(loop);
+            case Expression.ForEach loop -> lowerForEach(loop);
+            case Expression.Switch select -> lowerSwitch(select);
+            case Expression.Break ignored ->
+            {
+                if (!loops.isEmpty())
+                {
+                    jump(loops.getFirst().breakTarget());
+                    startDeadBlock();
+                }
+                yield Value.UNIT;
+            }
+            case Expression.Continue ignored ->
+            {
+                if (!loops.isEmpty())
+                {
+                    jump(loops.getFirst().continueTarget());
+                    startDeadBlock();
+                }
+                yield Value.UNIT;
+            }
+            case Expression.Return ret ->
+            {
+                terminate(new Terminator.Return(lower(ret.expr())));
+                startDeadBlock();
+                yield Value.UNIT;
+            }
+            case Expression.Yield yielded ->
+            {
+                Value value = lower(yielded.expr());
+                if (switches.isEmpty())
+                {
+                    terminate(new Terminator.Return(value));
+                }
+                else
+                {
+                    write(switches.getFirst().result(), value);
+                    jump(switches.getFirst().join());
+                }
+                startDeadBlock();
+                yield Value.UNIT;
+            }
+            case Expression.Sizeof sizeof ->
+                    folded(sizeof).unwrapOrElse(() -> opaque("sizeof " + describe(sizeof.expr()), List.of(), true));
+            case Expression.Typeof typeof ->
+                    folded(typeof).unwrapOrElse(() -> opaque("typeof " + describe(typeof.expr()), List.of(), true));
+            case Expression.Scope scope ->
+            {
+                lowerScoped(scope.statements());
+                yield Value.UNIT;
+            }
+            case Expression.Unsafe unsafe ->
+            {
+                lowerScoped(unsafe.statements());
+                yield Value.UNIT;
+            }
+            case Expression.InstanceAccessStruct access ->
+                    opaque("member " + access.index(), List.of(lower(access.variable())), false);
+            case Expression.InstanceAccessEnum access ->
+                    opaque("variant " + access.index(), List.of(lower(access.variable())), false);
+            case Expression.InstanceAccessArray access ->
+                    opaque("index", List.of(lower(access.variable()), new Value.Int(access.index())), false);
+            case Expression.Index index ->
+                    opaque("index", List.of(lower(index.variable()), lower(index.index())), false);
+            case Expression.StaticAccessLambda access ->
+                    opaque("static " + describe(access.variable()) + "::" + access.index(), List.of(), true);
+            case Expression.FunctionInvocation invocation -> lowerInvocation(invocation);
+            case Expression.AnonFunctionLamnda ignored -> opaque("lambda", List.of(), true);
+            case Expression.ArgsList arguments ->
+            {
+                List<Value> values = lowerAll(arguments.arguments());
+                yield values.isEmpty() ? Value.UNIT : values.getLast();
+            }
+        };
+    }
+
+    /// The value of `expression` if it is a constant; constants have no side effects to keep.
+    private Option<Value> folded(Expression expression)
+    {
+        Result<Constant, String> result = constants.evaluate(expression);
+        if (result.isErr())
+            return Option.none();
+        return Option.some(switch (result.unwrap())
+        {
+            case Constant.Int integer when integer.value().bitLength() < 64 -> new Value.Int(integer.value().longValue());
+            case Constant.Int integer when integer.type().isSome() && integer.type().unwrap().getBits() == 64 ->
+                    new Value.Int(integer.value().longValue()); // An unsigned 64-bit value, same bits
+            case Constant.Int integer -> opaque("int " + integer.value(), List.of(), true);
+            case Constant.Float real when real.type().isNone() || real.type().unwrap().getBits() <= 64 ->
+                    new Value.Float(real.value().doubleValue());
+            case Constant.Float real -> opaque("float " + real.value(), List.of(), true);
+            case Constant.Bool bool -> new Value.Bool(bool.value());
+            case Constant.Type type -> opaque("type " + type.name(), List.of(), true);
+        });
+    }
+
+    private Value lowerLiteral(Expression.Literal literal)
+    {
+        return switch (literal)
+        {
+            case Expression.Literal.Int(Coordinates ignored, String value) ->
+            {
+                try
+                {
+                    yield new Value.Int(Long.parseLong(value));
+                } catch (NumberFormatException e)
+                {
+                    yield opaque("int " + value, List.of(), true); // Wider than 64 bits
+                }
+            }
+            case Expression.Literal.Float(Coordinates ignored, String value) ->
+            {
+                try
+                {
+                    yield new Value.Float(Double.parseDouble(value));
+                } catch (NumberFormatException e)
+                {
+                    yield opaque("float " + value, List.of(), true);
+                }
+            }
+            case Expression.Literal.Bool(Coordinates ignored, String value) -> new Value.Bool(value.equals("true"));
+            case Expression.Literal.Str(Coordinates ignored, String value) -> new Value.Str(value);
+            case Expression.Literal.Char(Coordinates ignored, String value) -> opaque("char " + value, List.of(), true);
+            case Expression.Literal.Rune(Coordinates ignored, String value) -> opaque("rune " + value, List.of(), true);
+            case Expression.Literal.Null ignored -> opaque("null", List.of(), true);
+            case Expression.Literal.Array array ->
+            {
+                List<Value> operands = new ArrayList<>();
+                operands.add(lower(array.size()));
+                operands.addAll(lowerAll(array.elements()));
+                yield opaque("array " + array.type().name(), operands, true);
+            }
+            case Expression.Literal.Struct struct ->
+            {
+                List<Value> operands = new ArrayList<>();
+                StringJoiner fields = new StringJoiner(", ", " {", "}");
+                for (Expression.VariableAssigment assignment : struct.assigments())
+                {
+                    fields.add(assignment.name());
+                    operands.add(lower(assignment.assignTo()));
+                }
+                yield opaque("struct " + struct.type().name() + fields, operands, true);
+            }
+            case Expression.Literal.Enum variant -> opaque("enum " + variant.type().name() + "::" + variant.variant(),
+                    lowerAll(variant.arguments().arguments()), true);
+        };
+    }
+
+    private Value lowerBinary(Expression.Binary binary)
+    {
+        String operator = binary.operator().getValue();
+        if (operator.equals("and") || operator.equals("or"))
+            return lowerShortCircuit(binary, operator.equals("and"));
+
+        if (operator.endsWith("=") && !COMPARISONS.contains(operator))
+            return lowerStore(binary.left(), operator, binary.right());
+
+        Value left = lower(binary.left());
+        Value right = lower(binary.right());
+        return emit(target -> new Instruction.Binary(target, operator, left, right));
+    }
+
+    /// Assignment to something other than a local: `point.x = 1` is `set member x`, `list[i] += 1` is
+    /// `index` followed by `set index`. The value of the assignment is the value stored.
+    private Value lowerStore(Expression target, String operator, Expression assigned)
+    {
+        String compound = operator.substring(0, operator.length() - 1);
+        switch (target)
+        {
+            case Expression.InstanceAccessStruct access ->
+            {
+                Value object = lower(access.variable());
+                Value value = lower(assigned);
+                if (!compound.isEmpty())
+                {
+                    Value old = opaque("member " + access.index(), List.of(object), false);
+                    Value right = value;
+                    value = emit(t -> new Instruction.Binary(t, compound, old, right));
+                }
+                opaque("set member " + access.index(), List.of(object, value), false);
+                return value;
+            }
+            case Expression.Index index ->
+            {
+                return storeElement(lower(index.variable()), lower(index.index()), compound, assigned);
+            }
+            case Expression.InstanceAccessArray access ->
+            {
+                return storeElement(lower(access.variable()), new Value.Int(access.index()), compound, assigned);
+            }
+            default ->
+            {
+                List<Value> operands = List.of(lower(target), lower(assigned));
+                return opaque("assign " + operator, operands, false);
+            }
+        }
+    }
+
+    private Value storeElement(Value array, Value index, String compound, Expression assigned)
+    {
+        Value value = lower(assigned);
+        if (!compound.isEmpty())
+        {
+            Value old = opaque("index", List.of(array, index), false);
+            Value right = value;
+            value = emit(t -> new Instruction.Binary(t, compound, old, right));
+        }
+        opaque("set index", List.of(array, index, value), false);
+        return value;
+    }
+
+    /// `a and b` is `a ? b : false`, `a or b` is `a ? true : b`.
+    private Value lowerShortCircuit(Expression.Binary binary, boolean and)
+    {
+        Value left = lower(binary.left());
+        Block shortCircuit = current;
+        Block evaluateRight = newBlock();
+        Block join = newBlock();
+        terminate(and
+                ? new Terminator.Branch(left, evaluateRight.getId(), join.getId())
+                : new Terminator.Branch(left, join.getId(), evaluateRight.getId()));
+
+        seal(evaluateRight);
+        current = evaluateRight;
+        Value right = lower(binary.right());
+        Block rightEnd = current;
+        jump(join);
+
+        seal(join);
+        current = join;
+        return emit(target -> new Instruction.Phi(target, List.of(
+                new Instruction.Phi.Incoming(shortCircuit.getId(), new Value.Bool(!and)),
+                new Instruction.Phi.Incoming(rightEnd.getId(), right))));
+    }
+
+    private Value lowerUnary(Expression.Unary unary)
+    {
+        String operator = unary.operator().getValue();
+        if (operator.equals("++") || operator.equals("--"))
+        {
+            if (!(unary.operand() instanceof Expression.IdentifierVar variable))
+                return opaque((unary.postfix() ? "post" : "pre") + operator, List.of(lower(unary.operand())), false);
+            Value before = readName(variable.name());
+            Value after = emit(target -> new Instruction.Binary(target, operator.substring(1), before, new Value.Int(1)));
+            assignName(variable.name(), after);
+            return unary.postfix() ? before : after;
+        }
+
+        Value operand = lower(unary.operand());
+        if (operator.equals("+"))
+            return operand;
+        return emit(target -> new Instruction.Unary(target, operator, operand));
+    }
+
+    private Value lowerInvocation(Expression.FunctionInvocation invocation)
+    {
+        String callee = switch (invocation.expression())
+        {
+            case Expression.IdentifierFunc name -> name.name();
+            case Expression.IdentifierVar name when lookup(name.name()) == null -> name.name();
+            default -> null;
+        };
+        if (callee == null)
+        {
+            List<Value> operands = new ArrayList<>();
+            operands.add(lower(invocation.expression()));
+            operands.addAll(lowerAll(invocation.arguments().arguments()));
+            return opaque("call", operands, false);
+        }
+
+        List<Value> arguments = lowerAll(invocation.arguments().arguments());
+        String name = functionNames.apply(callee);
+        return emit(target -> new Instruction.Call(target, name, List.copyOf(arguments)));
+    }
+
+    private Value lowerIf(Expression.If branch)
+    {
+        Block join = newBlock();
+        lowerIfChain(branch, join);
+        seal(join);
+        current = join;
+        return Value.UNIT;
+    }
+
+    private void lowerIfChain(Expression.If branch, Block join)
+    {
+        if (branch.condition() instanceof Expression.Empty)
+        {
+            // A plain `else`
+            lowerScoped(branch.statements());
+            jump(join);
+            return;
+        }
+
+        Value condition = lower(branch.condition());
+        Block then = newBlock();
+        Block otherwise = branch.elseExpression().isSome() ? newBlock() : join;
+        terminate(new Terminator.Branch(condition, then.getId(), otherwise.getId()));
+
+        seal(then);
+        current = then;
+        lowerScoped(branch.statements());
+        jump(join);
+
+        if (otherwise != join)
+        {
+            seal(otherwise);
+            current = otherwise;
+            lowerIfChain(branch.elseExpression().unwrap(), join);
+        }
+    }
+
+    private Value lowerWhile(Expression condition, List<Expression> statements)
+    {
+        Block header = newBlock();
+        Block body = newBlock();
+        Block exit = newBlock();
+        jump(header);
+
+        current = header;
+        terminate(new Terminator.Branch(lower(condition), body.getId(), exit.getId()));
+
+        seal(body);
+        current = body;
+        lowerLoopBody(statements, header, exit);
+        jump(header);
+
+        seal(header);
+        seal(exit);
+        current = exit;
+        return Value.UNIT;
+    }
+
+    private Value lowerDoWhile(List<Expression> statements, Expression condition)
+    {
+        Block body = newBlock();
+        Block test = newBlock();
+        Block exit = newBlock();
+        jump(body);
+
+        current = body;
+        lowerLoopBody(statements, test, exit);
+        jump(test);
+
+        seal(test);
+        current = test;
+        terminate(new Terminator.Branch(lower(condition), body.getId(), exit.getId()));
+
+        seal(body);
+        seal(exit);
+        current = exit;
+        return Value.UNIT;
+    }
+
+    /// `loop { ... }` runs until a `break`; `loop (n) { ... }` runs n times.
+    private Value lowerLoop(Expression.Loop loop)
+    {
+        if (loop.numberOfIteration().isNone())
+        {
+            Block body = newBlock();
+            Block exit = newBlock();
+            jump(body);
+
+            current = body;
+            lowerLoopBody(loop.statements(), body, exit);
+            jump(body);
+
+            seal(body);
+            seal(exit);
+            current = exit;
+            return Value.UNIT;
+        }
+
+        Value iterations = lower(loop.numberOfIteration().unwrap());
+        String counter = "$loop#" + variables++;
+        write(counter, new Value.Int(0));
+
+        Block header = newBlock();
+        Block body = newBlock();
+        Block latch = newBlock();
+        Block exit = newBlock();
+        jump(header);
+
+        current = header;
+        Value index = read(counter, current);
+        Value more = emit(target -> new Instruction.Binary(target, "<", index, iterations));
+        terminate(new Terminator.Branch(more, body.getId(), exit.getId()));
+
+        seal(body);
+        current = body;
+        lowerLoopBody(loop.statements(), latch, exit);
+        jump(latch);
+
+        seal(latch);
+        current = latch;
+        Value before = read(counter, current);
+        write(counter, emit(target -> new Instruction.Binary(target, "+", before, new Value.Int(1))));
+        jump(header);
+
+        seal(header);
+        seal(exit);
+        current = exit;
+        return Value.UNIT;
+    }
+
+    private Value lowerFor(Expression.For loop)
+    {
+        scopes.push(new HashMap<>());
+        lowerAll(loop.init().arguments());
+
+        Block header = newBlock();
+        Block body = newBlock();
+        Block latch = newBlock();
+        Block exit = newBlock();
+        jump(header);
+
+        // Several conditions must all hold
+        current = header;
+        Value condition = new Value.Bool(true);
+        for (Expression test : loop.conditions().arguments())
+        {
+            Value value = lower(test);
+            Value previous = condition;
+            condition = previous.equals(new Value.Bool(true))
+                    ? value
+                    : emit(target -> new Instruction.Binary(target, "&", previous, value));
+        }
+        terminate(new Terminator.Branch(condition, body.getId(), exit.getId()));
+
+        seal(body);
+        current = body;
+        lowerLoopBody(loop.statements(), latch, exit);
+        jump(latch);
+
+        seal(latch);
+        current = latch;
+        lowerAll(loop.updates().arguments());
+        jump(header);
+
+        seal(header);
+        seal(exit);
+        current = exit;
+        scopes.pop();
+        return Value.UNIT;
+    }
+
+    private Value lowerForEach(Expression.ForEach loop)
+    {
+        Value iterator = opaque("iterator", List.of(lower(loop.list())), false);
+
+        Block header = newBlock();
+        Block body = newBlock();
+        Block exit = newBlock();
+        jump(header);
+
+        current = header;
+        Value hasNext = opaque("has_next", List.of(iterator), false);
+        terminate(new Terminator.Branch(hasNext, body.getId(), exit.getId()));
+
+        seal(body);
+        current = body;
+        scopes.push(new HashMap<>());
+        Value item = opaque("next", List.of(iterator), false);
+        switch (loop.item())
+        {
+            case Expression.VariableDeclaration declaration -> write(declare(declaration.name()), item);
+            case Expression.IdentifierVar variable -> assignName(variable.name(), item);
+            default -> { }
+        }
+        lowerLoopBody(loop.statements(), header, exit);
+        scopes.pop();
+        jump(header);
+
+        seal(header);
+        seal(exit);
+        current = exit;
+        return Value.UNIT;
+    }
+
+    private void lowerLoopBody(List<Expression> statements, Block continueTarget, Block breakTarget)
+    {
+        loops.push(new LoopTargets(continueTarget, breakTarget));
+        lowerScoped(statements);
+        loops.pop();
+    }
+
+    /// Cases are tested in order; `_` or `default` matches anything. The value of the switch is the
+    /// value of the case that ran, or of its `yield`.
+    private Value lowerSwitch(Expression.Switch select)
+    {
+        Value compared = lower(select.compare());
+        String result = "$switch#" + variables++;
+        write(result, Value.UNIT);
+
+        Block join = newBlock();
+        switches.push(new SwitchTarget(result, join));
+        for (Expression.Switch.Case branch : select.cases())
+        {
+            Value matches = new Value.Bool(false);
+            for (Expression pattern : branch.pattern())
+            {
+                if (pattern instanceof Expression.IdentifierVar(Coordinates ignored, String name)
+                        && (name.equals("_") || name.equals("default")) && lookup(name) == null)
+                {
+                    matches = new Value.Bool(true);
+                    break;
+                }
+                Value value = lower(pattern);
+                Value equal = emit(target -> new Instruction.Binary(target, "==", compared, value));
+                Value previous = matches;
+                matches = previous.equals(new Value.Bool(false))
+                        ? equal
+                        : emit(target -> new Instruction.Binary(target, "|", previous, equal));
+            }
+
+            Block body = newBlock();
+            Block next = newBlock();
+            terminate(new Terminator.Branch(matches, body.getId(), next.getId()));
+
+            seal(body);
+            current = body;
+            if (branch.resolve() instanceof Expression.Scope scope)
+                lowerScoped(scope.statements());
+            else
+                write(result, lower(branch.resolve()));
+            jump(join);
+
+            seal(next);
+            current = next;
+        }
+        jump(join);
+        switches.pop();
+
+        seal(join);
+        current = join;
+        return read(result, current);
+    }
+
+    private static String describe(Expression expression)
+    {
+        return switch (expression)
+        {
+            case Expression.IdentifierType type -> type.name();
+            case Expression.IdentifierVar variable -> variable.name();
+            case Expression.IdentifierFunc name -> name.name();
+            default -> expression.getClass().getSimpleName();
+        };
+    }
+}
@@ -0,0 +1,290 @@
+package org.alex_hashtag.internal_representation.ir;
+
+import java.util.*;
+
+
+/**
+ * A function in SSA form: a control flow graph of {@link Block}s, starting at the entry block.
+ */
+public final class IrFunction
+{
+    private final String name;
+    private final List<String> parameters;
+    private final boolean inline;
+    private final Map<Integer, Block> blocks = new LinkedHashMap<>();
+    private int entry = -1;
+    private int nextBlock;
+    private int nextRegister;
+
+    /**
+     * @param inline whether the function was declared {@code inline}.
+     */
+    public IrFunction(String name, List<String> parameters, boolean inline)
+    {
+        this.name = name;
+        this.parameters = List.copyOf(parameters);
+        this.inline = inline;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public List<String> getParameters()
+    {
+        return parameters;
+    }
+
+    public boolean isInline()
+    {
+        return inline;
+    }
+
+    /**
+     * Adds an empty block; the first block added is the entry.
+     */
+    public Block newBlock()
+    {
+        Block block = new Block(nextBlock++);
+        blocks.put(block.getId(), block);
+        if (entry < 0)
+            entry = block.getId();
+        return block;
+    }
+
+    public int newRegister()
+    {
+        return nextRegister++;
+    }
+
+    public Block getEntry()
+    {
+        return blocks.get(entry);
+    }
+
+    public Block block(int id)
+    {
+        return blocks.get(id);
+    }
+
+    /**
+     * @return the blocks in creation order.
+     */
+    public Collection<Block> getBlocks()
+    {
+        return blocks.values();
+    }
+
+    public void removeBlock(int id)
+    {
+        if (id == entry)
+            throw new IllegalArgumentException("The entry block cannot be removed");
+        blocks.remove(id);
+    }
+
+    /**
+     * @return the number of instructions, terminators included; what inlining decisions go by.
+     */
+    public int size()
+    {
+        int size = 0;
+        for (Block block : blocks.values())
+            size += block.getInstructions().size() + 1;
+        return size;
+    }
+
+    /**
+     * @return the predecessors of every block, in block order. Blocks without any map to an empty list.
+     */
+    public Map<Integer, List<Integer>> predecessors()
+    {
+        Map<Integer, List<Integer>> predecessors = new HashMap<>();
+        for (Integer id : blocks.keySet())
+            predecessors.put(id, new ArrayList<>());
+        for (Block block : blocks.values())
+            for (int successor : block.getTerminator().successors())
+                predecessors.get(successor).add(block.getId());
+        return predecessors;
+    }
+
+    /**
+     * @return the blocks reachable from the entry, each after all its predecessors except along back edges.
+     */
+    public List<Block> reversePostOrder()
+    {
+        List<Block> order = new ArrayList<>();
+        Set<Integer> visited = new HashSet<>();
+        Deque<Iterator<Integer>> stack = new ArrayDeque<>();
+        Deque<Block> path = new ArrayDeque<>();
+
+        visited.add(entry);
+        path.push(getEntry());
+        stack.push(getEntry().getTerminator().successors().iterator());
+        while (!stack.isEmpty())
+        {
+            Iterator<Integer> successors = stack.peek();
+            if (successors.hasNext())
+            {
+                int next = successors.next();
+                if (visited.add(next))
+                {
+                    Block block = blocks.get(next);
+                    path.push(block);
+                    stack.push(block.getTerminator().successors().iterator());
+                }
+            }
+            else
+            {
+                stack.pop();
+                order.add(path.pop());
+            }
+        }
+        Collections.reverse(order);
+        return order;
+    }
+
+    /**
+     * Replaces every use of the given registers, following chains such as {@code %1 -> %2 -> 3}.
+     */
+    public void replaceUses(Map<Integer, Value> replacements)
+    {
+        if (replacements.isEmpty())
+            return;
+        for (Block block : blocks.values())
+        {
+            List<Instruction> instructions = block.getInstructions();
+            for (int i = 0; i < instructions.size(); i++)
+            {
+                Instruction instruction = instructions.get(i);
+                List<Value> operands = resolve(instruction.operands(), replacements);
+                if (operands != null)
+                    instructions.set(i, instruction.withOperands(operands));
+            }
+            List<Value> operands = resolve(block.getTerminator().operands(), replacements);
+            if (operands != null)
+                block.setTerminator(block.getTerminator().withOperands(operands));
+        }
+    }
+
+    /**
+     * Removes the blocks that cannot be reached from the entry, and the phi operands coming from them.
+     *
+     * @return whether anything was removed.
+     */
+    public boolean removeUnreachableBlocks()
+    {
+        Set<Integer> reachable = new HashSet<>();
+        for (Block block : reversePostOrder())
+            reachable.add(block.getId());
+        if (reachable.size() == blocks.size())
+            return false;
+
+        blocks.keySet().retainAll(reachable);
+        for (Block block : blocks.values())
+            retainIncoming(block, reachable);
+        return true;
+    }
+
+    /**
+     * Drops the operands of the phis of {@code block} that do not come from one of {@code predecessors}.
+     */
+    public static void retainIncoming(Block block, Collection<Integer> predecessors)
+    {
+        List<Instruction> instructions = block.getInstructions();
+        for (int i = 0; i < instructions.size() && instructions.get(i) instanceof Instruction.Phi phi; i++)
+        {
+            if (phi.incoming().stream().allMatch(in -> predecessors.contains(in.block())))
+                continue;
+            instructions.set(i, new Instruction.Phi(phi.target(), phi.incoming().stream()
+                    .filter(in -> predecessors.contains(in.block()))
+                    .toList()));
+        }
+    }
+
+    /**
+     * Makes the phis of {@code block} take the operands they took from block {@code from} from block {@code to}.
+     */
+    public static void renameIncoming(Block block, int from, int to)
+    {
+        List<Instruction> instructions = block.getInstructions();
+        for (int i = 0; i < instructions.size() && instructions.get(i) instanceof Instruction.Phi phi; i++)
+            instructions.set(i, new Instruction.Phi(phi.target(), phi.incoming().stream()
+                    .map(in -> in.block() == from ? new Instruction.Phi.Incoming(to, in.value()) : in)
+                    .toList()));
+    }
+
+    /**
+     * Removes the phis that merge a single value, apart from themselves, replacing them by that value.
+     *
+     * @return whether any phi was removed.
+     */
+    public boolean removeTrivialPhis()
+    {
+        boolean changed = false;
+        while (true)
+        {
+            Map<Integer, Value> replacements = new HashMap<>();
+            for (Block block : blocks.values())
+            {
+                Iterator<Instruction> iterator = block.getInstructions().iterator();
+                while (iterator.hasNext() && iterator.next() instanceof Instruction.Phi phi)
+                {
+                    Value.Register self = new Value.Register(phi.target());
+                    Set<Value> values = new HashSet<>();
+                    for (Instruction.Phi.Incoming incoming : phi.incoming())
+                        if (!incoming.value().equals(self))
+                            values.add(incoming.value());
+                    if (values.size() > 1)
+                        continue;
+
+                    // Phis that only merge each other, e.g. in a loop, have no value
+                    Value value = values.isEmpty() ? Value.UNIT : values.iterator().next();
+                    while (value instanceof Value.Register(int id) && replacements.containsKey(id))
+                        value = replacements.get(id);
+                    replacements.put(phi.target(), value.equals(self) ? Value.UNIT : value);
+                    iterator.remove();
+                }
+            }
+            if (replacements.isEmpty())
+                return changed;
+            replaceUses(replacements);
+            changed = true;
+        }
+    }
+
+    /// @return the rewritten operands, or null if none of them is replaced.
+    private static List<Value> resolve(List<Value> operands, Map<Integer, Value> replacements)
+    {
+        List<Value> resolved = null;
+        for (int i = 0; i < operands.size(); i++)
+        {
+            Value value = operands.get(i);
+            Value replacement = value;
+            for (int hops = 0; replacement instanceof Value.Register(int id) && replacements.containsKey(id)
+                    && hops <= replacements.size(); hops++)
+                replacement = replacements.get(id);
+            if (replacement != value)
+            {
+                if (resolved == null)
+                    resolved = new ArrayList<>(operands);
+                resolved.set(i, replacement);
+            }
+        }
+        return resolved;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append("function ").append(name).append('(').append(String.join(", ", parameters)).append(')');
+        if (inline)
+            sb.append(" inline");
+        sb.append(" {\n");
+        for (Block block : blocks.values())
+            sb.append(block);
+        sb.append("}\n");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,52 @@
+package org.alex_hashtag.internal_representation.ir;
+
+import org.alex_hashtag.lib.results.Option;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * The functions of a program in SSA form, by qualified name.
+ */
+public final class IrModule
+{
+    private final Map<String, IrFunction> functions = new LinkedHashMap<>();
+
+    public void add(IrFunction function)
+    {
+        functions.put(function.getName(), function);
+    }
+
+    public Option<IrFunction> function(String name)
+    {
+        IrFunction function = functions.get(name);
+        return function == null ? Option.none() : Option.some(function);
+    }
+
+    public Collection<IrFunction> getFunctions()
+    {
+        return functions.values();
+    }
+
+    /**
+     * @return the number of instructions over all functions.
+     */
+    public int size()
+    {
+        int size = 0;
+        for (IrFunction function : functions.values())
+            size += function.size();
+        return size;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        for (IrFunction function : functions.values())
+            sb.append(function).append('\n');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,154 @@
+package org.alex_hashtag.internal_representation.ir;
+
+import java.util.List;
+
+
+/**
+ * The last instruction of a {@link Block}, which decides where control goes next.
+ */
+public sealed interface Terminator
+{
+    List<Integer> successors();
+
+    List<Value> operands();
+
+    Terminator withOperands(List<Value> operands);
+
+    /**
+     * @return this terminator with every edge to block {@code from} leading to {@code to} instead.
+     */
+    Terminator retarget(int from, int to);
+
+    record Jump(int target) implements Terminator
+    {
+        @Override
+        public List<Integer> successors()
+        {
+            return List.of(target);
+        }
+
+        @Override
+        public List<Value> operands()
+        {
+            return List.of();
+        }
+
+        @Override
+        public Terminator withOperands(List<Value> operands)
+        {
+            return this;
+        }
+
+        @Override
+        public Terminator retarget(int from, int to)
+        {
+            return target == from ? new Jump(to) : this;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "jump b" + target;
+        }
+    }
+
+    record Branch(Value condition, int ifTrue, int ifFalse) implements Terminator
+    {
+        @Override
+        public List<Integer> successors()
+        {
+            return ifTrue == ifFalse ? List.of(ifTrue) : List.of(ifTrue, ifFalse);
+        }
+
+        @Override
+        public List<Value> operands()
+        {
+            return List.of(condition);
+        }
+
+        @Override
+        public Terminator withOperands(List<Value> operands)
+        {
+            return new Branch(operands.get(0), ifTrue, ifFalse);
+        }
+
+        @Override
+        public Terminator retarget(int from, int to)
+        {
+            return new Branch(condition, ifTrue == from ? to : ifTrue, ifFalse == from ? to : ifFalse);
+        }
+
+        @Override
+        public String toString()
+        {
+            return "branch " + condition + ", b" + ifTrue + ", b" + ifFalse;
+        }
+    }
+
+    record Return(Value value) implements Terminator
+    {
+        @Override
+        public List<Integer> successors()
+        {
+            return List.of();
+        }
+
+        @Override
+        public List<Value> operands()
+        {
+            return List.of(value);
+        }
+
+        @Override
+        public Terminator withOperands(List<Value> operands)
+        {
+            return new Return(operands.get(0));
+        }
+
+        @Override
+        public Terminator retarget(int from, int to)
+        {
+            return this;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "return " + value;
+        }
+    }
+
+    /// Ends a block that control never leaves normally, e.g. one that was never completed.
+    record Unreachable() implements Terminator
+    {
+        @Override
+        public List<Integer> successors()
+        {
+            return List.of();
+        }
+
+        @Override
+        public List<Value> operands()
+        {
+            return List.of();
+        }
+
+        @Override
+        public Terminator withOperands(List<Value> operands)
+        {
+            return this;
+        }
+
+        @Override
+        public Terminator retarget(int from, int to)
+        {
+            return this;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "unreachable";
+        }
+    }
+}
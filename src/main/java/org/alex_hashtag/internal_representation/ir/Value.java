@@ -0,0 +1,72 @@
+package org.alex_hashtag.internal_representation.ir;
+
+/**
+ * An operand of an {@link Instruction}: either the result of another instruction or a constant.
+ * Constants are folded into operands directly instead of being materialized by instructions.
+ */
+public sealed interface Value
+{
+    /// The result of the instruction whose target is {@code id}.
+    record Register(int id) implements Value
+    {
+        @Override
+        public String toString()
+        {
+            return "%" + id;
+        }
+    }
+
+    /// A 64-bit integer, the type of integer literals until semantic analysis says otherwise.
+    record Int(long value) implements Value
+    {
+        @Override
+        public String toString()
+        {
+            return Long.toString(value);
+        }
+    }
+
+    record Float(double value) implements Value
+    {
+        @Override
+        public String toString()
+        {
+            return Double.toString(value);
+        }
+    }
+
+    record Bool(boolean value) implements Value
+    {
+        @Override
+        public String toString()
+        {
+            return Boolean.toString(value);
+        }
+    }
+
+    record Str(String value) implements Value
+    {
+        @Override
+        public String toString()
+        {
+            return '"' + value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + '"';
+        }
+    }
+
+    /// The value of statements and of variables that were declared but never assigned.
+    record Unit() implements Value
+    {
+        @Override
+        public String toString()
+        {
+            return "()";
+        }
+    }
+
+    Value UNIT = new Unit();
+
+    default boolean isConstant()
+    {
+        return !(this instanceof Register);
+    }
+}
@@ -0,0 +1,157 @@
+package org.alex_hashtag.internal_representation.ir.passes;
+
+import org.alex_hashtag.internal_representation.ir.*;
+
+import java.util.*;
+
+
+/**
+ * Replaces a pure computation by an identical one that dominates it, i.e. that always runs first.
+ * <p>
+ * The dominator tree is computed with the algorithm of Cooper, Harvey and Kennedy and walked depth
+ * first with a scoped table of available expressions, so an expression computed in a block is
+ * reused in every block it dominates, and only there.
+ */
+public final class CommonSubexpressionElimination implements FunctionPass
+{
+    private static final Set<String> COMMUTATIVE = Set.of("+", "*", "&", "|", "^", "==", "!=");
+
+    /// What makes two instructions compute the same value.
+    private record Expression(String operator, List<Value> operands)
+    {
+    }
+
+    @Override
+    public String name()
+    {
+        return "common-subexpression-elimination";
+    }
+
+    @Override
+    public boolean run(IrFunction function)
+    {
+        List<Block> order = function.reversePostOrder();
+        Map<Integer, List<Block>> children = dominatorTree(function, order);
+
+        Map<Expression, Value> available = new HashMap<>();
+        Map<Integer, Value> replacements = new HashMap<>();
+        walk(function.getEntry(), children, available, replacements);
+
+        function.replaceUses(replacements);
+        return !replacements.isEmpty();
+    }
+
+    private static void walk(Block block, Map<Integer, List<Block>> children,
+                             Map<Expression, Value> available, Map<Integer, Value> replacements)
+    {
+        // Recursion depth is bounded by the nesting depth of the source, which is small
+        List<Expression> added = new ArrayList<>();
+        Iterator<Instruction> iterator = block.getInstructions().iterator();
+        while (iterator.hasNext())
+        {
+            Instruction instruction = iterator.next();
+            Expression expression = expressionOf(block, instruction, replacements);
+            if (expression == null)
+                continue;
+            Value existing = available.get(expression);
+            if (existing != null)
+            {
+                replacements.put(instruction.target(), existing);
+                iterator.remove();
+            }
+            else
+            {
+                available.put(expression, new Value.Register(instruction.target()));
+                added.add(expression);
+            }
+        }
+
+        for (Block child : children.getOrDefault(block.getId(), List.of()))
+            walk(child, children, available, replacements);
+        added.forEach(available::remove);
+    }
+
+    /// @return the key of a pure instruction, or null for instructions that cannot be merged.
+    private static Expression expressionOf(Block block, Instruction instruction, Map<Integer, Value> replacements)
+    {
+        List<Value> operands = new ArrayList<>(instruction.operands().size());
+        for (Value operand : instruction.operands())
+        {
+            Value value = operand;
+            while (value instanceof Value.Register(int id) && replacements.containsKey(id))
+                value = replacements.get(id);
+            operands.add(value);
+        }
+
+        return switch (instruction)
+        {
+            case Instruction.Binary binary when !binary.hasSideEffects() ->
+            {
+                if (COMMUTATIVE.contains(binary.operator())
+                        && operands.get(0).toString().compareTo(operands.get(1).toString()) > 0)
+                    Collections.swap(operands, 0, 1);
+                yield new Expression(binary.operator(), operands);
+            }
+            case Instruction.Unary unary -> new Expression("unary " + unary.operator(), operands);
+            // Phis are only equal within a block, where they share their predecessors
+            case Instruction.Phi phi -> new Expression("phi b" + block.getId() + " " + phi.incoming().stream()
+                    .map(Instruction.Phi.Incoming::block)
+                    .toList(), operands);
+            default -> null;
+        };
+    }
+
+    /**
+     * @return the children of every block in the dominator tree.
+     */
+    static Map<Integer, List<Block>> dominatorTree(IrFunction function, List<Block> order)
+    {
+        Map<Integer, Integer> index = new HashMap<>();
+        for (int i = 0; i < order.size(); i++)
+            index.put(order.get(i).getId(), i);
+        Map<Integer, List<Integer>> predecessors = function.predecessors();
+
+        int[] dominator = new int[order.size()];
+        Arrays.fill(dominator, -1);
+        dominator[0] = 0;
+        boolean changed = true;
+        while (changed)
+        {
+            changed = false;
+            for (int i = 1; i < order.size(); i++)
+            {
+                int idom = -1;
+                for (int predecessor : predecessors.get(order.get(i).getId()))
+                {
+                    Integer p = index.get(predecessor);
+                    if (p == null || dominator[p] < 0)
+                        continue; // Unreachable, or not processed yet
+                    idom = idom < 0 ? p : intersect(dominator, p, idom);
+                }
+                if (idom >= 0 && dominator[i] != idom)
+                {
+                    dominator[i] = idom;
+                    changed = true;
+                }
+            }
+        }
+
+        Map<Integer, List<Block>> children = new HashMap<>();
+        for (int i = 1; i < order.size(); i++)
+            if (dominator[i] >= 0)
+                children.computeIfAbsent(order.get(dominator[i]).getId(), ignored -> new ArrayList<>()).add(order.get(i));
+        return children;
+    }
+
+    private static int intersect(int[] dominator, int a, int b)
+    {
+        while (a != b)
+        {
+            while (a > b)
+                a = dominator[a];
+            while (b > a)
+                b = dominator[b];
+        }
+        return a;
+    }
+}
@@ -0,0 +1,345 @@
+package org.alex_hashtag.internal_representation.ir.passes;
+
+import org.alex_hashtag.internal_representation.ir.*;
+
+import java.util.*;
+
+
+/**
+ * Evaluates instructions whose operands are constants, applies algebraic identities such as
+ * {@code x + 0 = x}, turns branches on constants into jumps and removes phis that merge a single
+ * value. Repeats until nothing changes, so constants propagate through whole chains of instructions.
+ * <p>
+ * The IR is untyped and the VM picks an operator's meaning from the values it meets: {@code +}
+ * concatenates when either side is a string, and an integer next to a float is computed as a float.
+ * An identity is therefore only applied when the kind of the other operand is known, from a
+ * constant or from the instruction that produced it: {@code x + 0} needs an integer, as
+ * {@code -0.0 + 0} is {@code 0.0}, and {@code x * 1} a number.
+ * <p>
+ * Integers wrap around at 64 bits, exactly as the VM computes them. Divisions by zero and shifts by
+ * more than 63 bits are left for run time to report. The IR does not record integer widths yet, so
+ * an {@code int8} or {@code uint32} computation is done at 64 bits here as well as in the VM, and is
+ * not wrapped to its declared width; {@link org.alex_hashtag.internal_representation.ir.IrBuilder}
+ * does not fold through locals of those types for the same reason.
+ */
+public final class ConstantFolding implements FunctionPass
+{
+    @Override
+    public String name()
+    {
+        return "constant-folding";
+    }
+
+    @Override
+    public boolean run(IrFunction function)
+    {
+        boolean changed = false;
+        while (true)
+        {
+            boolean progress = false;
+            Map<Integer, Value> replacements = new HashMap<>();
+            Map<Integer, Kind> kinds = new HashMap<>();
+            for (Block block : function.reversePostOrder())
+            {
+                Iterator<Instruction> iterator = block.getInstructions().iterator();
+                while (iterator.hasNext())
+                {
+                    Instruction instruction = iterator.next();
+                    Value folded = fold(instruction, replacements, kinds);
+                    if (folded != null)
+                    {
+                        replacements.put(instruction.target(), folded);
+                        iterator.remove();
+                    }
+                    else
+                    {
+                        Kind kind = kindOf(instruction, replacements, kinds);
+                        if (kind != null)
+                            kinds.put(instruction.target(), kind);
+                    }
+                }
+            }
+            if (!replacements.isEmpty())
+            {
+                function.replaceUses(replacements);
+                progress = true;
+            }
+            progress |= foldBranches(function);
+            progress |= function.removeTrivialPhis();
+            if (!progress)
+                return changed;
+            changed = true;
+        }
+    }
+
+    /// What the VM is known to hold in a value; null when it is not known.
+    private enum Kind
+    {
+        INT, FLOAT, BOOL;
+
+        boolean isNumber()
+        {
+            return this == INT || this == FLOAT;
+        }
+    }
+
+    /// @return the value the instruction always produces, or null if it must stay.
+    private static Value fold(Instruction instruction, Map<Integer, Value> replacements, Map<Integer, Kind> kinds)
+    {
+        return switch (instruction)
+        {
+            case Instruction.Binary binary -> foldBinary(binary.operator(),
+                    resolve(binary.left(), replacements), resolve(binary.right(), replacements), kinds);
+            case Instruction.Unary unary -> foldUnary(unary.operator(), resolve(unary.operand(), replacements));
+            default -> null;
+        };
+    }
+
+    private static Kind kindOf(Value value, Map<Integer, Kind> kinds)
+    {
+        return switch (value)
+        {
+            case Value.Int ignored -> Kind.INT;
+            case Value.Float ignored -> Kind.FLOAT;
+            case Value.Bool ignored -> Kind.BOOL;
+            case Value.Register(int id) -> kinds.get(id);
+            default -> null;
+        };
+    }
+
+    /// @return the kind of what an instruction that was not folded produces, whenever it does not fail.
+    private static Kind kindOf(Instruction instruction, Map<Integer, Value> replacements, Map<Integer, Kind> kinds)
+    {
+        switch (instruction)
+        {
+            case Instruction.Binary binary ->
+            {
+                Kind left = kindOf(resolve(binary.left(), replacements), kinds);
+                Kind right = kindOf(resolve(binary.right(), replacements), kinds);
+                return switch (binary.operator())
+                {
+                    case "==", "!=", "<", ">", "<=", ">=" -> Kind.BOOL;
+                    case "<<", ">>", ">>>" -> Kind.INT;
+                    case "+", "-", "*", "/", "%" -> left == Kind.INT && right == Kind.INT ? Kind.INT
+                            : left != null && right != null && left.isNumber() && right.isNumber() ? Kind.FLOAT
+                            : null;
+                    case "&", "|", "^" -> left == right ? left : null;
+                    default -> null;
+                };
+            }
+            case Instruction.Unary unary ->
+            {
+                Kind operand = kindOf(resolve(unary.operand(), replacements), kinds);
+                return switch (unary.operator())
+                {
+                    case "-" -> operand != null && operand.isNumber() ? operand : null;
+                    case "~" -> Kind.INT;
+                    case "!" -> Kind.BOOL;
+                    default -> null;
+                };
+            }
+            case Instruction.Phi phi ->
+            {
+                Kind kind = null;
+                for (Instruction.Phi.Incoming incoming : phi.incoming())
+                {
+                    Kind next = kindOf(resolve(incoming.value(), replacements), kinds);
+                    if (next == null || (kind != null && kind != next))
+                        return null;
+                    kind = next;
+                }
+                return kind;
+            }
+            default ->
+            {
+                return null;
+            }
+        }
+    }
+
+    private static Value resolve(Value value, Map<Integer, Value> replacements)
+    {
+        while (value instanceof Value.Register(int id) && replacements.containsKey(id))
+            value = replacements.get(id);
+        return value;
+    }
+
+    /**
+     * @return the result of {@code left operator right}, or null if it is not known at compile time.
+     */
+    public static Value foldBinary(String operator, Value left, Value right)
+    {
+        return foldBinary(operator, left, right, Map.of());
+    }
+
+    private static Value foldBinary(String operator, Value left, Value right, Map<Integer, Kind> kinds)
+    {
+        return switch (left)
+        {
+            case Value.Int(long l) when right instanceof Value.Int(long r) -> foldInt(operator, l, r);
+            case Value.Float(double l) when right instanceof Value.Float(double r) -> foldFloat(operator, l, r);
+            // The VM computes an integer next to a float as a float
+            case Value.Float(double l) when right instanceof Value.Int(long r) -> foldFloat(operator, l, r);
+            case Value.Int(long l) when right instanceof Value.Float(double r) -> foldFloat(operator, l, r);
+            case Value.Bool(boolean l) when right instanceof Value.Bool(boolean r) -> foldBool(operator, l, r);
+            case Value.Str(String l) when right instanceof Value.Str(String r) -> switch (operator)
+            {
+                case "==" -> new Value.Bool(l.equals(r));
+                case "!=" -> new Value.Bool(!l.equals(r));
+                default -> null;
+            };
+            default -> simplify(operator, left, right, kinds);
+        };
+    }
+
+    private static Value foldInt(String operator, long l, long r)
+    {
+        return switch (operator)
+        {
+            case "+" -> new Value.Int(l + r);
+            case "-" -> new Value.Int(l - r);
+            case "*" -> new Value.Int(l * r);
+            case "/" -> r == 0 ? null : new Value.Int(l / r);
+            case "%" -> r == 0 ? null : new Value.Int(l % r);
+            case "&" -> new Value.Int(l & r);
+            case "|" -> new Value.Int(l | r);
+            case "^" -> new Value.Int(l ^ r);
+            case "<<" -> r < 0 || r > 63 ? null : new Value.Int(l << r);
+            case ">>" -> r < 0 || r > 63 ? null : new Value.Int(l >> r);
+            case ">>>" -> r < 0 || r > 63 ? null : new Value.Int(l >>> r);
+            case "==" -> new Value.Bool(l == r);
+            case "!=" -> new Value.Bool(l != r);
+            case "<" -> new Value.Bool(l < r);
+            case ">" -> new Value.Bool(l > r);
+            case "<=" -> new Value.Bool(l <= r);
+            case ">=" -> new Value.Bool(l >= r);
+            default -> null;
+        };
+    }
+
+    private static Value foldFloat(String operator, double l, double r)
+    {
+        return switch (operator)
+        {
+            case "+" -> new Value.Float(l + r);
+            case "-" -> new Value.Float(l - r);
+            case "*" -> new Value.Float(l * r);
+            case "/" -> new Value.Float(l / r);
+            case "%" -> new Value.Float(l % r);
+            case "==" -> new Value.Bool(l == r);
+            case "!=" -> new Value.Bool(l != r);
+            case "<" -> new Value.Bool(l < r);
+            case ">" -> new Value.Bool(l > r);
+            case "<=" -> new Value.Bool(l <= r);
+            case ">=" -> new Value.Bool(l >= r);
+            default -> null;
+        };
+    }
+
+    private static Value foldBool(String operator, boolean l, boolean r)
+    {
+        return switch (operator)
+        {
+            case "&" -> new Value.Bool(l & r);
+            case "|" -> new Value.Bool(l | r);
+            case "^", "!=" -> new Value.Bool(l ^ r);
+            case "==" -> new Value.Bool(l == r);
+            default -> null;
+        };
+    }
+
+    /// Identities with one constant operand; the other operand, of a known kind, is returned unchanged.
+    private static Value simplify(String operator, Value left, Value right, Map<Integer, Kind> kinds)
+    {
+        Value zero = new Value.Int(0);
+        Value one = new Value.Int(1);
+        Kind leftKind = kindOf(left, kinds);
+        Kind rightKind = kindOf(right, kinds);
+        boolean leftNumber = leftKind != null && leftKind.isNumber();
+        boolean rightNumber = rightKind != null && rightKind.isNumber();
+        return switch (operator)
+        {
+            case "+", "|", "^" -> right.equals(zero) && leftKind == Kind.INT ? left
+                    : left.equals(zero) && rightKind == Kind.INT ? right
+                    : boolIdentity(operator, left, right, kinds);
+            case "-" -> right.equals(zero) && leftNumber ? left : null;
+            case "<<", ">>", ">>>" -> right.equals(zero) && leftKind == Kind.INT ? left : null;
+            case "*" -> right.equals(one) && leftNumber ? left : left.equals(one) && rightNumber ? right : null;
+            case "/" -> right.equals(one) && leftNumber ? left : null;
+            case "&" -> boolIdentity(operator, left, right, kinds);
+            default -> null;
+        };
+    }
+
+    /// {@code x & true = x}, {@code x & false = false}, {@code x | false = x}, {@code x | true = true},
+    /// for a boolean {@code x}.
+    private static Value boolIdentity(String operator, Value left, Value right, Map<Integer, Kind> kinds)
+    {
+        Value constant = right instanceof Value.Bool ? right : left instanceof Value.Bool ? left : null;
+        Value other = constant == right ? left : right;
+        if (!(constant instanceof Value.Bool(boolean value)) || kindOf(other, kinds) != Kind.BOOL)
+            return null;
+        return switch (operator)
+        {
+            case "&" -> value ? other : constant;
+            case "|" -> value ? constant : other;
+            default -> null;
+        };
+    }
+
+    /**
+     * @return the result of {@code operator operand}, or null if it is not known at compile time.
+     */
+    public static Value foldUnary(String operator, Value operand)
+    {
+        return switch (operand)
+        {
+            case Value.Int(long value) -> switch (operator)
+            {
+                case "-" -> new Value.Int(-value);
+                case "~" -> new Value.Int(~value);
+                default -> null;
+            };
+            case Value.Float(double value) -> operator.equals("-") ? new Value.Float(-value) : null;
+            case Value.Bool(boolean value) -> operator.equals("!") ? new Value.Bool(!value) : null;
+            default -> null;
+        };
+    }
+
+    /// Branches on constants, or to the same block either way, become jumps.
+    private static boolean foldBranches(IrFunction function)
+    {
+        boolean changed = false;
+        for (Block block : function.getBlocks())
+        {
+            if (!(block.getTerminator() instanceof Terminator.Branch branch))
+                continue;
+
+            int target;
+            if (branch.ifTrue() == branch.ifFalse())
+                target = branch.ifTrue();
+            else if (branch.condition() instanceof Value.Bool(boolean condition))
+                target = condition ? branch.ifTrue() : branch.ifFalse();
+            else
+                continue;
+
+            block.setTerminator(new Terminator.Jump(target));
+            int dropped = target == branch.ifTrue() ? branch.ifFalse() : branch.ifTrue();
+            if (dropped != target)
+                dropIncoming(function.block(dropped), block.getId());
+            changed = true;
+        }
+        if (changed)
+            function.removeUnreachableBlocks();
+        return changed;
+    }
+
+    private static void dropIncoming(Block block, int predecessor)
+    {
+        List<Instruction> instructions = block.getInstructions();
+        for (int i = 0; i < instructions.size() && instructions.get(i) instanceof Instruction.Phi phi; i++)
+            instructions.set(i, new Instruction.Phi(phi.target(), phi.incoming().stream()
+                    .filter(in -> in.block() != predecessor)
+                    .toList()));
+    }
+}
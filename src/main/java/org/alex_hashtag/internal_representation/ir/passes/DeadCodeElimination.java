@@ -0,0 +1,144 @@
+package org.alex_hashtag.internal_representation.ir.passes;
+
+import org.alex_hashtag.internal_representation.ir.*;
+
+import java.util.*;
+
+
+/**
+ * Removes instructions whose results are never used and that have no side effects, blocks that
+ * cannot be reached, and the blocks that only forward control: a block reached by a single jump is
+ * merged into its predecessor, and an empty block that jumps on is bypassed.
+ */
+public final class DeadCodeElimination implements FunctionPass
+{
+    @Override
+    public String name()
+    {
+        return "dead-code-elimination";
+    }
+
+    @Override
+    public boolean run(IrFunction function)
+    {
+        boolean changed = function.removeUnreachableBlocks();
+        changed |= removeDeadInstructions(function);
+        changed |= simplifyControlFlow(function);
+        return changed;
+    }
+
+    /// Marks everything side effects and terminators depend on, and removes the rest.
+    private static boolean removeDeadInstructions(IrFunction function)
+    {
+        Map<Integer, Instruction> definitions = new HashMap<>();
+        Set<Integer> live = new HashSet<>();
+        Deque<Value> worklist = new ArrayDeque<>();
+        for (Block block : function.getBlocks())
+        {
+            for (Instruction instruction : block.getInstructions())
+            {
+                definitions.put(instruction.target(), instruction);
+                if (instruction.hasSideEffects() && live.add(instruction.target()))
+                    worklist.addAll(instruction.operands());
+            }
+            worklist.addAll(block.getTerminator().operands());
+        }
+
+        while (!worklist.isEmpty())
+        {
+            if (!(worklist.pop() instanceof Value.Register(int id)) || !live.add(id))
+                continue;
+            Instruction definition = definitions.get(id);
+            if (definition != null)
+                worklist.addAll(definition.operands());
+        }
+
+        boolean changed = false;
+        for (Block block : function.getBlocks())
+            changed |= block.getInstructions().removeIf(instruction -> !live.contains(instruction.target()));
+        return changed;
+    }
+
+    private static boolean simplifyControlFlow(IrFunction function)
+    {
+        boolean changed = false;
+        Map<Integer, List<Integer>> predecessors = function.predecessors();
+        Map<Integer, Value> replacements = new HashMap<>();
+
+        for (Block block : function.reversePostOrder())
+        {
+            if (function.block(block.getId()) == null)
+                continue; // Merged into a predecessor
+
+            // Branches to the same block either way
+            if (block.getTerminator() instanceof Terminator.Branch branch && branch.ifTrue() == branch.ifFalse())
+            {
+                block.setTerminator(new Terminator.Jump(branch.ifTrue()));
+                changed = true;
+            }
+
+            // Merge the successor if this block is its only predecessor
+            while (block.getTerminator() instanceof Terminator.Jump(int target)
+                    && target != block.getId()
+                    && target != function.getEntry().getId()
+                    && predecessors.get(target).size() == 1)
+            {
+                Block next = function.block(target);
+                for (Instruction.Phi phi : next.getPhis())
+                    replacements.put(phi.target(), phi.incoming().isEmpty() ? Value.UNIT : phi.incoming().getFirst().value());
+                next.getInstructions().stream()
+                        .filter(instruction -> !(instruction instanceof Instruction.Phi))
+                        .forEach(block.getInstructions()::add);
+                block.setTerminator(next.getTerminator());
+                for (int successor : next.getTerminator().successors())
+                {
+                    IrFunction.renameIncoming(function.block(successor), next.getId(), block.getId());
+                    List<Integer> from = predecessors.get(successor);
+                    from.replaceAll(id -> id == next.getId() ? block.getId() : id);
+                }
+                function.removeBlock(next.getId());
+                predecessors.remove(next.getId());
+                changed = true;
+            }
+        }
+        function.replaceUses(replacements);
+
+        changed |= bypassEmptyBlocks(function);
+        return changed;
+    }
+
+    /// Redirects jumps to an empty block straight to where it leads, unless phis there need the edge.
+    private static boolean bypassEmptyBlocks(IrFunction function)
+    {
+        boolean changed = false;
+        Map<Integer, List<Integer>> predecessors = function.predecessors();
+        for (Block block : List.copyOf(function.getBlocks()))
+        {
+            // Chains are shortened one block per run, so empty infinite loops stay intact
+            if (!isForwarding(function, block)
+                    || !(block.getTerminator() instanceof Terminator.Jump(int target))
+                    || isForwarding(function, function.block(target))
+                    || !function.block(target).getPhis().isEmpty()
+                    || predecessors.get(block.getId()).isEmpty())
+                continue;
+
+            for (int predecessor : predecessors.get(block.getId()))
+            {
+                Block from = function.block(predecessor);
+                from.setTerminator(from.getTerminator().retarget(block.getId(), target));
+            }
+            predecessors = function.predecessors();
+            changed = true;
+        }
+        if (changed)
+            function.removeUnreachableBlocks();
+        return changed;
+    }
+
+    private static boolean isForwarding(IrFunction function, Block block)
+    {
+        return block != function.getEntry()
+                && block.getInstructions().isEmpty()
+                && block.getTerminator() instanceof Terminator.Jump;
+    }
+}
@@ -0,0 +1,25 @@
+package org.alex_hashtag.internal_representation.ir.passes;
+
+import org.alex_hashtag.internal_representation.ir.IrFunction;
+import org.alex_hashtag.internal_representation.ir.IrModule;
+
+
+/**
+ * A pass that looks at one function at a time.
+ */
+public interface FunctionPass extends Pass
+{
+    /**
+     * @return whether the function changed.
+     */
+    boolean run(IrFunction function);
+
+    @Override
+    default boolean run(IrModule module)
+    {
+        boolean changed = false;
+        for (IrFunction function : module.getFunctions())
+            changed |= run(function);
+        return changed;
+    }
+}
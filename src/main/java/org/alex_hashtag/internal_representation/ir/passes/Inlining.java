@@ -0,0 +1,198 @@
+package org.alex_hashtag.internal_representation.ir.passes;
+
+import org.alex_hashtag.internal_representation.ir.*;
+
+import java.util.*;
+
+
+/**
+ * Replaces calls by a copy of the callee's body.
+ * <p>
+ * Functions declared {@code inline} are inlined up to {@link #INLINE_LIMIT} instructions; other
+ * functions only if they have at most {@code sizeLimit} instructions. Functions that call themselves
+ * are never inlined, and a caller stops growing once it reaches {@link #GROWTH_LIMIT} instructions,
+ * which also bounds mutual recursion.
+ */
+public final class Inlining implements Pass
+{
+    public static final int INLINE_LIMIT = 200;
+    public static final int GROWTH_LIMIT = 5_000;
+
+    private final int sizeLimit;
+
+    /**
+     * @param sizeLimit the size up to which functions not declared {@code inline} are inlined;
+     *                  0 inlines only those declared {@code inline}.
+     */
+    public Inlining(int sizeLimit)
+    {
+        this.sizeLimit = sizeLimit;
+    }
+
+    @Override
+    public String name()
+    {
+        return "inline";
+    }
+
+    @Override
+    public boolean run(IrModule module)
+    {
+        boolean changed = false;
+        for (IrFunction caller : module.getFunctions())
+        {
+            while (caller.size() < GROWTH_LIMIT)
+            {
+                CallSite site = findCandidate(module, caller);
+                if (site == null)
+                    break;
+                inline(caller, site);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private record CallSite(Block block, int index, Instruction.Call call, IrFunction callee)
+    {
+    }
+
+    private CallSite findCandidate(IrModule module, IrFunction caller)
+    {
+        for (Block block : caller.getBlocks())
+        {
+            List<Instruction> instructions = block.getInstructions();
+            for (int i = 0; i < instructions.size(); i++)
+            {
+                if (!(instructions.get(i) instanceof Instruction.Call call))
+                    continue;
+                IrFunction callee = module.function(call.function()).unwrapOr(null);
+                if (callee != null && callee != caller && shouldInline(callee))
+                    return new CallSite(block, i, call, callee);
+            }
+        }
+        return null;
+    }
+
+    private boolean shouldInline(IrFunction callee)
+    {
+        int size = callee.size();
+        if (size > (callee.isInline() ? INLINE_LIMIT : sizeLimit))
+            return false;
+        for (Block block : callee.getBlocks())
+            for (Instruction instruction : block.getInstructions())
+                if (instruction instanceof Instruction.Call call && call.function().equals(callee.getName()))
+                    return false;
+        return true;
+    }
+
+    private static void inline(IrFunction caller, CallSite site)
+    {
+        IrFunction callee = site.callee();
+        Block before = site.block();
+
+        // Split the calling block: everything after the call continues in a new block
+        Block after = caller.newBlock();
+        List<Instruction> instructions = before.getInstructions();
+        List<Instruction> tail = instructions.subList(site.index() + 1, instructions.size());
+        after.getInstructions().addAll(tail);
+        tail.clear();
+        instructions.remove(site.index());
+        after.setTerminator(before.getTerminator());
+        for (int successor : after.getTerminator().successors())
+            IrFunction.renameIncoming(caller.block(successor), before.getId(), after.getId());
+
+        // Fresh blocks and registers for the copy; parameters become the arguments
+        Map<Integer, Integer> blocks = new HashMap<>();
+        for (Block block : callee.getBlocks())
+            blocks.put(block.getId(), caller.newBlock().getId());
+        Map<Integer, Value> values = new HashMap<>();
+        for (Block block : callee.getBlocks())
+        {
+            for (Instruction instruction : block.getInstructions())
+            {
+                if (instruction instanceof Instruction.Parameter parameter)
+                    values.put(parameter.target(), parameter.index() < site.call().arguments().size()
+                            ? site.call().arguments().get(parameter.index())
+                            : Value.UNIT);
+                else
+                    values.put(instruction.target(), new Value.Register(caller.newRegister()));
+            }
+        }
+
+        List<Instruction.Phi.Incoming> returns = new ArrayList<>();
+        for (Block block : callee.getBlocks())
+        {
+            Block copy = caller.block(blocks.get(block.getId()));
+            for (Instruction instruction : block.getInstructions())
+            {
+                if (instruction instanceof Instruction.Parameter)
+                    continue;
+                copy.getInstructions().add(copy(instruction, values, blocks));
+            }
+            Terminator terminator = block.getTerminator();
+            switch (terminator)
+            {
+                case Terminator.Return(Value value) ->
+                {
+                    returns.add(new Instruction.Phi.Incoming(copy.getId(), map(value, values)));
+                    copy.setTerminator(new Terminator.Jump(after.getId()));
+                }
+                case Terminator.Jump(int target) -> copy.setTerminator(new Terminator.Jump(blocks.get(target)));
+                case Terminator.Branch(Value condition, int ifTrue, int ifFalse) -> copy.setTerminator(
+                        new Terminator.Branch(map(condition, values), blocks.get(ifTrue), blocks.get(ifFalse)));
+                case Terminator.Unreachable unreachable -> copy.setTerminator(unreachable);
+            }
+        }
+        before.setTerminator(new Terminator.Jump(blocks.get(callee.getEntry().getId())));
+
+        // The result of the call is the returned value, merged if there are several returns
+        Value result;
+        if (returns.isEmpty())
+        {
+            result = Value.UNIT;
+        }
+        else if (returns.size() == 1)
+        {
+            result = returns.getFirst().value();
+        }
+        else
+        {
+            int phi = caller.newRegister();
+            after.add(new Instruction.Phi(phi, List.copyOf(returns)));
+            result = new Value.Register(phi);
+        }
+        caller.replaceUses(Map.of(site.call().target(), result));
+    }
+
+    private static Instruction copy(Instruction instruction, Map<Integer, Value> values, Map<Integer, Integer> blocks)
+    {
+        List<Value> operands = new ArrayList<>(instruction.operands().size());
+        for (Value operand : instruction.operands())
+            operands.add(map(operand, values));
+        int target = ((Value.Register) values.get(instruction.target())).id();
+
+        return switch (instruction)
+        {
+            case Instruction.Binary binary -> new Instruction.Binary(target, binary.operator(), operands.get(0), operands.get(1));
+            case Instruction.Unary unary -> new Instruction.Unary(target, unary.operator(), operands.getFirst());
+            case Instruction.Call call -> new Instruction.Call(target, call.function(), List.copyOf(operands));
+            case Instruction.Opaque opaque -> new Instruction.Opaque(target, opaque.description(), List.copyOf(operands), opaque.pure());
+            case Instruction.Phi phi ->
+            {
+                List<Instruction.Phi.Incoming> incoming = new ArrayList<>();
+                for (int i = 0; i < phi.incoming().size(); i++)
+                    incoming.add(new Instruction.Phi.Incoming(blocks.get(phi.incoming().get(i).block()), operands.get(i)));
+                yield new Instruction.Phi(target, List.copyOf(incoming));
+            }
+            case Instruction.Parameter parameter -> throw new IllegalStateException("Parameters are not copied: " + parameter);
+        };
+    }
+
+    private static Value map(Value value, Map<Integer, Value> values)
+    {
+        if (value instanceof Value.Register(int id))
+            return values.getOrDefault(id, value);
+        return value;
+    }
+}
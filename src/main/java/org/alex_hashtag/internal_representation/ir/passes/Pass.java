@@ -0,0 +1,20 @@
+package org.alex_hashtag.internal_representation.ir.passes;
+
+import org.alex_hashtag.internal_representation.ir.IrModule;
+
+
+/**
+ * A transformation of the IR, run by the {@link PassManager}.
+ */
+public interface Pass
+{
+    /**
+     * @return the name shown in timing reports.
+     */
+    String name();
+
+    /**
+     * @return whether the module changed.
+     */
+    boolean run(IrModule module);
+}
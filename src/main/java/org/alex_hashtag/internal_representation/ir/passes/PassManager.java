@@ -0,0 +1,126 @@
+package org.alex_hashtag.internal_representation.ir.passes;
+
+import org.alex_hashtag.buildSystem.Optimization;
+import org.alex_hashtag.internal_representation.ir.IrModule;
+import org.alex_hashtag.lib.profiling.Phase;
+import org.alex_hashtag.lib.profiling.PhaseTimer;
+
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Runs a pipeline of passes over a module, repeating it while it keeps changing the module, up to a
+ * number of rounds.
+ * <p>
+ * Every pass is timed on its own, so {@code --time-passes} can tell which one a slow build spends its
+ * time in; the pipeline as a whole counts towards {@link Phase#OPTIMIZE}.
+ */
+public final class PassManager
+{
+    /**
+     * The time spent in one pass over all rounds.
+     *
+     * @param runs    how often it ran.
+     * @param changes how many of those runs changed the module.
+     */
+    public record Timing(String pass, int runs, int changes, long nanos)
+    {
+    }
+
+    private final List<Pass> passes;
+    private final int rounds;
+    private final Map<String, Timing> timings = new LinkedHashMap<>();
+
+    /**
+     * @param rounds how often the pipeline runs at most; it stops earlier once a round changes nothing.
+     */
+    public PassManager(List<Pass> passes, int rounds)
+    {
+        this.passes = List.copyOf(passes);
+        this.rounds = rounds;
+    }
+
+    /**
+     * @return the pipeline for an optimization level: nothing at {@code O0}, cleanups at {@code O1}, and
+     * from {@code O2} on inlining and common subexpressions too, with more inlining and more rounds at
+     * every level. {@code Os} only inlines functions declared {@code inline}, {@code Oz} none at all.
+     */
+    public static PassManager forLevel(Optimization level)
+    {
+        return switch (level)
+        {
+            case O0 -> new PassManager(List.of(), 0);
+            case O1 -> new PassManager(List.of(new ConstantFolding(), new DeadCodeElimination()), 1);
+            case O2 -> new PassManager(full(new Inlining(12)), 2);
+            case O3 -> new PassManager(full(new Inlining(40)), 4);
+            case O4 -> new PassManager(full(new Inlining(100)), 8);
+            case Os -> new PassManager(full(new Inlining(0)), 2);
+            case Oz -> new PassManager(List.of(
+                    new ConstantFolding(), new CommonSubexpressionElimination(), new DeadCodeElimination()), 2);
+        };
+    }
+
+    private static List<Pass> full(Inlining inlining)
+    {
+        return List.of(inlining, new ConstantFolding(), new CommonSubexpressionElimination(), new DeadCodeElimination());
+    }
+
+    public List<Pass> getPasses()
+    {
+        return passes;
+    }
+
+    /**
+     * @return whether any pass changed the module.
+     */
+    public boolean run(IrModule module)
+    {
+        boolean changed = false;
+        try (PhaseTimer.Scope scope = PhaseTimer.get().start(Phase.OPTIMIZE))
+        {
+            scope.nodes(module.size());
+            for (int round = 0; round < rounds; round++)
+            {
+                boolean progress = false;
+                for (Pass pass : passes)
+                    progress |= run(pass, module);
+                changed |= progress;
+                if (!progress)
+                    break;
+            }
+        }
+        return changed;
+    }
+
+    private boolean run(Pass pass, IrModule module)
+    {
+        long start = System.nanoTime();
+        boolean changed = pass.run(module);
+        long elapsed = System.nanoTime() - start;
+        timings.merge(pass.name(), new Timing(pass.name(), 1, changed ? 1 : 0, elapsed), (a, b) ->
+                new Timing(a.pass(), a.runs() + b.runs(), a.changes() + b.changes(), a.nanos() + b.nanos()));
+        return changed;
+    }
+
+    /**
+     * @return the time spent in every pass that ran, in pipeline order.
+     */
+    public List<Timing> getTimings()
+    {
+        return List.copyOf(timings.values());
+    }
+
+    public void printTimings(PrintStream out)
+    {
+        long total = timings.values().stream().mapToLong(Timing::nanos).sum();
+        out.printf("%-36s %6s %8s %12s %7s%n", "Pass", "Runs", "Changed", "Time (ms)", "%");
+        for (Timing timing : timings.values())
+            out.printf("%-36s %6d %8d %12.3f %6.1f%%%n",
+                    timing.pass(), timing.runs(), timing.changes(), timing.nanos() / 1e6,
+                    total == 0 ? 0.0 : 100.0 * timing.nanos() / total);
+        out.printf("%-36s %6s %8s %12.3f%n", "Total", "", "", total / 1e6);
+    }
+}
@@ -12,8 +12,11 @@ import java.util.stream.Collectors;
 
 public class Macro implements Locatable
 {
+    @Getter
     private final String name;
+    @Getter
     private final ArrayList<Arm> arms;
+    @Getter
     private final boolean pub;
     @Getter
     private CoordinatesOLD location;
@@ -0,0 +1,499 @@
+package org.alex_hashtag.internal_representation.macros;
+
+import org.alex_hashtag.errors.ParsingErrorManager;
+import org.alex_hashtag.errors.ParsingErrorManager.ErrorType;
+import org.alex_hashtag.errors.ParsingErrorManager.ParsingError;
+import org.alex_hashtag.lib.results.Option;
+import org.alex_hashtag.tokenizationOLD.Token;
+import org.alex_hashtag.tokenizationOLD.TokenStream;
+import org.alex_hashtag.tokenizationOLD.TokenTree;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.alex_hashtag.tokenizationOLD.TokenType.*;
+
+
+/**
+ * Replaces macro uses, a {@code MACRO_USE} token followed by a delimited group of arguments,
+ * with the body of the first matching macro arm.
+ * <p>
+ * Arguments are matched where they are, as a range of the already lexed tokens ({@link TokenTree}).
+ * Bound variables are substituted into the arm body, and macro uses found in the result are
+ * expanded in turn, up to a nesting depth limit. Expansion is driven by an explicit stack, so
+ * deep nesting never overflows the Java stack.
+ * <p>
+ * Fully expanded results are cached by macro name plus the argument tokens (type and text,
+ * ignoring whitespace and comments), so repeating an invocation costs a hash lookup. The cache
+ * keeps the most recently used expansions up to a fixed number of entries. Tokens that came from
+ * the arguments are replaced by the arguments of the invocation being served, so a cached result
+ * points at the same places as a fresh expansion would. Expansions that reported errors are never
+ * cached, so every faulty invocation gets its own diagnostics.
+ * <p>
+ * An expander can be shared by threads expanding different files.
+ */
+public final class MacroExpander
+{
+    public static final int DEFAULT_MAX_DEPTH = 64;
+    public static final int DEFAULT_CACHE_SIZE = 1024;
+
+    private final MacroIndex index;
+    private final Map<String, MacroMatcher> matchers = new ConcurrentHashMap<>();
+    private final Map<Key, Expansion> cache;    // access ordered, guarded by itself
+    private final int maxDepth;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public MacroExpander(MacroIndex index)
+    {
+        this(index, DEFAULT_MAX_DEPTH);
+    }
+
+    /**
+     * @param index    the macros that can be invoked, see {@link MacroIndex#resolve} for how names are found.
+     * @param maxDepth how many expansions may be nested inside one another.
+     */
+    public MacroExpander(MacroIndex index, int maxDepth)
+    {
+        this(index, maxDepth, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param index     the macros that can be invoked, see {@link MacroIndex#resolve} for how names are found.
+     * @param maxDepth  how many expansions may be nested inside one another.
+     * @param cacheSize how many expansions are kept, 0 disables the cache.
+     */
+    public MacroExpander(MacroIndex index, int maxDepth, int cacheSize)
+    {
+        if (maxDepth < 1)
+            throw new IllegalArgumentException("Macro depth limit must be positive, got " + maxDepth);
+        if (cacheSize < 0)
+            throw new IllegalArgumentException("Macro cache size must not be negative, got " + cacheSize);
+        this.index = index;
+        this.maxDepth = maxDepth;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Expansion> eldest)
+            {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    public MacroExpander(Collection<Macro> macros, int maxDepth)
+    {
+        this(MacroIndex.of(macros), maxDepth);
+    }
+
+    /**
+     * Expands every macro use in the stream, resolving macro names from the stream's package.
+     */
+    public List<Token> expand(TokenStream stream, ParsingErrorManager errorManager)
+    {
+        return expand(stream.tokens, stream.getPackageName(), errorManager);
+    }
+
+    /**
+     * @param fromPackage the package the tokens belong to, or null if unknown.
+     * @return the tokens with every macro use replaced by its expansion. Uses that cannot be
+     * expanded are reported and dropped.
+     */
+    public List<Token> expand(List<Token> tokens, String fromPackage, ParsingErrorManager errorManager)
+    {
+        List<Token> output = new ArrayList<>(tokens.size());
+        Deque<Frame> stack = new ArrayDeque<>();
+        stack.push(new Frame(tokens, 0, null, 0, fromPackage));
+
+        while (!stack.isEmpty())
+        {
+            Frame frame = stack.peek();
+            if (frame.next == frame.tokens.size())
+            {
+                stack.pop();
+                if (frame.key != null)
+                {
+                    if (!frame.failed)
+                        store(frame.key, output.subList(frame.outputStart, output.size()), frame.height);
+                    Frame parent = stack.element();
+                    parent.height = Math.max(parent.height, frame.height + 1);
+                    parent.failed |= frame.failed;
+                }
+                continue;
+            }
+
+            Token token = frame.tokens.get(frame.next++);
+            if (token.type != MACRO_USE)
+            {
+                output.add(token);
+                continue;
+            }
+
+            String name = token.internal.orElse("!");
+            name = name.substring(0, name.length() - 1);
+            int open = frame.next;
+            int close = frame.tree().closer(open);
+            if (close < 0)
+            {
+                Token found = open < frame.tokens.size() ? frame.tokens.get(open) : token;
+                report(errorManager, found, ErrorType.EXPECTED_FOUND,
+                        "Macro arguments must be enclosed in matching (), [] or {}",
+                        "closed arguments after '" + name + "!'", found.describeContents());
+                frame.failed = true;
+                continue;
+            }
+            frame.next = close + 1;
+
+            Option<Macro> resolved = index.resolve(name, frame.pkg);
+            if (resolved.isNone())
+            {
+                report(errorManager, token, ErrorType.UNKNOWN_MACRO,
+                        "Declare it with 'macro " + name + " { ... }' or import it",
+                        name);
+                frame.failed = true;
+                continue;
+            }
+
+            Macro macro = resolved.unwrap();
+            int depth = frame.depth + 1;
+            if (depth > maxDepth)
+            {
+                report(errorManager, token, ErrorType.MACRO_DEPTH_EXCEEDED,
+                        "Check for a macro that keeps expanding into itself",
+                        name, Integer.toString(maxDepth));
+                frame.failed = true;
+                continue;
+            }
+
+            List<Token> arguments = frame.tokens.subList(open + 1, close);
+            Key key = Key.of(macro.getName(), arguments);
+            Expansion cached;
+            synchronized (cache)
+            {
+                cached = cache.get(key);
+            }
+            if (cached != null && depth + cached.height <= maxDepth)
+            {
+                hits.increment();
+                cached.restamp(key, output);
+                frame.height = Math.max(frame.height, cached.height + 1);
+                continue;
+            }
+            misses.increment();
+
+            Option<List<Token>> expanded = expandOnce(macro, arguments);
+            if (expanded.isNone())
+            {
+                report(errorManager, token, ErrorType.NO_MATCHING_ARM,
+                        "Compare the arguments with the patterns of the macro's arms",
+                        name, "'" + render(arguments) + "'");
+                frame.failed = true;
+                continue;
+            }
+            // Uses inside the body resolve from the package that declared the macro
+            stack.push(new Frame(expanded.unwrap(), depth, key, output.size(), MacroIndex.packageOf(macro.getName())));
+        }
+        return output;
+    }
+
+    /**
+     * @return how many invocations were served from the cache.
+     */
+    public long cacheHits()
+    {
+        return hits.sum();
+    }
+
+    /**
+     * @return how many invocations had to be matched and substituted.
+     */
+    public long cacheMisses()
+    {
+        return misses.sum();
+    }
+
+    /**
+     * @return how many expansions the cache holds.
+     */
+    public int cacheSize()
+    {
+        synchronized (cache)
+        {
+            return cache.size();
+        }
+    }
+
+    public void clearCache()
+    {
+        synchronized (cache)
+        {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Caches an expansion, remembering which of its tokens are argument tokens of the invocation.
+     */
+    private void store(Key key, List<Token> tokens, int height)
+    {
+        Map<Token, Integer> positions = new IdentityHashMap<>();
+        for (int i = 0; i < key.arguments.length; i++)
+            positions.putIfAbsent(key.arguments[i], i);
+        int[] sources = new int[tokens.size()];
+        for (int i = 0; i < sources.length; i++)
+            sources[i] = positions.getOrDefault(tokens.get(i), -1);
+
+        Expansion expansion = new Expansion(List.copyOf(tokens), sources, height);
+        synchronized (cache)
+        {
+            cache.putIfAbsent(key, expansion);
+        }
+    }
+
+    /**
+     * Matches the arguments and substitutes the bindings into the arm body, without expanding
+     * the macro uses the body contains.
+     */
+    private Option<List<Token>> expandOnce(Macro macro, List<Token> arguments)
+    {
+        MacroMatcher matcher = matchers.computeIfAbsent(macro.getName(), _ -> MacroMatcher.compile(macro));
+        Option<MacroMatcher.Match> result = matcher.match(arguments);
+        if (result.isNone())
+            return Option.none();
+
+        MacroMatcher.Match match = result.unwrap();
+        Macro.Arm arm = macro.getArms().get(match.arm());
+        Set<String> repeated = new HashSet<>();
+        collectRepeated(arm.pattern().getElements(), false, repeated);
+
+        List<Token> out = new ArrayList<>();
+        List<Token> body = arm.codeSnippets().tokens;
+        new Substitution(match, repeated, TokenTree.of(body)).run(body, 0, body.size(), 0, out);
+        return Option.some(out);
+    }
+
+    private static void collectRepeated(List<Macro.Pattern.PatternElement> elements, boolean inRepetition, Set<String> out)
+    {
+        for (Macro.Pattern.PatternElement element : elements)
+        {
+            switch (element)
+            {
+                case Macro.Pattern.VariableElement variable when inRepetition -> out.add(variable.getName());
+                case Macro.Pattern.RepetitionElement repetition ->
+                        collectRepeated(repetition.getSubPattern().getElements(), true, out);
+                default ->
+                {
+                }
+            }
+        }
+    }
+
+    private static void report(ParsingErrorManager errorManager, Token token, ErrorType type, String hint, String... args)
+    {
+        errorManager.reportError(ParsingError.withHint(
+                type,
+                type.getDescription(),
+                token.coordinates.row(),
+                token.coordinates.column(),
+                token.internal.orElse(token.toString()),
+                hint,
+                args
+        ));
+    }
+
+    /**
+     * Writes tokens back as source text, for messages.
+     */
+    static String render(List<Token> tokens)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (Token token : tokens)
+        {
+            if (token.type == COMMENT)
+                continue;
+            if (!sb.isEmpty())
+                sb.append(' ');
+            sb.append(token.internal.orElseGet(() -> token.type.regex.replace("\\", "")));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Substitutes the bindings of a match into an arm body.
+     * <p>
+     * {@code $x} is replaced by its binding; {@code $( ... ) sep? kind} repeats its content once
+     * per binding of the repeated variables it mentions, with {@code sep} in between. A repeated
+     * variable used outside of {@code $( ... )} stands for its first binding. Macro uses in the
+     * body are copied with their arguments substituted, and expanded later.
+     */
+    private static final class Substitution
+    {
+        private final MacroMatcher.Match match;
+        private final Set<String> repeated;
+        private final TokenTree body;
+
+        Substitution(MacroMatcher.Match match, Set<String> repeated, TokenTree body)
+        {
+            this.match = match;
+            this.repeated = repeated;
+            this.body = body;
+        }
+
+        void run(List<Token> body, int from, int to, int iteration, List<Token> out)
+        {
+            int i = from;
+            while (i < to)
+            {
+                Token token = body.get(i);
+                switch (token.type)
+                {
+                    case MACRO_VARIABLE ->
+                    {
+                        out.addAll(binding(token.internal.orElse("$"), iteration));
+                        i++;
+                    }
+                    case MACRO_REPEAT_OPEN -> i = repeat(body, i, to, out);
+                    default ->
+                    {
+                        out.add(token);
+                        i++;
+                    }
+                }
+            }
+        }
+
+        /// Expands `$( ... ) sep? kind` starting at `open`, returning the index after it.
+        private int repeat(List<Token> body, int open, int to, List<Token> out)
+        {
+            int close = this.body.closer(open);
+            if (close < 0 || close > to)
+                close = to;
+            int next = Math.min(close + 1, to);
+
+            Token separator = null;
+            if (next < to && !isKind(body.get(next)) && next + 1 < to && isKind(body.get(next + 1)))
+                separator = body.get(next++);
+            if (next < to && isKind(body.get(next)))
+                next++;
+
+            int count = iterations(body, open + 1, close);
+            for (int iteration = 0; iteration < count; iteration++)
+            {
+                if (iteration > 0 && separator != null)
+                    out.add(separator);
+                run(body, open + 1, close, iteration, out);
+            }
+            return next;
+        }
+
+        /// The number of bindings shared by the repeated variables a repetition mentions.
+        private int iterations(List<Token> body, int from, int to)
+        {
+            int count = -1;
+            for (int i = from; i < to; i++)
+            {
+                Token token = body.get(i);
+                if (token.type != MACRO_VARIABLE)
+                    continue;
+                String name = token.internal.orElse("$");
+                if (!repeated.contains(name))
+                    continue;
+                int bound = match.bindings().getOrDefault(name, List.of()).size();
+                count = count < 0 ? bound : Math.min(count, bound);
+            }
+            return Math.max(count, 0);
+        }
+
+        private List<Token> binding(String name, int iteration)
+        {
+            List<List<Token>> values = match.tokens(name);
+            if (values.isEmpty())
+                return List.of();
+            int index = repeated.contains(name) ? iteration : 0;
+            return index < values.size() ? values.get(index) : List.of();
+        }
+
+        private static boolean isKind(Token token)
+        {
+            return token.type == MULTIPLICATION || token.type == ADDITION || token.type == QUESTION;
+        }
+    }
+
+    /**
+     * Cache key: a macro and the type and text of each argument token, hashed once up front.
+     * The key holds the argument tokens themselves, so no text is copied to build it.
+     */
+    private record Key(String macro, Token[] arguments, int hash)
+    {
+        static Key of(String macro, List<Token> tokens)
+        {
+            Token[] arguments = tokens.stream().filter(token -> token.type != COMMENT).toArray(Token[]::new);
+            int hash = macro.hashCode();
+            for (Token token : arguments)
+                hash = 31 * (31 * hash + token.type.ordinal()) + token.internal.hashCode();
+            return new Key(macro, arguments, hash);
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof Key other) || hash != other.hash || !macro.equals(other.macro)
+                    || arguments.length != other.arguments.length)
+                return false;
+            for (int i = 0; i < arguments.length; i++)
+                if (arguments[i].type != other.arguments[i].type
+                        || !arguments[i].internal.equals(other.arguments[i].internal))
+                    return false;
+            return true;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+    }
+
+    /// A fully expanded invocation and how many expansions were nested below it. `sources` holds,
+    /// per token, its index among the key's arguments, or -1 for a token of a macro body.
+    private record Expansion(List<Token> tokens, int[] sources, int height)
+    {
+        /// Writes the expansion for the invocation with the given key, taking every argument token from it.
+        void restamp(Key key, List<Token> out)
+        {
+            for (int i = 0; i < sources.length; i++)
+                out.add(sources[i] < 0 ? tokens.get(i) : key.arguments[sources[i]]);
+        }
+    }
+
+    private static final class Frame
+    {
+        private final List<Token> tokens;
+        private final int depth;
+        private final Key key;          // null for the input itself
+        private final int outputStart;
+        private final String pkg;
+        private TokenTree tree;
+        private int next;
+        private int height;
+        private boolean failed;
+
+        Frame(List<Token> tokens, int depth, Key key, int outputStart, String pkg)
+        {
+            this.pkg = pkg;
+            this.tokens = tokens;
+            this.depth = depth;
+            this.key = key;
+            this.outputStart = outputStart;
+        }
+
+        TokenTree tree()
+        {
+            if (tree == null)
+                tree = TokenTree.of(tokens);
+            return tree;
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package org.alex_hashtag.internal_representation.macros;
+
+import org.alex_hashtag.errors.ParsingErrorManager;
+import org.alex_hashtag.errors.ParsingErrorManager.ErrorType;
+import org.alex_hashtag.errors.ParsingErrorManager.ParsingError;
+import org.alex_hashtag.lib.cancellation.CancellationToken;
+import org.alex_hashtag.lib.cancellation.CancelledException;
+import org.alex_hashtag.lib.errors.Diagnostics;
+import org.alex_hashtag.lib.profiling.Phase;
+import org.alex_hashtag.lib.profiling.PhaseTimer;
+import org.alex_hashtag.lib.results.Option;
+import org.alex_hashtag.tokenizationOLD.TokenStream;
+
+import java.io.PrintStream;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Every macro of a project, keyed by qualified name ({@code package.name}).
+ * <p>
+ * Public and private macros are kept in separate tables; a private macro is only visible from
+ * its own package. Files are parsed in parallel, one task per file, and then merged in file-name
+ * order so that a duplicate is always reported against the same file, whichever task finished first.
+ * Duplicates depend on every file, so they are reported to error managers of the index rather
+ * than to those of the parsed files, and an index merged after the duplicate was removed has none.
+ * The tables are concurrent, so lookups are safe from any thread, also while macros are registered.
+ */
+public final class MacroIndex
+{
+    private final Map<String, Macro> publicMacros = new ConcurrentHashMap<>();
+    private final Map<String, Macro> privateMacros = new ConcurrentHashMap<>();
+    /// Simple name to the first public macro declaring it, for invocations that do not name the package.
+    private final Map<String, Macro> publicBySimpleName = new ConcurrentHashMap<>();
+    private final List<Macro> macros = Collections.synchronizedList(new ArrayList<>());
+    private final Map<Macro, String> files = new ConcurrentHashMap<>();
+    private final Map<String, ParsingErrorManager> errorManagers = new LinkedHashMap<>();
+    /// Duplicate declarations found by this merge, by file name.
+    private final Map<String, ParsingErrorManager> duplicates = new LinkedHashMap<>();
+
+    private MacroIndex()
+    {
+    }
+
+    /**
+     * Parses the macros of every stream and indexes them.
+     */
+    public static MacroIndex build(List<TokenStream> streams)
+    {
+        return build(streams, null);
+    }
+
+    /**
+     * Parses the macros of every stream and indexes them, streaming errors to {@code diagnostics}
+     * as they are found instead of keeping them for {@link #printErrors(PrintStream)}.
+     *
+     * @param diagnostics the engine to report to, or null.
+     */
+    public static MacroIndex build(List<TokenStream> streams, Diagnostics diagnostics)
+    {
+        return merge(streams.parallelStream()
+                .map(stream -> FileMacros.parse(stream, diagnostics))
+                .toList());
+    }
+
+    /**
+     * The macros declared in one file, with the errors found while parsing them.
+     */
+    public record FileMacros(TokenStream stream, ParsingErrorManager errorManager, List<Macro> macros)
+    {
+        /**
+         * @param diagnostics the engine to stream errors to, or null.
+         */
+        public static FileMacros parse(TokenStream stream, Diagnostics diagnostics)
+        {
+            return parse(stream, diagnostics, CancellationToken.NONE);
+        }
+
+        /**
+         * @param diagnostics the engine to stream errors to, or null.
+         * @throws CancelledException if {@code cancellation} was cancelled or its deadline passed.
+         */
+        public static FileMacros parse(TokenStream stream, Diagnostics diagnostics, CancellationToken cancellation)
+        {
+            ParsingErrorManager errorManager = diagnostics == null
+                    ? new ParsingErrorManager(stream.getFilename(), stream.getSource())
+                    : new ParsingErrorManager(stream.getFilename(), stream.getSource(), diagnostics);
+            try (PhaseTimer.Scope scope = PhaseTimer.get().start(Phase.MACRO_COLLECTION, stream.getFilename()))
+            {
+                List<Macro> macros = new MacroParser(cancellation).parseMacros(stream, errorManager);
+                scope.tokens(stream.tokens.size()).nodes(macros.size());
+                return new FileMacros(stream, errorManager, List.copyOf(macros));
+            }
+        }
+    }
+
+    /**
+     * Indexes files parsed with {@link FileMacros#parse}. Merging is cheap compared to parsing, so a
+     * watch loop can re-parse only the files that changed and merge everything again.
+     */
+    public static MacroIndex merge(Collection<FileMacros> parsed)
+    {
+        List<FileMacros> files = parsed.stream()
+                .sorted(Comparator.comparing(file -> file.stream().getFilename()))
+                .toList();
+
+        MacroIndex index = new MacroIndex();
+        for (FileMacros file : files)
+        {
+            index.errorManagers.put(file.stream().getFilename(), file.errorManager());
+            for (Macro macro : file.macros())
+                index.register(macro, file.stream().getFilename(), file.errorManager());
+        }
+        return index;
+    }
+
+    /**
+     * Indexes macros that were parsed elsewhere, e.g. loaded from a serialized AST. Duplicates are ignored.
+     */
+    public static MacroIndex of(Collection<Macro> macros)
+    {
+        MacroIndex index = new MacroIndex();
+        for (Macro macro : macros)
+            index.register(macro, null, null);
+        return index;
+    }
+
+    private void register(Macro macro, String fileName, ParsingErrorManager errorManager)
+    {
+        String name = macro.getName();
+        Map<String, Macro> table = macro.isPub() ? publicMacros : privateMacros;
+        Map<String, Macro> other = macro.isPub() ? privateMacros : publicMacros;
+
+        Macro previous = other.get(name);
+        if (previous == null)
+            previous = table.putIfAbsent(name, macro);
+        if (previous != null)
+        {
+            if (errorManager != null)
+                duplicates.computeIfAbsent(fileName, _ -> errorManager.sibling()).reportError(ParsingError.withHint(
+                        ErrorType.DUPLICATE_MACRO,
+                        ErrorType.DUPLICATE_MACRO.getDescription(),
+                        macro.getLocation().row(),
+                        macro.getLocation().column(),
+                        "macro",
+                        "Rename one of the macros or move it to a different package",
+                        name,
+                        fileOf(previous)
+                ));
+            return;
+        }
+
+        macros.add(macro);
+        if (macro.isPub())
+            publicBySimpleName.putIfAbsent(simpleName(name), macro);
+        if (fileName != null)
+            files.put(macro, fileName);
+    }
+
+    private String fileOf(Macro macro)
+    {
+        return files.getOrDefault(macro, "another file");
+    }
+
+    /**
+     * @return the macro with the given qualified name, public or private.
+     */
+    public Option<Macro> lookup(String qualifiedName)
+    {
+        Macro macro = publicMacros.get(qualifiedName);
+        if (macro == null)
+            macro = privateMacros.get(qualifiedName);
+        return macro == null ? Option.none() : Option.some(macro);
+    }
+
+    /**
+     * Resolves the name used at an invocation.
+     * <ul>
+     *     <li>A simple name is first looked up in the invoking package, private macros included,</li>
+     *     <li>a qualified name finds public macros, and private ones of the invoking package,</li>
+     *     <li>otherwise a public macro with that simple name is used.</li>
+     * </ul>
+     *
+     * @param name        the name before the {@code !}.
+     * @param fromPackage the package of the invoking file, or null if unknown.
+     */
+    public Option<Macro> resolve(String name, String fromPackage)
+    {
+        Macro macro;
+        if (name.indexOf('.') < 0)
+        {
+            macro = fromPackage == null ? null : lookup(fromPackage + "." + name).unwrapOr(null);
+            if (macro == null)
+                macro = publicBySimpleName.get(name);
+        }
+        else
+        {
+            macro = publicMacros.get(name);
+            if (macro == null && fromPackage != null && packageOf(name).equals(fromPackage))
+                macro = privateMacros.get(name);
+        }
+        return macro == null ? Option.none() : Option.some(macro);
+    }
+
+    /**
+     * @return every indexed macro, files in name order and macros in declaration order.
+     */
+    public List<Macro> getMacros()
+    {
+        synchronized (macros)
+        {
+            return List.copyOf(macros);
+        }
+    }
+
+    public Map<String, Macro> getPublicMacros()
+    {
+        return Collections.unmodifiableMap(publicMacros);
+    }
+
+    public Map<String, Macro> getPrivateMacros()
+    {
+        return Collections.unmodifiableMap(privateMacros);
+    }
+
+    /**
+     * @return the duplicate declarations this merge found in a file, or none if it has no duplicates.
+     */
+    public Option<ParsingErrorManager> getDuplicates(String fileName)
+    {
+        ParsingErrorManager errorManager = duplicates.get(fileName);
+        return errorManager == null ? Option.none() : Option.some(errorManager);
+    }
+
+    public boolean hasErrors()
+    {
+        return !duplicates.isEmpty() || errorManagers.values().stream().anyMatch(ParsingErrorManager::hasErrors);
+    }
+
+    /**
+     * Prints the errors of every file, in file-name order.
+     */
+    public void printErrors(PrintStream out)
+    {
+        for (Map.Entry<String, ParsingErrorManager> entry : errorManagers.entrySet())
+        {
+            if (entry.getValue().hasErrors())
+                entry.getValue().printErrors(out);
+            if (duplicates.containsKey(entry.getKey()))
+                duplicates.get(entry.getKey()).printErrors(out);
+        }
+    }
+
+    static String packageOf(String qualifiedName)
+    {
+        int dot = qualifiedName.lastIndexOf('.');
+        return dot < 0 ? "" : qualifiedName.substring(0, dot);
+    }
+
+    static String simpleName(String qualifiedName)
+    {
+        return qualifiedName.substring(qualifiedName.lastIndexOf('.') + 1);
+    }
+}
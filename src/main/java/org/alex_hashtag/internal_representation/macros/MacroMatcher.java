@@ -0,0 +1,479 @@
+package org.alex_hashtag.internal_representation.macros;
+
+import org.alex_hashtag.lib.results.Option;
+import org.alex_hashtag.tokenizationOLD.Token;
+import org.alex_hashtag.tokenizationOLD.TokenTree;
+import org.alex_hashtag.tokenizationOLD.TokenType;
+
+import java.util.*;
+
+
+/**
+ * The arms of a {@link Macro} compiled into a single automaton over tokens.
+ * <p>
+ * Every arm becomes a small program of match instructions; all programs are run together as a
+ * Pike VM, so each invocation token is looked at once per live program counter. Matching is
+ * linear in the number of invocation tokens (times the size of the patterns) and never
+ * backtracks, even for nested repetitions. When several arms match the whole invocation, the
+ * one declared first wins.
+ * <p>
+ * Variables are bound to slices of the invocation rather than copies of its tokens:
+ * <ul>
+ *     <li>{@code identifier} binds exactly one identifier,</li>
+ *     <li>{@code type} binds an identifier followed by optional {@code <...>} arguments and {@code []} suffixes,</li>
+ *     <li>{@code expression} binds one or more token trees up to the next top-level {@code ,} or {@code ;}.</li>
+ * </ul>
+ * A variable inside a repetition is bound once per iteration, in order.
+ */
+public final class MacroMatcher
+{
+    // Opcodes
+    private static final int LITERAL = 0;     // a = literal id
+    private static final int IDENT = 1;
+    private static final int TYPE = 2;
+    private static final int TREE = 3;
+    private static final int SPLIT = 4;       // a = preferred target, b = other target
+    private static final int JMP = 5;         // a = target
+    private static final int MARK = 6;
+    private static final int SAVE = 7;        // a = variable id
+    private static final int MATCH = 8;       // a = arm index
+
+    private final String name;
+    private final int[] ops;
+    private final int[] as;
+    private final int[] bs;
+    private final int[] armStarts;
+    private final Map<String, Integer> literals;
+    private final String[] variables;
+
+    private MacroMatcher(String name, Program program)
+    {
+        this.name = name;
+        this.ops = Arrays.copyOf(program.ops, program.size);
+        this.as = Arrays.copyOf(program.as, program.size);
+        this.bs = Arrays.copyOf(program.bs, program.size);
+        this.armStarts = program.armStarts.stream().mapToInt(Integer::intValue).toArray();
+        this.literals = Map.copyOf(program.literals);
+        this.variables = program.variables.toArray(String[]::new);
+    }
+
+    /**
+     * Compiles every arm of the macro. The result is immutable and can be shared between threads.
+     */
+    public static MacroMatcher compile(Macro macro)
+    {
+        Program program = new Program();
+        List<Macro.Arm> arms = macro.getArms();
+        for (int arm = 0; arm < arms.size(); arm++)
+        {
+            program.armStarts.add(program.size);
+            program.compile(arms.get(arm).pattern().getElements());
+            program.emit(MATCH, arm, 0);
+        }
+        return new MacroMatcher(macro.getName(), program);
+    }
+
+    /**
+     * The text a token is compared by against {@link Macro.Pattern.LiteralElement literal elements}.
+     */
+    public static String literalKey(Token token)
+    {
+        return switch (token.type)
+        {
+            case BRACE_OPEN -> "(";
+            case BRACE_CLOSED -> ")";
+            case COMMA -> ",";
+            default -> token.internal.orElse(token.toString()).strip();
+        };
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * @return the number of instructions of all arms together.
+     */
+    public int size()
+    {
+        return ops.length;
+    }
+
+    /**
+     * Matches the arguments of an invocation, i.e. the tokens between its parentheses.
+     * Comments are ignored.
+     *
+     * @return the first arm matching all the tokens, or none when no arm does.
+     */
+    public Option<Match> match(List<Token> arguments)
+    {
+        List<Token> input = new ArrayList<>(arguments.size());
+        for (Token token : arguments)
+            if (token.type != TokenType.COMMENT)
+                input.add(token);
+        Input in = new Input(input, literals);
+        int n = in.size();
+
+        @SuppressWarnings("unchecked")
+        ArrayList<Thread>[] pending = new ArrayList[n + 1];
+        for (int pc : armStarts)
+            schedule(pending, 0, new Thread(pc, -1, null));
+
+        int[] visited = new int[ops.length];
+        Arrays.fill(visited, -1);
+        Deque<Thread> stack = new ArrayDeque<>();
+        int bestArm = Integer.MAX_VALUE;
+        Capture bestCaptures = null;
+
+        for (int pos = 0; pos <= n; pos++)
+        {
+            List<Thread> threads = pending[pos];
+            if (threads == null)
+                continue;
+            pending[pos] = null;
+
+            for (Thread start : threads)
+            {
+                stack.push(start);
+                while (!stack.isEmpty())
+                {
+                    Thread t = stack.pop();
+                    int pc = t.pc;
+                    // A program counter reached twice at the same position has the same future: keep the first
+                    if (visited[pc] == pos)
+                        continue;
+                    visited[pc] = pos;
+
+                    switch (ops[pc])
+                    {
+                        case LITERAL ->
+                        {
+                            if (pos < n && in.keys[pos] == as[pc])
+                                schedule(pending, pos + 1, t.at(pc + 1));
+                        }
+                        case IDENT ->
+                        {
+                            if (pos < n && in.tokens.get(pos).type == TokenType.IDENTIFIER)
+                                schedule(pending, pos + 1, t.at(pc + 1));
+                        }
+                        case TYPE ->
+                        {
+                            int end = in.typeEnd(pos);
+                            if (end > pos)
+                                schedule(pending, end, t.at(pc + 1));
+                        }
+                        case TREE ->
+                        {
+                            int end = in.treeEnd(pos);
+                            if (end > pos)
+                                schedule(pending, end, t.at(pc + 1));
+                        }
+                        case SPLIT ->
+                        {
+                            // Pushed in reverse so the preferred branch is explored first
+                            stack.push(t.at(bs[pc]));
+                            stack.push(t.at(as[pc]));
+                        }
+                        case JMP -> stack.push(t.at(as[pc]));
+                        case MARK -> stack.push(new Thread(pc + 1, pos, t.captures));
+                        case SAVE -> stack.push(new Thread(pc + 1, -1, new Capture(as[pc], t.mark, pos, t.captures)));
+                        case MATCH ->
+                        {
+                            if (pos == n && as[pc] < bestArm)
+                            {
+                                bestArm = as[pc];
+                                bestCaptures = t.captures;
+                            }
+                        }
+                        default -> throw new IllegalStateException("Unknown opcode " + ops[pc]);
+                    }
+                }
+            }
+        }
+
+        if (bestArm == Integer.MAX_VALUE)
+            return Option.none();
+        return Option.some(new Match(bestArm, bindings(bestCaptures), List.copyOf(input)));
+    }
+
+    private static void schedule(ArrayList<Thread>[] pending, int pos, Thread thread)
+    {
+        if (pending[pos] == null)
+            pending[pos] = new ArrayList<>();
+        pending[pos].add(thread);
+    }
+
+    private Map<String, List<Slice>> bindings(Capture captures)
+    {
+        // Captures are a stack, newest first
+        ArrayDeque<Capture> ordered = new ArrayDeque<>();
+        for (Capture c = captures; c != null; c = c.next)
+            ordered.push(c);
+
+        Map<String, List<Slice>> bindings = new LinkedHashMap<>();
+        for (Capture c : ordered)
+            bindings.computeIfAbsent(variables[c.variable], _ -> new ArrayList<>()).add(new Slice(c.start, c.end));
+        bindings.replaceAll((_, slices) -> List.copyOf(slices));
+        return Collections.unmodifiableMap(bindings);
+    }
+
+    /**
+     * A successful match.
+     *
+     * @param arm      index of the matching arm in {@link Macro#getArms()}.
+     * @param bindings every variable of the arm to the slices it was bound to, in invocation order.
+     *                 Variables in repetitions that matched zero times are absent.
+     * @param input    the invocation tokens without comments; slices index into this list.
+     */
+    public record Match(int arm, Map<String, List<Slice>> bindings, List<Token> input)
+    {
+        /**
+         * @return the tokens bound to a variable, one list per binding.
+         */
+        public List<List<Token>> tokens(String variable)
+        {
+            List<Slice> slices = bindings.getOrDefault(variable, List.of());
+            List<List<Token>> result = new ArrayList<>(slices.size());
+            for (Slice slice : slices)
+                result.add(slice.of(input));
+            return result;
+        }
+    }
+
+    /**
+     * A half-open range {@code [start, end)} of invocation tokens.
+     */
+    public record Slice(int start, int end)
+    {
+        public List<Token> of(List<Token> tokens)
+        {
+            return tokens.subList(start, end);
+        }
+
+        public int length()
+        {
+            return end - start;
+        }
+    }
+
+    private record Thread(int pc, int mark, Capture captures)
+    {
+        Thread at(int newPc)
+        {
+            return new Thread(newPc, mark, captures);
+        }
+    }
+
+    /// Captures are shared between threads as an immutable linked stack.
+    private record Capture(int variable, int start, int end, Capture next)
+    {
+    }
+
+    /**
+     * The invocation tokens with everything the instructions need precomputed, so that every
+     * instruction runs in constant time.
+     */
+    private static final class Input
+    {
+        private final List<Token> tokens;
+        private final int[] keys;
+        private final TokenTree tree;
+        private final int[] angles;    // matching '>' for '<', -1 otherwise
+
+        Input(List<Token> tokens, Map<String, Integer> literals)
+        {
+            this.tokens = tokens;
+            int n = tokens.size();
+            this.keys = new int[n];
+            this.tree = TokenTree.of(tokens);
+            this.angles = new int[n];
+            Arrays.fill(angles, -1);
+
+            for (int i = 0; i < n; i++)
+                keys[i] = literals.getOrDefault(literalKey(tokens.get(i)), -1);
+            matchAngles();
+        }
+
+        int size()
+        {
+            return tokens.size();
+        }
+
+        /// Pairs '<' with '>' for generic arguments. A '>>' closes two levels at once.
+        private void matchAngles()
+        {
+            Deque<Integer> open = new ArrayDeque<>();
+            for (int i = 0; i < tokens.size(); i++)
+            {
+                switch (tokens.get(i).type)
+                {
+                    case ARROW_OPEN, LESS_THAN -> open.push(i);
+                    case ARROW_CLOSED, GREATER_THAN ->
+                    {
+                        if (!open.isEmpty())
+                            angles[open.pop()] = i;
+                    }
+                    case BIT_SHIFT_RIGHT ->
+                    {
+                        // Only the outer '<' can end after this token
+                        if (open.size() >= 2)
+                        {
+                            open.pop();
+                            angles[open.pop()] = i;
+                        }
+                        else
+                            open.clear();
+                    }
+                    case SEMI_COLON, CURLY_OPEN, CURLY_CLOSED, COMMA ->
+                    {
+                        // Commas separate generic arguments too, but only inside an open '<'
+                        if (tokens.get(i).type != TokenType.COMMA || open.isEmpty())
+                            open.clear();
+                    }
+                    default ->
+                    {
+                    }
+                }
+            }
+        }
+
+        /// End (exclusive) of the token tree starting at pos, or pos if none starts there.
+        int treeEnd(int pos)
+        {
+            if (pos >= tokens.size())
+                return pos;
+            return switch (tokens.get(pos).type)
+            {
+                case COMMA, SEMI_COLON, BRACE_CLOSED, BRACKET_CLOSED, CURLY_CLOSED -> pos;
+                case BRACE_OPEN, BRACKET_OPEN, CURLY_OPEN -> tree.closer(pos) < 0 ? pos : tree.closer(pos) + 1;
+                default -> pos + 1;
+            };
+        }
+
+        /// End (exclusive) of a type starting at pos, or pos if none starts there.
+        int typeEnd(int pos)
+        {
+            int n = tokens.size();
+            if (pos >= n || tokens.get(pos).type != TokenType.IDENTIFIER)
+                return pos;
+            int end = pos + 1;
+            if (end < n && angles[end] > end)
+                end = angles[end] + 1;
+            while (end + 1 < n && tokens.get(end).type == TokenType.BRACKET_OPEN
+                    && tokens.get(end + 1).type == TokenType.BRACKET_CLOSED)
+                end += 2;
+            return end;
+        }
+    }
+
+    /**
+     * The program being compiled, as three parallel growable arrays.
+     */
+    private static final class Program
+    {
+        private int[] ops = new int[16];
+        private int[] as = new int[16];
+        private int[] bs = new int[16];
+        private int size;
+        private final List<Integer> armStarts = new ArrayList<>();
+        private final Map<String, Integer> literals = new HashMap<>();
+        private final List<String> variables = new ArrayList<>();
+        private final Map<String, Integer> variableIds = new HashMap<>();
+
+        int emit(int op, int a, int b)
+        {
+            if (size == ops.length)
+            {
+                ops = Arrays.copyOf(ops, size * 2);
+                as = Arrays.copyOf(as, size * 2);
+                bs = Arrays.copyOf(bs, size * 2);
+            }
+            ops[size] = op;
+            as[size] = a;
+            bs[size] = b;
+            return size++;
+        }
+
+        void compile(List<Macro.Pattern.PatternElement> elements)
+        {
+            for (Macro.Pattern.PatternElement element : elements)
+            {
+                switch (element)
+                {
+                    case Macro.Pattern.LiteralElement literal -> emitLiteral(literal.getToken());
+                    case Macro.Pattern.VariableElement variable -> compileVariable(variable);
+                    case Macro.Pattern.RepetitionElement repetition -> compileRepetition(repetition);
+                    default -> throw new IllegalArgumentException("Unknown pattern element: " + element);
+                }
+            }
+        }
+
+        private void emitLiteral(String token)
+        {
+            String key = token.strip();
+            emit(LITERAL, literals.computeIfAbsent(key, _ -> literals.size()), 0);
+        }
+
+        private void compileVariable(Macro.Pattern.VariableElement variable)
+        {
+            int id = variableIds.computeIfAbsent(variable.getName(), key ->
+            {
+                variables.add(key);
+                return variables.size() - 1;
+            });
+            emit(MARK, 0, 0);
+            switch (variable.getType())
+            {
+                case IDENTIFIER -> emit(IDENT, 0, 0);
+                case TYPE -> emit(TYPE, 0, 0);
+                case EXPRESSION ->
+                {
+                    // One or more token trees
+                    int tree = emit(TREE, 0, 0);
+                    emit(SPLIT, tree, size + 1);
+                }
+            }
+            emit(SAVE, id, 0);
+        }
+
+        private void compileRepetition(Macro.Pattern.RepetitionElement repetition)
+        {
+            List<Macro.Pattern.PatternElement> sub = repetition.getSubPattern().getElements();
+            String separator = repetition.getSeparator();
+            switch (repetition.getRepetition())
+            {
+                case ZERO_OR_ONE ->
+                {
+                    int split = emit(SPLIT, size + 1, 0);
+                    compile(sub);
+                    bs[split] = size;
+                }
+                case ONE_OR_MORE ->
+                {
+                    int body = size;
+                    compile(sub);
+                    compileLoop(body, separator);
+                }
+                case ZERO_OR_MORE ->
+                {
+                    int split = emit(SPLIT, size + 1, 0);
+                    int body = size;
+                    compile(sub);
+                    compileLoop(body, separator);
+                    bs[split] = size;
+                }
+            }
+        }
+
+        /// After one iteration: either stop, or read the separator and go again.
+        private void compileLoop(int body, String separator)
+        {
+            int split = emit(SPLIT, size + 1, 0);
+            if (separator != null)
+                emitLiteral(separator);
+            emit(JMP, body, 0);
+            bs[split] = size;
+        }
+    }
+}
@@ -9,7 +9,7 @@ import java.util.List;
  */
 public record Import(Type type, List<String> fragments)
 {
-    interface Type
+    public interface Type
     {
         record Class() implements Type {};
         record Enum() implements Type {};
@@ -1,33 +1,640 @@
 package org.alex_hashtag.lexer;
 
+import lombok.Getter;
+import org.alex_hashtag.internal_representation.Expression.LazyBody;
 import org.alex_hashtag.internal_representation.macros.Macro;
+import org.alex_hashtag.internal_representation.types.TypeHolder;
+import org.alex_hashtag.lib.cancellation.CancellationToken;
+import org.alex_hashtag.lib.cancellation.CancelledException;
+import org.alex_hashtag.lib.errors.Diagnostics;
 import org.alex_hashtag.lib.errors.ErrorManager;
 import org.alex_hashtag.lib.results.Option;
 import org.alex_hashtag.lib.tokenization.*;
+import org.alex_hashtag.tokenizationOLD.CoordinatesOLD;
 
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
+import java.util.*;
 
 
+/**
+ * The header of a single source file: its package, imports, and the top-level declarations
+ * it exposes. Built by a header-only pass that never looks inside function, class or macro
+ * bodies, so modules can be indexed (see {@link SymbolIndex}) before anything is fully parsed.
+ * Function bodies are kept as {@link LazyBody} token ranges and parsed only when requested.
+ */
+@Getter
 public class LexModule
 {
+    private static final Set<String> MODIFIERS = Set.of(
+            "public", "protected", "static", "mutable", "const", "inline", "abstract", "unsafe", "implicit");
+    /// Immutable, so they are built once; the native image initializes them at build time.
+    private static final TokenRules RULES = toucanRules();
+    private static final TokenPostProcessor POST_PROCESSOR = toucanPostProcessor();
 
+    String fileName;
     Package moduleName;
     List<Import> imports;
     List<Macro> macros;
     List<Prototype> prototypes;
+    Map<String, Coordinates> locations;
+    Map<String, LazyBody> bodies;
+    Map<String, List<String>> parameters;
+    Set<String> inlined;
     TokenList tokens;
+    ErrorManager<LexerError> errorManager;
+
+    private LexModule(String fileName, TokenList tokens, ErrorManager<LexerError> errorManager)
+    {
+        this.fileName = fileName;
+        this.tokens = tokens;
+        this.errorManager = errorManager;
+        this.imports = new ArrayList<>();
+        this.macros = new ArrayList<>();
+        this.prototypes = new ArrayList<>();
+        this.locations = new HashMap<>();
+        this.bodies = new HashMap<>();
+        this.parameters = new HashMap<>();
+        this.inlined = new HashSet<>();
+    }
 
     public static LexModule create(String code, String fileName)
     {
-        TokenList initialList = TokenList.create(code, toucanRules(), toucanPostProcessor());
-        TokenList.LookAheadIterator iterator = (TokenList.LookAheadIterator) initialList.iterator();
-        ErrorManager<LexerError> errorManager = new ErrorManager<>(fileName, code);
+        return create(code, fileName, new ErrorManager<>(fileName, code), CancellationToken.NONE);
+    }
+
+    /**
+     * Like {@link #create(String, String)}, but errors are streamed to {@code diagnostics} and the
+     * pass stops once the error limit of the file is reached.
+     */
+    public static LexModule create(String code, String fileName, Diagnostics diagnostics)
+    {
+        return create(code, fileName, diagnostics, CancellationToken.NONE);
+    }
+
+    /**
+     * Like {@link #create(String, String, Diagnostics)}, but gives up as soon as
+     * {@code cancellation} is cancelled or its deadline passes.
+     *
+     * @throws CancelledException if it gave up; no module is returned, so nothing partial escapes.
+     */
+    public static LexModule create(String code, String fileName, Diagnostics diagnostics, CancellationToken cancellation)
+    {
+        return create(code, fileName, new ErrorManager<>(fileName, code, diagnostics), cancellation);
+    }
+
+    private static LexModule create(String code,
+                                    String fileName,
+                                    ErrorManager<LexerError> errorManager,
+                                    CancellationToken cancellation)
+    {
+        TokenList initialList = TokenList.create(code, RULES, POST_PROCESSOR, fileName, cancellation);
+        TokenList.LookAheadIterator iterator = initialList.iterator();
+        LexModule module = new LexModule(fileName, initialList, errorManager);
 
         Option<Package> moduleName = parsePackage(iterator, errorManager);
+        if (moduleName.isNone())
+            iterator.reset(); // Keep whatever was not part of the package statement
+        module.moduleName = moduleName.unwrapOr(new Package(List.of()));
+
+        while (true)
+        {
+            iterator.mark();
+            Token current = nextSignificant(iterator);
+            if (current instanceof Token.Keyword keyword && keyword.getValue().equals("import"))
+            {
+                iterator.commit();
+                iterator.remove(); // Consume 'import'
+                parseImport(iterator, current, errorManager).ifSome(module.imports::add);
+            }
+            else
+            {
+                iterator.rollback();
+                break;
+            }
+        }
 
+        indexDeclarations(iterator, module, cancellation);
+        return module;
+    }
 
+    /**
+     * @return the fully qualified name of a top-level declaration in this module.
+     */
+    public String qualify(String name)
+    {
+        if (moduleName.namespace().isEmpty())
+            return name;
+        return String.join(".", moduleName.namespace()) + "." + name;
+    }
+
+    /**
+     * @return the body of the top-level function with the given (unqualified) name, not yet parsed.
+     */
+    public Option<LazyBody> body(String name)
+    {
+        LazyBody body = bodies.get(name);
+        return body == null ? Option.none() : Option.some(body);
+    }
+
+    // ==================================================
+    // ============ HEADER-ONLY DECLARATIONS ============
+    // ==================================================
+
+    /// Walks the remaining top-level tokens and records a [Prototype] for every declaration.
+    /// Bodies (`{ ... }`) and initializers are skipped by brace matching on the token stream,
+    /// so the cost of this pass is a single linear scan regardless of how large the bodies are.
+    private static void indexDeclarations(TokenList.LookAheadIterator iterator,
+                                          LexModule module,
+                                          CancellationToken cancellation)
+    {
+        ErrorManager<LexerError> errorManager = module.errorManager;
+
+        while (iterator.hasNext() && !errorManager.limitReached())
+        {
+            cancellation.throwIfCancelled();
+            Token current = nextSignificant(iterator);
+            if (current == null || current instanceof Token.End)
+                break;
+
+            // Modifiers and annotations in front of a declaration
+            boolean isPublic = false;
+            boolean isInline = false;
+            while (current != null)
+            {
+                if (current instanceof Token.Keyword kw && MODIFIERS.contains(kw.getValue()))
+                {
+                    isPublic |= kw.getValue().equals("public");
+                    isInline |= kw.getValue().equals("inline");
+                }
+                else if (current instanceof Token.Identifier id && id.type().equals("annotation"))
+                {
+                    Token afterAnnotation = peekSignificant(iterator);
+                    if (isDelimiter(afterAnnotation, "("))
+                    {
+                        nextSignificant(iterator);
+                        skipBalanced(iterator, "(", ")");
+                    }
+                }
+                else
+                {
+                    break;
+                }
+                current = nextSignificant(iterator);
+            }
+            if (current == null || current instanceof Token.End)
+                break;
+
+            if (current instanceof Token.Keyword keyword)
+            {
+                switch (keyword.getValue())
+                {
+                    case "class", "struct", "typedef" ->
+                            declareNamed(iterator, module, current, Prototype.Class::new);
+                    case "trait" -> declareNamed(iterator, module, current, Prototype.Trait::new);
+                    case "enum" -> declareEnum(iterator, module, current);
+                    case "macro" -> declareMacro(iterator, module, current, isPublic);
+                    case "import", "package" ->
+                    {
+                        errorManager.reportError(new LexerError(
+                                "Unexpected '" + keyword.getValue() + "' after the first declaration.",
+                                current.getPosition().line(),
+                                current.getPosition().column(),
+                                current,
+                                "Package and import statements must come before any declaration."
+                        ));
+                        skipDeclaration(iterator);
+                    }
+                    default -> skipDeclaration(iterator);
+                }
+                iterator.remove();
+                continue;
+            }
+
+            declareValue(iterator, module, current, isInline);
+            iterator.remove();
+        }
+    }
+
+    /// `class Name ...`, `trait Name ...` and friends: the name is the first identifier.
+    private static void declareNamed(TokenList.LookAheadIterator iterator, LexModule module, Token keyword,
+                                     java.util.function.Function<String, Prototype> factory)
+    {
+        Token name = nextSignificant(iterator);
+        if (!(name instanceof Token.Identifier identifier))
+        {
+            reportMissingName(module, keyword, name);
+            skipDeclaration(iterator);
+            return;
+        }
+        module.declare(factory.apply(identifier.getValue()), identifier);
+        skipDeclaration(iterator);
+    }
+
+    /// `enum Name { A, B(int32), C }`: variants are read from the first nesting level of the body.
+    private static void declareEnum(TokenList.LookAheadIterator iterator, LexModule module, Token keyword)
+    {
+        Token name = nextSignificant(iterator);
+        if (!(name instanceof Token.Identifier identifier))
+        {
+            reportMissingName(module, keyword, name);
+            skipDeclaration(iterator);
+            return;
+        }
+
+        Token current = nextSignificant(iterator);
+        while (current != null && !isDelimiter(current, "{") && !isDelimiter(current, ";"))
+            current = nextSignificant(iterator);
+
+        Map<String, TypeHolder> variants = new LinkedHashMap<>();
+        if (isDelimiter(current, "{"))
+        {
+            Token variant = nextSignificant(iterator);
+            while (variant != null && !isDelimiter(variant, "}") && !(variant instanceof Token.End))
+            {
+                if (variant instanceof Token.Identifier variantName)
+                {
+                    StringBuilder payload = new StringBuilder();
+                    Token next = nextSignificant(iterator);
+                    if (isDelimiter(next, "("))
+                    {
+                        payload.append(collectBalanced(iterator, "(", ")"));
+                        next = nextSignificant(iterator);
+                    }
+                    variants.put(variantName.getValue(), new TypeHolder.Resolved(variantName.position(),
+                            payload.isEmpty() ? "void" : payload.toString()));
+                    variant = next;
+                    continue;
+                }
+                if (isDelimiter(variant, "{"))
+                    skipBalanced(iterator, "{", "}");
+                variant = nextSignificant(iterator);
+            }
+        }
+        module.declare(new Prototype.Enum(identifier.getValue(), variants), identifier);
+    }
+
+    /// `macro name { ... }`: only the header is recorded; arms are parsed when the macro is needed.
+    private static void declareMacro(TokenList.LookAheadIterator iterator, LexModule module, Token keyword,
+                                     boolean isPublic)
+    {
+        Token name = nextSignificant(iterator);
+        if (!(name instanceof Token.Identifier identifier))
+        {
+            reportMissingName(module, keyword, name);
+            skipDeclaration(iterator);
+            return;
+        }
+        Coordinates position = keyword.getPosition();
+        module.macros.add(new Macro(new CoordinatesOLD(position.line(), position.column()),
+                module.qualify(identifier.getValue()), isPublic));
+        skipDeclaration(iterator);
+    }
+
+    /// `Type name = ...;`, `Type name;` or `Type name(params) { ... }`.
+    private static void declareValue(TokenList.LookAheadIterator iterator, LexModule module, Token first,
+                                     boolean isInline)
+    {
+        List<Token> header = new ArrayList<>();
+        Token current = first;
+        while (current != null && !(current instanceof Token.End)
+                && !isDelimiter(current, "(") && !isDelimiter(current, ";") && !isDelimiter(current, "{")
+                && !(current instanceof Token.Operator op && op.getValue().equals("=")))
+        {
+            header.add(current);
+            current = nextSignificant(iterator);
+        }
+
+        int nameIndex = nameIndex(header);
+        if (nameIndex < 0)
+        {
+            module.errorManager.reportError(new LexerError(
+                    "Expected a declaration, found " + first,
+                    first.getPosition().line(),
+                    first.getPosition().column(),
+                    first,
+                    "Top-level statements must declare a class, enum, trait, macro, function or variable."
+            ));
+            if (isDelimiter(current, "("))
+                skipBalanced(iterator, "(", ")");
+            if (!isDelimiter(current, ";"))
+                skipDeclaration(iterator);
+            return;
+        }
+
+        Token.Identifier name = (Token.Identifier) header.get(nameIndex);
+        String type = joinTokens(header.subList(0, nameIndex));
+
+        if (isDelimiter(current, "("))
+        {
+            List<List<Token>> parameters = collectParameters(iterator);
+            Option<LazyBody> body = recordBody(iterator, module);
+            if (module.declare(new Prototype.Function(
+                    new TypeHolder.Resolved(name.position(), type + "(" + parameterTypes(parameters) + ")"),
+                    name.getValue()), name))
+            {
+                body.ifSome(lazyBody -> module.bodies.put(name.getValue(), lazyBody));
+                module.parameters.put(name.getValue(), parameterNames(parameters));
+                if (isInline)
+                    module.inlined.add(name.getValue());
+            }
+        }
+        else
+        {
+            if (!isDelimiter(current, ";"))
+                skipDeclaration(iterator);
+            module.declare(new Prototype.Variable(new TypeHolder.Resolved(name.position(), type), name.getValue()), name);
+        }
+    }
+
+    /// @return false if the name was already declared in this module.
+    private boolean declare(Prototype prototype, Token.Identifier name)
+    {
+        Coordinates previous = locations.putIfAbsent(name.getValue(), name.position());
+        if (previous != null)
+        {
+            errorManager.reportError(new LexerError(
+                    "Duplicate declaration of '" + name.getValue() + "' (first declared at line " + previous.line() + ").",
+                    name.position().line(),
+                    name.position().column(),
+                    name,
+                    "Rename one of the declarations."
+            ));
+            return false;
+        }
+        prototypes.add(prototype);
+        return true;
+    }
+
+    private static void reportMissingName(LexModule module, Token keyword, Token found)
+    {
+        Token at = found == null ? keyword : found;
+        module.errorManager.reportError(new LexerError(
+                "Expected a name after '" + keyword.getValue() + "', found " + at,
+                at.getPosition().line(),
+                at.getPosition().column(),
+                at,
+                "Declarations must be named, e.g. '" + keyword.getValue() + " MyName'."
+        ));
+    }
+
+    /// The declared name is the last identifier of the header, ignoring a trailing generic list.
+    private static int nameIndex(List<Token> header)
+    {
+        int end = header.size() - 1;
+        if (end >= 0 && isDelimiter(header.get(end), ">"))
+        {
+            int depth = 0;
+            for (; end >= 0; end--)
+            {
+                if (isDelimiter(header.get(end), ">")) depth++;
+                else if (isDelimiter(header.get(end), "<") && --depth == 0) break;
+            }
+            end--;
+        }
+        if (end >= 1 && header.get(end) instanceof Token.Identifier id && id.type().equals("default"))
+            return end;
+        return -1;
+    }
+
+    /// Reads a parameter list after its '(' and returns the tokens of each parameter.
+    private static List<List<Token>> collectParameters(TokenList.LookAheadIterator iterator)
+    {
+        List<List<Token>> parameters = new ArrayList<>();
+        List<Token> parameter = new ArrayList<>();
+        int depth = 1;
+        while (iterator.hasNext())
+        {
+            Token token = nextSignificant(iterator);
+            if (token == null || token instanceof Token.End)
+                break;
+            if (isDelimiter(token, "(") || isDelimiter(token, "<") || isDelimiter(token, "["))
+                depth++;
+            else if (isDelimiter(token, ")") || isDelimiter(token, ">") || isDelimiter(token, "]"))
+                depth--;
+
+            if (depth == 0)
+                break;
+            if (depth == 1 && isDelimiter(token, ","))
+            {
+                parameters.add(parameter);
+                parameter = new ArrayList<>();
+                continue;
+            }
+            parameter.add(token);
+        }
+        if (!parameter.isEmpty())
+            parameters.add(parameter);
+        return parameters;
+    }
+
+    /// Turns `(int32 a, List<string> b)` into `int32, List<string>`.
+    private static String parameterTypes(List<List<Token>> parameters)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (List<Token> parameter : parameters)
+        {
+            if (!sb.isEmpty())
+                sb.append(", ");
+            int nameIndex = nameIndex(parameter);
+            sb.append(joinTokens(nameIndex < 0 ? parameter : parameter.subList(0, nameIndex)));
+        }
+        return sb.toString();
+    }
+
+    /// Turns `(int32 a, List<string> b)` into `a, b`; unnamed parameters are named by position.
+    private static List<String> parameterNames(List<List<Token>> parameters)
+    {
+        List<String> names = new ArrayList<>(parameters.size());
+        for (List<Token> parameter : parameters)
+        {
+            int nameIndex = nameIndex(parameter);
+            names.add(nameIndex < 0 ? "$" + names.size() : parameter.get(nameIndex).getValue());
+        }
+        return names;
+    }
+
+    /// Skips the rest of a declaration: up to and including a top-level ';' or a matched '{ ... }'.
+    private static void skipDeclaration(TokenList.LookAheadIterator iterator)
+    {
+        while (iterator.hasNext())
+        {
+            Token token = iterator.next();
+            if (token instanceof Token.End)
+                return;
+            if (isDelimiter(token, ";"))
+                return;
+            if (isDelimiter(token, "("))
+                skipBalanced(iterator, "(", ")");
+            else if (isDelimiter(token, "{"))
+            {
+                skipBalanced(iterator, "{", "}");
+                // `int32 x = { ... };` keeps going until its ';'
+                Token after = peekSignificant(iterator);
+                if (isDelimiter(after, ";"))
+                    nextSignificant(iterator);
+                return;
+            }
+        }
+    }
+
+    /// Skips the rest of a function header and records its `{ ... }` body without parsing it.
+    private static Option<LazyBody> recordBody(TokenList.LookAheadIterator iterator, LexModule module)
+    {
+        while (iterator.hasNext())
+        {
+            Token token = iterator.next();
+            if (token instanceof Token.End || isDelimiter(token, ";"))
+                return Option.none();
+            if (isDelimiter(token, "("))
+                skipBalanced(iterator, "(", ")");
+            else if (isDelimiter(token, "{"))
+            {
+                int start = iterator.position();
+                skipBalanced(iterator, "{", "}");
+                int end = iterator.position();
+                if (isDelimiter(module.tokens.get(end - 1), "}"))
+                    end--;
+                return Option.some(new LazyBody(module.tokens, start, end, module.errorManager));
+            }
+        }
+        return Option.none();
+    }
+
+    /// Skips tokens until the delimiter closing an already consumed opener.
+    private static void skipBalanced(TokenList.LookAheadIterator iterator, String open, String close)
+    {
+        int depth = 1;
+        while (iterator.hasNext() && depth > 0)
+        {
+            Token token = iterator.next();
+            if (token instanceof Token.End)
+                return;
+            if (isDelimiter(token, open)) depth++;
+            else if (isDelimiter(token, close)) depth--;
+        }
+    }
+
+    /// Like [#skipBalanced] but returns the skipped tokens joined as source text.
+    private static String collectBalanced(TokenList.LookAheadIterator iterator, String open, String close)
+    {
+        List<Token> inside = new ArrayList<>();
+        int depth = 1;
+        while (iterator.hasNext())
+        {
+            Token token = nextSignificant(iterator);
+            if (token == null || token instanceof Token.End)
+                break;
+            if (isDelimiter(token, open)) depth++;
+            else if (isDelimiter(token, close) && --depth == 0) break;
+            inside.add(token);
+        }
+        return joinTokens(inside);
+    }
+
+    private static String joinTokens(List<Token> tokens)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (Token token : tokens)
+        {
+            if (isDelimiter(token, ","))
+                sb.append(", ");
+            else
+                sb.append(token.getValue());
+        }
+        return sb.toString();
+    }
+
+    private static boolean isDelimiter(Token token, String value)
+    {
+        return token instanceof Token.Delimiter delimiter && delimiter.getValue().equals(value);
+    }
+
+    /// Returns the next token that is not a comment (or the Start marker), or null at the end.
+    private static Token nextSignificant(TokenList.LookAheadIterator iterator)
+    {
+        while (iterator.hasNext())
+        {
+            Token token = iterator.next();
+            if (!(token instanceof Token.Comment) && !(token instanceof Token.Start))
+                return token;
+        }
+        return null;
+    }
+
+    private static Token peekSignificant(TokenList.LookAheadIterator iterator)
+    {
+        iterator.mark();
+        Token token = nextSignificant(iterator);
+        iterator.rollback();
+        return token;
+    }
+
+    // ==================================================
+    // ================ PACKAGE & IMPORTS ===============
+    // ==================================================
+
+    /// Parses `import <type> fragment.fragment.name;` after the 'import' keyword was consumed.
+    private static Option<Import> parseImport(TokenList.LookAheadIterator iterator, Token importKeyword,
+                                              ErrorManager<LexerError> errorManager)
+    {
+        Option<String> importType = parseImportType(iterator, errorManager);
+        if (importType.isNone())
+        {
+            skipDeclaration(iterator);
+            iterator.remove();
+            return Option.none();
+        }
+
+        List<String> fragments = new ArrayList<>();
+        Token current = nextSignificant(iterator);
+        while (current instanceof Token.Identifier identifier)
+        {
+            fragments.add(identifier.getValue());
+            current = nextSignificant(iterator);
+            if (current instanceof Token.Operator dot && dot.getValue().equals("."))
+            {
+                current = nextSignificant(iterator);
+                continue;
+            }
+            // `import int32(int32) com.example.function();`
+            if (isDelimiter(current, "("))
+            {
+                skipBalanced(iterator, "(", ")");
+                current = nextSignificant(iterator);
+            }
+            break;
+        }
+
+        if (fragments.isEmpty() || !isDelimiter(current, ";"))
+        {
+            Token at = current == null ? importKeyword : current;
+            errorManager.reportError(new LexerError(
+                    "Invalid import path, found " + at,
+                    at.getPosition().line(),
+                    at.getPosition().column(),
+                    at,
+                    "Imports must follow the format: import class com.example.MyClass;"
+            ));
+            if (current != null && !isDelimiter(current, ";"))
+                skipDeclaration(iterator);
+            iterator.remove();
+            return Option.none();
+        }
+        iterator.remove(); // Consume the path and ';'
+
+        String type = importType.unwrap();
+        Coordinates position = importKeyword.getPosition();
+        Import.Type kind = switch (type)
+        {
+            case "class" -> new Import.Type.Class();
+            case "enum" -> new Import.Type.Enum();
+            case "trait" -> new Import.Type.Trait();
+            case "macro" -> new Import.Type.Macro();
+            case "annotation" -> new Import.Type.Annotation();
+            default -> type.contains("(")
+                    ? new Import.Type.Func(new TypeHolder.Resolved(position, type))
+                    : new Import.Type.Var(new TypeHolder.Resolved(position, type));
+        };
+        return Option.some(new Import(kind, fragments));
     }
 
     /// Parses the type of the import statement.
@@ -92,46 +699,40 @@ public class LexModule
 
 
                 // Peek ahead to see if it is a function type (i.e. followed by '(')
+                iterator.mark();
                 Token next;
                 do next = iterator.next();
                 while (next instanceof Token.Comment);
 
                 if (iterator.hasNext() && (next instanceof Token.Delimiter delimiter && delimiter.getValue().equals("(")))
                 {
-                    // It is a function type; consume the '(' delimiter.
-                    iterator.next(); // Consume '('
-                    iterator.remove();
+                    iterator.commit();
+                    iterator.remove(); // Consume '('
 
                     StringBuilder paramsBuilder = new StringBuilder();
                     paramsBuilder.append("(");
-                    boolean firstParam = true;
                     boolean closingFound = false;
                     while (iterator.hasNext())
                     {
                         // Skip comments between parameters.
-                        do next = iterator.next();
-                        while (next instanceof Token.Comment);
-                        Token token = iterator.next();
+                        Token token;
+                        do token = iterator.next();
+                        while (token instanceof Token.Comment && iterator.hasNext());
+
                         // If we hit a closing parenthesis, we are done.
                         if (token instanceof Token.Delimiter delim && delim.getValue().equals(")"))
                         {
+                            iterator.remove(); // Consume ')'
                             paramsBuilder.append(")");
                             closingFound = true;
                             break;
                         }
-                        // Add a comma separator if needed.
-                        if (!firstParam)
+                        // Commas separate the parameter types.
+                        if (token instanceof Token.Delimiter comma && comma.getValue().equals(","))
                         {
-                            // If the token is an explicit comma, consume it and append the separator.
-                            if (token instanceof Token.Delimiter comma && comma.getValue().equals(","))
-                            {
-                                paramsBuilder.append(", ");
-                                continue;
-                            }
-                            else // If no comma was encountered, add one before the next parameter.
-                                paramsBuilder.append(", ");
+                            paramsBuilder.append(", ");
+                            continue;
                         }
-                        firstParam = false;
 
                         // Parameter tokens should be valid type identifiers (or keywords).
                         if (token instanceof Token.Identifier pid)
@@ -170,7 +771,8 @@ public class LexModule
                 }
                 else
                 {
-                    // No '(' found; return the variable type as is.
+                    // No '(' found; un-read the peeked token and return the variable type as is.
+                    iterator.rollback();
                     return Option.some(baseType);
                 }
             }
@@ -192,12 +794,12 @@ public class LexModule
 
     private static Option<Package> parsePackage(TokenList.LookAheadIterator iterator, ErrorManager<LexerError> errorManager)
     {
-        Token current;
-        do current = iterator.next();
-        while (current instanceof Token.Comment);
+        Token current = nextSignificant(iterator);
 
         if (!(current instanceof Token.Keyword keyword) || !keyword.getValue().equals("package"))
         {
+            if (current == null)
+                return Option.none();
             errorManager.reportError(new LexerError(
                     "Expected 'package' keyword, found " + current.toString(),
                     current.getPosition().line(),
@@ -227,15 +829,15 @@ public class LexModule
         do current = iterator.next();
         while (current instanceof Token.Comment);
 
-        while (current instanceof Token.Literal literal && literal.type().equals("default"))
+        while (current instanceof Token.Identifier identifier && identifier.type().equals("default"))
         {
-            packageParts.add(literal.getValue());
+            packageParts.add(identifier.getValue());
             iterator.remove(); // Consume token
             current = iterator.next();
 
             switch (current)
             {
-                case Token.Delimiter delimiter when delimiter.getValue().equals(".") ->
+                case Token.Operator operator when operator.getValue().equals(".") ->
                 {
                     iterator.remove(); // Consume '.'
                     current = iterator.next();
@@ -344,8 +946,7 @@ public class LexModule
     private static TokenPostProcessor toucanPostProcessor()
     {
         return TokenPostProcessor.builder()
-                .literal("string", TokenTransformations::unquoteAndTrimIndentation)
-                .literal("string", TokenTransformations::processEscapeSequences)
+                .literal("string", TokenTransformations::decodeString)
                 .comment("comment", TokenTransformations::stripCommentMarkers)
                 .literal("integer", TokenTransformations::normalizeInteger)
                 .literal("float", TokenTransformations::normalizeFloat)
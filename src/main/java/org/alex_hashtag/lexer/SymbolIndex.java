@@ -0,0 +1,126 @@
+package org.alex_hashtag.lexer;
+
+import org.alex_hashtag.lib.errors.Diagnostics;
+import org.alex_hashtag.lib.results.Option;
+import org.alex_hashtag.lib.tokenization.Coordinates;
+import org.alex_hashtag.lib.tokenization.Token;
+
+import java.util.*;
+
+
+/**
+ * Global index of every top-level {@link Prototype} in a project, keyed by fully qualified name.
+ * <p>
+ * Each file is run through the header-only pass of {@link LexModule#create} in parallel;
+ * the resulting modules are then merged in file-name order so that duplicate reporting
+ * is deterministic no matter which file finished first.
+ */
+public class SymbolIndex
+{
+    private final List<LexModule> modules;
+    private final Map<String, Symbol> symbols;
+
+    private SymbolIndex(List<LexModule> modules, Map<String, Symbol> symbols)
+    {
+        this.modules = Collections.unmodifiableList(modules);
+        this.symbols = Collections.unmodifiableMap(symbols);
+    }
+
+    /**
+     * Indexes the given sources.
+     *
+     * @param sources file name to source code.
+     * @return an index over every top-level declaration of every file.
+     */
+    public static SymbolIndex build(Map<String, String> sources)
+    {
+        return build(sources, null);
+    }
+
+    /**
+     * Indexes the given sources, streaming every error to {@code diagnostics} as it is found.
+     *
+     * @param sources     file name to source code.
+     * @param diagnostics the engine to report to, or null to keep errors in each module's error manager.
+     */
+    public static SymbolIndex build(Map<String, String> sources, Diagnostics diagnostics)
+    {
+        List<LexModule> modules = sources.entrySet().stream()
+                .sorted(Map.Entry.comparingByKey())
+                .toList()
+                .parallelStream()
+                .map(entry -> diagnostics == null
+                        ? LexModule.create(entry.getValue(), entry.getKey())
+                        : LexModule.create(entry.getValue(), entry.getKey(), diagnostics))
+                .toList();
+
+        Map<String, Symbol> symbols = new HashMap<>();
+        for (LexModule module : modules)
+        {
+            for (Prototype prototype : module.prototypes)
+            {
+                String name = nameOf(prototype);
+                Coordinates position = module.locations.get(name);
+                Symbol symbol = new Symbol(module.qualify(name), module, position, prototype);
+
+                Symbol previous = symbols.putIfAbsent(symbol.qualifiedName(), symbol);
+                if (previous != null)
+                {
+                    module.errorManager.reportError(new LexerError(
+                            "Duplicate declaration of '" + symbol.qualifiedName() + "', already declared in "
+                                    + previous.module().fileName + ".",
+                            position.line(),
+                            position.column(),
+                            new Token.Identifier(position, "default", name),
+                            "Rename one of the declarations or move it to a different package."
+                    ));
+                }
+            }
+        }
+        return new SymbolIndex(modules, symbols);
+    }
+
+    /**
+     * @return the symbol declared under the given fully qualified name, if any.
+     */
+    public Option<Symbol> lookup(String qualifiedName)
+    {
+        Symbol symbol = symbols.get(qualifiedName);
+        return symbol == null ? Option.none() : Option.some(symbol);
+    }
+
+    public Map<String, Symbol> getSymbols()
+    {
+        return symbols;
+    }
+
+    public List<LexModule> getModules()
+    {
+        return modules;
+    }
+
+    public boolean hasErrors()
+    {
+        return modules.stream().anyMatch(module -> module.errorManager.hasErrors());
+    }
+
+    static String nameOf(Prototype prototype)
+    {
+        return switch (prototype)
+        {
+            case Prototype.Variable variable -> variable.name();
+            case Prototype.Function function -> function.name();
+            case Prototype.Class clazz -> clazz.name();
+            case Prototype.Enum enumeration -> enumeration.name();
+            case Prototype.Trait trait -> trait.name();
+            default -> throw new IllegalStateException("Unexpected prototype: " + prototype);
+        };
+    }
+
+    /**
+     * A declaration together with the module and position it was declared at.
+     */
+    public record Symbol(String qualifiedName, LexModule module, Coordinates position, Prototype prototype)
+    {
+    }
+}
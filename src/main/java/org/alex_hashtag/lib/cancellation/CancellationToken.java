@@ -0,0 +1,99 @@
+package org.alex_hashtag.lib.cancellation;
+
+import java.time.Duration;
+
+/**
+ * Cooperative cancellation of front-end work: tokenizing, the header pass and macro parsing.
+ * <p>
+ * Whoever starts the work keeps the token and calls {@link #cancel()} once the result is no longer
+ * wanted, e.g. because the file changed again; a token may also carry a deadline. The work polls
+ * the token from its main loop with {@link #checkpoint(int)} and stops by throwing
+ * {@link CancelledException}:
+ * <pre>
+ *   CancellationToken cancellation = CancellationToken.withTimeout(Duration.ofSeconds(2));
+ *   try {
+ *       TokenList tokens = TokenList.create(code, rules, postProcessor, file, cancellation);
+ *       ...
+ *   } catch (CancelledException e) {
+ *       // Nothing was produced, so there is nothing to undo
+ *   }
+ * </pre>
+ * Cancelled work returns nothing; callers publish into their caches only after it completed.
+ */
+public final class CancellationToken {
+
+    /// Steps of a loop between two looks at the token; a power of two.
+    public static final int CHECK_INTERVAL = 256;
+
+    /// A token that is never cancelled, for work that always runs to completion.
+    public static final CancellationToken NONE = new CancellationToken(false, 0);
+
+    private final boolean hasDeadline;
+    /// In {@link System#nanoTime()} time.
+    private final long deadline;
+    private volatile boolean cancelled;
+
+    private CancellationToken(boolean hasDeadline, long deadline) {
+        this.hasDeadline = hasDeadline;
+        this.deadline = deadline;
+    }
+
+    /**
+     * @return a token that is only cancelled by {@link #cancel()}.
+     */
+    public static CancellationToken create() {
+        return new CancellationToken(false, 0);
+    }
+
+    /**
+     * @return a token that is cancelled by {@link #cancel()} or once {@code timeout} has passed.
+     */
+    public static CancellationToken withTimeout(Duration timeout) {
+        return new CancellationToken(true, System.nanoTime() + timeout.toNanos());
+    }
+
+    /**
+     * Asks the work polling this token to stop. Idempotent and callable from any thread.
+     *
+     * @throws UnsupportedOperationException on {@link #NONE}.
+     */
+    public void cancel() {
+        if (this == NONE) {
+            throw new UnsupportedOperationException("CancellationToken.NONE cannot be cancelled");
+        }
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled || deadlinePassed();
+    }
+
+    private boolean deadlinePassed() {
+        return hasDeadline && System.nanoTime() - deadline >= 0;
+    }
+
+    /**
+     * @throws CancelledException if the token was cancelled or its deadline has passed.
+     */
+    public void throwIfCancelled() {
+        if (cancelled) {
+            throw new CancelledException(false);
+        }
+        if (deadlinePassed()) {
+            throw new CancelledException(true);
+        }
+    }
+
+    /**
+     * Cheap enough to call on every step of a hot loop: looks at the token only every
+     * {@link #CHECK_INTERVAL} steps.
+     *
+     * @param step a counter the loop increments on every step.
+     * @throws CancelledException if the token was cancelled or its deadline has passed.
+     */
+    public void checkpoint(int step) {
+        if ((step & (CHECK_INTERVAL - 1)) == 0) {
+            throwIfCancelled();
+        }
+    }
+}
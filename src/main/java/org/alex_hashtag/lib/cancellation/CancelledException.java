@@ -0,0 +1,24 @@
+package org.alex_hashtag.lib.cancellation;
+
+/**
+ * Thrown by work whose {@link CancellationToken} was cancelled or ran out of time. It unwinds
+ * through the front end like any other exception; only the caller that owns the token catches it.
+ * <p>
+ * Cancellation is an expected outcome rather than a bug, so no stack trace is recorded.
+ */
+public final class CancelledException extends RuntimeException {
+
+    private final boolean timedOut;
+
+    CancelledException(boolean timedOut) {
+        super(timedOut ? "The deadline passed" : "The work was cancelled", null, false, false);
+        this.timedOut = timedOut;
+    }
+
+    /**
+     * @return true if the deadline of the token passed, false if it was cancelled.
+     */
+    public boolean timedOut() {
+        return timedOut;
+    }
+}
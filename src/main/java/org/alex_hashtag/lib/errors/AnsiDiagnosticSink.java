@@ -0,0 +1,67 @@
+package org.alex_hashtag.lib.errors;
+
+import java.io.PrintStream;
+
+/**
+ * Prints diagnostics for people, in the format the error managers have always used.
+ */
+public class AnsiDiagnosticSink implements DiagnosticSink {
+
+    private final PrintStream out;
+
+    public AnsiDiagnosticSink(PrintStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void report(Diagnostic diagnostic) {
+        // Built in one piece so that concurrent writers to the same stream cannot interleave lines
+        StringBuilder sb = new StringBuilder(256);
+        String color = switch (diagnostic.severity()) {
+            case ERROR -> ANSI.RED;
+            case WARNING -> ANSI.YELLOW;
+            case NOTE -> ANSI.BLUE;
+        };
+        sb.append(ANSI.BOLD).append(color).append(diagnostic.severity().label())
+                .append(" [").append(diagnostic.file()).append("]: ").append(ANSI.RESET).append('\n');
+        sb.append(diagnostic.message()).append('\n');
+
+        if (diagnostic.line() > 0) {
+            sb.append("  --> line ").append(diagnostic.line()).append(':').append(diagnostic.column()).append('\n');
+        }
+
+        if (diagnostic.sourceLine() != null) {
+            sb.append("   |\n");
+            sb.append(String.format("%2d | ", diagnostic.line())).append(diagnostic.sourceLine()).append('\n');
+
+            // Underline the offending token
+            sb.append("   | ").append(" ".repeat(Math.max(0, diagnostic.column() - 1)))
+                    .append(ANSI.BOLD).append(ANSI.GREEN).append("^".repeat(diagnostic.length())).append(ANSI.RESET)
+                    .append('\n');
+        }
+
+        if (diagnostic.hint() != null && !diagnostic.hint().isEmpty()) {
+            sb.append(ANSI.YELLOW).append("  = help: ").append(diagnostic.hint()).append(ANSI.RESET).append('\n');
+        }
+
+        sb.append('\n');
+        out.print(sb);
+    }
+
+    @Override
+    public void close() {
+        out.flush();
+    }
+
+    /**
+     * ANSI escape codes for colored output.
+     */
+    private static class ANSI {
+        static final String RED = "\u001B[31m";
+        static final String GREEN = "\u001B[32m";
+        static final String YELLOW = "\u001B[33m";
+        static final String BLUE = "\u001B[34m";
+        static final String BOLD = "\u001B[1m";
+        static final String RESET = "\u001B[0m";
+    }
+}
@@ -9,4 +9,11 @@ public interface CompilerError {
     int getColumn();
     String getToken();
     String getHint();
+
+    /**
+     * @return a stable identifier of the kind of error, used by machine-readable output.
+     */
+    default String getCode() {
+        return getClass().getSimpleName();
+    }
 }
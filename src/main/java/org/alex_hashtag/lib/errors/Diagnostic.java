@@ -0,0 +1,53 @@
+package org.alex_hashtag.lib.errors;
+
+/**
+ * One message about a source file, in the form every {@link DiagnosticSink} consumes.
+ *
+ * @param severity   how serious the problem is.
+ * @param code       a stable identifier of the kind of problem, e.g. {@code INVALID_TOKEN}.
+ * @param file       the file the problem is in.
+ * @param line       1-based line, or 0 when the problem has no position.
+ * @param column     1-based column, or 0 when the problem has no position.
+ * @param length     how many characters to underline, at least 1.
+ * @param message    what went wrong.
+ * @param hint       how to fix it, or null.
+ * @param sourceLine the text of the offending line, or null when unknown.
+ */
+public record Diagnostic(Severity severity,
+                         String code,
+                         String file,
+                         int line,
+                         int column,
+                         int length,
+                         String message,
+                         String hint,
+                         String sourceLine) {
+
+    public enum Severity {
+        ERROR,
+        WARNING,
+        NOTE;
+
+        public String label() {
+            return name().toLowerCase();
+        }
+    }
+
+    /**
+     * Wraps an error reported through an {@link ErrorManager}.
+     */
+    public static Diagnostic of(CompilerError error, String file, String sourceLine) {
+        String token = error.getToken();
+        return new Diagnostic(
+                Severity.ERROR,
+                error.getCode(),
+                file,
+                error.getLine(),
+                error.getColumn(),
+                Math.max(1, token == null ? 0 : token.length()),
+                error.getMessage(),
+                error.getHint(),
+                sourceLine
+        );
+    }
+}
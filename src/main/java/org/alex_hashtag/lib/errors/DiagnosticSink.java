@@ -0,0 +1,42 @@
+package org.alex_hashtag.lib.errors;
+
+import java.io.PrintStream;
+
+/**
+ * Where diagnostics go as soon as they are reported.
+ * <p>
+ * Sinks do not need to be thread-safe: {@link Diagnostics} never calls one sink from two threads
+ * at once. Each diagnostic is formatted exactly once, straight into the output.
+ */
+public interface DiagnosticSink extends AutoCloseable {
+
+    void report(Diagnostic diagnostic);
+
+    /**
+     * Writes anything the format needs after the last diagnostic and flushes the output.
+     */
+    @Override
+    default void close() {
+    }
+
+    /**
+     * Human-readable, colored output with the offending line underlined.
+     */
+    static DiagnosticSink ansi(PrintStream out) {
+        return new AnsiDiagnosticSink(out);
+    }
+
+    /**
+     * One JSON object per line.
+     */
+    static DiagnosticSink json(PrintStream out) {
+        return new JsonDiagnosticSink(out);
+    }
+
+    /**
+     * A SARIF 2.1.0 log, as read by code-scanning tools. The log is complete once the sink is closed.
+     */
+    static DiagnosticSink sarif(PrintStream out) {
+        return new SarifDiagnosticSink(out);
+    }
+}
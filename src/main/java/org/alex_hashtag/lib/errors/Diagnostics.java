@@ -0,0 +1,206 @@
+package org.alex_hashtag.lib.errors;
+
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The diagnostics engine of one compiler run.
+ * <p>
+ * Diagnostics are handed to the {@link DiagnosticSink} the moment they are reported instead of
+ * being collected until the end, so the first error shows up while the rest of the project is
+ * still being processed. Every phase reports through a {@link File}; the reporters of one source
+ * file, e.g. those of its tokenizer and its parser, share one tally, which
+ * <ul>
+ *     <li>drops cascading errors, i.e. a second error at a position that already has one,</li>
+ *     <li>stops after {@code errorLimit} errors with a single note, after which
+ *     {@link File#limitReached()} tells the front end to stop working on the file.</li>
+ * </ul>
+ * A reporter for a file whose source differs from the one tallied starts a new tally, so a file
+ * that was edited, e.g. in watch mode, is reported in full again.
+ * Files may report from different threads; calls to the sink are serialized.
+ */
+public final class Diagnostics implements AutoCloseable {
+
+    public static final int DEFAULT_ERROR_LIMIT = 50;
+
+    private final DiagnosticSink sink;
+    private final int errorLimit;
+    private final AtomicInteger errors = new AtomicInteger();
+    private final AtomicInteger warnings = new AtomicInteger();
+    /// The tally of every file, by absolute path.
+    private final Map<String, Tally> tallies = new ConcurrentHashMap<>();
+    private boolean closed;
+
+    /**
+     * @param errorLimit how many errors a single file may report, or 0 for no limit.
+     */
+    public Diagnostics(DiagnosticSink sink, int errorLimit) {
+        if (errorLimit < 0) {
+            throw new IllegalArgumentException("Error limit must not be negative: " + errorLimit);
+        }
+        this.sink = sink;
+        this.errorLimit = errorLimit;
+    }
+
+    public Diagnostics(DiagnosticSink sink) {
+        this(sink, DEFAULT_ERROR_LIMIT);
+    }
+
+    /**
+     * @return the reporter for one source file.
+     */
+    public File file(String fileName, String source) {
+        Tally tally = tallies.compute(keyOf(fileName), (key, previous) ->
+                previous != null && Objects.equals(previous.source, source) ? previous : new Tally(source));
+        return new File(fileName, source, tally);
+    }
+
+    /// Phases name the same file by a relative or an absolute path.
+    private static String keyOf(String fileName) {
+        try {
+            return Path.of(fileName).toAbsolutePath().normalize().toString();
+        } catch (InvalidPathException e) {
+            return fileName;
+        }
+    }
+
+    public int errorCount() {
+        return errors.get();
+    }
+
+    public int warningCount() {
+        return warnings.get();
+    }
+
+    public boolean hasErrors() {
+        return errors.get() > 0;
+    }
+
+    private synchronized void emit(Diagnostic diagnostic) {
+        if (closed) {
+            throw new IllegalStateException("Diagnostics already closed");
+        }
+        switch (diagnostic.severity()) {
+            case ERROR -> errors.incrementAndGet();
+            case WARNING -> warnings.incrementAndGet();
+            case NOTE -> {
+            }
+        }
+        sink.report(diagnostic);
+    }
+
+    /**
+     * Closes the sink, completing its output.
+     */
+    @Override
+    public synchronized void close() {
+        if (!closed) {
+            closed = true;
+            sink.close();
+        }
+    }
+
+    /// What the reporters of one version of a file have reported so far.
+    private static final class Tally {
+
+        private final String source;
+        /// Positions that already have an error, as {@code line << 32 | column}.
+        private final Set<Long> positions = ConcurrentHashMap.newKeySet();
+        private final AtomicInteger errorCount = new AtomicInteger();
+        private volatile boolean limitReached;
+
+        private Tally(String source) {
+            this.source = source;
+        }
+    }
+
+    /**
+     * Reports the diagnostics of a single file.
+     */
+    public final class File {
+
+        private final String fileName;
+        private final String source;
+        private volatile List<String> sourceLines;
+        private final Tally tally;
+
+        private File(String fileName, String source, Tally tally) {
+            this.fileName = fileName;
+            this.source = source;
+            this.tally = tally;
+        }
+
+        /**
+         * Reports an error.
+         *
+         * @return whether it was emitted; false if it was a duplicate or the limit had been reached.
+         */
+        public boolean report(CompilerError error) {
+            if (tally.limitReached) {
+                return false;
+            }
+            return report(Diagnostic.of(error, fileName, sourceLine(error.getLine())));
+        }
+
+        /**
+         * Reports a diagnostic of any severity. Only errors are deduplicated and counted towards the limit.
+         *
+         * @return whether it was emitted.
+         */
+        public boolean report(Diagnostic diagnostic) {
+            if (diagnostic.severity() != Diagnostic.Severity.ERROR) {
+                emit(diagnostic);
+                return true;
+            }
+            if (tally.limitReached) {
+                return false;
+            }
+            long position = (long) diagnostic.line() << 32 | (diagnostic.column() & 0xFFFFFFFFL);
+            if (diagnostic.line() > 0 && !tally.positions.add(position)) {
+                return false;
+            }
+
+            int count = tally.errorCount.incrementAndGet();
+            if (errorLimit > 0 && count > errorLimit) {
+                return false;
+            }
+            emit(diagnostic);
+            if (errorLimit > 0 && count == errorLimit) {
+                tally.limitReached = true;
+                emit(new Diagnostic(Diagnostic.Severity.NOTE, "ERROR_LIMIT", fileName, 0, 0, 1,
+                        "Too many errors (" + errorLimit + "), skipping the rest of this file.",
+                        "Raise the limit with --error-limit", null));
+            }
+            return true;
+        }
+
+        /**
+         * @return whether this file reported as many errors as allowed; work on it should stop.
+         */
+        public boolean limitReached() {
+            return tally.limitReached;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        private String sourceLine(int line) {
+            if (source == null || line <= 0) {
+                return null;
+            }
+            List<String> lines = sourceLines;
+            if (lines == null) {
+                lines = List.of(source.split("\n", -1));
+                sourceLines = lines;
+            }
+            return line <= lines.size() ? lines.get(line - 1) : null;
+        }
+    }
+}
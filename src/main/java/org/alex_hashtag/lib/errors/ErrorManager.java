@@ -1,77 +1,78 @@
 package org.alex_hashtag.lib.errors;
 
+import org.alex_hashtag.lib.profiling.DiagnosticEvent;
+
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
  * Generic error manager for handling compilation errors.
+ * Errors may be reported from several threads, e.g. while lazily parsed bodies are materialized.
+ * <p>
+ * When created with a {@link Diagnostics} engine every error is streamed to it as soon as it is
+ * reported, and {@link #printErrors(PrintStream)} has nothing left to do.
  * @param <T> The type of errors managed (must implement CompilerError).
  */
 public class ErrorManager<T extends CompilerError> {
 
-    private final List<T> errors = new ArrayList<>();
+    private final List<T> errors = Collections.synchronizedList(new ArrayList<>());
     private final String fileName;
     private final List<String> sourceLines;
+    private final Diagnostics.File diagnostics;
 
     public ErrorManager(String fileName, String source) {
         this.fileName = fileName;
         this.sourceLines = List.of(source.split("\n", -1));
+        this.diagnostics = null;
+    }
+
+    public ErrorManager(String fileName, String source, Diagnostics diagnostics) {
+        this.fileName = fileName;
+        this.sourceLines = List.of(source.split("\n", -1));
+        this.diagnostics = diagnostics.file(fileName, source);
     }
 
     public void reportError(T error) {
+        DiagnosticEvent event = new DiagnosticEvent();
+        event.begin();
         errors.add(error);
+        if (diagnostics != null) {
+            diagnostics.report(error);
+        }
+        event.commit(fileName, error.getCode(), error.getLine(), error.getColumn(), error.getToken());
     }
 
     public boolean hasErrors() {
         return !errors.isEmpty();
     }
 
+    /**
+     * @return whether the error limit of the diagnostics engine was reached for this file;
+     * callers should stop producing errors for it. Always false when not streaming.
+     */
+    public boolean limitReached() {
+        return diagnostics != null && diagnostics.limitReached();
+    }
+
     public List<T> getErrors() {
         return errors;
     }
 
     public void printErrors(PrintStream out) {
-        for (T error : errors) {
-            printSingleError(out, error);
+        if (diagnostics != null) {
+            return; // Already streamed
         }
-    }
-
-    private void printSingleError(PrintStream out, T error) {
-        out.println(ANSI.BOLD + ANSI.RED + "error [" + fileName + "]: " + ANSI.RESET);
-        out.println(error.getMessage());
-        out.printf("  --> line %d:%d%n", error.getLine(), error.getColumn());
-
-        if (error.getLine() > 0 && error.getLine() <= sourceLines.size()) {
-            String lineText = sourceLines.get(error.getLine() - 1);
-            out.println("   |");
-            out.printf("%2d | %s%n", error.getLine(), lineText);
-
-            // Underline the offending token
-            int underlineStart = error.getColumn() - 1;
-            int caretCount = Math.max(1, error.getToken().length());
-            StringBuilder underline = new StringBuilder("   | ");
-
-            underline.append(" ".repeat(underlineStart));
-            underline.append(ANSI.BOLD + ANSI.GREEN + "^".repeat(caretCount) + ANSI.RESET);
-            out.println(underline);
+        DiagnosticSink sink = DiagnosticSink.ansi(out);
+        synchronized (errors) {
+            for (T error : errors) {
+                sink.report(Diagnostic.of(error, fileName, sourceLine(error.getLine())));
+            }
         }
-
-        if (error.getHint() != null && !error.getHint().isEmpty()) {
-            out.println(ANSI.YELLOW + "  = help: " + error.getHint() + ANSI.RESET);
-        }
-
-        out.println();
     }
 
-    /**
-     * ANSI escape codes for colored output.
-     */
-    private static class ANSI {
-        static final String RED = "\u001B[31m";
-        static final String GREEN = "\u001B[32m";
-        static final String YELLOW = "\u001B[33m";
-        static final String BOLD = "\u001B[1m";
-        static final String RESET = "\u001B[0m";
+    private String sourceLine(int line) {
+        return line > 0 && line <= sourceLines.size() ? sourceLines.get(line - 1) : null;
     }
 }
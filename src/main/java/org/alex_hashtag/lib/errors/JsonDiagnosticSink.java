@@ -0,0 +1,72 @@
+package org.alex_hashtag.lib.errors;
+
+import java.io.PrintStream;
+
+/**
+ * Writes every diagnostic as one JSON object on its own line (JSON Lines), so consumers can
+ * process the output while the compiler is still running.
+ */
+public class JsonDiagnosticSink implements DiagnosticSink {
+
+    private final PrintStream out;
+
+    public JsonDiagnosticSink(PrintStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void report(Diagnostic diagnostic) {
+        StringBuilder sb = new StringBuilder(192);
+        sb.append("{\"severity\":");
+        quote(sb, diagnostic.severity().label());
+        sb.append(",\"code\":");
+        quote(sb, diagnostic.code());
+        sb.append(",\"file\":");
+        quote(sb, diagnostic.file());
+        sb.append(",\"line\":").append(diagnostic.line());
+        sb.append(",\"column\":").append(diagnostic.column());
+        sb.append(",\"length\":").append(diagnostic.length());
+        sb.append(",\"message\":");
+        quote(sb, diagnostic.message());
+        if (diagnostic.hint() != null) {
+            sb.append(",\"hint\":");
+            quote(sb, diagnostic.hint());
+        }
+        sb.append("}\n");
+        out.print(sb);
+    }
+
+    @Override
+    public void close() {
+        out.flush();
+    }
+
+    /**
+     * Appends a JSON string literal.
+     */
+    static void quote(StringBuilder sb, String value) {
+        if (value == null) {
+            sb.append("null");
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                }
+            }
+        }
+        sb.append('"');
+    }
+}
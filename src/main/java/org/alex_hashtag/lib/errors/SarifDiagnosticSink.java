@@ -0,0 +1,66 @@
+package org.alex_hashtag.lib.errors;
+
+import java.io.PrintStream;
+
+import static org.alex_hashtag.lib.errors.JsonDiagnosticSink.quote;
+
+/**
+ * Streams a SARIF 2.1.0 log: the header is written with the first result, every result as it is
+ * reported, and the closing brackets by {@link #close()}.
+ */
+public class SarifDiagnosticSink implements DiagnosticSink {
+
+    private static final String HEADER = "{\"version\":\"2.1.0\","
+            + "\"$schema\":\"https://json.schemastore.org/sarif-2.1.0.json\","
+            + "\"runs\":[{\"tool\":{\"driver\":{\"name\":\"rainforest\"}},"
+            + "\"results\":[";
+
+    private final PrintStream out;
+    private boolean started;
+    private boolean closed;
+
+    public SarifDiagnosticSink(PrintStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void report(Diagnostic diagnostic) {
+        StringBuilder sb = new StringBuilder(256);
+        if (!started) {
+            sb.append(HEADER).append('\n');
+            started = true;
+        } else {
+            sb.append(",\n");
+        }
+
+        sb.append("{\"ruleId\":");
+        quote(sb, diagnostic.code());
+        sb.append(",\"level\":");
+        quote(sb, diagnostic.severity().label());
+        sb.append(",\"message\":{\"text\":");
+        quote(sb, diagnostic.hint() == null ? diagnostic.message() : diagnostic.message() + "\n" + diagnostic.hint());
+        sb.append("},\"locations\":[{\"physicalLocation\":{\"artifactLocation\":{\"uri\":");
+        quote(sb, diagnostic.file().replace('\\', '/'));
+        sb.append('}');
+        if (diagnostic.line() > 0) {
+            sb.append(",\"region\":{\"startLine\":").append(diagnostic.line());
+            if (diagnostic.column() > 0) {
+                sb.append(",\"startColumn\":").append(diagnostic.column())
+                        .append(",\"endColumn\":").append(diagnostic.column() + diagnostic.length());
+            }
+            sb.append('}');
+        }
+        sb.append("}}]}");
+        out.print(sb);
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        out.print(started ? "\n]}]}\n" : HEADER + "]}]}\n");
+        out.flush();
+    }
+}
@@ -0,0 +1,46 @@
+package org.alex_hashtag.lib.profiling;
+
+import jdk.jfr.*;
+
+/**
+ * JFR event for one reported diagnostic. Its duration covers streaming it to the diagnostics
+ * engine, if any. Disabled by default.
+ */
+@Name("org.alex_hashtag.Diagnostic")
+@Label("Diagnostic")
+@Category({"Rainforest", "Compiler"})
+@StackTrace(false)
+@Enabled(false)
+public final class DiagnosticEvent extends Event {
+
+    @Label("File")
+    public String file;
+
+    @Label("Code")
+    public String code;
+
+    @Label("Line")
+    public int line;
+
+    @Label("Column")
+    public int column;
+
+    @Label("Token Length")
+    @DataAmount
+    public long bytes;
+
+    /**
+     * Ends the event and commits it if the recording wants it.
+     */
+    public void commit(String file, String code, int line, int column, String token) {
+        end();
+        if (shouldCommit()) {
+            this.file = file;
+            this.code = code;
+            this.line = line;
+            this.column = column;
+            this.bytes = token == null ? 0 : token.length();
+            commit();
+        }
+    }
+}
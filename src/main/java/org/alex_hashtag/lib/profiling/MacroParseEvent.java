@@ -0,0 +1,28 @@
+package org.alex_hashtag.lib.profiling;
+
+import jdk.jfr.*;
+
+/**
+ * JFR event for parsing the declaration of one macro. Disabled by default.
+ */
+@Name("org.alex_hashtag.MacroParse")
+@Label("Parse Macro")
+@Category({"Rainforest", "Compiler"})
+@StackTrace(false)
+@Enabled(false)
+public final class MacroParseEvent extends Event {
+
+    @Label("File")
+    public String file;
+
+    @Label("File Size")
+    @DataAmount
+    public long bytes;
+
+    @Label("Macro")
+    public String macro;
+
+    @Label("Tokens")
+    @Description("Tokens in the bodies of all arms")
+    public long tokens;
+}
@@ -0,0 +1,29 @@
+package org.alex_hashtag.lib.profiling;
+
+/**
+ * The phases of a compiler run that {@link PhaseTimer} measures.
+ * Phases may nest: {@link #AST_BUILD} includes {@link #MACRO_COLLECTION}.
+ */
+public enum Phase {
+    TOML_LOAD("toml load"),
+    DISCOVERY("file discovery"),
+    READ("read"),
+    TOKENIZE("tokenize"),
+    POST_PROCESS("post-process"),
+    MACRO_COLLECTION("macro collection"),
+    AST_BUILD("ast build"),
+    IR_BUILD("ir build"),
+    OPTIMIZE("optimize"),
+    CODEGEN("codegen"),
+    EXECUTE("execute");
+
+    private final String label;
+
+    Phase(String label) {
+        this.label = label;
+    }
+
+    public String label() {
+        return label;
+    }
+}
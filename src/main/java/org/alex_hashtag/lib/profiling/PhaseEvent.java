@@ -0,0 +1,35 @@
+package org.alex_hashtag.lib.profiling;
+
+import jdk.jfr.*;
+
+/**
+ * JFR event for one execution of a {@link Phase}, committed by {@link PhaseTimer.Scope#close()}.
+ * Like every JFR event it is only recorded while a recording that enables it is running.
+ */
+@Name("org.alex_hashtag.Phase")
+@Label("Compiler Phase")
+@Category({"Rainforest", "Compiler"})
+@Description("Wall time, CPU time and allocation of one compiler phase")
+@StackTrace(false)
+class PhaseEvent extends Event {
+
+    @Label("Phase")
+    String phase;
+
+    @Label("File")
+    String file;
+
+    @Label("CPU Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long cpuTime;
+
+    @Label("Allocated")
+    @DataAmount
+    long allocated;
+
+    @Label("Tokens")
+    long tokens;
+
+    @Label("Nodes")
+    long nodes;
+}
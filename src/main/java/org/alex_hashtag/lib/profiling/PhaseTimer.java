@@ -0,0 +1,236 @@
+package org.alex_hashtag.lib.profiling;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide timing of the compiler phases.
+ * <p>
+ * Every phase runs inside a {@link Scope}:
+ * <pre>
+ *   try (PhaseTimer.Scope scope = PhaseTimer.get().start(Phase.TOKENIZE, file)) {
+ *       ...
+ *       scope.tokens(tokens.size());
+ *   }
+ * </pre>
+ * A scope measures wall time, and through {@link ThreadMXBean} the CPU time and bytes allocated
+ * by the current thread. Measurements feed two outputs:
+ * <ul>
+ *     <li>the totals printed by {@link #printReport(PrintStream)}, once {@link #enable()} was called,</li>
+ *     <li>a {@link PhaseEvent} per scope, whenever a JFR recording enables it.</li>
+ * </ul>
+ * When neither is on, starting a scope reads no clocks and allocates nothing beyond the event.
+ * Scopes opened on worker threads are summed, so the wall time of a parallel phase is the time
+ * spent in it by all threads together.
+ */
+public final class PhaseTimer {
+
+    private static final PhaseTimer INSTANCE = new PhaseTimer();
+    private static final int HOT_FILES = 5;
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final com.sun.management.ThreadMXBean allocations =
+            threads instanceof com.sun.management.ThreadMXBean bean && bean.isThreadAllocatedMemorySupported()
+                    ? bean
+                    : null;
+    private final boolean cpuTimeSupported = threads.isCurrentThreadCpuTimeSupported();
+
+    private final Map<Phase, Totals> totals = new EnumMap<>(Phase.class);
+    private final Map<String, LongAdder> fileTimes = new ConcurrentHashMap<>();
+    private volatile boolean enabled;
+
+    private PhaseTimer() {
+        for (Phase phase : Phase.values()) {
+            totals.put(phase, new Totals());
+        }
+    }
+
+    public static PhaseTimer get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Starts collecting totals for {@link #printReport(PrintStream)}.
+     */
+    public void enable() {
+        enabled = true;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Clears the collected totals, e.g. between the runs of a watch loop.
+     */
+    public void reset() {
+        totals.values().forEach(Totals::reset);
+        fileTimes.clear();
+    }
+
+    public Scope start(Phase phase) {
+        return start(phase, null);
+    }
+
+    /**
+     * @param file the file the phase works on, or null if it is not specific to one.
+     */
+    public Scope start(Phase phase, String file) {
+        PhaseEvent event = new PhaseEvent();
+        if (!enabled && !event.isEnabled()) {
+            return Scope.NOOP;
+        }
+        return new Scope(this, phase, file, event);
+    }
+
+    private long cpuTime() {
+        return cpuTimeSupported ? threads.getCurrentThreadCpuTime() : 0;
+    }
+
+    private long allocatedBytes() {
+        return allocations != null ? allocations.getCurrentThreadAllocatedBytes() : 0;
+    }
+
+    /**
+     * Prints the totals of every phase that ran, followed by the files that took the longest.
+     */
+    public void printReport(PrintStream out) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-18s %7s %11s %11s %11s %10s %10s%n",
+                "phase", "calls", "wall ms", "cpu ms", "alloc MB", "tokens", "nodes"));
+        for (Map.Entry<Phase, Totals> entry : totals.entrySet()) {
+            Totals t = entry.getValue();
+            if (t.calls.sum() == 0) {
+                continue;
+            }
+            sb.append(String.format("%-18s %7d %11.2f %11.2f %11.2f %10d %10d%n",
+                    entry.getKey().label(),
+                    t.calls.sum(),
+                    t.wallNanos.sum() / 1e6,
+                    t.cpuNanos.sum() / 1e6,
+                    t.allocatedBytes.sum() / (1024.0 * 1024.0),
+                    t.tokens.sum(),
+                    t.nodes.sum()));
+        }
+        if (!cpuTimeSupported || allocations == null) {
+            sb.append("(CPU time or allocation measurement is not supported by this JVM)\n");
+        }
+
+        if (!fileTimes.isEmpty()) {
+            sb.append("\nslowest files:\n");
+            fileTimes.entrySet().stream()
+                    .sorted(Comparator.comparingLong((Map.Entry<String, LongAdder> e) -> e.getValue().sum()).reversed())
+                    .limit(HOT_FILES)
+                    .forEach(e -> sb.append(String.format("%11.2f ms  %s%n", e.getValue().sum() / 1e6, e.getKey())));
+        }
+        out.print(sb);
+        out.flush();
+    }
+
+    /**
+     * One execution of a phase. Close it on the thread that started it.
+     */
+    public static final class Scope implements AutoCloseable {
+
+        private static final Scope NOOP = new Scope(null, null, null, null);
+
+        private final PhaseTimer timer;
+        private final Phase phase;
+        private final String file;
+        private final PhaseEvent event;
+        private final long wallStart;
+        private final long cpuStart;
+        private final long allocatedStart;
+        private long tokens;
+        private long nodes;
+
+        private Scope(PhaseTimer timer, Phase phase, String file, PhaseEvent event) {
+            this.timer = timer;
+            this.phase = phase;
+            this.file = file;
+            this.event = event;
+            if (timer == null) {
+                wallStart = cpuStart = allocatedStart = 0;
+                return;
+            }
+            event.begin();
+            wallStart = System.nanoTime();
+            cpuStart = timer.cpuTime();
+            allocatedStart = timer.allocatedBytes();
+        }
+
+        /**
+         * Adds to the number of tokens this phase produced or consumed.
+         */
+        public Scope tokens(long count) {
+            tokens += count;
+            return this;
+        }
+
+        /**
+         * Adds to the number of syntax nodes (e.g. macros) this phase produced.
+         */
+        public Scope nodes(long count) {
+            nodes += count;
+            return this;
+        }
+
+        @Override
+        public void close() {
+            if (timer == null) {
+                return;
+            }
+            long wall = System.nanoTime() - wallStart;
+            long cpu = timer.cpuTime() - cpuStart;
+            long allocated = timer.allocatedBytes() - allocatedStart;
+
+            if (timer.enabled) {
+                Totals t = timer.totals.get(phase);
+                t.calls.increment();
+                t.wallNanos.add(wall);
+                t.cpuNanos.add(cpu);
+                t.allocatedBytes.add(allocated);
+                t.tokens.add(tokens);
+                t.nodes.add(nodes);
+                if (file != null) {
+                    timer.fileTimes.computeIfAbsent(file, f -> new LongAdder()).add(wall);
+                }
+            }
+
+            event.end();
+            if (event.shouldCommit()) {
+                event.phase = phase.label();
+                event.file = file;
+                event.cpuTime = cpu;
+                event.allocated = allocated;
+                event.tokens = tokens;
+                event.nodes = nodes;
+                event.commit();
+            }
+        }
+    }
+
+    private static final class Totals {
+        final LongAdder calls = new LongAdder();
+        final LongAdder wallNanos = new LongAdder();
+        final LongAdder cpuNanos = new LongAdder();
+        final LongAdder allocatedBytes = new LongAdder();
+        final LongAdder tokens = new LongAdder();
+        final LongAdder nodes = new LongAdder();
+
+        void reset() {
+            calls.reset();
+            wallNanos.reset();
+            cpuNanos.reset();
+            allocatedBytes.reset();
+            tokens.reset();
+            nodes.reset();
+        }
+    }
+}
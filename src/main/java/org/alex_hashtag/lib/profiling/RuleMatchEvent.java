@@ -0,0 +1,38 @@
+package org.alex_hashtag.lib.profiling;
+
+import jdk.jfr.*;
+
+/**
+ * JFR event summarizing how one regex token rule fared on one file: how often it was tried,
+ * how often it matched and how long matching took in total. One event per rule and file rather
+ * than per attempt, so a recording stays small even for large inputs. Disabled by default;
+ * while disabled the tokenizer does not time the rules at all.
+ */
+@Name("org.alex_hashtag.RuleMatch")
+@Label("Token Rule Matches")
+@Category({"Rainforest", "Compiler"})
+@StackTrace(false)
+@Enabled(false)
+public final class RuleMatchEvent extends Event {
+
+    @Label("File")
+    public String file;
+
+    @Label("File Size")
+    @DataAmount
+    public long bytes;
+
+    @Label("Rule")
+    public String rule;
+
+    @Label("Attempts")
+    public long attempts;
+
+    @Label("Tokens")
+    @Description("Attempts that matched, i.e. tokens the rule produced or competed for")
+    public long tokens;
+
+    @Label("Match Time")
+    @Timespan(Timespan.NANOSECONDS)
+    public long matchTime;
+}
@@ -0,0 +1,28 @@
+package org.alex_hashtag.lib.profiling;
+
+import jdk.jfr.*;
+
+/**
+ * JFR event for tokenizing one file.
+ * <p>
+ * Like the other hot-path events it is disabled by default, so a build without a recording pays
+ * only for an allocation the JIT removes. Enable it in the {@code .jfc} settings passed to
+ * {@code -XX:StartFlightRecording:settings=...}.
+ */
+@Name("org.alex_hashtag.Tokenize")
+@Label("Tokenize File")
+@Category({"Rainforest", "Compiler"})
+@StackTrace(false)
+@Enabled(false)
+public final class TokenizeEvent extends Event {
+
+    @Label("File")
+    public String file;
+
+    @Label("File Size")
+    @DataAmount
+    public long bytes;
+
+    @Label("Tokens")
+    public long tokens;
+}
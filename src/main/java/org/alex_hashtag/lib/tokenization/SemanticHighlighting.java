@@ -0,0 +1,298 @@
+package org.alex_hashtag.lib.tokenization;
+
+import org.alex_hashtag.lib.results.Option;
+
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * Syntax highlighting of a {@link TokenList} in the semantic-token format of the Language Server
+ * Protocol: five ints per highlighted token, its line and start column relative to the previous
+ * token, its length, its {@link Type} and its modifier bits. Tokens that span lines, like block
+ * comments and multi-line strings, are split into one entry per line.
+ * <p>
+ * The tokenizer records the highlighting of every token and where the lines start while it runs,
+ * so encoding only reads primitive arrays and never looks at the {@link Token} records:
+ * <pre>
+ *   int[] data = SemanticHighlighting.encode(tokens);                // the whole file
+ *   int[] visible = SemanticHighlighting.encode(tokens, 100, 160);   // lines [100, 160) only
+ *   List&lt;Edit&gt; edits = SemanticHighlighting.delta(data, SemanticHighlighting.encode(edited));
+ * </pre>
+ * Callers that know more than the tokens, e.g. which names are functions, start from
+ * {@link #types(TokenList)}, refine the identifiers and encode with their own types and modifiers.
+ */
+public final class SemanticHighlighting
+{
+    /// The type of tokens that are not highlighted: delimiters, line breaks, Start, End and invalid characters.
+    public static final int NONE = -1;
+
+    private static final int INTS_PER_TOKEN = 5;
+
+    /**
+     * The token types, in legend order: the number written for a type is its ordinal.
+     * {@link #TYPE}, {@link #FUNCTION} and {@link #ENUM_MEMBER} are never found from the tokens
+     * alone; they are there for callers that refine identifiers.
+     */
+    public enum Type
+    {
+        KEYWORD("keyword"),
+        COMMENT("comment"),
+        STRING("string"),
+        NUMBER("number"),
+        OPERATOR("operator"),
+        MACRO("macro"),
+        DECORATOR("decorator"),
+        TYPE("type"),
+        FUNCTION("function"),
+        VARIABLE("variable"),
+        ENUM_MEMBER("enumMember");
+
+        private final String legendName;
+
+        Type(String legendName)
+        {
+            this.legendName = legendName;
+        }
+
+        /**
+         * @return the name of the type in the protocol's legend.
+         */
+        public String legendName()
+        {
+            return legendName;
+        }
+
+        /**
+         * @param subtype the type of a {@link TokenPrototype.Literal} rule, e.g. {@code "integer"}.
+         */
+        public static Type ofLiteral(String subtype)
+        {
+            return switch (subtype)
+            {
+                case "integer", "float", "number" -> NUMBER;
+                case "boolean", "null" -> KEYWORD;
+                default -> STRING;
+            };
+        }
+
+        /**
+         * @param subtype the type of a {@link TokenPrototype.Identifier} rule, e.g. {@code "macro"}.
+         */
+        public static Type ofIdentifier(String subtype)
+        {
+            return switch (subtype)
+            {
+                case "macro" -> MACRO;
+                case "annotation" -> DECORATOR;
+                default -> VARIABLE;
+            };
+        }
+    }
+
+    /**
+     * One edit of an encoded array: replace {@code deleteCount} ints at {@code start} with {@code data}.
+     */
+    public record Edit(int start, int deleteCount, int[] data)
+    {
+    }
+
+    private SemanticHighlighting()
+    {
+    }
+
+    /**
+     * @return the legend names of every {@link Type}, in legend order.
+     */
+    public static List<String> legend()
+    {
+        return Arrays.stream(Type.values()).map(Type::legendName).toList();
+    }
+
+    /**
+     * @return the type of a token record, or none if it is not highlighted.
+     */
+    public static Option<Type> typeOf(Token token)
+    {
+        return switch (token)
+        {
+            case Token.Keyword ignored -> Option.some(Type.KEYWORD);
+            case Token.Operator ignored -> Option.some(Type.OPERATOR);
+            case Token.Comment ignored -> Option.some(Type.COMMENT);
+            case Token.Literal literal -> Option.some(Type.ofLiteral(literal.type()));
+            case Token.Identifier identifier -> Option.some(Type.ofIdentifier(identifier.type()));
+            case Token.Delimiter ignored -> Option.none();
+            case Token.Start ignored -> Option.none();
+            case Token.End ignored -> Option.none();
+            case Token.NewLine ignored -> Option.none();
+            case Token.Invalid ignored -> Option.none();
+        };
+    }
+
+    /**
+     * @return the type ordinal of every token, or {@link #NONE}; a fresh array the caller may refine.
+     */
+    public static int[] types(TokenList tokens)
+    {
+        int[] types = new int[tokens.size()];
+        for (int i = 0; i < types.length; i++)
+            types[i] = tokens.highlight(i);
+        return types;
+    }
+
+    /**
+     * @return the highlighting of the whole file.
+     */
+    public static int[] encode(TokenList tokens)
+    {
+        return encode(tokens, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param fromLine the first 0-based line to highlight.
+     * @param toLine   the 0-based line after the last one to highlight.
+     * @return the highlighting of the lines in {@code [fromLine, toLine)}, encoded relative to line 0
+     * like that of the whole file.
+     */
+    public static int[] encode(TokenList tokens, int fromLine, int toLine)
+    {
+        return encode(tokens, null, null, fromLine, toLine);
+    }
+
+    /**
+     * Like {@link #encode(TokenList, int, int)}, with the types and modifiers of the caller.
+     *
+     * @param types     a type ordinal or {@link #NONE} per token, or null for those of {@link #types(TokenList)}.
+     * @param modifiers modifier bits per token, or null for none.
+     */
+    public static int[] encode(TokenList tokens, int[] types, int[] modifiers, int fromLine, int toLine)
+    {
+        String source = tokens.getSource();
+        int lines = tokens.lineCount();
+        int from = fromLine <= 0 ? 0 : fromLine < lines ? tokens.lineStart(fromLine) : source.length();
+        int to = toLine < lines ? tokens.lineStart(Math.max(toLine, 0)) : source.length() + 1;
+
+        int first = firstTokenOf(tokens, fromLine);
+
+        // Room for every token of a whole file; a range starts small and grows
+        boolean whole = from == 0 && to > source.length();
+        int[] data = new int[INTS_PER_TOKEN * (whole ? tokens.size() + 1 : 64)];
+        int size = 0;
+        int previousLine = 0;
+        int previousColumn = 0;
+        int line = first < tokens.size() ? lineOf(tokens, tokens.start(first)) : 0;
+        for (int i = first; i < tokens.size() && tokens.start(i) < to; i++)
+        {
+            int type = types == null ? tokens.highlight(i) : types[i];
+            int start = tokens.start(i);
+            int end = tokens.end(i);
+            if (type == NONE || start == end)
+                continue;
+            while (line + 1 < lines && tokens.lineStart(line + 1) <= start)
+                line++;
+
+            // One entry per line the token covers; the protocol's tokens cannot span lines
+            int pieceLine = line;
+            int pieceStart = start;
+            while (true)
+            {
+                int lineEnd = pieceLine + 1 < lines ? tokens.lineStart(pieceLine + 1) - 1 : source.length();
+                int pieceEnd = Math.min(end, lineEnd);
+                if (pieceEnd > pieceStart && pieceLine >= fromLine && pieceLine < toLine)
+                {
+                    if (size + INTS_PER_TOKEN > data.length)
+                        data = Arrays.copyOf(data, data.length * 2);
+                    int column = pieceStart - tokens.lineStart(pieceLine);
+                    data[size++] = pieceLine - previousLine;
+                    data[size++] = pieceLine == previousLine ? column - previousColumn : column;
+                    data[size++] = pieceEnd - pieceStart;
+                    data[size++] = type;
+                    data[size++] = modifiers == null ? 0 : modifiers[i];
+                    previousLine = pieceLine;
+                    previousColumn = column;
+                }
+                if (end <= lineEnd)
+                    break;
+                pieceStart = lineEnd + 1;
+                pieceLine++;
+            }
+        }
+        return Arrays.copyOf(data, size);
+    }
+
+    /**
+     * The edits that turn the highlighting of one version of a file into that of the next: a single
+     * replacement between the tokens both have in common at the start and at the end. An edit
+     * usually shifts the relative position of one token only, so this is small for typing.
+     *
+     * @return no edit if both are equal.
+     */
+    public static List<Edit> delta(int[] previous, int[] current)
+    {
+        int shorter = Math.min(previous.length, current.length);
+        int prefix = 0;
+        while (prefix + INTS_PER_TOKEN <= shorter
+                && Arrays.equals(previous, prefix, prefix + INTS_PER_TOKEN, current, prefix, prefix + INTS_PER_TOKEN))
+            prefix += INTS_PER_TOKEN;
+        if (prefix == previous.length && prefix == current.length)
+            return List.of();
+
+        int suffix = 0;
+        while (prefix + suffix + INTS_PER_TOKEN <= shorter
+                && Arrays.equals(
+                previous, previous.length - suffix - INTS_PER_TOKEN, previous.length - suffix,
+                current, current.length - suffix - INTS_PER_TOKEN, current.length - suffix))
+            suffix += INTS_PER_TOKEN;
+
+        return List.of(new Edit(prefix,
+                previous.length - prefix - suffix,
+                Arrays.copyOfRange(current, prefix, current.length - suffix)));
+    }
+
+    /**
+     * @param line a 0-based line; lines past the end of the file are allowed.
+     * @return the index of the first token on the line, or of the one spanning into it; the number
+     * of tokens if there is none.
+     */
+    public static int firstTokenOf(TokenList tokens, int line)
+    {
+        int lines = tokens.lineCount();
+        int from = line <= 0 ? 0 : line < lines ? tokens.lineStart(line) : tokens.getSource().length();
+        int first = firstStartingAt(tokens, from);
+        if (first > 0 && tokens.end(first - 1) > from)
+            first--;
+        return first;
+    }
+
+    /// @return the index of the first token starting at or after `offset`, or the number of tokens.
+    private static int firstStartingAt(TokenList tokens, int offset)
+    {
+        int low = 0;
+        int high = tokens.size();
+        while (low < high)
+        {
+            int middle = (low + high) >>> 1;
+            if (tokens.start(middle) < offset)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+    /// @return the 0-based line of an offset.
+    private static int lineOf(TokenList tokens, int offset)
+    {
+        int low = 0;
+        int high = tokens.lineCount() - 1;
+        while (low < high)
+        {
+            int middle = (low + high + 1) >>> 1;
+            if (tokens.lineStart(middle) <= offset)
+                low = middle;
+            else
+                high = middle - 1;
+        }
+        return low;
+    }
+}
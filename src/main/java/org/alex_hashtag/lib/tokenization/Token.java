@@ -39,8 +39,32 @@ public sealed interface Token
         }
     }
 
-    record Literal(Coordinates position, String type, String value) implements Token
+    /**
+     * A literal. Numeric literals normalized by {@link TokenTransformations} also carry their parsed
+     * value in {@code bits}, so later phases do not parse the text again.
+     */
+    record Literal(Coordinates position, String type, String value, Numeric numeric, long bits) implements Token
     {
+        /// What {@code bits} holds.
+        public enum Numeric
+        {
+            NONE,
+            LONG,
+            DOUBLE
+        }
+
+        public Literal(Coordinates position, String type, String value) {
+            this(position, type, value, Numeric.NONE, 0);
+        }
+
+        public static Literal ofLong(Coordinates position, String type, String value, long number) {
+            return new Literal(position, type, value, Numeric.LONG, number);
+        }
+
+        public static Literal ofDouble(Coordinates position, String type, String value, double number) {
+            return new Literal(position, type, value, Numeric.DOUBLE, Double.doubleToRawLongBits(number));
+        }
+
         @Override
         public String toString() {
             return "Literal (" + type + "): " + value;
@@ -49,6 +73,32 @@ public sealed interface Token
         public String getValue() {
             return value;
         }
+
+        public boolean isLong() {
+            return numeric == Numeric.LONG;
+        }
+
+        /**
+         * @throws IllegalStateException if the literal is not an integer that fits in a long.
+         */
+        public long longValue() {
+            if (numeric != Numeric.LONG)
+                throw new IllegalStateException(this + " has no long value");
+            return bits;
+        }
+
+        public boolean isDouble() {
+            return numeric == Numeric.DOUBLE;
+        }
+
+        /**
+         * @throws IllegalStateException if the literal is not a parsed float.
+         */
+        public double doubleValue() {
+            if (numeric != Numeric.DOUBLE)
+                throw new IllegalStateException(this + " has no double value");
+            return Double.longBitsToDouble(bits);
+        }
     }
 
     record Identifier(Coordinates position, String type, String value) implements Token
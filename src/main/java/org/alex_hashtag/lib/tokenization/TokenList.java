@@ -1,5 +1,11 @@
 package org.alex_hashtag.lib.tokenization;
 
+import org.alex_hashtag.lib.cancellation.CancellationToken;
+import org.alex_hashtag.lib.cancellation.CancelledException;
+import org.alex_hashtag.lib.profiling.Phase;
+import org.alex_hashtag.lib.profiling.PhaseTimer;
+import org.alex_hashtag.lib.profiling.RuleMatchEvent;
+import org.alex_hashtag.lib.profiling.TokenizeEvent;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.*;
@@ -17,10 +23,21 @@ public class TokenList implements Iterable<Token>
 {
 
     private final List<Token> tokens;
-
-    private TokenList(List<Token> tokens)
+    private final String source;
+    /// Where each token is in {@link #source}: its start and end offset, two ints per token.
+    private final int[] spans;
+    /// The {@link SemanticHighlighting.Type} of each token's rule, or {@link SemanticHighlighting#NONE}.
+    private final byte[] highlights;
+    /// The offset in {@link #source} where each line starts.
+    private final int[] lineStarts;
+
+    private TokenList(List<Token> tokens, String source, Layout layout)
     {
         this.tokens = Collections.unmodifiableList(tokens);
+        this.source = source;
+        this.spans = Arrays.copyOf(layout.spans, 2 * layout.tokens);
+        this.highlights = Arrays.copyOf(layout.highlights, layout.tokens);
+        this.lineStarts = Arrays.copyOf(layout.lineStarts, layout.lines);
     }
 
     /**
@@ -31,22 +48,81 @@ public class TokenList implements Iterable<Token>
      */
     public static TokenList create(String input, TokenRules rules, TokenPostProcessor postProcessor)
     {
-        List<Token> rawTokens = tokenize(input, rules);
-        List<Token> processedTokens = applyPostProcessing(rawTokens, postProcessor);
-        return new TokenList(processedTokens);
+        return create(input, rules, postProcessor, null);
+    }
+
+    /**
+     * Same as {@link #create(String, TokenRules, TokenPostProcessor)}; the file name only labels
+     * timings and JFR events.
+     */
+    public static TokenList create(String input, TokenRules rules, TokenPostProcessor postProcessor, String fileName)
+    {
+        return create(input, rules, postProcessor, fileName, CancellationToken.NONE);
+    }
+
+    /**
+     * Same as {@link #create(String, TokenRules, TokenPostProcessor, String)}, but gives up as soon
+     * as {@code cancellation} is cancelled or its deadline passes.
+     *
+     * @throws CancelledException if it gave up; nothing of the partial list is kept.
+     */
+    public static TokenList create(String input,
+                                   TokenRules rules,
+                                   TokenPostProcessor postProcessor,
+                                   String fileName,
+                                   CancellationToken cancellation)
+    {
+        TokenizeEvent event = new TokenizeEvent();
+        event.begin();
+
+        // Line endings are normalized first, so offsets and columns agree with the tokens
+        String source = input.replace("\r\n", "\n").replace("\r", "\n");
+        Layout layout = new Layout();
+        List<Token> rawTokens;
+        try (PhaseTimer.Scope scope = PhaseTimer.get().start(Phase.TOKENIZE, fileName))
+        {
+            rawTokens = tokenize(source, rules, fileName, layout, cancellation);
+            scope.tokens(rawTokens.size());
+        }
+
+        List<Token> processedTokens;
+        try (PhaseTimer.Scope scope = PhaseTimer.get().start(Phase.POST_PROCESS, fileName))
+        {
+            processedTokens = applyPostProcessing(rawTokens, postProcessor, cancellation);
+            scope.tokens(processedTokens.size());
+        }
+
+        event.end();
+        if (event.shouldCommit())
+        {
+            event.file = fileName;
+            event.bytes = input.length();
+            event.tokens = processedTokens.size();
+            event.commit();
+        }
+        return new TokenList(processedTokens, source, layout);
     }
 
     // ==================================================
     // =============== TOKENIZATION LOGIC ===============
     // ==================================================
 
-    private static List<Token> tokenize(String input, TokenRules rules)
+    /**
+     * The prototypes of a {@link TokenRules}, with their patterns compiled and in match order.
+     * Immutable, so one instance serves every tokenization with the same rules.
+     */
+    record Compiled(List<InternalProto> prototypes, boolean hasStart, boolean hasEnd)
     {
-        // 1) Normalize line endings
-        input = input.replace("\r\n", "\n").replace("\r", "\n");
+    }
 
-        // 2) We'll store everything (except Start/End/NewLine) in a single list
-        //    so we can do "longest match" among all prototypes
+    /**
+     * Compiles the regex prototypes of {@code rules} and sorts them for matching. Done once per
+     * {@link TokenRules} instead of once per file.
+     */
+    static Compiled compile(TokenRules rules)
+    {
+        // We'll store everything (except Start/End/NewLine) in a single list
+        // so we can do "longest match" among all prototypes
         List<InternalProto> protoList = new ArrayList<>();
         // We'll keep track of whether we have Start/End in the prototypes
         boolean hasStart = false;
@@ -95,8 +171,8 @@ public class TokenList implements Iterable<Token>
             }
         }
 
-        // 3) If rules.longestMatchFirst, we want prototypes that match longer strings first.
-        //    We'll apply a custom comparator:
+        // If rules.longestMatchFirst, we want prototypes that match longer strings first.
+        // We'll apply a custom comparator:
         if (rules.longestMatchFirst)
         {
             protoList.sort((a, b) ->
@@ -125,12 +201,30 @@ public class TokenList implements Iterable<Token>
             });
         }
 
+        return new Compiled(List.copyOf(protoList), hasStart, hasEnd);
+    }
+
+    /// Tokenizes `input`, whose line endings are already normalized, recording the offsets and
+    /// highlighting of every token, and where lines start, in `layout`.
+    private static List<Token> tokenize(String input,
+                                        TokenRules rules,
+                                        String fileName,
+                                        Layout layout,
+                                        CancellationToken cancellation)
+    {
+        // 1) The prototypes were compiled once, when the rules were built
+        Compiled compiled = rules.compiled;
+        List<InternalProto> protoList = compiled.prototypes();
+        boolean hasStart = compiled.hasStart();
+        boolean hasEnd = compiled.hasEnd();
+
         // 4) We'll produce tokens in a result list
         List<Token> result = new ArrayList<>();
         Coordinates startCoord = new Coordinates(0, 0);
         if (hasStart)
         {
             result.add(new Token.Start(startCoord));
+            layout.add(0, 0, SemanticHighlighting.NONE);
         }
 
         int line = 1;
@@ -138,8 +232,16 @@ public class TokenList implements Iterable<Token>
         int index = 0;
         int length = input.length();
 
+        // Per-rule statistics for RuleMatchEvent, only gathered while a recording wants them
+        boolean profileRules = new RuleMatchEvent().isEnabled();
+        long[] attempts = profileRules ? new long[protoList.size()] : null;
+        long[] matches = profileRules ? new long[protoList.size()] : null;
+        long[] matchNanos = profileRules ? new long[protoList.size()] : null;
+
+        int steps = 0;
         while (index < length)
         {
+            cancellation.checkpoint(++steps);
             char c = input.charAt(index);
 
             // Handle newlines explicitly
@@ -149,7 +251,9 @@ public class TokenList implements Iterable<Token>
                 if (rules.whitespaceMode != WhitespaceMode.IGNORE)
                 {
                     result.add(new Token.NewLine(new Coordinates(line, col)));
+                    layout.add(index, index + 1, SemanticHighlighting.NONE);
                 }
+                layout.newLine(index + 1);
                 line++;
                 col = 1;
                 index++;
@@ -177,14 +281,28 @@ public class TokenList implements Iterable<Token>
 
             // Now we do the "longest match among all prototypes" approach.
             // We'll collect all matches, pick the best.
-            BestMatch best = new BestMatch(-1, null, null);
+            BestMatch best = new BestMatch(-1, null, null, SemanticHighlighting.NONE);
 
-            for (InternalProto p : protoList)
+            for (int i = 0; i < protoList.size(); i++)
             {
-                MatchResult mr = p.match(input, index, line, col, rules.caseSensitive);
+                InternalProto p = protoList.get(i);
+                MatchResult mr;
+                if (profileRules && p.pattern != null)
+                {
+                    long start = System.nanoTime();
+                    mr = p.match(input, index, line, col, rules.caseSensitive);
+                    matchNanos[i] += System.nanoTime() - start;
+                    attempts[i]++;
+                    if (mr != null)
+                        matches[i]++;
+                }
+                else
+                {
+                    mr = p.match(input, index, line, col, rules.caseSensitive);
+                }
                 if (mr != null && mr.length > best.length)
                 {
-                    best = new BestMatch(mr.length, mr.token, p.type);
+                    best = new BestMatch(mr.length, mr.token, p.type, p.highlight);
                 }
                 else if (mr != null && mr.length == best.length)
                 {
@@ -196,7 +314,7 @@ public class TokenList implements Iterable<Token>
                                 && best.token instanceof Token.Operator opT
                                 && delT.value().equals(opT.value()))
                         {
-                            best = new BestMatch(mr.length, mr.token, p.type);
+                            best = new BestMatch(mr.length, mr.token, p.type, p.highlight);
                         }
                     }
                     // else keep the first match
@@ -205,15 +323,29 @@ public class TokenList implements Iterable<Token>
 
             if (best.token != null)
             {
-                // We got a match
+                // We got a match; it may span lines, like a block comment or a multi-line string
                 result.add(best.token);
-                index += best.length;
-                col += best.length;
+                int end = index + best.length;
+                layout.add(index, end, best.highlight);
+                for (; index < end; index++)
+                {
+                    if (input.charAt(index) == '\n')
+                    {
+                        layout.newLine(index + 1);
+                        line++;
+                        col = 1;
+                    }
+                    else
+                    {
+                        col++;
+                    }
+                }
             }
             else
             {
                 // No matches => invalid
                 result.add(new Token.Invalid(new Coordinates(line, col), String.valueOf(c)));
+                layout.add(index, index + 1, SemanticHighlighting.NONE);
                 index++;
                 col++;
             }
@@ -223,6 +355,25 @@ public class TokenList implements Iterable<Token>
         if (hasEnd)
         {
             result.add(new Token.End(endCoord));
+            layout.add(length, length, SemanticHighlighting.NONE);
+        }
+
+        if (profileRules)
+        {
+            for (int i = 0; i < protoList.size(); i++)
+            {
+                if (attempts[i] == 0)
+                    continue;
+                InternalProto p = protoList.get(i);
+                RuleMatchEvent event = new RuleMatchEvent();
+                event.file = fileName;
+                event.bytes = length;
+                event.rule = p.type + (p.literalType != null ? " " + p.literalType : "") + " " + p.pattern.pattern();
+                event.attempts = attempts[i];
+                event.tokens = matches[i];
+                event.matchTime = matchNanos[i];
+                event.commit();
+            }
         }
 
         return result;
@@ -231,11 +382,14 @@ public class TokenList implements Iterable<Token>
     /**
      * Applies the TokenPostProcessor transformations to the raw tokens.
      */
-    private static List<Token> applyPostProcessing(List<Token> rawTokens, TokenPostProcessor postProcessor)
+    private static List<Token> applyPostProcessing(List<Token> rawTokens,
+                                                   TokenPostProcessor postProcessor,
+                                                   CancellationToken cancellation)
     {
         List<Token> output = new ArrayList<>(rawTokens.size());
         for (Token t : rawTokens)
         {
+            cancellation.checkpoint(output.size() + 1);
             Token finalToken = t;
 
             if (t instanceof Token.Literal lit)
@@ -294,11 +448,86 @@ public class TokenList implements Iterable<Token>
     // ==================================================
 
     @Override
-    public @NotNull Iterator<Token> iterator()
+    public @NotNull LookAheadIterator iterator()
     {
         return new LookAheadIterator(tokens);
     }
 
+    /**
+     * @return an iterator over {@code tokens[from, to)} only; positions are relative to {@code from}.
+     */
+    public LookAheadIterator iterator(int from, int to)
+    {
+        return new LookAheadIterator(tokens.subList(from, to));
+    }
+
+    /**
+     * @return the number of tokens, including Start and End if the rules produce them.
+     */
+    public int size()
+    {
+        return tokens.size();
+    }
+
+    /**
+     * @return the token at the given index.
+     */
+    public Token get(int index)
+    {
+        return tokens.get(index);
+    }
+
+    /**
+     * @return the source that was tokenized, with line endings normalized to {@code \n}.
+     */
+    public String getSource()
+    {
+        return source;
+    }
+
+    /**
+     * @return the offset in {@link #getSource()} of the first character of the token at the given index.
+     */
+    public int start(int index)
+    {
+        Objects.checkIndex(index, tokens.size());
+        return spans[2 * index];
+    }
+
+    /**
+     * @return the offset in {@link #getSource()} just after the token at the given index; equal to
+     * {@link #start(int)} for Start and End.
+     */
+    public int end(int index)
+    {
+        Objects.checkIndex(index, tokens.size());
+        return spans[2 * index + 1];
+    }
+
+    /// @return the highlighting of the rule that matched the token at the given index, or
+    /// [SemanticHighlighting#NONE].
+    int highlight(int index)
+    {
+        return highlights[index];
+    }
+
+    /**
+     * @return the number of lines of {@link #getSource()}; one more than its line breaks.
+     */
+    public int lineCount()
+    {
+        return lineStarts.length;
+    }
+
+    /**
+     * @param line a 0-based line.
+     * @return the offset in {@link #getSource()} of the first character of the line.
+     */
+    public int lineStart(int line)
+    {
+        return lineStarts[line];
+    }
+
     /**
      * Returns a list of all Invalid tokens in this TokenList.
      */
@@ -413,7 +642,7 @@ public class TokenList implements Iterable<Token>
     /**
      * An internal record that holds the best match info.
      */
-    private record BestMatch(int length, Token token, InternalProtoType type)
+    private record BestMatch(int length, Token token, InternalProtoType type, int highlight)
     {
     }
 
@@ -428,6 +657,7 @@ public class TokenList implements Iterable<Token>
         final String fixedString;   // for Keyword, Operator, Delimiter
         final String literalType;   // for Literal/Identifier
         final Pattern pattern;      // for Comment, Literal, Identifier
+        final byte highlight;       // the SemanticHighlighting.Type of the tokens, or NONE
 
         private InternalProto(InternalProtoType type, String fixedString, String literalType, Pattern pattern)
         {
@@ -435,6 +665,15 @@ public class TokenList implements Iterable<Token>
             this.fixedString = fixedString;
             this.literalType = literalType;
             this.pattern = pattern;
+            this.highlight = (byte) switch (type)
+            {
+                case KEYWORD -> SemanticHighlighting.Type.KEYWORD.ordinal();
+                case OPERATOR -> SemanticHighlighting.Type.OPERATOR.ordinal();
+                case COMMENT -> SemanticHighlighting.Type.COMMENT.ordinal();
+                case LITERAL -> SemanticHighlighting.Type.ofLiteral(literalType).ordinal();
+                case IDENTIFIER -> SemanticHighlighting.Type.ofIdentifier(literalType).ordinal();
+                case DELIMITER -> SemanticHighlighting.NONE;
+            };
         }
 
         static InternalProto keyword(String word, boolean caseSensitive)
@@ -535,10 +774,7 @@ public class TokenList implements Iterable<Token>
             String kw = this.fixedString;
             int len = kw.length();
 
-            if (index + len > input.length()) return null;
-            String chunk = input.substring(index, index + len);
-            if (!caseSensitive) chunk = chunk.toLowerCase(Locale.ROOT);
-            if (!chunk.equals(kw)) return null;
+            if (!input.regionMatches(!caseSensitive, index, kw, 0, len)) return null;
 
             // Boundary check if purely alphabetical
             if (isAlpha(kw))
@@ -566,9 +802,7 @@ public class TokenList implements Iterable<Token>
             String val = this.fixedString;
             int len = val.length();
 
-            if (index + len > input.length()) return null;
-            String chunk = input.substring(index, index + len);
-            if (!chunk.equals(val)) return null;
+            if (!input.startsWith(val, index)) return null;
 
             // If it's alphabetical (like "and"), boundary check
             if (isAlpha(val))
@@ -597,9 +831,10 @@ public class TokenList implements Iterable<Token>
         // --------------------------------------
         private MatchResult matchRegex(String input, int index, int line, int col)
         {
-            Matcher m = pattern.matcher(input.substring(index));
-            if (!m.find()) return null;
-            if (m.start() != 0) return null; // must start at index 0 of substring
+            // A region instead of a substring, so an attempt does not copy the rest of the input;
+            // with anchoring bounds the pattern's '^' matches at the region start
+            Matcher m = pattern.matcher(input).region(index, input.length());
+            if (!m.lookingAt()) return null;
 
             String matchedText = m.group();
             return switch (type)
@@ -619,12 +854,49 @@ public class TokenList implements Iterable<Token>
     {
     }
 
+    /// The offsets and highlighting of the tokens and the starts of the lines, as they are found.
+    private static final class Layout
+    {
+        int[] spans = new int[256];
+        byte[] highlights = new byte[128];
+        int tokens;
+        int[] lineStarts = new int[64];
+        int lines = 1; // The first line starts at 0
+
+        void add(int start, int end, int highlight)
+        {
+            if (tokens == highlights.length)
+            {
+                spans = Arrays.copyOf(spans, spans.length * 2);
+                highlights = Arrays.copyOf(highlights, highlights.length * 2);
+            }
+            spans[2 * tokens] = start;
+            spans[2 * tokens + 1] = end;
+            highlights[tokens++] = (byte) highlight;
+        }
+
+        void newLine(int start)
+        {
+            if (lines == lineStarts.length)
+                lineStarts = Arrays.copyOf(lineStarts, lines * 2);
+            lineStarts[lines++] = start;
+        }
+    }
+
     /**
      * Special iterator that supports lookAhead without consuming tokens.
+     * <p>
+     * The iterator is a cursor over the shared, unmodifiable token list: nothing is ever
+     * copied or removed. {@link #next()} moves a read position forward, {@link #remove()}
+     * commits everything read so far as consumed, and {@link #mark()} / {@link #commit()} /
+     * {@link #rollback()} allow nested speculative parsing. Every operation is O(1).
      */
     public static class LookAheadIterator implements Iterator<Token>
     {
         private int currentIndex = 0;
+        private int consumedIndex = 0;
+        private int[] marks = new int[8];
+        private int markDepth = 0;
         private final List<Token> tokens;
 
         public LookAheadIterator(List<Token> tokens) {
@@ -650,11 +922,63 @@ public class TokenList implements Iterable<Token>
             return tokens.get(idx);
         }
 
+        /**
+         * Consumes every token read so far. The tokens stay in the shared list; only the
+         * consumed boundary moves, so the next {@link #reset()} can no longer go back past them.
+         */
+        @Override
         public void remove() {
-            if (currentIndex == 0) {
+            if (currentIndex == consumedIndex) {
                 throw new IllegalStateException("No token to remove.");
             }
-            tokens.remove(--currentIndex);
+            consumedIndex = currentIndex;
+        }
+
+        /**
+         * Moves the read position back to the last consumed token, un-reading any tokens that
+         * were only peeked with {@link #next()} since the last {@link #remove()}.
+         */
+        public void reset() {
+            currentIndex = consumedIndex;
+        }
+
+        /**
+         * Remembers the current read position so a speculative parse can be undone.
+         * Every mark must be closed by exactly one {@link #commit()} or {@link #rollback()}.
+         */
+        public void mark() {
+            if (markDepth == marks.length) {
+                marks = Arrays.copyOf(marks, markDepth * 2);
+            }
+            marks[markDepth++] = currentIndex;
+        }
+
+        /**
+         * Accepts everything read since the matching {@link #mark()}.
+         */
+        public void commit() {
+            if (markDepth == 0) {
+                throw new IllegalStateException("commit() without a matching mark().");
+            }
+            markDepth--;
+        }
+
+        /**
+         * Returns to the position saved by the matching {@link #mark()}.
+         */
+        public void rollback() {
+            if (markDepth == 0) {
+                throw new IllegalStateException("rollback() without a matching mark().");
+            }
+            currentIndex = marks[--markDepth];
+            consumedIndex = Math.min(consumedIndex, currentIndex);
+        }
+
+        /**
+         * @return the index of the token the next call to {@link #next()} will return.
+         */
+        public int position() {
+            return currentIndex;
         }
     }
     // ================ END TOKENIZATION ================
@@ -9,6 +9,8 @@ public class TokenRules
     WhitespaceMode whitespaceMode;
     boolean longestMatchFirst;
     boolean caseSensitive;
+    /// Compiled once here, so rules kept in a constant are compiled once per process, or at image build time.
+    final TokenList.Compiled compiled;
 
     protected TokenRules(List<TokenPrototype> tokenPrototypes, WhitespaceMode whitespaceMode, boolean longestMatchFirst, boolean caseSensitive)
     {
@@ -16,6 +18,7 @@ public class TokenRules
         this.whitespaceMode = whitespaceMode;
         this.longestMatchFirst = longestMatchFirst;
         this.caseSensitive = caseSensitive;
+        this.compiled = TokenList.compile(this);
     }
 
     public static TokenRulesBuilder builder()
@@ -1,7 +1,6 @@
 package org.alex_hashtag.lib.tokenization;
 
 import java.math.BigInteger;
-import java.util.Locale;
 
 
 /**
@@ -15,83 +14,180 @@ public class TokenTransformations
 {
 
     /**
-     * Removes surrounding quotes from a string literal token.
-     * If the literal is a multi-line string (delimited by triple quotes),
-     * it also normalizes indentation.
+     * Decodes a string literal token: removes the surrounding quotes, removes the common
+     * indentation of a multi-line string (delimited by triple quotes) and its trailing whitespace,
+     * and decodes escape sequences: {@code \n}, {@code \t}, {@code \r}, {@code \"}, {@code \'},
+     * {@code \\}, and rune escapes, a backslash followed by {@code u} and 4 hex digits or by
+     * {@code U} and 8.
+     * <p>
+     * The text is read once to measure the indentation and once more to decode it into a single
+     * buffer, so even large embedded strings decode in linear time with one allocation for the
+     * result. Indentation is measured on the source, so an escaped {@code \n} does not start a line.
+     * Unknown or malformed escapes are kept as written.
+     *
+     * @param lit the literal token to transform; expected to be of type "string"
+     * @return a new {@link Token.Literal} holding the value of the string.
+     */
+    public static Token.Literal decodeString(Token.Literal lit)
+    {
+        return decodeString(lit, true);
+    }
+
+    /**
+     * Like {@link #decodeString(Token.Literal)}, without decoding escape sequences.
      *
      * @param lit the literal token to transform; expected to be of type "string"
      * @return a new {@link Token.Literal} with quotes removed and indentation normalized.
      */
     public static Token.Literal unquoteAndTrimIndentation(Token.Literal lit)
+    {
+        return decodeString(lit, false);
+    }
+
+    /**
+     * Decodes the escape sequences of an already unquoted string literal token, left to right,
+     * as {@link #decodeString(Token.Literal)} does.
+     *
+     * @param lit the literal token to transform; expected to be of type "string"
+     * @return a new {@link Token.Literal} with escape sequences replaced.
+     */
+    public static Token.Literal processEscapeSequences(Token.Literal lit)
     {
         String value = lit.value();
-        String unquoted;
-        if (value.startsWith("\"\"\""))
+        return new Token.Literal(lit.position(), lit.type(), decode(value, 0, value.length(), 0, true));
+    }
+
+    private static Token.Literal decodeString(Token.Literal lit, boolean escapes)
+    {
+        String value = lit.value();
+        String decoded;
+        if (value.length() >= 6 && value.startsWith("\"\"\""))
         {
-            // Multi-line string: remove triple quotes and normalize indentation.
-            unquoted = value.substring(3, value.length() - 3);
-            unquoted = removeCommonIndentation(unquoted);
+            int start = 3;
+            int end = value.length() - 3;
+            while (end > start && Character.isWhitespace(value.charAt(end - 1)))
+                end--;
+            decoded = decode(value, start, end, commonIndentation(value, start, end), escapes);
         }
-        else if (value.startsWith("\""))
+        else if (value.length() >= 2 && value.startsWith("\""))
         {
-            // Single-line string: remove surrounding quotes.
-            unquoted = value.substring(1, value.length() - 1);
+            decoded = decode(value, 1, value.length() - 1, 0, escapes);
         }
         else
         {
-            unquoted = value;
+            decoded = escapes ? decode(value, 0, value.length(), 0, true) : value;
         }
-        return new Token.Literal(lit.position(), lit.type(), unquoted);
+        return new Token.Literal(lit.position(), lit.type(), decoded);
     }
 
-    /**
-     * Processes escape sequences in a string literal token,
-     * converting sequences like \n, \t, \\, and \" into their actual characters.
-     *
-     * @param lit the literal token to transform; expected to be of type "string"
-     * @return a new {@link Token.Literal} with escape sequences replaced.
-     */
-    public static Token.Literal processEscapeSequences(Token.Literal lit)
+    /// The fewest leading whitespace characters of the non-blank lines in `text[start, end)`.
+    private static int commonIndentation(String text, int start, int end)
     {
-        String value = lit.value();
-        String processed = value
-                .replace("\\n", "\n")
-                .replace("\\t", "\t")
-                .replace("\\r", "\r")
-                .replace("\\\"", "\"")
-                .replace("\\\\", "\\");
-        return new Token.Literal(lit.position(), lit.type(), processed);
+        int common = Integer.MAX_VALUE;
+        int indent = 0;
+        boolean leading = true;
+        for (int i = start; i < end; i++)
+        {
+            char c = text.charAt(i);
+            if (c == '\n')
+            {
+                indent = 0;
+                leading = true;
+            }
+            else if (leading && Character.isWhitespace(c))
+            {
+                indent++;
+            }
+            else if (leading)
+            {
+                common = Math.min(common, indent);
+                leading = false;
+            }
+        }
+        return common == Integer.MAX_VALUE ? 0 : common;
     }
 
     /**
-     * Removes common leading indentation from all non-blank lines of the provided text.
-     * Used for normalizing multi-line string literals.
-     *
-     * @param text the multi-line string (without surrounding triple quotes)
-     * @return the text with common indentation removed.
+     * Copies {@code text[start, end)} into one buffer, skipping {@code indent} characters at the start
+     * of every line long enough to have them, and decoding escapes if asked to. The result is never
+     * longer than the source.
      */
-    public static String removeCommonIndentation(String text)
+    private static String decode(String text, int start, int end, int indent, boolean escapes)
     {
-        String[] lines = text.split("\n");
-        int minIndent = Integer.MAX_VALUE;
-        for (String line : lines)
+        char[] out = new char[end - start];
+        int length = 0;
+        int i = skipIndentation(text, start, end, indent);
+        while (i < end)
         {
-            if (!line.isBlank())
+            char c = text.charAt(i);
+            if (c == '\n')
+            {
+                out[length++] = c;
+                i = skipIndentation(text, i + 1, end, indent);
+                continue;
+            }
+            if (c != '\\' || !escapes || i + 1 >= end)
+            {
+                out[length++] = c;
+                i++;
+                continue;
+            }
+
+            char escaped = text.charAt(i + 1);
+            switch (escaped)
             {
-                int indent = line.length() - line.stripLeading().length();
-                if (indent < minIndent)
+                case 'n' -> out[length++] = '\n';
+                case 't' -> out[length++] = '\t';
+                case 'r' -> out[length++] = '\r';
+                case '"', '\'', '\\' -> out[length++] = escaped;
+                case 'u', 'U' ->
                 {
-                    minIndent = indent;
+                    int digits = escaped == 'u' ? 4 : 8;
+                    int codePoint = hex(text, i + 2, i + 2 + digits, end);
+                    if (codePoint < 0 || !Character.isValidCodePoint(codePoint))
+                    {
+                        out[length++] = c; // Malformed: keep the backslash, the rest follows as text
+                        i++;
+                        continue;
+                    }
+                    length += Character.toChars(codePoint, out, length);
+                    i += digits;
+                }
+                default ->
+                {
+                    out[length++] = c;
+                    i++;
+                    continue;
                 }
             }
+            i += 2;
         }
-        StringBuilder sb = new StringBuilder();
-        for (String line : lines)
+        return new String(out, 0, length);
+    }
+
+    /// Skips `indent` characters at a line start, unless the line is shorter than that.
+    private static int skipIndentation(String text, int lineStart, int end, int indent)
+    {
+        for (int i = lineStart; i < lineStart + indent; i++)
+            if (i >= end || text.charAt(i) == '\n')
+                return lineStart;
+        return lineStart + indent;
+    }
+
+    /// The value of the hex digits in `text[from, to)`, or -1 if they run past `end` or are not hex.
+    private static int hex(String text, int from, int to, int end)
+    {
+        if (to > end)
+            return -1;
+        long value = 0;
+        for (int i = from; i < to; i++)
         {
-            sb.append(line.length() >= minIndent ? line.substring(minIndent) : line)
-                    .append("\n");
+            int digit = Character.digit(text.charAt(i), 16);
+            if (digit < 0)
+                return -1;
+            value = value * 16 + digit;
         }
-        return sb.toString().stripTrailing();
+        return value > Integer.MAX_VALUE ? -1 : (int) value;
     }
 
     /**
@@ -122,29 +218,66 @@ public class TokenTransformations
      * - Removes underscores.
      * - Parses the number (handling hexadecimal, binary, and octal formats)
      * - Returns its decimal (base-10) representation.
+     * <p>
+     * Values that fit in a long are parsed straight from the characters of the literal, and a
+     * decimal literal without underscores keeps its text, so the common case allocates nothing but
+     * the token. The value is stored on the token ({@link Token.Literal#longValue()}); only wider
+     * literals go through {@link BigInteger} and carry text alone. Leading zeros are dropped from
+     * the text, so {@code 007} becomes {@code 7}.
      *
      * @param lit the literal token to transform; expected to be of type "integer"
      * @return a new {@link Token.Literal} with the integer in decimal form.
+     * @throws NumberFormatException if the literal has no digits or a digit outside its base.
      */
     public static Token.Literal normalizeInteger(Token.Literal lit)
     {
-        String raw = lit.value().replace("_", "");
-        int base = 10;
-        if (raw.startsWith("0x") || raw.startsWith("0X"))
-        {
-            base = 16;
-            raw = raw.substring(2);
-        }
-        else if (raw.startsWith("0b") || raw.startsWith("0B"))
+        String raw = lit.value();
+        int base = radix(raw);
+        int start = base == 10 ? 0 : 2;
+        boolean canonical = base == 10 && (raw.length() == 1 || raw.charAt(0) != '0');
+        boolean hasDigits = false;
+        long value = 0;
+        for (int i = start; i < raw.length(); i++)
         {
-            base = 2;
-            raw = raw.substring(2);
+            char c = raw.charAt(i);
+            if (c == '_')
+            {
+                canonical = false;
+                continue;
+            }
+            int digit = Character.digit(c, base);
+            if (digit < 0)
+                throw new NumberFormatException("Invalid digit '" + c + "' in integer literal: " + raw);
+            if (value > (Long.MAX_VALUE - digit) / base)
+                return normalizeWideInteger(lit, base);
+            value = value * base + digit;
+            hasDigits = true;
         }
-        else if (raw.startsWith("0o") || raw.startsWith("0O"))
+        if (!hasDigits)
+            throw new NumberFormatException("Integer literal without digits: " + raw);
+        String normalized = canonical ? raw : Long.toString(value);
+        return Token.Literal.ofLong(lit.position(), lit.type(), normalized, value);
+    }
+
+    /// 10, or the base a `0x`, `0b` or `0o` prefix selects.
+    private static int radix(String raw)
+    {
+        if (raw.length() < 2 || raw.charAt(0) != '0')
+            return 10;
+        return switch (raw.charAt(1))
         {
-            base = 8;
+            case 'x', 'X' -> 16;
+            case 'b', 'B' -> 2;
+            case 'o', 'O' -> 8;
+            default -> 10;
+        };
+    }
+
+    private static Token.Literal normalizeWideInteger(Token.Literal lit, int base)
+    {
+        String raw = lit.value().replace("_", "");
+        if (base != 10)
             raw = raw.substring(2);
-        }
         BigInteger bi = new BigInteger(raw, base);
         String normalized = bi.toString(10);
         return new Token.Literal(lit.position(), lit.type(), normalized);
@@ -153,19 +286,23 @@ public class TokenTransformations
     /**
      * Normalizes a float literal token:
      * - Removes underscores.
-     * - Parses the float value and formats it in scientific notation.
+     * - Parses the value and stores it on the token ({@link Token.Literal#doubleValue()}).
+     * <p>
+     * The text keeps every digit that was written, so types wider than a double can still read the
+     * literal exactly. A literal too large for a double keeps its text alone.
      *
      * @param lit the literal token to transform; expected to be of type "float"
-     * @return a new {@link Token.Literal} with the float in scientific notation.
+     * @return a new {@link Token.Literal} carrying the parsed value.
      */
     public static Token.Literal normalizeFloat(Token.Literal lit)
     {
-        String raw = lit.value().replace("_", "");
+        String raw = lit.value().indexOf('_') < 0 ? lit.value() : lit.value().replace("_", "");
         try
         {
             double d = Double.parseDouble(raw);
-            String normalized = String.format(Locale.ROOT, "%e", d);
-            return new Token.Literal(lit.position(), lit.type(), normalized);
+            if (Double.isInfinite(d))
+                return new Token.Literal(lit.position(), lit.type(), raw);
+            return Token.Literal.ofDouble(lit.position(), lit.type(), raw, d);
         } catch (NumberFormatException e)
         {
             return lit;
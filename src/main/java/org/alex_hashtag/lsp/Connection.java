@@ -0,0 +1,150 @@
+package org.alex_hashtag.lsp;
+
+import org.alex_hashtag.lib.results.Option;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * The JSON-RPC transport of the Language Server Protocol: messages framed by a
+ * {@code Content-Length} header. Reading is done by a single thread; sending may happen from any
+ * thread, one message at a time.
+ */
+final class Connection
+{
+    private final InputStream in;
+    private final OutputStream out;
+
+    Connection(InputStream in, OutputStream out)
+    {
+        this.in = new BufferedInputStream(in);
+        this.out = out;
+    }
+
+    /**
+     * @return the next message, or none once the input is closed. A body that is not JSON is
+     * answered with a parse error, and one that is not an object with an invalid request error;
+     * either way reading goes on with the next message.
+     * @throws IOException if a message is not framed.
+     */
+    @SuppressWarnings("unchecked")
+    Option<Map<String, Object>> read() throws IOException
+    {
+        while (true)
+        {
+            Option<String> content = readContent();
+            if (content.isNone())
+                return Option.none();
+            Object message;
+            try
+            {
+                message = Json.parse(content.unwrap());
+            } catch (IllegalArgumentException e)
+            {
+                respondError(null, LanguageServer.PARSE_ERROR, "Invalid message: " + e.getMessage());
+                continue;
+            }
+            if (message instanceof Map<?, ?> object)
+                return Option.some((Map<String, Object>) object);
+            respondError(null, LanguageServer.INVALID_REQUEST, "A message must be a JSON object");
+        }
+    }
+
+    /// @return the body of the next frame, or none once the input is closed.
+    private Option<String> readContent() throws IOException
+    {
+        int length = -1;
+        while (true)
+        {
+            String header = readHeaderLine();
+            if (header == null)
+                return Option.none();
+            if (header.isEmpty())
+            {
+                if (length < 0)
+                    throw new IOException("Message without a Content-Length header");
+                break;
+            }
+            int colon = header.indexOf(':');
+            if (colon > 0 && header.substring(0, colon).trim().equalsIgnoreCase("Content-Length"))
+            {
+                try
+                {
+                    length = Integer.parseInt(header.substring(colon + 1).trim());
+                } catch (NumberFormatException e)
+                {
+                    throw new IOException("Invalid header: " + header);
+                }
+            }
+        }
+
+        byte[] content = in.readNBytes(length);
+        if (content.length < length)
+            return Option.none();
+        return Option.some(new String(content, StandardCharsets.UTF_8));
+    }
+
+    /// @return a header line without its line ending, "" for the blank line ending the headers,
+    /// or null at the end of the input.
+    private String readHeaderLine() throws IOException
+    {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(32);
+        int b;
+        while ((b = in.read()) != -1)
+        {
+            if (b == '\n')
+                return line.toString(StandardCharsets.US_ASCII);
+            if (b != '\r')
+                line.write(b);
+        }
+        return null;
+    }
+
+    void respond(Object id, Object result)
+    {
+        Map<String, Object> message = new LinkedHashMap<>();
+        message.put("jsonrpc", "2.0");
+        message.put("id", id);
+        message.put("result", result);
+        send(message);
+    }
+
+    void respondError(Object id, int code, String errorMessage)
+    {
+        Map<String, Object> message = new LinkedHashMap<>();
+        message.put("jsonrpc", "2.0");
+        message.put("id", id);
+        message.put("error", Map.of("code", code, "message", errorMessage));
+        send(message);
+    }
+
+    void notify(String method, Object params)
+    {
+        Map<String, Object> message = new LinkedHashMap<>();
+        message.put("jsonrpc", "2.0");
+        message.put("method", method);
+        message.put("params", params);
+        send(message);
+    }
+
+    synchronized void send(Map<String, Object> message)
+    {
+        byte[] content = Json.write(message).getBytes(StandardCharsets.UTF_8);
+        try
+        {
+            out.write(("Content-Length: " + content.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.write(content);
+            out.flush();
+        } catch (IOException e)
+        {
+            // The client is gone; the read loop will see the end of the input and stop
+        }
+    }
+}
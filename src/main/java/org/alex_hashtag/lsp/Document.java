@@ -0,0 +1,179 @@
+package org.alex_hashtag.lsp;
+
+import org.alex_hashtag.internal_representation.Expression.LazyBody;
+import org.alex_hashtag.lexer.LexModule;
+import org.alex_hashtag.lib.cancellation.CancellationToken;
+import org.alex_hashtag.lib.cancellation.CancelledException;
+import org.alex_hashtag.lib.errors.Diagnostic;
+import org.alex_hashtag.lib.errors.Diagnostics;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * One version of a document open in the editor.
+ * <p>
+ * Snapshots are immutable: an edit makes a new one, so a request still running against an older
+ * version keeps a consistent view. The header pass completes at most once per snapshot, the first
+ * time something needs the module; a cancelled pass leaves nothing behind. Function bodies are
+ * parsed only when diagnostics are computed.
+ */
+final class Document
+{
+    private final String uri;
+    private final int version;
+    private final String text;
+
+    private volatile Analysis analysis;
+
+    private record Analysis(LexModule module, List<Diagnostic> reported)
+    {
+    }
+
+    Document(String uri, int version, String text)
+    {
+        this.uri = uri;
+        this.version = version;
+        this.text = text;
+    }
+
+    String uri()
+    {
+        return uri;
+    }
+
+    int version()
+    {
+        return version;
+    }
+
+    String text()
+    {
+        return text;
+    }
+
+    /**
+     * Applies the {@code contentChanges} of a {@code didChange} notification in order. A change
+     * with a range replaces that range; one without replaces the whole text.
+     */
+    Document edit(int newVersion, List<?> changes)
+    {
+        StringBuilder edited = new StringBuilder(text);
+        for (Object change : changes)
+        {
+            Map<?, ?> edit = (Map<?, ?>) change;
+            String replacement = (String) edit.get("text");
+            if (edit.get("range") instanceof Map<?, ?> range)
+            {
+                int start = offset(edited, (Map<?, ?>) range.get("start"));
+                int end = offset(edited, (Map<?, ?>) range.get("end"));
+                edited.replace(start, Math.max(start, end), replacement);
+            }
+            else
+            {
+                edited.setLength(0);
+                edited.append(replacement);
+            }
+        }
+        return new Document(uri, newVersion, edited.toString());
+    }
+
+    /// @return the offset of an LSP position in `text`; positions past the end of a line or of
+    /// the text are clamped, as the protocol asks.
+    static int offset(CharSequence text, Map<?, ?> position)
+    {
+        int line = ((Number) position.get("line")).intValue();
+        int character = ((Number) position.get("character")).intValue();
+
+        int index = 0;
+        int length = text.length();
+        for (int current = 0; current < line && index < length; index++)
+        {
+            char c = text.charAt(index);
+            if (c == '\n' || (c == '\r' && (index + 1 >= length || text.charAt(index + 1) != '\n')))
+                current++;
+        }
+        int lineEnd = index;
+        while (lineEnd < length && text.charAt(lineEnd) != '\n' && text.charAt(lineEnd) != '\r')
+            lineEnd++;
+        return Math.min(index + character, lineEnd);
+    }
+
+    /**
+     * @return the header of this version: its token list, declarations and lazily parsed bodies.
+     */
+    LexModule module()
+    {
+        return module(CancellationToken.NONE);
+    }
+
+    /**
+     * Like {@link #module()}; if the header pass is cancelled, nothing is kept and the next call
+     * starts it again.
+     *
+     * @throws CancelledException if {@code cancellation} was cancelled before the pass was done.
+     */
+    LexModule module(CancellationToken cancellation)
+    {
+        return analysis(cancellation).module();
+    }
+
+    /**
+     * Parses every function body, then returns what the header pass and the bodies reported.
+     *
+     * @throws CancelledException if {@code cancellation} was cancelled first.
+     */
+    List<Diagnostic> diagnostics(CancellationToken cancellation)
+    {
+        Analysis analysis = analysis(cancellation);
+        for (LazyBody body : analysis.module().getBodies().values())
+        {
+            cancellation.throwIfCancelled();
+            body.get();
+        }
+        synchronized (analysis.reported())
+        {
+            return List.copyOf(analysis.reported());
+        }
+    }
+
+    private Analysis analysis(CancellationToken cancellation)
+    {
+        Analysis result = analysis;
+        if (result == null)
+        {
+            synchronized (this)
+            {
+                result = analysis;
+                if (result == null)
+                {
+                    List<Diagnostic> reported = Collections.synchronizedList(new ArrayList<>());
+                    LexModule module = LexModule.create(text, fileName(uri), new Diagnostics(reported::add), cancellation);
+                    result = new Analysis(module, reported);
+                    analysis = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /// @return the path of a `file:` URI, which is how the compiler names files, or the URI itself.
+    static String fileName(String uri)
+    {
+        try
+        {
+            URI parsed = URI.create(uri);
+            if ("file".equals(parsed.getScheme()))
+                return Path.of(parsed).toString();
+        } catch (IllegalArgumentException e)
+        {
+            // Not a file URI, so keep it as it is
+        }
+        return uri;
+    }
+}
@@ -0,0 +1,309 @@
+package org.alex_hashtag.lsp;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Just enough JSON for the language server. Objects are read into {@link Map}s, arrays into
+ * {@link List}s, numbers into {@link Long}s if they are integers and {@link Double}s otherwise;
+ * writing accepts the same types plus any other {@link Number}, {@code int[]} and {@code null}.
+ */
+final class Json
+{
+    private final String text;
+    private int index;
+
+    private Json(String text)
+    {
+        this.text = text;
+    }
+
+    /**
+     * @throws IllegalArgumentException if {@code text} is not a single JSON value.
+     */
+    static Object parse(String text)
+    {
+        Json json = new Json(text);
+        Object value = json.value();
+        json.skipWhitespace();
+        if (json.index != text.length())
+            throw json.error("Unexpected data after the value");
+        return value;
+    }
+
+    static String write(Object value)
+    {
+        StringBuilder out = new StringBuilder();
+        write(out, value);
+        return out.toString();
+    }
+
+    // ==================================================
+    // ===================== READING ====================
+    // ==================================================
+
+    private Object value()
+    {
+        skipWhitespace();
+        if (index >= text.length())
+            throw error("Unexpected end of input");
+        char c = text.charAt(index);
+        return switch (c)
+        {
+            case '{' -> object();
+            case '[' -> array();
+            case '"' -> string();
+            case 't' -> literal("true", Boolean.TRUE);
+            case 'f' -> literal("false", Boolean.FALSE);
+            case 'n' -> literal("null", null);
+            default ->
+            {
+                if (c == '-' || (c >= '0' && c <= '9'))
+                    yield number();
+                throw error("Unexpected character '" + c + "'");
+            }
+        };
+    }
+
+    private Map<String, Object> object()
+    {
+        Map<String, Object> object = new LinkedHashMap<>();
+        index++; // '{'
+        skipWhitespace();
+        if (peek() == '}')
+        {
+            index++;
+            return object;
+        }
+        while (true)
+        {
+            skipWhitespace();
+            if (peek() != '"')
+                throw error("Expected a member name");
+            String name = string();
+            skipWhitespace();
+            expect(':');
+            object.put(name, value());
+            skipWhitespace();
+            if (peek() == ',')
+            {
+                index++;
+                continue;
+            }
+            expect('}');
+            return object;
+        }
+    }
+
+    private List<Object> array()
+    {
+        List<Object> array = new ArrayList<>();
+        index++; // '['
+        skipWhitespace();
+        if (peek() == ']')
+        {
+            index++;
+            return array;
+        }
+        while (true)
+        {
+            array.add(value());
+            skipWhitespace();
+            if (peek() == ',')
+            {
+                index++;
+                continue;
+            }
+            expect(']');
+            return array;
+        }
+    }
+
+    private String string()
+    {
+        index++; // '"'
+        StringBuilder out = new StringBuilder();
+        while (true)
+        {
+            if (index >= text.length())
+                throw error("Unterminated string");
+            char c = text.charAt(index++);
+            if (c == '"')
+                return out.toString();
+            if (c != '\\')
+            {
+                out.append(c);
+                continue;
+            }
+            if (index >= text.length())
+                throw error("Unterminated escape");
+            char escape = text.charAt(index++);
+            switch (escape)
+            {
+                case '"', '\\', '/' -> out.append(escape);
+                case 'b' -> out.append('\b');
+                case 'f' -> out.append('\f');
+                case 'n' -> out.append('\n');
+                case 'r' -> out.append('\r');
+                case 't' -> out.append('\t');
+                case 'u' ->
+                {
+                    if (index + 4 > text.length())
+                        throw error("Truncated \\u escape");
+                    try
+                    {
+                        out.append((char) Integer.parseInt(text, index, index + 4, 16));
+                    } catch (NumberFormatException e)
+                    {
+                        throw error("Invalid \\u escape");
+                    }
+                    index += 4;
+                }
+                default -> throw error("Invalid escape '\\" + escape + "'");
+            }
+        }
+    }
+
+    private Number number()
+    {
+        int start = index;
+        boolean integral = true;
+        if (peek() == '-')
+            index++;
+        while (index < text.length())
+        {
+            char c = text.charAt(index);
+            if (c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-')
+                integral = false;
+            else if (c < '0' || c > '9')
+                break;
+            index++;
+        }
+        String number = text.substring(start, index);
+        try
+        {
+            return integral ? (Number) Long.parseLong(number) : (Number) Double.parseDouble(number);
+        } catch (NumberFormatException e)
+        {
+            throw error("Invalid number '" + number + "'");
+        }
+    }
+
+    private Object literal(String word, Object value)
+    {
+        if (!text.startsWith(word, index))
+            throw error("Expected '" + word + "'");
+        index += word.length();
+        return value;
+    }
+
+    private void skipWhitespace()
+    {
+        while (index < text.length())
+        {
+            char c = text.charAt(index);
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r')
+                return;
+            index++;
+        }
+    }
+
+    private char peek()
+    {
+        return index < text.length() ? text.charAt(index) : '\0';
+    }
+
+    private void expect(char c)
+    {
+        if (peek() != c)
+            throw error("Expected '" + c + "'");
+        index++;
+    }
+
+    private IllegalArgumentException error(String message)
+    {
+        return new IllegalArgumentException(message + " at offset " + index);
+    }
+
+    // ==================================================
+    // ===================== WRITING ====================
+    // ==================================================
+
+    private static void write(StringBuilder out, Object value)
+    {
+        switch (value)
+        {
+            case null -> out.append("null");
+            case String string -> quote(out, string);
+            case Boolean bool -> out.append(bool);
+            case Double number when !Double.isFinite(number) -> out.append("null");
+            case Number number -> out.append(number);
+            case int[] numbers ->
+            {
+                out.append('[');
+                for (int i = 0; i < numbers.length; i++)
+                {
+                    if (i > 0)
+                        out.append(',');
+                    out.append(numbers[i]);
+                }
+                out.append(']');
+            }
+            case Map<?, ?> object ->
+            {
+                out.append('{');
+                boolean first = true;
+                for (Map.Entry<?, ?> member : object.entrySet())
+                {
+                    if (!first)
+                        out.append(',');
+                    first = false;
+                    quote(out, String.valueOf(member.getKey()));
+                    out.append(':');
+                    write(out, member.getValue());
+                }
+                out.append('}');
+            }
+            case List<?> array ->
+            {
+                out.append('[');
+                for (int i = 0; i < array.size(); i++)
+                {
+                    if (i > 0)
+                        out.append(',');
+                    write(out, array.get(i));
+                }
+                out.append(']');
+            }
+            default -> throw new IllegalArgumentException("Cannot write " + value.getClass().getName() + " as JSON");
+        }
+    }
+
+    private static void quote(StringBuilder out, String value)
+    {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            switch (c)
+            {
+                case '"' -> out.append("\\\"");
+                case '\\' -> out.append("\\\\");
+                case '\n' -> out.append("\\n");
+                case '\r' -> out.append("\\r");
+                case '\t' -> out.append("\\t");
+                default ->
+                {
+                    if (c < 0x20)
+                        out.append(String.format("\\u%04x", (int) c));
+                    else
+                        out.append(c);
+                }
+            }
+        }
+        out.append('"');
+    }
+}
@@ -0,0 +1,501 @@
+package org.alex_hashtag.lsp;
+
+import org.alex_hashtag.buildSystem.Rainforest;
+import org.alex_hashtag.internal_representation.macros.Macro;
+import org.alex_hashtag.internal_representation.types.TypeHolder;
+import org.alex_hashtag.lexer.LexModule;
+import org.alex_hashtag.lexer.Prototype;
+import org.alex_hashtag.lib.cancellation.CancellationToken;
+import org.alex_hashtag.lib.cancellation.CancelledException;
+import org.alex_hashtag.lib.errors.Diagnostic;
+import org.alex_hashtag.lib.results.Option;
+import org.alex_hashtag.lib.tokenization.Coordinates;
+import org.alex_hashtag.lib.tokenization.SemanticHighlighting;
+import org.alex_hashtag.tokenizationOLD.CoordinatesOLD;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * A Language Server Protocol server over a pair of streams, usually standard input and output.
+ * <p>
+ * Open documents are kept as {@link Document} snapshots with their header pass, so requests are
+ * answered from memory: semantic tokens, diagnostics, document symbols and go-to-definition, the
+ * latter over the declarations of the whole workspace (see {@link Workspace}). The last semantic
+ * tokens sent for a document are kept, so the next request can be answered with an edit of them.
+ * <p>
+ * Messages are read on the calling thread, in order, and every request runs on its own virtual
+ * thread. A request is cancelled when the client sends {@code $/cancelRequest} or when its
+ * document changes before it is done; either way it is answered with an error at once, and its
+ * {@link CancellationToken} stops the header pass it may be running. Diagnostics are published a
+ * short while after the last change of a document, and a newer change cancels the run of an older one.
+ */
+public final class LanguageServer
+{
+    // JSON-RPC and LSP error codes
+    static final int PARSE_ERROR = -32700;
+    static final int INVALID_REQUEST = -32600;
+    static final int METHOD_NOT_FOUND = -32601;
+    static final int INVALID_PARAMS = -32602;
+    static final int INTERNAL_ERROR = -32603;
+    static final int SERVER_NOT_INITIALIZED = -32002;
+    static final int REQUEST_CANCELLED = -32800;
+    static final int CONTENT_MODIFIED = -32801;
+
+    /// How long diagnostics wait for more changes before they are computed.
+    private static final long DIAGNOSTICS_DELAY_MILLIS = 150;
+
+    private final Connection connection;
+    private final ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor();
+    private final Workspace workspace = new Workspace();
+    private final Map<String, Document> documents = new ConcurrentHashMap<>();
+    /// Requests that have not been answered yet, by id.
+    private final Map<Object, Pending> pending = new ConcurrentHashMap<>();
+    private final Map<String, Pending> diagnosticRuns = new ConcurrentHashMap<>();
+    /// The last semantic tokens sent for each document.
+    private final Map<String, Highlighting> highlighting = new ConcurrentHashMap<>();
+    private final AtomicLong resultIds = new AtomicLong();
+
+    private boolean initialized;
+    private boolean shutdown;
+
+    /// Work running on a document: a request, or a diagnostics run.
+    private record Pending(String uri, Future<?> work, CancellationToken cancellation)
+    {
+        /// Stops the work: a parser polling the token gives up, a sleeping thread is interrupted.
+        void cancel()
+        {
+            cancellation.cancel();
+            work.cancel(true);
+        }
+    }
+
+    private record Highlighting(String resultId, int[] data)
+    {
+    }
+
+    @FunctionalInterface
+    private interface Handler
+    {
+        Object handle(CancellationToken cancellation) throws Exception;
+    }
+
+    public LanguageServer(InputStream in, OutputStream out)
+    {
+        this.connection = new Connection(in, out);
+    }
+
+    /**
+     * Serves until the client sends {@code exit} or closes the input.
+     *
+     * @return the exit code: 0 if the client shut the server down first, 1 otherwise.
+     */
+    public int run() throws IOException
+    {
+        try
+        {
+            while (true)
+            {
+                Option<Map<String, Object>> message = connection.read();
+                if (message.isNone())
+                    return 1;
+                Map<String, Object> body = message.unwrap();
+                if (!(body.get("method") instanceof String method))
+                    continue; // A response; the server sends no requests
+                Object id = body.get("id");
+                Map<?, ?> params = body.get("params") instanceof Map<?, ?> map ? map : Map.of();
+
+                if (method.equals("exit"))
+                    return shutdown ? 0 : 1;
+                try
+                {
+                    dispatch(method, id, params);
+                } catch (ClassCastException | NullPointerException e)
+                {
+                    if (id != null)
+                        connection.respondError(id, INVALID_PARAMS, "Invalid parameters for " + method);
+                } catch (RuntimeException e)
+                {
+                    if (id != null)
+                        connection.respondError(id, INTERNAL_ERROR, String.valueOf(e.getMessage()));
+                }
+            }
+        } finally
+        {
+            workers.shutdownNow();
+        }
+    }
+
+    private void dispatch(String method, Object id, Map<?, ?> params)
+    {
+        if (!initialized && !method.equals("initialize"))
+        {
+            if (id != null)
+                connection.respondError(id, SERVER_NOT_INITIALIZED, "The server is not initialized");
+            return;
+        }
+
+        switch (method)
+        {
+            case "initialize" -> connection.respond(id, initialize(params));
+            case "initialized" ->
+            {
+            }
+            case "shutdown" ->
+            {
+                shutdown = true;
+                pending.keySet().forEach(request -> cancel(request, REQUEST_CANCELLED, "The server is shutting down"));
+                connection.respond(id, null);
+            }
+            case "$/cancelRequest" -> cancel(params.get("id"), REQUEST_CANCELLED, "The request was cancelled");
+
+            case "textDocument/didOpen" ->
+            {
+                Map<?, ?> item = (Map<?, ?>) params.get("textDocument");
+                Document document = new Document((String) item.get("uri"), version(item), (String) item.get("text"));
+                documents.put(document.uri(), document);
+                changed(document);
+            }
+            case "textDocument/didChange" ->
+            {
+                Map<?, ?> item = (Map<?, ?>) params.get("textDocument");
+                String uri = (String) item.get("uri");
+                Document document = documents.computeIfPresent(uri,
+                        (key, old) -> old.edit(version(item), (List<?>) params.get("contentChanges")));
+                if (document != null)
+                    changed(document);
+            }
+            case "textDocument/didClose" ->
+            {
+                String uri = (String) ((Map<?, ?>) params.get("textDocument")).get("uri");
+                documents.remove(uri);
+                workspace.invalidate();
+                highlighting.remove(uri);
+                Pending run = diagnosticRuns.remove(uri);
+                if (run != null)
+                    run.cancel();
+                cancelStale(uri);
+                connection.notify("textDocument/publishDiagnostics", Map.of("uri", uri, "diagnostics", List.of()));
+                workers.execute(() -> workspace.reindex(uri));
+            }
+
+            case "textDocument/semanticTokens/full" -> submit(id, params, (document, cancellation) ->
+                    semanticTokens(document, null, cancellation));
+            case "textDocument/semanticTokens/full/delta" -> submit(id, params, (document, cancellation) ->
+                    semanticTokens(document, (String) params.get("previousResultId"), cancellation));
+            case "textDocument/semanticTokens/range" -> submit(id, params, (document, cancellation) ->
+            {
+                Map<?, ?> range = (Map<?, ?>) params.get("range");
+                int from = ((Number) ((Map<?, ?>) range.get("start")).get("line")).intValue();
+                int to = ((Number) ((Map<?, ?>) range.get("end")).get("line")).intValue() + 1;
+                return Map.of("data", SemanticTokens.encode(
+                        document.module(), workspace.declaredTypes(document, documents, cancellation), from, to));
+            });
+            case "textDocument/documentSymbol" -> submit(id, params, (document, cancellation) ->
+                    symbols(document.module()));
+            case "textDocument/definition" -> submit(id, params, (document, cancellation) ->
+            {
+                Map<?, ?> position = (Map<?, ?>) params.get("position");
+                int line = ((Number) position.get("line")).intValue();
+                int character = ((Number) position.get("character")).intValue();
+                return workspace.definition(document, line, character, documents, cancellation).stream()
+                        .map(Workspace.Location::toJson)
+                        .toList();
+            });
+
+            default ->
+            {
+                if (id != null)
+                    connection.respondError(id, METHOD_NOT_FOUND, "Unsupported method " + method);
+            }
+        }
+    }
+
+    private Map<String, Object> initialize(Map<?, ?> params)
+    {
+        initialized = true;
+
+        List<String> roots = new ArrayList<>();
+        if (params.get("workspaceFolders") instanceof List<?> folders)
+        {
+            for (Object folder : folders)
+                roots.add((String) ((Map<?, ?>) folder).get("uri"));
+        }
+        else if (params.get("rootUri") instanceof String rootUri)
+        {
+            roots.add(rootUri);
+        }
+        for (String root : roots)
+            filePath(root).ifSome(path -> workers.execute(() -> workspace.index(path)));
+
+        Map<String, Object> semanticTokens = new LinkedHashMap<>();
+        semanticTokens.put("legend", Map.of("tokenTypes", SemanticTokens.TYPES, "tokenModifiers", SemanticTokens.MODIFIERS));
+        semanticTokens.put("full", Map.of("delta", true));
+        semanticTokens.put("range", true);
+
+        Map<String, Object> capabilities = new LinkedHashMap<>();
+        capabilities.put("positionEncoding", "utf-16");
+        capabilities.put("textDocumentSync", Map.of("openClose", true, "change", 2)); // Incremental
+        capabilities.put("semanticTokensProvider", semanticTokens);
+        capabilities.put("documentSymbolProvider", true);
+        capabilities.put("definitionProvider", true);
+
+        return Map.of(
+                "capabilities", capabilities,
+                "serverInfo", Map.of("name", "rainforest", "version", Rainforest.COMPILER_VERSION));
+    }
+
+    /// @return the path of a `file:` URI; other schemes have no files to index.
+    private static Option<Path> filePath(String uri)
+    {
+        try
+        {
+            return Option.some(Path.of(URI.create(uri)));
+        } catch (RuntimeException e)
+        {
+            return Option.none();
+        }
+    }
+
+    /**
+     * Encodes the semantic tokens of a document and remembers them under a new result id.
+     *
+     * @param previousResultId the id of the tokens the client has, to answer with edits of them, or null.
+     */
+    private Map<String, Object> semanticTokens(Document document, String previousResultId, CancellationToken cancellation)
+    {
+        int[] data = SemanticTokens.encode(document.module(),
+                workspace.declaredTypes(document, documents, cancellation), 0, Integer.MAX_VALUE);
+        String resultId = Long.toString(resultIds.incrementAndGet());
+        Highlighting previous = highlighting.put(document.uri(), new Highlighting(resultId, data));
+
+        if (previousResultId == null || previous == null || !previous.resultId().equals(previousResultId))
+            return Map.of("resultId", resultId, "data", data);
+        List<Object> edits = new ArrayList<>();
+        for (SemanticHighlighting.Edit edit : SemanticHighlighting.delta(previous.data(), data))
+            edits.add(Map.of("start", edit.start(), "deleteCount", edit.deleteCount(), "data", edit.data()));
+        return Map.of("resultId", resultId, "edits", edits);
+    }
+
+    private static int version(Map<?, ?> textDocument)
+    {
+        return textDocument.get("version") instanceof Number version ? version.intValue() : 0;
+    }
+
+    // ==================================================
+    // ================= REQUEST THREADS ================
+    // ==================================================
+
+    /**
+     * Answers a request about a document on a virtual thread, unless it is cancelled first. The
+     * handler gets the request's token for the workspace-wide work it may do.
+     */
+    private void submit(Object id, Map<?, ?> params,
+                        java.util.function.BiFunction<Document, CancellationToken, Object> handler)
+    {
+        String uri = (String) ((Map<?, ?>) params.get("textDocument")).get("uri");
+        Document document = documents.get(uri);
+        if (document == null)
+        {
+            connection.respondError(id, INVALID_PARAMS, "The document " + uri + " is not open");
+            return;
+        }
+        submit(id, uri, cancellation ->
+        {
+            // The header pass is the part worth cancelling; the handler then finds it done
+            document.module(cancellation);
+            return handler.apply(document, cancellation);
+        });
+    }
+
+    private void submit(Object id, String uri, Handler handler)
+    {
+        CancellationToken cancellation = CancellationToken.create();
+        FutureTask<Void> work = new FutureTask<>(() ->
+        {
+            Object result;
+            try
+            {
+                result = handler.handle(cancellation);
+            } catch (Exception e)
+            {
+                // A cancelled request was already answered by whoever cancelled it
+                if (pending.remove(id) != null)
+                    connection.respondError(id, INTERNAL_ERROR, String.valueOf(e.getMessage()));
+                return;
+            }
+            if (pending.remove(id) != null)
+                connection.respond(id, result);
+        }, null);
+        pending.put(id, new Pending(uri, work, cancellation));
+        workers.execute(work);
+    }
+
+    /// Answers the request with an error and interrupts its thread, if it is still running.
+    private void cancel(Object id, int code, String message)
+    {
+        Pending request = id == null ? null : pending.remove(id);
+        if (request == null)
+            return;
+        request.cancel();
+        connection.respondError(id, code, message);
+    }
+
+    /// Cancels the requests still working on an older version of the document.
+    private void cancelStale(String uri)
+    {
+        pending.forEach((id, request) ->
+        {
+            if (uri.equals(request.uri()))
+                cancel(id, CONTENT_MODIFIED, "The document changed");
+        });
+    }
+
+    private void changed(Document document)
+    {
+        workspace.invalidate();
+        cancelStale(document.uri());
+        CancellationToken cancellation = CancellationToken.create();
+        Future<?> work = workers.submit(() -> publishDiagnostics(document, cancellation));
+        Pending previous = diagnosticRuns.put(document.uri(), new Pending(document.uri(), work, cancellation));
+        if (previous != null)
+            previous.cancel();
+    }
+
+    private void publishDiagnostics(Document document, CancellationToken cancellation)
+    {
+        List<Diagnostic> diagnostics;
+        try
+        {
+            Thread.sleep(DIAGNOSTICS_DELAY_MILLIS);
+            diagnostics = document.diagnostics(cancellation);
+        } catch (InterruptedException | CancelledException e)
+        {
+            return; // Superseded by a newer change
+        }
+        if (cancellation.isCancelled() || documents.get(document.uri()) != document)
+            return;
+
+        List<Object> published = new ArrayList<>();
+        for (Diagnostic diagnostic : diagnostics)
+        {
+            if (diagnostic.line() <= 0)
+                continue;
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("range", Workspace.range(diagnostic.line() - 1, diagnostic.column() - 1, diagnostic.length()));
+            item.put("severity", switch (diagnostic.severity())
+            {
+                case ERROR -> 1;
+                case WARNING -> 2;
+                case NOTE -> 3;
+            });
+            item.put("code", diagnostic.code());
+            item.put("source", "rainforest");
+            item.put("message", diagnostic.hint() == null
+                    ? diagnostic.message()
+                    : diagnostic.message() + "\n" + diagnostic.hint());
+            published.add(item);
+        }
+        connection.notify("textDocument/publishDiagnostics", Map.of(
+                "uri", document.uri(),
+                "version", document.version(),
+                "diagnostics", published));
+    }
+
+    // ==================================================
+    // ===================== SYMBOLS ====================
+    // ==================================================
+
+    // SymbolKind values of the protocol
+    private static final int CLASS = 5;
+    private static final int ENUM = 10;
+    private static final int INTERFACE = 11;
+    private static final int FUNCTION = 12;
+    private static final int VARIABLE = 13;
+    private static final int ENUM_MEMBER = 22;
+
+    /**
+     * @return the top-level declarations and macros of a module as {@code DocumentSymbol}s.
+     */
+    private static List<Object> symbols(LexModule module)
+    {
+        List<Object> symbols = new ArrayList<>();
+        for (Prototype prototype : module.getPrototypes())
+        {
+            Coordinates position;
+            switch (prototype)
+            {
+                case Prototype.Function function ->
+                {
+                    position = module.getLocations().get(function.name());
+                    symbols.add(symbol(function.name(), FUNCTION, typeName(function.type()), position, List.of()));
+                }
+                case Prototype.Variable variable ->
+                {
+                    position = module.getLocations().get(variable.name());
+                    symbols.add(symbol(variable.name(), VARIABLE, typeName(variable.type()), position, List.of()));
+                }
+                case Prototype.Class clazz ->
+                {
+                    position = module.getLocations().get(clazz.name());
+                    symbols.add(symbol(clazz.name(), CLASS, null, position, List.of()));
+                }
+                case Prototype.Trait trait ->
+                {
+                    position = module.getLocations().get(trait.name());
+                    symbols.add(symbol(trait.name(), INTERFACE, null, position, List.of()));
+                }
+                case Prototype.Enum enumeration ->
+                {
+                    position = module.getLocations().get(enumeration.name());
+                    List<Object> variants = new ArrayList<>();
+                    enumeration.variants().forEach((name, payload) ->
+                    {
+                        if (payload instanceof TypeHolder.Resolved resolved)
+                            variants.add(symbol(name, ENUM_MEMBER, resolved.name(), resolved.position(), List.of()));
+                    });
+                    symbols.add(symbol(enumeration.name(), ENUM, null, position, variants));
+                }
+                default ->
+                {
+                }
+            }
+        }
+        for (Macro macro : module.getMacros())
+        {
+            CoordinatesOLD at = macro.getLocation();
+            String name = macro.getName().substring(macro.getName().lastIndexOf('.') + 1);
+            symbols.add(symbol(name, FUNCTION, "macro", new Coordinates(at.row(), at.column()), List.of()));
+        }
+        return symbols;
+    }
+
+    private static String typeName(TypeHolder type)
+    {
+        return type instanceof TypeHolder.Resolved resolved ? resolved.name() : null;
+    }
+
+    private static Map<String, Object> symbol(String name, int kind, String detail, Coordinates position, List<Object> children)
+    {
+        Map<String, Object> range = position == null
+                ? Workspace.range(0, 0, 0)
+                : Workspace.range(position.line() - 1, position.column() - 1, name.length());
+        Map<String, Object> symbol = new LinkedHashMap<>();
+        symbol.put("name", name);
+        if (detail != null)
+            symbol.put("detail", detail);
+        symbol.put("kind", kind);
+        symbol.put("range", range);
+        symbol.put("selectionRange", range);
+        if (!children.isEmpty())
+            symbol.put("children", children);
+        return symbol;
+    }
+}
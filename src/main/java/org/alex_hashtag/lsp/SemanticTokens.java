@@ -0,0 +1,79 @@
+package org.alex_hashtag.lsp;
+
+import org.alex_hashtag.internal_representation.constants.Primitive;
+import org.alex_hashtag.lexer.LexModule;
+import org.alex_hashtag.lib.tokenization.Coordinates;
+import org.alex_hashtag.lib.tokenization.SemanticHighlighting;
+import org.alex_hashtag.lib.tokenization.SemanticHighlighting.Type;
+import org.alex_hashtag.lib.tokenization.TokenList;
+
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Semantic tokens of a document: the highlighting {@link SemanticHighlighting} exports from the
+ * token list, with plain identifiers classified by the declarations the header pass found.
+ */
+final class SemanticTokens
+{
+    static final List<String> TYPES = SemanticHighlighting.legend();
+    static final List<String> MODIFIERS = List.of("declaration", "defaultLibrary");
+
+    static final int TYPE = Type.TYPE.ordinal();
+    static final int FUNCTION = Type.FUNCTION.ordinal();
+    static final int VARIABLE = Type.VARIABLE.ordinal();
+    static final int ENUM_MEMBER = Type.ENUM_MEMBER.ordinal();
+
+    private static final int DECLARATION = 1;
+    private static final int DEFAULT_LIBRARY = 1 << 1;
+
+    private SemanticTokens()
+    {
+    }
+
+    /**
+     * @param declared the token types of the top-level names visible in the document.
+     * @param fromLine the first 0-based line to encode.
+     * @param toLine   the 0-based line after the last one to encode.
+     */
+    static int[] encode(LexModule module, Workspace.DeclaredTypes declared, int fromLine, int toLine)
+    {
+        TokenList tokens = module.getTokens();
+        Map<String, Coordinates> locations = module.getLocations();
+        String source = tokens.getSource();
+        int lines = tokens.lineCount();
+        int to = toLine < lines ? tokens.lineStart(Math.max(toLine, 0)) : source.length() + 1;
+
+        // Only plain identifiers in the range are refined, from their text in the source;
+        // everything else keeps the exported type
+        int[] types = SemanticHighlighting.types(tokens);
+        int[] modifiers = new int[types.length];
+        int line = Math.clamp(fromLine, 0, lines - 1);
+        for (int i = SemanticHighlighting.firstTokenOf(tokens, fromLine); i < types.length && tokens.start(i) < to; i++)
+        {
+            if (types[i] != VARIABLE)
+                continue;
+            int start = tokens.start(i);
+            String name = source.substring(start, tokens.end(i));
+            if (Primitive.byName(name).isSome())
+            {
+                types[i] = TYPE;
+                modifiers[i] = DEFAULT_LIBRARY;
+                continue;
+            }
+            types[i] = declared.typeOf(name, VARIABLE);
+            Coordinates declaration = locations.get(name);
+            if (declaration != null)
+            {
+                while (line > 0 && tokens.lineStart(line) > start)
+                    line--;
+                while (line + 1 < lines && tokens.lineStart(line + 1) <= start)
+                    line++;
+                if (declaration.line() == line + 1 && declaration.column() == start - tokens.lineStart(line) + 1)
+                    modifiers[i] = DECLARATION;
+            }
+        }
+        return SemanticHighlighting.encode(tokens, types, modifiers, fromLine, toLine);
+    }
+}
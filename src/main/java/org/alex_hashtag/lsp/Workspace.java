@@ -0,0 +1,342 @@
+package org.alex_hashtag.lsp;
+
+import org.alex_hashtag.buildSystem.ProjectScanner;
+import org.alex_hashtag.internal_representation.macros.Macro;
+import org.alex_hashtag.internal_representation.types.TypeHolder;
+import org.alex_hashtag.lexer.Import;
+import org.alex_hashtag.lexer.LexModule;
+import org.alex_hashtag.lexer.Prototype;
+import org.alex_hashtag.lib.cancellation.CancellationToken;
+import org.alex_hashtag.lib.cancellation.CancelledException;
+import org.alex_hashtag.lib.tokenization.Coordinates;
+import org.alex_hashtag.lib.tokenization.Token;
+import org.alex_hashtag.lib.tokenization.TokenList;
+import org.alex_hashtag.tokenizationOLD.CoordinatesOLD;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * The declarations of every Toucan file of the workspace, and name resolution over them.
+ * <p>
+ * Files on disk are indexed with the header pass once, when the server starts; open documents
+ * take the place of their file, so what the editor shows always wins over what is on disk.
+ * <p>
+ * The merged view of all modules and their declared names is built by the first request that
+ * needs it and kept until a document or an indexed file changes ({@link #invalidate()}).
+ */
+final class Workspace
+{
+    /// Modules of the files on disk, by URI.
+    private final Map<String, LexModule> indexed = new ConcurrentHashMap<>();
+    /// Bumped on every change; a snapshot of an older generation is stale.
+    private final AtomicLong generation = new AtomicLong();
+    private volatile Snapshot snapshot;
+
+    /**
+     * Every module by URI, the open documents first, and the semantic token type of every
+     * top-level name declared in them.
+     */
+    private record Snapshot(long generation, Map<String, LexModule> modules, Map<String, Integer> types)
+    {
+    }
+
+    /**
+     * The semantic token types of the top-level names visible in a document: its own
+     * declarations, then those of the rest of the workspace.
+     */
+    record DeclaredTypes(Map<String, Integer> own, Map<String, Integer> workspace)
+    {
+        int typeOf(String name, int otherwise)
+        {
+            Integer type = own.get(name);
+            if (type == null)
+                type = workspace.get(name);
+            return type == null ? otherwise : type;
+        }
+    }
+
+    /**
+     * A position in a document, 0-based as in the protocol.
+     */
+    record Location(String uri, int line, int character, int length)
+    {
+        Map<String, Object> toJson()
+        {
+            return Map.of("uri", uri, "range", range(line, character, length));
+        }
+    }
+
+    static Map<String, Object> range(int line, int character, int length)
+    {
+        return Map.of(
+                "start", Map.of("line", line, "character", character),
+                "end", Map.of("line", line, "character", character + length));
+    }
+
+    /**
+     * Indexes every source file of the project in {@code root}.
+     */
+    void index(Path root)
+    {
+        List<ProjectScanner.SourceFile> files;
+        try
+        {
+            files = ProjectScanner.forProject(root).scan();
+        } catch (UncheckedIOException e)
+        {
+            return;
+        }
+        for (ProjectScanner.SourceFile file : files)
+        {
+            if (Thread.currentThread().isInterrupted())
+                return;
+            reindex(file.path().toUri().toString());
+        }
+    }
+
+    /**
+     * Reads the file of {@code uri} again, e.g. once the editor closed it; forgets it if it is gone.
+     */
+    void reindex(String uri)
+    {
+        try
+        {
+            Path path = Path.of(URI.create(uri));
+            indexed.put(uri, LexModule.create(Files.readString(path), path.toString()));
+        } catch (IOException | IllegalArgumentException e)
+        {
+            indexed.remove(uri);
+        } finally
+        {
+            invalidate();
+        }
+    }
+
+    /**
+     * Drops the merged view, e.g. because a document was opened, edited or closed.
+     */
+    void invalidate()
+    {
+        generation.incrementAndGet();
+    }
+
+    /**
+     * @return the merged view of the current generation, built first if there is none. A view
+     * built while something changed is returned but not kept.
+     * @throws CancelledException if {@code cancellation} was cancelled first.
+     */
+    private Snapshot snapshot(Map<String, Document> open, CancellationToken cancellation)
+    {
+        long current = generation.get();
+        Snapshot cached = snapshot;
+        if (cached != null && cached.generation() == current)
+            return cached;
+
+        Map<String, LexModule> modules = new LinkedHashMap<>();
+        for (Document document : open.values())
+            modules.put(document.uri(), document.module(cancellation));
+        indexed.forEach(modules::putIfAbsent);
+        Map<String, Integer> types = new HashMap<>();
+        for (LexModule module : modules.values())
+        {
+            cancellation.throwIfCancelled();
+            addTypes(module, types);
+        }
+        Snapshot built = new Snapshot(current, Collections.unmodifiableMap(modules), Collections.unmodifiableMap(types));
+        if (generation.get() == current)
+            snapshot = built;
+        return built;
+    }
+
+    /**
+     * @return the semantic token type of every top-level name, with the declarations of
+     * {@code document} taking precedence.
+     * @throws CancelledException if {@code cancellation} was cancelled first.
+     */
+    DeclaredTypes declaredTypes(Document document, Map<String, Document> open, CancellationToken cancellation)
+    {
+        Map<String, Integer> own = new HashMap<>();
+        addTypes(document.module(cancellation), own);
+        return new DeclaredTypes(own, snapshot(open, cancellation).types());
+    }
+
+    private static void addTypes(LexModule module, Map<String, Integer> types)
+    {
+        for (Prototype prototype : module.getPrototypes())
+        {
+            switch (prototype)
+            {
+                case Prototype.Function function -> types.put(function.name(), SemanticTokens.FUNCTION);
+                case Prototype.Variable variable -> types.put(variable.name(), SemanticTokens.VARIABLE);
+                case Prototype.Class clazz -> types.put(clazz.name(), SemanticTokens.TYPE);
+                case Prototype.Trait trait -> types.put(trait.name(), SemanticTokens.TYPE);
+                case Prototype.Enum enumeration ->
+                {
+                    types.put(enumeration.name(), SemanticTokens.TYPE);
+                    for (String variant : enumeration.variants().keySet())
+                        types.put(variant, SemanticTokens.ENUM_MEMBER);
+                }
+                default ->
+                {
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the declarations the identifier at a position refers to: the macro of a macro use,
+     * or the top-level declaration or enum variant of a name. A qualified name ({@code a.b.name})
+     * only matches the module of that package; a plain name is looked up in the document, then
+     * its package, then its imports, then everywhere.
+     *
+     * @param line      0-based line.
+     * @param character 0-based UTF-16 offset in the line.
+     * @throws CancelledException if {@code cancellation} was cancelled first.
+     */
+    List<Location> definition(Document document, int line, int character, Map<String, Document> open,
+                              CancellationToken cancellation)
+    {
+        LexModule module = document.module(cancellation);
+        TokenList tokens = module.getTokens();
+        int index = tokenAt(tokens, line, character);
+        if (index < 0 || !(tokens.get(index) instanceof Token.Identifier identifier))
+            return List.of();
+
+        Map<String, LexModule> modules = snapshot(open, cancellation).modules();
+        if (identifier.type().equals("macro"))
+        {
+            // The post-processor already dropped the '!' of the use
+            String name = identifier.getValue();
+            return ordered(modules, module, candidate -> macros(candidate.getValue(), candidate.getKey(), name));
+        }
+
+        String name = identifier.getValue();
+        String qualifier = qualifier(tokens, index);
+        if (!qualifier.isEmpty())
+        {
+            String qualified = qualifier + "." + name;
+            List<Location> found = new ArrayList<>();
+            modules.forEach((uri, candidate) ->
+            {
+                if (candidate.qualify(name).equals(qualified))
+                    found.addAll(declarations(candidate, uri, name));
+            });
+            return found;
+        }
+
+        List<Location> own = declarations(module, document.uri(), name);
+        if (!own.isEmpty())
+            return own;
+
+        List<Location> found = new ArrayList<>();
+        modules.forEach((uri, candidate) ->
+        {
+            if (candidate != module && candidate.getModuleName().equals(module.getModuleName()))
+                found.addAll(declarations(candidate, uri, name));
+        });
+        if (!found.isEmpty())
+            return found;
+
+        Set<String> imported = new HashSet<>();
+        for (Import anImport : module.getImports())
+            imported.add(String.join(".", anImport.fragments()));
+        modules.forEach((uri, candidate) ->
+        {
+            if (imported.contains(candidate.qualify(name)))
+                found.addAll(declarations(candidate, uri, name));
+        });
+        if (!found.isEmpty())
+            return found;
+
+        return ordered(modules, module, candidate -> declarations(candidate.getValue(), candidate.getKey(), name));
+    }
+
+    /// The results of `lookup` in the document's own module first, then in the others.
+    private static List<Location> ordered(Map<String, LexModule> modules, LexModule own,
+                                          java.util.function.Function<Map.Entry<String, LexModule>, List<Location>> lookup)
+    {
+        List<Location> found = new ArrayList<>();
+        for (Map.Entry<String, LexModule> entry : modules.entrySet())
+            if (entry.getValue() == own)
+                found.addAll(lookup.apply(entry));
+        if (!found.isEmpty())
+            return found;
+        for (Map.Entry<String, LexModule> entry : modules.entrySet())
+            if (entry.getValue() != own)
+                found.addAll(lookup.apply(entry));
+        return found;
+    }
+
+    /// The top-level declaration of `name` in `module`, or the enum variants called `name`.
+    private static List<Location> declarations(LexModule module, String uri, String name)
+    {
+        Coordinates position = module.getLocations().get(name);
+        if (position != null)
+            return List.of(new Location(uri, position.line() - 1, position.column() - 1, name.length()));
+
+        List<Location> variants = new ArrayList<>();
+        for (Prototype prototype : module.getPrototypes())
+        {
+            if (prototype instanceof Prototype.Enum enumeration
+                    && enumeration.variants().get(name) instanceof TypeHolder.Resolved variant)
+            {
+                Coordinates at = variant.position();
+                variants.add(new Location(uri, at.line() - 1, at.column() - 1, name.length()));
+            }
+        }
+        return variants;
+    }
+
+    /// The macros called `name` in `module`, located at their `macro` keyword.
+    private static List<Location> macros(LexModule module, String uri, String name)
+    {
+        List<Location> found = new ArrayList<>();
+        for (Macro macro : module.getMacros())
+        {
+            if (macro.getName().equals(module.qualify(name)))
+            {
+                CoordinatesOLD at = macro.getLocation();
+                found.add(new Location(uri, at.row() - 1, at.column() - 1, "macro".length()));
+            }
+        }
+        return found;
+    }
+
+    /// @return the index of the token covering the position, or -1.
+    static int tokenAt(TokenList tokens, int line, int character)
+    {
+        for (int i = 0; i < tokens.size(); i++)
+        {
+            Coordinates position = tokens.get(i).getPosition();
+            if (position.line() - 1 > line)
+                break;
+            int length = tokens.end(i) - tokens.start(i);
+            if (position.line() - 1 == line && position.column() - 1 <= character
+                    && character < position.column() - 1 + length)
+                return i;
+        }
+        return -1;
+    }
+
+    /// @return `a.b` for the `name` in `a.b.name`, or "" if the name is not qualified.
+    private static String qualifier(TokenList tokens, int index)
+    {
+        Deque<String> parts = new ArrayDeque<>();
+        int i = index - 1;
+        while (i >= 1 && tokens.get(i) instanceof Token.Operator dot && dot.getValue().equals(".")
+                && tokens.get(i - 1) instanceof Token.Identifier part)
+        {
+            parts.addFirst(part.getValue());
+            i -= 2;
+        }
+        return String.join(".", parts);
+    }
+}
@@ -2,6 +2,12 @@ package org.alex_hashtag.tokenizationOLD;
 
 import lombok.Getter;
 import org.alex_hashtag.errors.TokenizationErrorManager;
+import org.alex_hashtag.lib.cancellation.CancellationToken;
+import org.alex_hashtag.lib.cancellation.CancelledException;
+import org.alex_hashtag.lib.errors.Diagnostics;
+import org.alex_hashtag.lib.profiling.Phase;
+import org.alex_hashtag.lib.profiling.PhaseTimer;
+import org.alex_hashtag.lib.profiling.TokenizeEvent;
 import org.jetbrains.annotations.NotNull;
 
 import java.nio.file.Path;
@@ -20,6 +26,12 @@ public class TokenStream implements Iterable<Token>
     private static final Set<String> keywordsSet = new HashSet<>();
     private static final Map<String, TokenType> keywordMap = new HashMap<>();
 
+    // Compiled once rather than per token; matched with a region instead of on a substring
+    private static final Pattern IDENTIFIER_PATTERN = Pattern.compile(IDENTIFIER.regex);
+    private static final Pattern MACRO_VARIABLE_PATTERN = Pattern.compile(MACRO_VARIABLE.regex);
+    private static final Pattern FLOAT_LITERAL_PATTERN = Pattern.compile(FLOAT_LITERAL.regex);
+    private static final Pattern INT_LITERAL_PATTERN = Pattern.compile(INT_LITERAL.regex);
+
     static
     {
         // Initialize multi-character operators
@@ -110,20 +122,44 @@ public class TokenStream implements Iterable<Token>
     }
 
     /**
-     * Constructor that tokenizes the input string.
+     * Constructor that tokenizes the input string. Errors are printed to {@code System.err};
+     * check {@link #hasErrors()} before using the tokens.
      */
     public TokenStream(Path filePath, String input)
+    {
+        this(filePath, input, null);
+    }
+
+    /**
+     * Constructor that tokenizes the input string, streaming errors to the given diagnostics engine.
+     * Tokenizing stops early once the error limit of the file is reached.
+     *
+     * @param diagnostics the engine to report to, or null to print errors to {@code System.err}.
+     */
+    public TokenStream(Path filePath, String input, Diagnostics diagnostics)
+    {
+        this(filePath, input, diagnostics, CancellationToken.NONE);
+    }
+
+    /**
+     * Like {@link #TokenStream(Path, String, Diagnostics)}, but gives up as soon as
+     * {@code cancellation} is cancelled or its deadline passes.
+     *
+     * @throws CancelledException if it gave up. Errors found up to that point may already have
+     *                            been streamed to {@code diagnostics}; the rest are dropped.
+     */
+    public TokenStream(Path filePath, String input, Diagnostics diagnostics, CancellationToken cancellation)
     {
         this.filename = filePath.toString();
         this.source = input;
         this.imports = new ArrayList<>();
-        this.tokens = new LinkedList<>();
+        this.tokens = new ArrayList<>();
 
         // Initialize the error manager with the file path and file contents
-        this.errorManager = new TokenizationErrorManager(
-                filePath.toAbsolutePath().toString(),  // full file path
-                input                            // entire text for line-by-line references
-        );
+        String fullPath = filePath.toAbsolutePath().toString();
+        this.errorManager = diagnostics == null
+                ? new TokenizationErrorManager(fullPath, input)
+                : new TokenizationErrorManager(fullPath, input, diagnostics);
 
         tokens.add(Token.getStart());
 
@@ -162,7 +198,21 @@ public class TokenStream implements Iterable<Token>
         }
 
         // Now tokenize everything else
-        tokenize(nonImportLines.toString());
+        TokenizeEvent event = new TokenizeEvent();
+        event.begin();
+        try (PhaseTimer.Scope scope = PhaseTimer.get().start(Phase.TOKENIZE, filename))
+        {
+            tokenize(nonImportLines.toString(), cancellation);
+            scope.tokens(tokens.size());
+        }
+        event.end();
+        if (event.shouldCommit())
+        {
+            event.file = filename;
+            event.bytes = input.length();
+            event.tokens = tokens.size();
+            event.commit();
+        }
 
         // Example post-check: no package? => error
         if (this.packageName == null)
@@ -179,11 +229,16 @@ public class TokenStream implements Iterable<Token>
             );
         }
 
-        if (errorManager.hasErrors())
-        {
-            errorManager.printErrors(System.err);
-            System.exit(1);
-        }
+        // Does nothing if the errors were already streamed
+        errorManager.printErrors(System.err);
+    }
+
+    /**
+     * @return whether tokenizing reported any error, in which case the tokens are incomplete.
+     */
+    public boolean hasErrors()
+    {
+        return errorManager != null && errorManager.hasErrors();
     }
 
     private void parseImport(boolean isStatic, String importLine)
@@ -213,15 +268,17 @@ public class TokenStream implements Iterable<Token>
         }
     }
 
-    private void tokenize(String input)
+    private void tokenize(String input, CancellationToken cancellation)
     {
         int index = 0;
         int row = 1;
         int column = 0;
+        int steps = 0;
 
         loop:
-        while (index < input.length())
+        while (index < input.length() && !errorManager.limitReached())
         {
+            cancellation.checkpoint(++steps);
             char currentChar = input.charAt(index);
 
             // Handle whitespace
@@ -480,7 +537,7 @@ public class TokenStream implements Iterable<Token>
             // Handle macro usage: e.g. sum!(...)
             {
                 int lookAheadIndex = index;
-                Matcher macroCheck = Pattern.compile(IDENTIFIER.regex).matcher(input.substring(lookAheadIndex));
+                Matcher macroCheck = IDENTIFIER_PATTERN.matcher(input).region(lookAheadIndex, input.length());
                 if (macroCheck.lookingAt())
                 {
                     String possibleMacroName = macroCheck.group();
@@ -494,46 +551,11 @@ public class TokenStream implements Iterable<Token>
 
                         if (nextSym == '(' || nextSym == '[' || nextSym == '{')
                         {
-                            int startRow = row;
-                            int startColumn = column;
-                            // Advance over macro name + '!'
+                            // Only the name becomes a MACRO_USE token; the delimited arguments are
+                            // lexed like any other code and grouped later by TokenTree
+                            tokens.add(Token.stored(row, column, MACRO_USE, possibleMacroName + "!"));
                             index += nameLen + 1;
                             column += nameLen + 1;
-
-                            StringBuilder macroContent = new StringBuilder(possibleMacroName + "!");
-                            Deque<Character> stack = new ArrayDeque<>();
-                            stack.push(nextSym);
-                            macroContent.append(nextSym);
-                            index++;
-                            column++;
-
-                            while (!stack.isEmpty() && index < input.length())
-                            {
-                                char c = input.charAt(index);
-                                macroContent.append(c);
-                                index++;
-                                column++;
-                                if (c == '(' || c == '[' || c == '{')
-                                {
-                                    stack.push(c);
-                                }
-                                else if (c == ')' || c == ']' || c == '}')
-                                {
-                                    char open = stack.peek();
-                                    if ((open == '(' && c == ')')
-                                            || (open == '[' && c == ']')
-                                            || (open == '{' && c == '}'))
-                                    {
-                                        stack.pop();
-                                    }
-                                    else
-                                    {
-                                        // Mismatched bracket => optional error check
-                                        stack.pop();
-                                    }
-                                }
-                            }
-                            tokens.add(Token.stored(startRow, startColumn, MACRO_USE, macroContent.toString()));
                             continue;
                         }
                     }
@@ -561,8 +583,7 @@ public class TokenStream implements Iterable<Token>
             // Check for macro variables: $foo
             if (currentChar == '$')
             {
-                Matcher macroVarMatcher = Pattern.compile(MACRO_VARIABLE.regex)
-                        .matcher(input.substring(index));
+                Matcher macroVarMatcher = MACRO_VARIABLE_PATTERN.matcher(input).region(index, input.length());
                 if (macroVarMatcher.lookingAt())
                 {
                     String macroVar = macroVarMatcher.group();
@@ -575,7 +596,7 @@ public class TokenStream implements Iterable<Token>
             }
 
             // Match float literal
-            Matcher floatMatcher = Pattern.compile(FLOAT_LITERAL.regex).matcher(input.substring(index));
+            Matcher floatMatcher = FLOAT_LITERAL_PATTERN.matcher(input).region(index, input.length());
             if (floatMatcher.lookingAt())
             {
                 int startColumn = column;
@@ -587,7 +608,7 @@ public class TokenStream implements Iterable<Token>
             }
 
             // Match int literal
-            Matcher intMatcher = Pattern.compile(INT_LITERAL.regex).matcher(input.substring(index));
+            Matcher intMatcher = INT_LITERAL_PATTERN.matcher(input).region(index, input.length());
             if (intMatcher.lookingAt())
             {
                 int startColumn = column;
@@ -599,7 +620,7 @@ public class TokenStream implements Iterable<Token>
             }
 
             // Handle identifiers / keywords
-            Matcher idMatcher = Pattern.compile(IDENTIFIER.regex).matcher(input.substring(index));
+            Matcher idMatcher = IDENTIFIER_PATTERN.matcher(input).region(index, input.length());
             if (idMatcher.lookingAt())
             {
                 String word = idMatcher.group();
@@ -0,0 +1,91 @@
+package org.alex_hashtag.tokenizationOLD;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+
+/**
+ * The delimited groups of a token list: every {@code (}, {@code [}, {@code {} and {@code $(}
+ * paired with its closing token.
+ * <p>
+ * Groups are index ranges into the original list, so looking at the contents of a group, such as
+ * the arguments of a macro use, needs neither a copy nor a second lex. Building the index is a
+ * single pass; every query afterwards is constant time.
+ */
+public final class TokenTree
+{
+    private final List<Token> tokens;
+    private final int[] closers;
+
+    private TokenTree(List<Token> tokens, int[] closers)
+    {
+        this.tokens = tokens;
+        this.closers = closers;
+    }
+
+    public static TokenTree of(List<Token> tokens)
+    {
+        int[] closers = new int[tokens.size()];
+        Arrays.fill(closers, -1);
+        Deque<Integer> open = new ArrayDeque<>();
+        int i = 0;
+        for (Token token : tokens)
+        {
+            switch (token.type)
+            {
+                case BRACE_OPEN, BRACKET_OPEN, CURLY_OPEN, MACRO_REPEAT_OPEN -> open.push(i);
+                case BRACE_CLOSED, BRACKET_CLOSED, CURLY_CLOSED ->
+                {
+                    if (!open.isEmpty() && closes(tokens.get(open.peek()).type, token.type))
+                        closers[open.pop()] = i;
+                    else
+                        open.clear(); // Unbalanced: nothing opened before this can be closed reliably
+                }
+                default ->
+                {
+                }
+            }
+            i++;
+        }
+        return new TokenTree(tokens, closers);
+    }
+
+    /**
+     * @return the index of the token closing the group opened at {@code open}, or -1 if that token
+     * does not open a group or the group is never closed.
+     */
+    public int closer(int open)
+    {
+        return open >= 0 && open < closers.length ? closers[open] : -1;
+    }
+
+    /**
+     * @return the tokens between the delimiters of the group opened at {@code open}, as a view.
+     * @throws IllegalArgumentException if no closed group starts there.
+     */
+    public List<Token> inner(int open)
+    {
+        int close = closer(open);
+        if (close < 0)
+            throw new IllegalArgumentException("No closed group starts at token " + open);
+        return tokens.subList(open + 1, close);
+    }
+
+    public List<Token> getTokens()
+    {
+        return tokens;
+    }
+
+    public static boolean closes(TokenType open, TokenType close)
+    {
+        return switch (open)
+        {
+            case BRACE_OPEN, MACRO_REPEAT_OPEN -> close == TokenType.BRACE_CLOSED;
+            case BRACKET_OPEN -> close == TokenType.BRACKET_CLOSED;
+            case CURLY_OPEN -> close == TokenType.CURLY_CLOSED;
+            default -> false;
+        };
+    }
+}
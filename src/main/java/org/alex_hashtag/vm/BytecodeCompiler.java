@@ -0,0 +1,532 @@
+package org.alex_hashtag.vm;
+
+import org.alex_hashtag.internal_representation.ir.*;
+
+import java.util.*;
+
+
+/**
+ * Translates an {@link IrModule} into a {@link Program}.
+ * <p>
+ * Every SSA register gets its own interpreter register. Phis become moves at the end of their
+ * predecessors, or in a small stub on the edge when the predecessor branches; moves into several
+ * phis of one block are ordered so no value is overwritten before it is read, going through a
+ * temporary only for cycles. Constants are placed in registers once, in the register templates of
+ * the {@link Chunk}.
+ * <p>
+ * The kind of every register is inferred ahead of time where possible: arithmetic and
+ * comparisons whose operands are both known to be integers (or both floats) use the unchecked
+ * {@code _I} and {@code _F} instructions. Operations the interpreter does not support compile to a
+ * {@link Opcode#TRAP}, so a program only fails if it actually reaches one.
+ */
+public final class BytecodeCompiler
+{
+    private static final Map<String, Integer> INT_OPCODES = Map.of(
+            "+", Opcode.ADD_I, "-", Opcode.SUB_I, "*", Opcode.MUL_I,
+            "==", Opcode.EQ_I, "!=", Opcode.NE_I, "<", Opcode.LT_I, "<=", Opcode.LE_I, ">", Opcode.GT_I, ">=", Opcode.GE_I);
+    private static final Map<String, Integer> FLOAT_OPCODES = Map.of(
+            "+", Opcode.ADD_F, "-", Opcode.SUB_F, "*", Opcode.MUL_F, "/", Opcode.DIV_F);
+    private static final Set<String> COMPARISONS = Set.of("==", "!=", "<", ">", "<=", ">=");
+    private static final Set<String> INT_RESULTS = Set.of("+", "-", "*", "/", "%", "&", "|", "^", "<<", ">>", ">>>");
+    private static final Set<String> FLOAT_RESULTS = Set.of("+", "-", "*", "/", "%");
+    private static final Set<String> BOOL_RESULTS = Set.of("&", "|", "^");
+
+    /// Not known yet while inferring kinds; never stored.
+    private static final byte BOTTOM = -2;
+
+    private final IrFunction function;
+    private final Map<String, Integer> functions;
+    private final Map<String, Integer> globals;
+
+    private final Map<Integer, Byte> staticKinds;
+    private final Map<Integer, Integer> registers = new HashMap<>();
+    private final Map<Object, Integer> constantRegisters = new HashMap<>();
+    private final List<Long> slots = new ArrayList<>();
+    private final List<Object> refs = new ArrayList<>();
+    private final List<Byte> kinds = new ArrayList<>();
+    private final List<Object> constants = new ArrayList<>();
+    private final Map<Object, Integer> constantIndices = new HashMap<>();
+
+    private int[] code = new int[64];
+    private int size;
+    private final List<Integer> labels = new ArrayList<>();
+    private final List<Integer> fixups = new ArrayList<>();
+    private final Map<Integer, Integer> blockLabels = new HashMap<>();
+    private final List<int[]> stubs = new ArrayList<>();
+
+    private BytecodeCompiler(IrFunction function, Map<String, Integer> functions, Map<String, Integer> globals)
+    {
+        this.function = function;
+        this.functions = functions;
+        this.globals = globals;
+        this.staticKinds = inferKinds(function);
+    }
+
+    public static Program compile(IrModule module)
+    {
+        List<IrFunction> list = List.copyOf(module.getFunctions());
+        Map<String, Integer> functions = new HashMap<>();
+        for (int i = 0; i < list.size(); i++)
+            functions.put(list.get(i).getName(), i);
+
+        Map<String, Integer> globals = new LinkedHashMap<>();
+        Chunk[] chunks = new Chunk[list.size()];
+        for (int i = 0; i < list.size(); i++)
+            chunks[i] = new BytecodeCompiler(list.get(i), functions, globals).compile();
+        return new Program(chunks, functions, List.copyOf(globals.keySet()));
+    }
+
+    // ==================================================
+    // ================ KIND INFERENCE ==================
+    // ==================================================
+
+    /// Optimistic: registers start unknown-yet and only move towards {@link Kind#UNKNOWN}, so loops converge.
+    private static Map<Integer, Byte> inferKinds(IrFunction function)
+    {
+        Map<Integer, Byte> kinds = new HashMap<>();
+        boolean changed = true;
+        while (changed)
+        {
+            changed = false;
+            for (Block block : function.getBlocks())
+            {
+                for (Instruction instruction : block.getInstructions())
+                {
+                    byte kind = infer(instruction, kinds);
+                    if (kind != BOTTOM && !Objects.equals(kinds.put(instruction.target(), kind), kind))
+                        changed = true;
+                }
+            }
+        }
+        return kinds;
+    }
+
+    private static byte infer(Instruction instruction, Map<Integer, Byte> kinds)
+    {
+        return switch (instruction)
+        {
+            case Instruction.Binary binary ->
+            {
+                if (COMPARISONS.contains(binary.operator()))
+                    yield Kind.BOOL;
+                byte left = kindOf(binary.left(), kinds);
+                byte right = kindOf(binary.right(), kinds);
+                if (left == BOTTOM || right == BOTTOM)
+                    yield BOTTOM;
+                if (left == Kind.INT && right == Kind.INT && INT_RESULTS.contains(binary.operator()))
+                    yield Kind.INT;
+                if (isNumber(left) && isNumber(right) && (left == Kind.FLOAT || right == Kind.FLOAT)
+                        && FLOAT_RESULTS.contains(binary.operator()))
+                    yield Kind.FLOAT;
+                if (left == Kind.BOOL && right == Kind.BOOL && BOOL_RESULTS.contains(binary.operator()))
+                    yield Kind.BOOL;
+                yield Kind.UNKNOWN;
+            }
+            case Instruction.Unary unary ->
+            {
+                byte operand = kindOf(unary.operand(), kinds);
+                if (operand == BOTTOM)
+                    yield BOTTOM;
+                boolean matches = switch (unary.operator())
+                {
+                    case "-" -> isNumber(operand);
+                    case "!" -> operand == Kind.BOOL;
+                    case "~" -> operand == Kind.INT;
+                    default -> false;
+                };
+                yield matches ? operand : Kind.UNKNOWN;
+            }
+            case Instruction.Phi phi ->
+            {
+                byte kind = BOTTOM;
+                for (Instruction.Phi.Incoming incoming : phi.incoming())
+                {
+                    byte next = kindOf(incoming.value(), kinds);
+                    if (next == BOTTOM || next == kind)
+                        continue;
+                    kind = kind == BOTTOM ? next : Kind.UNKNOWN;
+                }
+                yield kind;
+            }
+            case Instruction.Opaque opaque -> opaqueKind(opaque.description());
+            default -> Kind.UNKNOWN;
+        };
+    }
+
+    private static byte opaqueKind(String description)
+    {
+        if (description.startsWith("struct ") || description.startsWith("array ")
+                || description.equals("iterator") || description.equals("null"))
+            return Kind.REF;
+        if (description.equals("has_next"))
+            return Kind.BOOL;
+        if (characterLiteral(description) != null)
+            return Kind.INT;
+        return Kind.UNKNOWN;
+    }
+
+    private static byte kindOf(Value value, Map<Integer, Byte> kinds)
+    {
+        return switch (value)
+        {
+            case Value.Register(int id) -> kinds.getOrDefault(id, BOTTOM);
+            case Value.Int ignored -> Kind.INT;
+            case Value.Float ignored -> Kind.FLOAT;
+            case Value.Bool ignored -> Kind.BOOL;
+            case Value.Str ignored -> Kind.REF;
+            case Value.Unit ignored -> Kind.UNIT;
+        };
+    }
+
+    private static boolean isNumber(byte kind)
+    {
+        return kind == Kind.INT || kind == Kind.FLOAT;
+    }
+
+    /// `char a` or `rune 'a'` to the code point, or null if the literal is not a single character.
+    private static Value.Int characterLiteral(String description)
+    {
+        if (!description.startsWith("char ") && !description.startsWith("rune "))
+            return null;
+        String text = description.substring(5);
+        if (text.length() >= 2 && text.startsWith("'") && text.endsWith("'"))
+            text = text.substring(1, text.length() - 1);
+        return text.codePointCount(0, text.length()) == 1 ? new Value.Int(text.codePointAt(0)) : null;
+    }
+
+    // ==================================================
+    // ================== REGISTERS =====================
+    // ==================================================
+
+    private int newRegister(byte kind, long slot, Object ref)
+    {
+        slots.add(slot);
+        refs.add(ref);
+        kinds.add(kind < 0 ? Kind.UNIT : kind);
+        return kinds.size() - 1;
+    }
+
+    private int register(Value value)
+    {
+        return switch (value)
+        {
+            case Value.Register(int id) -> registers.computeIfAbsent(id,
+                    ignored -> newRegister(staticKinds.getOrDefault(id, Kind.UNKNOWN), 0, null));
+            case Value.Int(long v) -> constantRegisters.computeIfAbsent(value, ignored -> newRegister(Kind.INT, v, null));
+            case Value.Float(double v) -> constantRegisters.computeIfAbsent(value,
+                    ignored -> newRegister(Kind.FLOAT, Double.doubleToRawLongBits(v), null));
+            case Value.Bool(boolean v) -> constantRegisters.computeIfAbsent(value,
+                    ignored -> newRegister(Kind.BOOL, v ? 1 : 0, null));
+            case Value.Str(String v) -> constantRegisters.computeIfAbsent(value, ignored -> newRegister(Kind.REF, 0, v));
+            case Value.Unit ignored -> constantRegisters.computeIfAbsent(value, k -> newRegister(Kind.UNIT, 0, null));
+        };
+    }
+
+    private int constant(Object value)
+    {
+        return constantIndices.computeIfAbsent(value, ignored ->
+        {
+            constants.add(value);
+            return constants.size() - 1;
+        });
+    }
+
+    // ==================================================
+    // ==================== EMITTING ====================
+    // ==================================================
+
+    private void emit(int... words)
+    {
+        if (size + words.length > code.length)
+            code = Arrays.copyOf(code, Math.max(code.length * 2, size + words.length));
+        System.arraycopy(words, 0, code, size, words.length);
+        size += words.length;
+    }
+
+    private int newLabel()
+    {
+        labels.add(-1);
+        return labels.size() - 1;
+    }
+
+    private void bind(int label)
+    {
+        labels.set(label, size);
+    }
+
+    /// Emits a label operand, patched once every label is bound.
+    private void emitLabel(int label)
+    {
+        fixups.add(size);
+        emit(label);
+    }
+
+    private void trap(String message)
+    {
+        emit(Opcode.TRAP, constant(message));
+    }
+
+    private Chunk compile()
+    {
+        List<Block> order = function.reversePostOrder();
+        for (Block block : order)
+            blockLabels.put(block.getId(), newLabel());
+
+        int[] parameters = new int[function.getParameters().size()];
+        Arrays.fill(parameters, -1);
+        aliasConstants();
+
+        for (int i = 0; i < order.size(); i++)
+        {
+            Block block = order.get(i);
+            bind(blockLabels.get(block.getId()));
+            for (Instruction instruction : block.getInstructions())
+            {
+                if (instruction instanceof Instruction.Parameter parameter)
+                {
+                    if (parameter.index() < parameters.length)
+                        parameters[parameter.index()] = register(new Value.Register(parameter.target()));
+                }
+                else
+                {
+                    compile(instruction);
+                }
+            }
+            Block next = i + 1 < order.size() ? order.get(i + 1) : null;
+            compile(block, block.getTerminator(), next);
+        }
+
+        for (int[] stub : stubs)
+        {
+            bind(stub[0]);
+            moves(stub[1], function.block(stub[2]));
+            emit(Opcode.JUMP);
+            emitLabel(blockLabels.get(stub[2]));
+        }
+        for (int fixup : fixups)
+            code[fixup] = labels.get(code[fixup]);
+
+        // Parameters the function never reads still need somewhere to arrive
+        for (int i = 0; i < parameters.length; i++)
+            if (parameters[i] < 0)
+                parameters[i] = newRegister(Kind.UNIT, 0, null);
+
+        long[] slotTemplate = new long[slots.size()];
+        byte[] kindTemplate = new byte[kinds.size()];
+        for (int i = 0; i < slotTemplate.length; i++)
+        {
+            slotTemplate[i] = slots.get(i);
+            kindTemplate[i] = kinds.get(i);
+        }
+        return new Chunk(function.getName(), Arrays.copyOf(code, size), parameters,
+                slotTemplate, refs.toArray(), kindTemplate, constants.toArray());
+    }
+
+    /// Literals the IR keeps opaque but that are constants here share the register of that constant.
+    private void aliasConstants()
+    {
+        for (Block block : function.getBlocks())
+        {
+            for (Instruction instruction : block.getInstructions())
+            {
+                if (!(instruction instanceof Instruction.Opaque opaque))
+                    continue;
+                if (opaque.description().equals("null"))
+                    registers.put(opaque.target(), constantRegisters.computeIfAbsent(
+                            "null", ignored -> newRegister(Kind.REF, 0, null)));
+                Value.Int character = characterLiteral(opaque.description());
+                if (character != null)
+                    registers.put(opaque.target(), register(character));
+            }
+        }
+    }
+
+    private void compile(Instruction instruction)
+    {
+        int a = register(new Value.Register(instruction.target()));
+        switch (instruction)
+        {
+            case Instruction.Binary binary ->
+            {
+                int left = register(binary.left());
+                int right = register(binary.right());
+                byte leftKind = kindOf(binary.left(), staticKinds);
+                byte rightKind = kindOf(binary.right(), staticKinds);
+                Integer opcode = null;
+                if (leftKind == Kind.INT && rightKind == Kind.INT)
+                    opcode = INT_OPCODES.get(binary.operator());
+                else if (leftKind == Kind.FLOAT && rightKind == Kind.FLOAT)
+                    opcode = FLOAT_OPCODES.get(binary.operator());
+
+                int operator = Opcode.BINARY_OPERATORS.indexOf(binary.operator());
+                if (opcode != null)
+                    emit(opcode, a, left, right);
+                else if (operator >= 0)
+                    emit(Opcode.BINARY, a, operator, left, right);
+                else
+                    trap("Unsupported operator '" + binary.operator() + "'");
+            }
+            case Instruction.Unary unary ->
+            {
+                int operator = Opcode.UNARY_OPERATORS.indexOf(unary.operator());
+                if (operator >= 0)
+                    emit(Opcode.UNARY, a, operator, register(unary.operand()));
+                else
+                    trap("Unsupported operator '" + unary.operator() + "'");
+            }
+            case Instruction.Call call ->
+            {
+                Integer callee = functions.get(call.function());
+                int natives = Program.NATIVES.indexOf(call.function());
+                if (callee != null)
+                    emitVariadic(Opcode.CALL, a, callee, call.arguments());
+                else if (natives >= 0)
+                    emitVariadic(Opcode.CALL_NATIVE, a, natives, call.arguments());
+                else
+                    trap("Unknown function '" + call.function() + "'");
+            }
+            case Instruction.Opaque opaque -> compileOpaque(a, opaque);
+            case Instruction.Phi ignored ->
+            {
+                // Assigned by the moves on the incoming edges
+            }
+            case Instruction.Parameter ignored ->
+            {
+                // Assigned by the caller
+            }
+        }
+    }
+
+    private void emitVariadic(int opcode, int a, int operand, List<Value> arguments)
+    {
+        int[] words = new int[4 + arguments.size()];
+        words[0] = opcode;
+        words[1] = a;
+        words[2] = operand;
+        words[3] = arguments.size();
+        for (int i = 0; i < arguments.size(); i++)
+            words[4 + i] = register(arguments.get(i));
+        emit(words);
+    }
+
+    private void compileOpaque(int a, Instruction.Opaque opaque)
+    {
+        String description = opaque.description();
+        List<Value> operands = opaque.operands();
+
+        if (description.startsWith("load "))
+            emit(Opcode.GET_GLOBAL, a, global(description.substring(5)));
+        else if (description.startsWith("store "))
+            emit(Opcode.SET_GLOBAL, global(description.substring(6)), register(operands.getFirst()));
+        else if (description.startsWith("member "))
+            emit(Opcode.GET_MEMBER, a, register(operands.getFirst()), constant(description.substring(7)));
+        else if (description.startsWith("set member "))
+            emit(Opcode.SET_MEMBER, register(operands.get(0)), constant(description.substring(11)), register(operands.get(1)));
+        else if (description.equals("index"))
+            emit(Opcode.GET_INDEX, a, register(operands.get(0)), register(operands.get(1)));
+        else if (description.equals("set index"))
+            emit(Opcode.SET_INDEX, register(operands.get(0)), register(operands.get(1)), register(operands.get(2)));
+        else if (description.startsWith("struct "))
+            emitVariadic(Opcode.NEW_STRUCT, a, constant(shape(description)), operands);
+        else if (description.startsWith("array "))
+            emitVariadic(Opcode.NEW_ARRAY, a, register(operands.getFirst()), operands.subList(1, operands.size()));
+        else if (description.equals("iterator"))
+            emit(Opcode.ITERATOR, a, register(operands.getFirst()));
+        else if (description.equals("has_next"))
+            emit(Opcode.HAS_NEXT, a, register(operands.getFirst()));
+        else if (description.equals("next"))
+            emit(Opcode.NEXT, a, register(operands.getFirst()));
+        else if (!description.equals("null") && characterLiteral(description) == null)
+            trap("Not supported by the interpreter: " + description);
+    }
+
+    private int global(String name)
+    {
+        return globals.computeIfAbsent(name, ignored -> globals.size());
+    }
+
+    /// `struct Point {x, y}`
+    private static VmStruct.Shape shape(String description)
+    {
+        int open = description.indexOf(" {");
+        String type = description.substring("struct ".length(), open);
+        String fields = description.substring(open + 2, description.length() - 1);
+        return new VmStruct.Shape(type, fields.isEmpty() ? List.of() : List.of(fields.split(", ")));
+    }
+
+    private void compile(Block block, Terminator terminator, Block next)
+    {
+        switch (terminator)
+        {
+            case Terminator.Jump(int target) ->
+            {
+                moves(block.getId(), function.block(target));
+                if (next == null || next.getId() != target)
+                {
+                    emit(Opcode.JUMP);
+                    emitLabel(blockLabels.get(target));
+                }
+            }
+            case Terminator.Branch(Value condition, int ifTrue, int ifFalse) ->
+            {
+                emit(Opcode.BRANCH, register(condition));
+                emitLabel(edge(block.getId(), ifTrue));
+                emitLabel(edge(block.getId(), ifFalse));
+            }
+            case Terminator.Return(Value value) -> emit(Opcode.RETURN, register(value));
+            case Terminator.Unreachable ignored -> trap("Reached unreachable code");
+        }
+    }
+
+    /// The label to branch to: the block itself, or a stub with the moves into its phis.
+    private int edge(int from, int to)
+    {
+        if (function.block(to).getPhis().isEmpty())
+            return blockLabels.get(to);
+        int label = newLabel();
+        stubs.add(new int[]{label, from, to});
+        return label;
+    }
+
+    /// Moves the values the phis of {@code to} take from block {@code from} into place, as if all at once.
+    private void moves(int from, Block to)
+    {
+        List<int[]> pending = new ArrayList<>();
+        for (Instruction.Phi phi : to.getPhis())
+        {
+            Value value = Value.UNIT;
+            for (Instruction.Phi.Incoming incoming : phi.incoming())
+                if (incoming.block() == from)
+                    value = incoming.value();
+            int target = register(new Value.Register(phi.target()));
+            int source = register(value);
+            if (target != source)
+                pending.add(new int[]{target, source});
+        }
+
+        while (!pending.isEmpty())
+        {
+            boolean progress = false;
+            for (Iterator<int[]> iterator = pending.iterator(); iterator.hasNext(); )
+            {
+                int[] move = iterator.next();
+                if (pending.stream().noneMatch(other -> other[1] == move[0]))
+                {
+                    emit(Opcode.MOVE, move[0], move[1]);
+                    iterator.remove();
+                    progress = true;
+                }
+            }
+            if (!progress)
+            {
+                // A cycle: save one target before it is overwritten and read it from there
+                int saved = pending.getFirst()[0];
+                int temporary = newRegister(Kind.UNIT, 0, null);
+                emit(Opcode.MOVE, temporary, saved);
+                for (int[] move : pending)
+                    if (move[1] == saved)
+                        move[1] = temporary;
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package org.alex_hashtag.vm;
+
+/**
+ * The bytecode of one function.
+ * <p>
+ * A call allocates the registers of the callee by copying the three register templates, which
+ * already hold the constants the function uses, so constants cost nothing at run time.
+ */
+public final class Chunk
+{
+    final String name;
+    final int[] code;
+    /// The register each parameter arrives in.
+    final int[] parameters;
+    final long[] slots;
+    final Object[] refs;
+    final byte[] kinds;
+    /// Strings, struct shapes and trap messages that instructions refer to by index.
+    final Object[] constants;
+
+    Chunk(String name, int[] code, int[] parameters, long[] slots, Object[] refs, byte[] kinds, Object[] constants)
+    {
+        this.name = name;
+        this.code = code;
+        this.parameters = parameters;
+        this.slots = slots;
+        this.refs = refs;
+        this.kinds = kinds;
+        this.constants = constants;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public int getRegisterCount()
+    {
+        return slots.length;
+    }
+
+    public int getParameterCount()
+    {
+        return parameters.length;
+    }
+
+    /**
+     * @return the size of the code in ints.
+     */
+    public int size()
+    {
+        return code.length;
+    }
+
+    /**
+     * @return one instruction per line, preceded by the constants the registers start with.
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder("chunk ").append(name)
+                .append(" (").append(parameters.length).append(" parameters, ")
+                .append(slots.length).append(" registers)\n");
+        for (int r = 0; r < slots.length; r++)
+            if (kinds[r] != Kind.UNIT && (slots[r] != 0 || refs[r] != null || kinds[r] == Kind.BOOL))
+                sb.append("  r").append(r).append(" = ").append(Kind.format(slots[r], refs[r], kinds[r])).append('\n');
+        for (int pc = 0; pc < code.length; pc += Opcode.length(code, pc))
+        {
+            sb.append(String.format("  %4d: %-12s", pc, Opcode.name(code[pc])));
+            int length = Opcode.length(code, pc);
+            for (int i = 1; i < length; i++)
+                sb.append(' ').append(code[pc + i]);
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+}
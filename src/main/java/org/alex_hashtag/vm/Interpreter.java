@@ -0,0 +1,590 @@
+package org.alex_hashtag.vm;
+
+import java.io.PrintStream;
+import java.util.Objects;
+
+
+/**
+ * Runs a {@link Program}.
+ * <p>
+ * Registers are three parallel arrays per call: {@code long} slots, {@code Object} slots and kind
+ * tags (see {@link Kind}), so integers, floats and booleans are never boxed. The dispatch loop is a
+ * single {@code switch} over dense opcodes that the JIT turns into a jump table; the cases it runs
+ * most, moves, integer arithmetic, comparisons and branches, are a few array accesses each, while
+ * everything that needs checks or allocates is moved out into separate methods to keep the loop
+ * small enough to be compiled and inlined well.
+ * <p>
+ * Integers are 64-bit two's complement whatever their declared type, matching
+ * {@link org.alex_hashtag.internal_representation.ir.passes.ConstantFolding}.
+ * <p>
+ * An interpreter is not thread-safe; use one per thread.
+ */
+public final class Interpreter
+{
+    /// Calls nested deeper than this fail instead of overflowing the Java stack.
+    public static final int MAX_DEPTH = 2_000;
+
+    private final Program program;
+    private final PrintStream out;
+    private final long[] globalSlots;
+    private final Object[] globalRefs;
+    private final byte[] globalKinds;
+
+    // The value of the last return, so returning does not allocate
+    private long returnSlot;
+    private Object returnRef;
+    private byte returnKind;
+    private int depth;
+
+    /**
+     * @param out where {@code echo} prints.
+     */
+    public Interpreter(Program program, PrintStream out)
+    {
+        this.program = program;
+        this.out = out;
+        int globals = program.globals.size();
+        this.globalSlots = new long[globals];
+        this.globalRefs = new Object[globals];
+        this.globalKinds = new byte[globals];
+    }
+
+    /**
+     * Calls a function with arguments given as {@code Long}, {@code Double}, {@code Boolean},
+     * {@code String} or values an earlier call returned.
+     *
+     * @return the returned value in the same representation; {@code null} for unit.
+     * @throws VmException if the program fails.
+     */
+    public Object call(String function, Object... arguments)
+    {
+        Chunk chunk = program.function(function).unwrapOr(null);
+        if (chunk == null)
+            throw new VmException("Unknown function '" + function + "'");
+        if (arguments.length != chunk.parameters.length)
+            throw arity(chunk, arguments.length);
+
+        long[] slots = chunk.slots.clone();
+        Object[] refs = chunk.refs.clone();
+        byte[] kinds = chunk.kinds.clone();
+        for (int i = 0; i < arguments.length; i++)
+            unbox(arguments[i], slots, refs, kinds, chunk.parameters[i]);
+
+        depth = 0;
+        try
+        {
+            execute(chunk, slots, refs, kinds);
+        } catch (StackOverflowError e)
+        {
+            throw new VmException("Stack overflow");
+        }
+        return box(returnSlot, returnRef, returnKind);
+    }
+
+    static Object box(long slot, Object ref, byte kind)
+    {
+        return switch (kind)
+        {
+            case Kind.UNIT -> null;
+            case Kind.INT -> slot;
+            case Kind.FLOAT -> Double.longBitsToDouble(slot);
+            case Kind.BOOL -> slot != 0;
+            default -> ref;
+        };
+    }
+
+    private static void unbox(Object value, long[] slots, Object[] refs, byte[] kinds, int r)
+    {
+        switch (value)
+        {
+            case null -> set(slots, refs, kinds, r, 0, null, Kind.UNIT);
+            case Long v -> setInt(slots, refs, kinds, r, v);
+            case Integer v -> setInt(slots, refs, kinds, r, v);
+            case Double v -> setFloat(slots, refs, kinds, r, v);
+            case Float v -> setFloat(slots, refs, kinds, r, v);
+            case Boolean v -> setBool(slots, refs, kinds, r, v);
+            default -> set(slots, refs, kinds, r, 0, value, Kind.REF);
+        }
+    }
+
+    // ==================================================
+    // ================= DISPATCH LOOP ==================
+    // ==================================================
+
+    private void execute(Chunk chunk, long[] slots, Object[] refs, byte[] kinds)
+    {
+        final int[] code = chunk.code;
+        int pc = 0;
+        try
+        {
+            while (true)
+            {
+                switch (code[pc])
+                {
+                    case Opcode.MOVE ->
+                    {
+                        int a = code[pc + 1], b = code[pc + 2];
+                        slots[a] = slots[b];
+                        refs[a] = refs[b];
+                        kinds[a] = kinds[b];
+                        pc += 3;
+                    }
+                    case Opcode.ADD_I ->
+                    {
+                        slots[code[pc + 1]] = slots[code[pc + 2]] + slots[code[pc + 3]];
+                        pc += 4;
+                    }
+                    case Opcode.SUB_I ->
+                    {
+                        slots[code[pc + 1]] = slots[code[pc + 2]] - slots[code[pc + 3]];
+                        pc += 4;
+                    }
+                    case Opcode.MUL_I ->
+                    {
+                        slots[code[pc + 1]] = slots[code[pc + 2]] * slots[code[pc + 3]];
+                        pc += 4;
+                    }
+                    case Opcode.EQ_I ->
+                    {
+                        slots[code[pc + 1]] = slots[code[pc + 2]] == slots[code[pc + 3]] ? 1 : 0;
+                        pc += 4;
+                    }
+                    case Opcode.NE_I ->
+                    {
+                        slots[code[pc + 1]] = slots[code[pc + 2]] != slots[code[pc + 3]] ? 1 : 0;
+                        pc += 4;
+                    }
+                    case Opcode.LT_I ->
+                    {
+                        slots[code[pc + 1]] = slots[code[pc + 2]] < slots[code[pc + 3]] ? 1 : 0;
+                        pc += 4;
+                    }
+                    case Opcode.LE_I ->
+                    {
+                        slots[code[pc + 1]] = slots[code[pc + 2]] <= slots[code[pc + 3]] ? 1 : 0;
+                        pc += 4;
+                    }
+                    case Opcode.GT_I ->
+                    {
+                        slots[code[pc + 1]] = slots[code[pc + 2]] > slots[code[pc + 3]] ? 1 : 0;
+                        pc += 4;
+                    }
+                    case Opcode.GE_I ->
+                    {
+                        slots[code[pc + 1]] = slots[code[pc + 2]] >= slots[code[pc + 3]] ? 1 : 0;
+                        pc += 4;
+                    }
+                    case Opcode.ADD_F ->
+                    {
+                        slots[code[pc + 1]] = Double.doubleToRawLongBits(
+                                Double.longBitsToDouble(slots[code[pc + 2]]) + Double.longBitsToDouble(slots[code[pc + 3]]));
+                        pc += 4;
+                    }
+                    case Opcode.SUB_F ->
+                    {
+                        slots[code[pc + 1]] = Double.doubleToRawLongBits(
+                                Double.longBitsToDouble(slots[code[pc + 2]]) - Double.longBitsToDouble(slots[code[pc + 3]]));
+                        pc += 4;
+                    }
+                    case Opcode.MUL_F ->
+                    {
+                        slots[code[pc + 1]] = Double.doubleToRawLongBits(
+                                Double.longBitsToDouble(slots[code[pc + 2]]) * Double.longBitsToDouble(slots[code[pc + 3]]));
+                        pc += 4;
+                    }
+                    case Opcode.DIV_F ->
+                    {
+                        slots[code[pc + 1]] = Double.doubleToRawLongBits(
+                                Double.longBitsToDouble(slots[code[pc + 2]]) / Double.longBitsToDouble(slots[code[pc + 3]]));
+                        pc += 4;
+                    }
+                    case Opcode.BINARY ->
+                    {
+                        binary(code[pc + 2], slots, refs, kinds, code[pc + 1], code[pc + 3], code[pc + 4]);
+                        pc += 5;
+                    }
+                    case Opcode.UNARY ->
+                    {
+                        unary(code[pc + 2], slots, refs, kinds, code[pc + 1], code[pc + 3]);
+                        pc += 4;
+                    }
+                    case Opcode.JUMP -> pc = code[pc + 1];
+                    case Opcode.BRANCH ->
+                    {
+                        int condition = code[pc + 1];
+                        if (kinds[condition] != Kind.BOOL)
+                            throw typeError("a condition", Kind.BOOL, kinds[condition]);
+                        pc = slots[condition] != 0 ? code[pc + 2] : code[pc + 3];
+                    }
+                    case Opcode.RETURN ->
+                    {
+                        int b = code[pc + 1];
+                        returnSlot = slots[b];
+                        returnRef = refs[b];
+                        returnKind = kinds[b];
+                        return;
+                    }
+                    case Opcode.TRAP -> throw new VmException((String) chunk.constants[code[pc + 1]]);
+                    case Opcode.CALL -> pc = call(code, pc, slots, refs, kinds);
+                    case Opcode.CALL_NATIVE -> pc = callNative(code, pc, slots, refs, kinds);
+                    case Opcode.GET_GLOBAL ->
+                    {
+                        int a = code[pc + 1], g = code[pc + 2];
+                        set(slots, refs, kinds, a, globalSlots[g], globalRefs[g], globalKinds[g]);
+                        pc += 3;
+                    }
+                    case Opcode.SET_GLOBAL ->
+                    {
+                        int g = code[pc + 1], b = code[pc + 2];
+                        set(globalSlots, globalRefs, globalKinds, g, slots[b], refs[b], kinds[b]);
+                        pc += 3;
+                    }
+                    case Opcode.NEW_STRUCT -> pc = newStruct(chunk, code, pc, slots, refs, kinds);
+                    case Opcode.GET_MEMBER ->
+                    {
+                        VmStruct struct = struct(refs[code[pc + 2]], kinds[code[pc + 2]]);
+                        int field = struct.require((String) chunk.constants[code[pc + 3]]);
+                        set(slots, refs, kinds, code[pc + 1], struct.slots[field], struct.refs[field], struct.kinds[field]);
+                        pc += 4;
+                    }
+                    case Opcode.SET_MEMBER ->
+                    {
+                        VmStruct struct = struct(refs[code[pc + 1]], kinds[code[pc + 1]]);
+                        int field = struct.require((String) chunk.constants[code[pc + 2]]);
+                        int b = code[pc + 3];
+                        set(struct.slots, struct.refs, struct.kinds, field, slots[b], refs[b], kinds[b]);
+                        pc += 4;
+                    }
+                    case Opcode.NEW_ARRAY -> pc = newArray(code, pc, slots, refs, kinds);
+                    case Opcode.GET_INDEX ->
+                    {
+                        VmArray array = array(refs[code[pc + 2]], kinds[code[pc + 2]]);
+                        int index = array.check(index(slots, kinds, code[pc + 3]));
+                        set(slots, refs, kinds, code[pc + 1], array.slots[index], array.refs[index], array.kinds[index]);
+                        pc += 4;
+                    }
+                    case Opcode.SET_INDEX ->
+                    {
+                        VmArray array = array(refs[code[pc + 1]], kinds[code[pc + 1]]);
+                        int index = array.check(index(slots, kinds, code[pc + 2]));
+                        int b = code[pc + 3];
+                        set(array.slots, array.refs, array.kinds, index, slots[b], refs[b], kinds[b]);
+                        pc += 4;
+                    }
+                    case Opcode.ITERATOR ->
+                    {
+                        VmArray array = array(refs[code[pc + 2]], kinds[code[pc + 2]]);
+                        set(slots, refs, kinds, code[pc + 1], 0, new VmArray.Cursor(array), Kind.REF);
+                        pc += 3;
+                    }
+                    case Opcode.HAS_NEXT ->
+                    {
+                        VmArray.Cursor cursor = (VmArray.Cursor) refs[code[pc + 2]];
+                        setBool(slots, refs, kinds, code[pc + 1], cursor.next < cursor.array.length());
+                        pc += 3;
+                    }
+                    case Opcode.NEXT ->
+                    {
+                        VmArray.Cursor cursor = (VmArray.Cursor) refs[code[pc + 2]];
+                        int index = cursor.array.check(cursor.next++);
+                        VmArray array = cursor.array;
+                        set(slots, refs, kinds, code[pc + 1], array.slots[index], array.refs[index], array.kinds[index]);
+                        pc += 3;
+                    }
+                    default -> throw new VmException("Invalid opcode " + code[pc] + " at " + pc);
+                }
+            }
+        } catch (VmException e)
+        {
+            throw e.in(chunk.name);
+        }
+    }
+
+    // ==================================================
+    // ===================== CALLS ======================
+    // ==================================================
+
+    private int call(int[] code, int pc, long[] slots, Object[] refs, byte[] kinds)
+    {
+        Chunk callee = program.chunks[code[pc + 2]];
+        int argc = code[pc + 3];
+        if (argc != callee.parameters.length)
+            throw arity(callee, argc);
+
+        long[] calleeSlots = callee.slots.clone();
+        Object[] calleeRefs = callee.refs.clone();
+        byte[] calleeKinds = callee.kinds.clone();
+        int[] parameters = callee.parameters;
+        for (int i = 0; i < argc; i++)
+        {
+            int from = code[pc + 4 + i], to = parameters[i];
+            calleeSlots[to] = slots[from];
+            calleeRefs[to] = refs[from];
+            calleeKinds[to] = kinds[from];
+        }
+
+        if (++depth > MAX_DEPTH)
+            throw new VmException("Stack overflow: more than " + MAX_DEPTH + " nested calls");
+        try
+        {
+            execute(callee, calleeSlots, calleeRefs, calleeKinds);
+        } finally
+        {
+            depth--;
+        }
+        set(slots, refs, kinds, code[pc + 1], returnSlot, returnRef, returnKind);
+        return pc + 4 + argc;
+    }
+
+    private int callNative(int[] code, int pc, long[] slots, Object[] refs, byte[] kinds)
+    {
+        int argc = code[pc + 3];
+        switch (Program.NATIVES.get(code[pc + 2]))
+        {
+            case "echo" ->
+            {
+                StringBuilder sb = new StringBuilder();
+                for (int i = 0; i < argc; i++)
+                {
+                    int r = code[pc + 4 + i];
+                    if (i > 0)
+                        sb.append(' ');
+                    sb.append(Kind.format(slots[r], refs[r], kinds[r]));
+                }
+                out.println(sb);
+            }
+            default -> throw new VmException("Unknown native " + Program.NATIVES.get(code[pc + 2]));
+        }
+        set(slots, refs, kinds, code[pc + 1], 0, null, Kind.UNIT);
+        return pc + 4 + argc;
+    }
+
+    private static VmException arity(Chunk callee, int arguments)
+    {
+        return new VmException(callee.name + " takes " + callee.parameters.length
+                + " arguments but was called with " + arguments);
+    }
+
+    // ==================================================
+    // ============== STRUCTS AND ARRAYS ================
+    // ==================================================
+
+    private static int newStruct(Chunk chunk, int[] code, int pc, long[] slots, Object[] refs, byte[] kinds)
+    {
+        VmStruct struct = new VmStruct((VmStruct.Shape) chunk.constants[code[pc + 2]]);
+        int argc = code[pc + 3];
+        for (int i = 0; i < argc; i++)
+        {
+            int r = code[pc + 4 + i];
+            set(struct.slots, struct.refs, struct.kinds, i, slots[r], refs[r], kinds[r]);
+        }
+        set(slots, refs, kinds, code[pc + 1], 0, struct, Kind.REF);
+        return pc + 4 + argc;
+    }
+
+    private static int newArray(int[] code, int pc, long[] slots, Object[] refs, byte[] kinds)
+    {
+        int size = code[pc + 2];
+        int argc = code[pc + 3];
+        long length = kinds[size] == Kind.UNIT ? 0 : index(slots, kinds, size);
+        if (length < 0 || length > Integer.MAX_VALUE - 8)
+            throw new VmException("Invalid array size " + length);
+
+        VmArray array = new VmArray((int) Math.max(length, argc));
+        for (int i = 0; i < argc; i++)
+        {
+            int r = code[pc + 4 + i];
+            set(array.slots, array.refs, array.kinds, i, slots[r], refs[r], kinds[r]);
+        }
+        set(slots, refs, kinds, code[pc + 1], 0, array, Kind.REF);
+        return pc + 4 + argc;
+    }
+
+    private static VmStruct struct(Object ref, byte kind)
+    {
+        if (ref instanceof VmStruct struct)
+            return struct;
+        throw new VmException("Expected a struct, found " + (kind == Kind.REF ? String.valueOf(ref) : Kind.name(kind)));
+    }
+
+    private static VmArray array(Object ref, byte kind)
+    {
+        if (ref instanceof VmArray array)
+            return array;
+        throw new VmException("Expected an array, found " + (kind == Kind.REF ? String.valueOf(ref) : Kind.name(kind)));
+    }
+
+    private static long index(long[] slots, byte[] kinds, int r)
+    {
+        if (kinds[r] != Kind.INT)
+            throw typeError("an index", Kind.INT, kinds[r]);
+        return slots[r];
+    }
+
+    // ==================================================
+    // ================== OPERATORS =====================
+    // ==================================================
+
+    /// The operators of {@link Opcode#BINARY}, dispatching on the kinds found at run time.
+    private static void binary(int operator, long[] slots, Object[] refs, byte[] kinds, int a, int b, int c)
+    {
+        byte left = kinds[b], right = kinds[c];
+        String symbol = Opcode.BINARY_OPERATORS.get(operator);
+
+        if (left == Kind.INT && right == Kind.INT)
+        {
+            long l = slots[b], r = slots[c];
+            switch (symbol)
+            {
+                case "+" -> setInt(slots, refs, kinds, a, l + r);
+                case "-" -> setInt(slots, refs, kinds, a, l - r);
+                case "*" -> setInt(slots, refs, kinds, a, l * r);
+                case "/" -> setInt(slots, refs, kinds, a, l / nonZero(r));
+                case "%" -> setInt(slots, refs, kinds, a, l % nonZero(r));
+                case "&" -> setInt(slots, refs, kinds, a, l & r);
+                case "|" -> setInt(slots, refs, kinds, a, l | r);
+                case "^" -> setInt(slots, refs, kinds, a, l ^ r);
+                case "<<" -> setInt(slots, refs, kinds, a, l << shift(r));
+                case ">>" -> setInt(slots, refs, kinds, a, l >> shift(r));
+                case ">>>" -> setInt(slots, refs, kinds, a, l >>> shift(r));
+                default -> setBool(slots, refs, kinds, a, compare(symbol, Long.compare(l, r)));
+            }
+            return;
+        }
+        if (isNumber(left) && isNumber(right))
+        {
+            double l = left == Kind.INT ? slots[b] : Double.longBitsToDouble(slots[b]);
+            double r = right == Kind.INT ? slots[c] : Double.longBitsToDouble(slots[c]);
+            switch (symbol)
+            {
+                case "+" -> setFloat(slots, refs, kinds, a, l + r);
+                case "-" -> setFloat(slots, refs, kinds, a, l - r);
+                case "*" -> setFloat(slots, refs, kinds, a, l * r);
+                case "/" -> setFloat(slots, refs, kinds, a, l / r);
+                case "%" -> setFloat(slots, refs, kinds, a, l % r);
+                case "==" -> setBool(slots, refs, kinds, a, l == r);
+                case "!=" -> setBool(slots, refs, kinds, a, l != r);
+                case "<" -> setBool(slots, refs, kinds, a, l < r);
+                case ">" -> setBool(slots, refs, kinds, a, l > r);
+                case "<=" -> setBool(slots, refs, kinds, a, l <= r);
+                case ">=" -> setBool(slots, refs, kinds, a, l >= r);
+                default -> throw operatorError(symbol, left, right);
+            }
+            return;
+        }
+        if (left == Kind.BOOL && right == Kind.BOOL)
+        {
+            boolean l = slots[b] != 0, r = slots[c] != 0;
+            switch (symbol)
+            {
+                case "&" -> setBool(slots, refs, kinds, a, l & r);
+                case "|" -> setBool(slots, refs, kinds, a, l | r);
+                case "^", "!=" -> setBool(slots, refs, kinds, a, l ^ r);
+                case "==" -> setBool(slots, refs, kinds, a, l == r);
+                default -> throw operatorError(symbol, left, right);
+            }
+            return;
+        }
+        if (symbol.equals("+") && (refs[b] instanceof String || refs[c] instanceof String))
+        {
+            String text = Kind.format(slots[b], refs[b], left) + Kind.format(slots[c], refs[c], right);
+            set(slots, refs, kinds, a, 0, text, Kind.REF);
+            return;
+        }
+        if (refs[b] instanceof String l && refs[c] instanceof String r && Opcode.BINARY_OPERATORS.indexOf(symbol) >= 11)
+        {
+            setBool(slots, refs, kinds, a, compare(symbol, l.compareTo(r)));
+            return;
+        }
+        switch (symbol)
+        {
+            case "==" -> setBool(slots, refs, kinds, a, left == right && Objects.equals(refs[b], refs[c]));
+            case "!=" -> setBool(slots, refs, kinds, a, left != right || !Objects.equals(refs[b], refs[c]));
+            default -> throw operatorError(symbol, left, right);
+        }
+    }
+
+    private static boolean compare(String symbol, int comparison)
+    {
+        return switch (symbol)
+        {
+            case "==" -> comparison == 0;
+            case "!=" -> comparison != 0;
+            case "<" -> comparison < 0;
+            case ">" -> comparison > 0;
+            case "<=" -> comparison <= 0;
+            default -> comparison >= 0;
+        };
+    }
+
+    private static void unary(int operator, long[] slots, Object[] refs, byte[] kinds, int a, int b)
+    {
+        byte kind = kinds[b];
+        String symbol = Opcode.UNARY_OPERATORS.get(operator);
+        if (symbol.equals("-") && kind == Kind.INT)
+            setInt(slots, refs, kinds, a, -slots[b]);
+        else if (symbol.equals("-") && kind == Kind.FLOAT)
+            setFloat(slots, refs, kinds, a, -Double.longBitsToDouble(slots[b]));
+        else if (symbol.equals("!") && kind == Kind.BOOL)
+            setBool(slots, refs, kinds, a, slots[b] == 0);
+        else if (symbol.equals("~") && kind == Kind.INT)
+            setInt(slots, refs, kinds, a, ~slots[b]);
+        else
+            throw new VmException("Cannot apply '" + symbol + "' to " + Kind.name(kind));
+    }
+
+    private static long nonZero(long divisor)
+    {
+        if (divisor == 0)
+            throw new VmException("Division by zero");
+        return divisor;
+    }
+
+    private static long shift(long distance)
+    {
+        if (distance < 0 || distance > 63)
+            throw new VmException("Shift distance " + distance + " is out of range");
+        return distance;
+    }
+
+    private static boolean isNumber(byte kind)
+    {
+        return kind == Kind.INT || kind == Kind.FLOAT;
+    }
+
+    private static VmException operatorError(String symbol, byte left, byte right)
+    {
+        return new VmException("Cannot apply '" + symbol + "' to " + Kind.name(left) + " and " + Kind.name(right));
+    }
+
+    private static VmException typeError(String what, byte expected, byte found)
+    {
+        return new VmException("Expected " + what + " of kind " + Kind.name(expected) + ", found " + Kind.name(found));
+    }
+
+    // ==================================================
+    // =================== REGISTERS ====================
+    // ==================================================
+
+    private static void set(long[] slots, Object[] refs, byte[] kinds, int r, long slot, Object ref, byte kind)
+    {
+        slots[r] = slot;
+        refs[r] = ref;
+        kinds[r] = kind;
+    }
+
+    private static void setInt(long[] slots, Object[] refs, byte[] kinds, int r, long value)
+    {
+        set(slots, refs, kinds, r, value, null, Kind.INT);
+    }
+
+    private static void setFloat(long[] slots, Object[] refs, byte[] kinds, int r, double value)
+    {
+        set(slots, refs, kinds, r, Double.doubleToRawLongBits(value), null, Kind.FLOAT);
+    }
+
+    private static void setBool(long[] slots, Object[] refs, byte[] kinds, int r, boolean value)
+    {
+        set(slots, refs, kinds, r, value ? 1 : 0, null, Kind.BOOL);
+    }
+}
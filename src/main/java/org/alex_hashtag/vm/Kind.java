@@ -0,0 +1,50 @@
+package org.alex_hashtag.vm;
+
+/**
+ * What a register holds. Every register is a {@code long} slot, an {@code Object} slot and one of
+ * these tags: integers and booleans live in the {@code long} slot, floats as their raw bits, and
+ * strings, structs and arrays in the {@code Object} slot. Primitives are therefore never boxed.
+ */
+public final class Kind
+{
+    public static final byte UNIT = 0;
+    public static final byte INT = 1;
+    public static final byte FLOAT = 2;
+    public static final byte BOOL = 3;
+    public static final byte REF = 4;
+
+    /// Used by the compiler for registers whose kind is only known at run time.
+    static final byte UNKNOWN = -1;
+
+    private Kind()
+    {
+    }
+
+    public static String name(byte kind)
+    {
+        return switch (kind)
+        {
+            case UNIT -> "unit";
+            case INT -> "int";
+            case FLOAT -> "float";
+            case BOOL -> "bool";
+            case REF -> "reference";
+            default -> "unknown";
+        };
+    }
+
+    /**
+     * @return how {@code echo} prints a value.
+     */
+    public static String format(long slot, Object ref, byte kind)
+    {
+        return switch (kind)
+        {
+            case UNIT -> "()";
+            case INT -> Long.toString(slot);
+            case FLOAT -> Double.toString(Double.longBitsToDouble(slot));
+            case BOOL -> slot != 0 ? "true" : "false";
+            default -> String.valueOf(ref);
+        };
+    }
+}
@@ -0,0 +1,120 @@
+package org.alex_hashtag.vm;
+
+import java.util.List;
+
+
+/**
+ * The instruction set of the interpreter.
+ * <p>
+ * An instruction is an opcode followed by its operands, all {@code int}s in the code array of a
+ * {@link Chunk}. Operands are register numbers unless noted otherwise; {@code a} is the register
+ * written. Instructions marked variadic end with an argument count and that many registers.
+ * <p>
+ * The {@code _I} and {@code _F} instructions are only emitted when the compiler proved both
+ * operands to be integers or floats; they skip all checks and do not update the kind of their
+ * target, which is fixed for the whole function. Everything else goes through {@link #BINARY} and
+ * {@link #UNARY}, which dispatch on the kinds of their operands at run time.
+ */
+public final class Opcode
+{
+    /// `a = b`
+    public static final int MOVE = 0;
+    /// `a = b + c` on integers, and so on up to {@link #GE_I}.
+    public static final int ADD_I = 1;
+    public static final int SUB_I = 2;
+    public static final int MUL_I = 3;
+    public static final int EQ_I = 4;
+    public static final int NE_I = 5;
+    public static final int LT_I = 6;
+    public static final int LE_I = 7;
+    public static final int GT_I = 8;
+    public static final int GE_I = 9;
+    /// `a = b + c` on floats, and so on up to {@link #DIV_F}.
+    public static final int ADD_F = 10;
+    public static final int SUB_F = 11;
+    public static final int MUL_F = 12;
+    public static final int DIV_F = 13;
+    /// `a operator b c`: operator is an index into {@link #BINARY_OPERATORS}.
+    public static final int BINARY = 14;
+    /// `a operator b`: operator is an index into {@link #UNARY_OPERATORS}.
+    public static final int UNARY = 15;
+    /// `target`: a code offset.
+    public static final int JUMP = 16;
+    /// `condition ifTrue ifFalse`: code offsets.
+    public static final int BRANCH = 17;
+    /// `b`
+    public static final int RETURN = 18;
+    /// `message`: an index into the constants of the chunk. Fails with that message.
+    public static final int TRAP = 19;
+    /// `a function argc args...`: function is an index into the chunks of the program. Variadic.
+    public static final int CALL = 20;
+    /// `a native argc args...`: native is an index into {@link Program#NATIVES}. Variadic.
+    public static final int CALL_NATIVE = 21;
+    /// `a global`: global is an index into the globals of the program.
+    public static final int GET_GLOBAL = 22;
+    /// `global b`
+    public static final int SET_GLOBAL = 23;
+    /// `a shape argc fields...`: shape is the index of a {@link VmStruct.Shape} constant. Variadic.
+    public static final int NEW_STRUCT = 24;
+    /// `a object name`: name is the index of a string constant.
+    public static final int GET_MEMBER = 25;
+    /// `object name b`
+    public static final int SET_MEMBER = 26;
+    /// `a size argc elements...`: the array is as long as size or the elements, whichever is longer. Variadic.
+    public static final int NEW_ARRAY = 27;
+    /// `a array index`
+    public static final int GET_INDEX = 28;
+    /// `array index b`
+    public static final int SET_INDEX = 29;
+    /// `a b`: an iterator over the array b.
+    public static final int ITERATOR = 30;
+    /// `a b`: whether the iterator b has elements left.
+    public static final int HAS_NEXT = 31;
+    /// `a b`: the next element of the iterator b.
+    public static final int NEXT = 32;
+
+    public static final List<String> BINARY_OPERATORS = List.of(
+            "+", "-", "*", "/", "%", "&", "|", "^", "<<", ">>", ">>>", "==", "!=", "<", ">", "<=", ">=");
+    public static final List<String> UNARY_OPERATORS = List.of("-", "!", "~");
+
+    private static final String[] NAMES = {
+            "move", "add_i", "sub_i", "mul_i", "eq_i", "ne_i", "lt_i", "le_i", "gt_i", "ge_i",
+            "add_f", "sub_f", "mul_f", "div_f", "binary", "unary", "jump", "branch", "return", "trap",
+            "call", "call_native", "get_global", "set_global", "new_struct", "get_member", "set_member",
+            "new_array", "get_index", "set_index", "iterator", "has_next", "next"
+    };
+
+    /// Operands before the arguments of variadic instructions, the argument count included.
+    private static final int[] OPERANDS = {
+            2, 3, 3, 3, 3, 3, 3, 3, 3, 3,
+            3, 3, 3, 3, 4, 3, 1, 3, 1, 1,
+            3, 3, 2, 2, 3, 3, 3,
+            3, 3, 3, 2, 2, 2
+    };
+
+    private Opcode()
+    {
+    }
+
+    public static String name(int opcode)
+    {
+        return NAMES[opcode];
+    }
+
+    /**
+     * @return the number of ints the instruction at {@code pc} takes, opcode included.
+     */
+    public static int length(int[] code, int pc)
+    {
+        int opcode = code[pc];
+        int length = 1 + OPERANDS[opcode];
+        if (isVariadic(opcode))
+            length += code[pc + 3];
+        return length;
+    }
+
+    static boolean isVariadic(int opcode)
+    {
+        return opcode == CALL || opcode == CALL_NATIVE || opcode == NEW_STRUCT || opcode == NEW_ARRAY;
+    }
+}
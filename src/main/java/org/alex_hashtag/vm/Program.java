@@ -0,0 +1,62 @@
+package org.alex_hashtag.vm;
+
+import org.alex_hashtag.lib.results.Option;
+
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * A compiled module: the chunks of its functions and the globals they share.
+ */
+public final class Program
+{
+    /// Functions provided by the interpreter itself, callable like any other.
+    public static final List<String> NATIVES = List.of("echo");
+
+    final Chunk[] chunks;
+    private final Map<String, Integer> functions;
+    final List<String> globals;
+
+    Program(Chunk[] chunks, Map<String, Integer> functions, List<String> globals)
+    {
+        this.chunks = chunks;
+        this.functions = Map.copyOf(functions);
+        this.globals = List.copyOf(globals);
+    }
+
+    /**
+     * Finds a function by its qualified name, or by its simple name if only one function has it.
+     */
+    public Option<Chunk> function(String name)
+    {
+        Integer index = functions.get(name);
+        if (index != null)
+            return Option.some(chunks[index]);
+
+        Chunk found = null;
+        for (Map.Entry<String, Integer> entry : functions.entrySet())
+        {
+            if (!entry.getKey().endsWith("." + name))
+                continue;
+            if (found != null)
+                return Option.none(); // Ambiguous
+            found = chunks[entry.getValue()];
+        }
+        return found == null ? Option.none() : Option.some(found);
+    }
+
+    public List<Chunk> getChunks()
+    {
+        return List.of(chunks);
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        for (Chunk chunk : chunks)
+            sb.append(chunk).append('\n');
+        return sb.toString();
+    }
+}
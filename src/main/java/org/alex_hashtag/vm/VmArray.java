@@ -0,0 +1,65 @@
+package org.alex_hashtag.vm;
+
+/**
+ * An array value at run time. Elements are stored like registers, so primitives are not boxed.
+ */
+public final class VmArray
+{
+    final long[] slots;
+    final Object[] refs;
+    final byte[] kinds;
+
+    VmArray(int length)
+    {
+        this.slots = new long[length];
+        this.refs = new Object[length];
+        this.kinds = new byte[length];
+    }
+
+    public int length()
+    {
+        return slots.length;
+    }
+
+    /**
+     * @return an element, boxed, as {@link Interpreter#call(String, Object...)} returns it.
+     */
+    public Object get(int index)
+    {
+        return Interpreter.box(slots[check(index)], refs[index], kinds[index]);
+    }
+
+    int check(long index)
+    {
+        if (index < 0 || index >= slots.length)
+            throw new VmException("Index " + index + " out of bounds for length " + slots.length);
+        return (int) index;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < slots.length; i++)
+        {
+            if (i > 0)
+                sb.append(", ");
+            sb.append(Kind.format(slots[i], refs[i], kinds[i]));
+        }
+        return sb.append(']').toString();
+    }
+
+    /**
+     * The state of a {@code for (x : array)} loop.
+     */
+    static final class Cursor
+    {
+        final VmArray array;
+        int next;
+
+        Cursor(VmArray array)
+        {
+            this.array = array;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package org.alex_hashtag.vm;
+
+/**
+ * An error while running a program, such as a division by zero or an index out of bounds.
+ */
+public class VmException extends RuntimeException
+{
+    private String function;
+
+    public VmException(String message)
+    {
+        super(message);
+    }
+
+    /**
+     * @return the function that was running when the error occurred, or null if none was.
+     */
+    public String getFunction()
+    {
+        return function;
+    }
+
+    /// Records the innermost function, the first one the exception passes through.
+    VmException in(String function)
+    {
+        if (this.function == null)
+            this.function = function;
+        return this;
+    }
+
+    @Override
+    public String getMessage()
+    {
+        return function == null ? super.getMessage() : super.getMessage() + " (in " + function + ")";
+    }
+}
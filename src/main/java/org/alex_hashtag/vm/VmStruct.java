@@ -0,0 +1,78 @@
+package org.alex_hashtag.vm;
+
+import java.util.List;
+
+
+/**
+ * A struct value at run time. Fields are stored like registers, so primitives are not boxed.
+ */
+public final class VmStruct
+{
+    /**
+     * The type name and field names of a struct literal; shared by every struct it creates.
+     */
+    public record Shape(String type, List<String> fields)
+    {
+        public Shape
+        {
+            fields = List.copyOf(fields);
+        }
+
+        /**
+         * @return the position of the field, or -1 if the struct has none of that name.
+         */
+        public int indexOf(String field)
+        {
+            return fields.indexOf(field);
+        }
+    }
+
+    final Shape shape;
+    final long[] slots;
+    final Object[] refs;
+    final byte[] kinds;
+
+    VmStruct(Shape shape)
+    {
+        int size = shape.fields().size();
+        this.shape = shape;
+        this.slots = new long[size];
+        this.refs = new Object[size];
+        this.kinds = new byte[size];
+    }
+
+    public Shape getShape()
+    {
+        return shape;
+    }
+
+    /**
+     * @return the value of a field, boxed, as {@link Interpreter#call(String, Object...)} returns it.
+     */
+    public Object get(String field)
+    {
+        int index = require(field);
+        return Interpreter.box(slots[index], refs[index], kinds[index]);
+    }
+
+    int require(String field)
+    {
+        int index = shape.indexOf(field);
+        if (index < 0)
+            throw new VmException("Struct " + shape.type() + " has no field '" + field + "'");
+        return index;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder(shape.type()).append(" {");
+        for (int i = 0; i < slots.length; i++)
+        {
+            if (i > 0)
+                sb.append(',');
+            sb.append(' ').append(shape.fields().get(i)).append(": ").append(Kind.format(slots[i], refs[i], kinds[i]));
+        }
+        return sb.append(slots.length == 0 ? "}" : " }").toString();
+    }
+}
@@ -0,0 +1,141 @@
+package org.alex_hashtag.buildSystem;
+
+import org.alex_hashtag.errors.ParsingErrorManager.ErrorType;
+import org.alex_hashtag.internal_representation.macros.Macro;
+import org.alex_hashtag.internal_representation.macros.MacroIndex;
+import org.alex_hashtag.lib.cancellation.CancellationToken;
+import org.alex_hashtag.lib.cancellation.CancelledException;
+import org.alex_hashtag.lib.errors.Diagnostic;
+import org.alex_hashtag.lib.errors.Diagnostics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class IncrementalBuildTest
+{
+
+    @TempDir
+    Path root;
+
+    private final List<Diagnostic> reported = new ArrayList<>();
+    private IncrementalBuild build;
+
+    @BeforeEach
+    void setUp() throws IOException
+    {
+        Files.createDirectories(root.resolve("a"));
+        Files.createDirectories(root.resolve("b"));
+        Files.createDirectories(root.resolve("c"));
+        write("a/A.toucan", "package a;\npublic macro log { ($x) -> { $x } }\n");
+        write("a/Util.toucan", "package a;\nmacro twice { ($x) -> { $x $x } }\n");
+        write("b/B.toucan", "package b;\nimport a.log;\nmacro run { ($x) -> { $x } }\n");
+        write("c/C.toucan", "package c;\nmacro other { ($x) -> { $x } }\n");
+        build = new IncrementalBuild(new ProjectScanner(root, List.of()), new Diagnostics(reported::add, 0));
+    }
+
+    private Path write(String name, String source) throws IOException
+    {
+        return Files.writeString(root.resolve(name), source);
+    }
+
+    private List<Path> paths(String... names)
+    {
+        return Arrays.stream(names).map(root::resolve).toList();
+    }
+
+    private static List<String> macros(IncrementalBuild.Round round)
+    {
+        return round.ast().getMacroIndex().getMacros().stream().map(Macro::getName).toList();
+    }
+
+    @Test
+    void testEditReprocessesTheFileAndItsDependents() throws IOException
+    {
+        IncrementalBuild.Round first = build.update();
+        assertEquals(paths("a/A.toucan", "a/Util.toucan", "b/B.toucan", "c/C.toucan"), first.changed());
+        assertFalse(first.hasErrors());
+
+        IncrementalBuild.Round unchanged = build.update();
+        assertTrue(unchanged.isEmpty());
+        assertTrue(unchanged.affected().isEmpty());
+
+        write("a/A.toucan", "package a;\npublic macro log { ($x) -> { $x } }\npublic macro warn { ($x) -> { $x } }\n");
+        IncrementalBuild.Round edited = build.update();
+        assertEquals(paths("a/A.toucan"), edited.changed());
+        assertEquals(paths("a/A.toucan", "a/Util.toucan", "b/B.toucan"), edited.affected());
+        assertEquals(List.of("a.log", "a.warn", "a.twice", "b.run", "c.other"), macros(edited));
+    }
+
+    @Test
+    void testRemovedFileIsForgotten() throws IOException
+    {
+        build.update();
+        Files.delete(root.resolve("a/Util.toucan"));
+
+        IncrementalBuild.Round round = build.update();
+        assertFalse(round.isEmpty());
+        assertEquals(paths("a/Util.toucan"), round.removed());
+        assertEquals(paths("a/A.toucan", "b/B.toucan"), round.affected());
+        assertFalse(build.getStreams().containsKey(root.resolve("a/Util.toucan")));
+        assertEquals(List.of("a.log", "b.run", "c.other"), macros(round));
+    }
+
+    @Test
+    void testDuplicateIsReportedForTheRoundOnly() throws IOException
+    {
+        build.update();
+        write("a/Util.toucan", "package a;\nmacro twice { ($x) -> { $x $x } }\nmacro log { ($x) -> { $x } }\n");
+
+        IncrementalBuild.Round duplicate = build.update();
+        assertTrue(duplicate.hasErrors());
+        MacroIndex index = duplicate.ast().getMacroIndex();
+        String util = root.resolve("a/Util.toucan").toString();
+        assertTrue(index.getDuplicates(util).unwrap().hasError(ErrorType.DUPLICATE_MACRO, 3, 0));
+        assertTrue(index.getDuplicates(root.resolve("a/A.toucan").toString()).isNone());
+        assertEquals(1, reported.size());
+
+        // Removing the duplicate leaves no error behind, in the file that had it or anywhere else
+        write("a/Util.toucan", "package a;\nmacro twice { ($x) -> { $x $x } }\nmacro info { ($x) -> { $x } }\n");
+        IncrementalBuild.Round fixed = build.update();
+        assertFalse(fixed.hasErrors());
+        assertFalse(fixed.ast().getMacroIndex().hasErrors());
+        assertTrue(fixed.ast().getMacroIndex().getDuplicates(util).isNone());
+        assertEquals(List.of("a.log", "a.twice", "a.info", "b.run", "c.other"), macros(fixed));
+
+        // And a later round over the same files stays clean
+        write("c/C.toucan", "package c;\nmacro other { ($x) -> { $x $x } }\n");
+        assertFalse(build.update().hasErrors());
+    }
+
+    @Test
+    void testCancelledUpdateKeepsThePreviousRound() throws IOException
+    {
+        build.update();
+        Map<Path, ?> before = build.getStreams();
+        write("a/A.toucan", "package a;\npublic macro warn { ($x) -> { $x } }\n");
+        Files.delete(root.resolve("c/C.toucan"));
+
+        CancellationToken cancellation = CancellationToken.create();
+        cancellation.cancel();
+        assertThrows(CancelledException.class, () -> build.update(cancellation));
+        assertEquals(before, build.getStreams());
+
+        // The next update does the work the cancelled one gave up on
+        IncrementalBuild.Round round = build.update();
+        assertEquals(2, round.number());
+        assertEquals(paths("a/A.toucan"), round.changed());
+        assertEquals(paths("c/C.toucan"), round.removed());
+        assertEquals(List.of("a.warn", "a.twice", "b.run"), macros(round));
+    }
+}
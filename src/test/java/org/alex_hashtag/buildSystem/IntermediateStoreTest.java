@@ -0,0 +1,98 @@
+package org.alex_hashtag.buildSystem;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class IntermediateStoreTest
+{
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testArtifactsAreAddressedByTheirInputs() throws IOException
+    {
+        IntermediateStore store = new IntermediateStore(directory, IntermediateStore.DEFAULT_LIMIT);
+
+        IntermediateStore.Key key = IntermediateStore.key("tokens", bytes("package a;"));
+        assertEquals(key, IntermediateStore.key("tokens", bytes("package a;")));
+        assertNotEquals(key, IntermediateStore.key("ast", bytes("package a;")));
+        assertNotEquals(IntermediateStore.key("tokens", bytes("ab"), bytes("c")),
+                IntermediateStore.key("tokens", bytes("a"), bytes("bc")));
+
+        assertTrue(store.get(key).isNone());
+        assertTrue(store.put(key, bytes("dump")));
+        assertTrue(store.put(key, bytes("dump")));
+        assertEquals("dump", new String(store.get(key).unwrap(), StandardCharsets.UTF_8));
+
+        // A second store over the same directory, e.g. another checkout, sees the artifact
+        IntermediateStore shared = new IntermediateStore(directory, IntermediateStore.DEFAULT_LIMIT);
+        assertTrue(shared.get(key).isSome());
+        try (Stream<Path> files = Files.walk(directory))
+        {
+            assertEquals(1, files.filter(Files::isRegularFile).count());
+        }
+    }
+
+    @Test
+    void testGarbageCollectionEvictsLeastRecentlyUsed() throws IOException
+    {
+        IntermediateStore store = new IntermediateStore(directory, 10);
+
+        IntermediateStore.Key old = IntermediateStore.key("tokens", bytes("old"));
+        IntermediateStore.Key used = IntermediateStore.key("tokens", bytes("used"));
+        IntermediateStore.Key recent = IntermediateStore.key("tokens", bytes("recent"));
+        store.put(old, bytes("aaaa"));
+        store.put(used, bytes("bbbb"));
+        store.put(recent, bytes("cccc"));
+        age(directory, old, 3);
+        age(directory, used, 2);
+        age(directory, recent, 1);
+        store.get(used);
+
+        IntermediateStore.Collection collection = store.collectGarbage(10);
+
+        assertEquals(3, collection.artifacts());
+        assertEquals(12, collection.bytes());
+        assertEquals(1, collection.removed());
+        assertTrue(store.get(old).isNone());
+        assertTrue(store.get(used).isSome());
+        assertTrue(store.get(recent).isSome());
+    }
+
+    @Test
+    void testCloseSwallowsFailedCollections() throws IOException
+    {
+        // The size file cannot be replaced, so the collection on close fails half-way
+        Files.createDirectories(directory.resolve("size"));
+        Files.writeString(directory.resolve("size").resolve("blocker"), "");
+        IntermediateStore store = new IntermediateStore(directory, 1);
+        IntermediateStore.Key key = IntermediateStore.key("ast", bytes("a.toucan"));
+        assertTrue(store.put(key, bytes("tree")));
+
+        assertDoesNotThrow(store::close);
+        assertThrows(IOException.class, () -> store.collectGarbage(1));
+    }
+
+    private static byte[] bytes(String text)
+    {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /// Makes an artifact look last used {@code minutes} ago.
+    private static void age(Path directory, IntermediateStore.Key key, int minutes) throws IOException
+    {
+        Path path = directory.resolve("objects").resolve(key.hash().substring(0, 2)).resolve(key.hash().substring(2));
+        Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis() - minutes * 60_000L));
+    }
+}
@@ -0,0 +1,79 @@
+package org.alex_hashtag.buildSystem;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class ProjectScannerTest
+{
+
+    @TempDir
+    Path root;
+
+    @Test
+    void testScanSkipsIgnoredAndHiddenDirectories() throws IOException
+    {
+        Files.createDirectories(root.resolve("a/b"));
+        Files.createDirectories(root.resolve("generated"));
+        Files.createDirectories(root.resolve(".git"));
+        Files.writeString(root.resolve("a/A.toucan"), "package a;");
+        Files.writeString(root.resolve("a/b/B.toucan"), "package a.b;\n");
+        Files.writeString(root.resolve("a/notes.txt"), "");
+        Files.writeString(root.resolve("generated/G.toucan"), "");
+        Files.writeString(root.resolve(".git/H.toucan"), "");
+
+        ProjectScanner scanner = new ProjectScanner(root, List.of("generated/**"));
+        List<ProjectScanner.SourceFile> files = scanner.scan();
+
+        assertEquals(List.of(root.resolve("a/A.toucan"), root.resolve("a/b/B.toucan")),
+                files.stream().map(ProjectScanner.SourceFile::path).toList());
+        assertEquals(13, files.get(1).size());
+    }
+
+    @Test
+    void testScanWalksAgainWithoutAWatcher() throws IOException
+    {
+        Files.writeString(root.resolve("A.toucan"), "");
+
+        ProjectScanner scanner = new ProjectScanner(root, List.of());
+        assertEquals(1, scanner.scan().size());
+        Files.writeString(root.resolve("B.toucan"), "");
+        assertEquals(2, scanner.scan().size(), "Without a watcher nothing is cached.");
+    }
+
+    @Test
+    void testWatchedScanIsCachedUntilSomethingChanges() throws IOException, InterruptedException
+    {
+        Files.createDirectories(root.resolve("a"));
+        Files.writeString(root.resolve("a/A.toucan"), "");
+
+        try (ProjectScanner scanner = new ProjectScanner(root, List.of()))
+        {
+            scanner.scan();
+            scanner.watch();
+            List<ProjectScanner.SourceFile> first = scanner.scan();
+            assertSame(first, scanner.scan(), "An unchanged tree reuses the listing.");
+
+            Files.writeString(root.resolve("a/B.toucan"), "");
+            assertTrue(scanner.awaitChange(10, TimeUnit.SECONDS));
+            assertEquals(List.of(root.resolve("a/A.toucan"), root.resolve("a/B.toucan")),
+                    scanner.scan().stream().map(ProjectScanner.SourceFile::path).toList());
+
+            scanner.invalidate();
+            assertEquals(2, scanner.scan().size());
+
+            // Other files, such as the output of a watch loop, are not a change
+            Files.writeString(root.resolve("a/ast.txt"), "");
+            assertFalse(scanner.awaitChange(200, TimeUnit.MILLISECONDS));
+            assertEquals(2, scanner.scan().size());
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package org.alex_hashtag.internal_representation.Expression;
+
+import org.alex_hashtag.lexer.LexModule;
+import org.alex_hashtag.lib.results.Option;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class ExpressionArenaTest
+{
+
+    private static final String BODY = """
+            int64 total = 0;
+            mutable float64[] values = [1.5, 2.5, 3.5];
+            for (int64 i = 0; i < 10; i++)
+            {
+                if (i % 2 == 0) { total += i; } else if (i > 7) { break; } else { continue; }
+            }
+            for (float64 value : values) { total = total + value.0; }
+            loop (3) { total--; }
+            loop { return; }
+            while (!done) { total = -total << 1; }
+            do { total = values[i]; } while (total != 0);
+            switch (total) { 1, 2 -> 'a'; 3 -> { yield "three"; } }
+            Point p = Point { x = 1, y = 2 };
+            Shape s = Shape::Circle(1.0, true);
+            unsafe { print(sizeof(p), typeof(s), null); }
+            { apply((int64 x) -> { return x * 2; }, Math::abs(total)); }
+            return p.x;
+            """;
+
+    private static List<Expression> parse(String body)
+    {
+        LexModule module = LexModule.create("package test;\nint64 f()\n{\n" + body + "\n}\n", "Test.toucan");
+        List<Expression> statements = module.body("f").unwrap().get();
+        assertFalse(module.getErrorManager().hasErrors(), () -> module.getErrorManager().getErrors().toString());
+        return statements;
+    }
+
+    @Test
+    void testRoundTripGivesEqualRecords()
+    {
+        List<Expression> statements = parse(BODY);
+        assertEquals(14, statements.size());
+
+        ExpressionArena arena = new ExpressionArena();
+        int root = arena.addStatements(statements);
+        assertEquals(ExpressionArena.Kind.LIST, arena.kind(root));
+        assertEquals(statements, arena.toList(root));
+
+        // Each statement on its own as well, also once the arena already holds other trees
+        for (Expression statement : statements)
+            assertEquals(statement, arena.toExpression(arena.add(statement)));
+    }
+
+    @Test
+    void testChildrenKeepTheSlotsOfAbsentChildren()
+    {
+        ExpressionArena arena = new ExpressionArena();
+        int root = arena.addStatements(parse("if (a) { } else if (b) { }"));
+        ExpressionArena.Node anIf = arena.node(root).child(0).unwrap();
+        assertEquals(ExpressionArena.Kind.IF, anIf.kind());
+
+        ExpressionArena.Node elseIf = anIf.children().get(2).unwrap();
+        assertEquals(ExpressionArena.Kind.IF, elseIf.kind());
+        List<Option<ExpressionArena.Node>> children = elseIf.children();
+        assertEquals(3, children.size());
+        assertEquals(Option.some("b"), children.get(0).unwrap().text());
+        assertTrue(children.get(2).isNone(), "An if without else keeps an empty third slot.");
+        for (int i = 0; i < elseIf.childCount(); i++)
+            assertEquals(elseIf.child(i), children.get(i));
+    }
+}
@@ -0,0 +1,96 @@
+package org.alex_hashtag.internal_representation.Expression;
+
+import org.alex_hashtag.lexer.LexModule;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class ExpressionParserTest
+{
+
+    private static LexModule module(String body)
+    {
+        return LexModule.create("package test;\nint64 f()\n{\n" + body + "\n}\n", "Test.toucan");
+    }
+
+    private static List<Expression> parse(String body)
+    {
+        LexModule module = module(body);
+        List<Expression> statements = module.body("f").unwrap().get();
+        assertFalse(module.getErrorManager().hasErrors(), () -> module.getErrorManager().getErrors().toString());
+        return statements;
+    }
+
+    /// Renders a tree as an s-expression, e.g. `(+ 1 (* 2 3))`.
+    private static String show(Expression expression)
+    {
+        return switch (expression)
+        {
+            case Expression.Binary binary ->
+                    "(" + binary.operator().getValue() + " " + show(binary.left()) + " " + show(binary.right()) + ")";
+            case Expression.Unary unary -> unary.postfix()
+                    ? "(" + show(unary.operand()) + " " + unary.operator().getValue() + ")"
+                    : "(" + unary.operator().getValue() + " " + show(unary.operand()) + ")";
+            case Expression.Return ret -> "return " + show(ret.expr());
+            case Expression.IdentifierVar variable -> variable.name();
+            case Expression.IdentifierFunc function -> function.name();
+            case Expression.Literal.Int literal -> literal.value();
+            case Expression.Literal.Bool literal -> literal.value();
+            case Expression.FunctionInvocation call -> show(call.expression())
+                    + call.arguments().arguments().stream().map(ExpressionParserTest::show)
+                    .collect(Collectors.joining(" ", "(", ")"));
+            case Expression.VariableAssigment assignment -> assignment.name() + " = " + show(assignment.assignTo());
+            case Expression.VariableDeclarationAssigment declaration ->
+                    declaration.type().name() + " " + declaration.name() + " = " + show(declaration.assignTo());
+            default -> expression.getClass().getSimpleName();
+        };
+    }
+
+    private static String showOne(String body)
+    {
+        List<Expression> statements = parse(body);
+        assertEquals(1, statements.size());
+        return show(statements.getFirst());
+    }
+
+    @Test
+    void testPrecedence()
+    {
+        assertEquals("return (or (and (< (+ 1 (* 2 3)) 4) (== a b)) (! c))",
+                showOne("return 1 + 2 * 3 < 4 and a == b or !c;"));
+        assertEquals("return (| (& a b) (^ c (<< d 1)))", showOne("return a & b | c ^ d << 1;"));
+        assertEquals("return (* (+ 1 2) 3)", showOne("return (1 + 2) * 3;"));
+    }
+
+    @Test
+    void testBinaryOperatorsAssociateToTheLeft()
+    {
+        assertEquals("return (- (- a b) c)", showOne("return a - b - c;"));
+        assertEquals("return (% (/ (* a b) c) d)", showOne("return a * b / c % d;"));
+        assertEquals("return (> (> a b) c)", showOne("return a > b > c;"));
+        assertEquals("x = (+ x (* 2 y))", showOne("x += 2 * y;"));
+    }
+
+    @Test
+    void testPrefixAndPostfixOperators()
+    {
+        assertEquals("return (+ (- (a ++)) (-- b))", showOne("return -a++ + --b;"));
+        assertEquals("return (! (! f(x (~ 1))))", showOne("return !!f(x, ~1);"));
+        assertEquals("(i --)", showOne("i--;"));
+    }
+
+    @Test
+    void testErrorsSkipToTheNextStatement()
+    {
+        LexModule module = module("int64 a = ;\nint64 b = 1 +;\nreturn a : b;\nreturn a + b;");
+        List<Expression> statements = module.body("f").unwrap().get();
+
+        assertEquals(List.of("return (+ a b)"), statements.stream().map(ExpressionParserTest::show).toList());
+        assertEquals(List.of(4, 5, 6), module.getErrorManager().getErrors().stream()
+                .map(error -> error.getLine()).toList());
+    }
+}
@@ -0,0 +1,180 @@
+package org.alex_hashtag.internal_representation.ast;
+
+import org.alex_hashtag.internal_representation.Expression.Expression;
+import org.alex_hashtag.internal_representation.Expression.ExpressionArena;
+import org.alex_hashtag.internal_representation.macros.Macro;
+import org.alex_hashtag.lexer.LexModule;
+import org.alex_hashtag.tokenizationOLD.CoordinatesOLD;
+import org.alex_hashtag.tokenizationOLD.Token;
+import org.alex_hashtag.tokenizationOLD.TokenStream;
+import org.alex_hashtag.tokenizationOLD.TokenType;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class AstReaderTest
+{
+
+    private static final String SOURCE = """
+            package demo.shapes;
+            import class demo.util.Vector;
+
+            enum Kind { ROUND, SQUARE(int64) }
+            int64 area(int64 w, int64 h)
+            {
+                if (w < 0) { return 0; } else { return w * h; }
+            }
+            int64 twice(int64 x)
+            {
+                return apply((int64 y) -> { return y + y; }, x);
+            }
+            """;
+
+    private static ModuleImage image()
+    {
+        LexModule module = LexModule.create(SOURCE, "Shapes.toucan");
+        assertFalse(module.getErrorManager().hasErrors(), () -> module.getErrorManager().getErrors().toString());
+        ModuleImage image = ModuleImage.of(module);
+
+        Macro macro = new Macro(new CoordinatesOLD(3, 1), "demo.shapes.square", true);
+        macro.addArm(new Macro.Pattern(List.of(new Macro.Pattern.VariableElement("x", Macro.Pattern.MacroVarType.EXPRESSION))),
+                new TokenStream("Shapes.toucan", "", new ArrayList<>(List.of(
+                        Token.stored(3, 20, TokenType.IDENTIFIER, "x"),
+                        Token.basic(3, 22, TokenType.MULTIPLICATION),
+                        Token.stored(3, 24, TokenType.IDENTIFIER, "x")))));
+        return new ModuleImage(image.fileName(), image.namespace(), image.imports(), image.prototypes(),
+                List.of(macro), image.bodies(), image.bodyRoots());
+    }
+
+    private static byte[] bytes(ModuleImage image)
+    {
+        ByteBuffer buffer = AstWriter.encode(image);
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    @Test
+    void testWrittenImageReadsBackEqual()
+    {
+        ModuleImage image = image();
+        ModuleImage read = AstReader.decode(ByteBuffer.wrap(bytes(image)));
+
+        assertEquals(image.fileName(), read.fileName());
+        assertEquals(image.namespace(), read.namespace());
+        assertEquals(image.imports(), read.imports());
+        assertEquals(image.prototypes(), read.prototypes());
+        assertEquals(image.macros().toString(), read.macros().toString());
+        assertEquals(image.bodyRoots().keySet(), read.bodyRoots().keySet());
+        assertEquals(image.body("area"), read.body("area"));
+
+        // A lambda comes back with its body already parsed
+        Expression.Return ret = (Expression.Return) read.body("twice").unwrap().getFirst();
+        Expression.FunctionInvocation call = (Expression.FunctionInvocation) ret.expr();
+        Expression.AnonFunctionLamnda lambda = (Expression.AnonFunctionLamnda) call.arguments().arguments().getFirst();
+        assertTrue(lambda.body().isMaterialized());
+        Expression.AnonFunctionLamnda original = (Expression.AnonFunctionLamnda) ((Expression.FunctionInvocation)
+                ((Expression.Return) image.body("twice").unwrap().getFirst()).expr()).arguments().arguments().getFirst();
+        assertEquals(original.body().get(), lambda.body().get());
+    }
+
+    @Test
+    void testTruncatedOrCorruptDataIsAFormatError()
+    {
+        byte[] bytes = bytes(image());
+        for (int length = 0; length < bytes.length; length++)
+        {
+            ByteBuffer truncated = ByteBuffer.wrap(bytes, 0, length);
+            assertThrows(IllegalArgumentException.class, () -> AstReader.decode(truncated), "Length " + length);
+        }
+
+        // Any single damaged byte either still decodes or is reported as malformed, never anything else
+        for (int i = 0; i < bytes.length; i++)
+        {
+            for (int damage : new int[]{0x01, 0x40, 0x80, 0xFF})
+            {
+                byte[] corrupt = bytes.clone();
+                corrupt[i] ^= (byte) damage;
+                try
+                {
+                    ModuleImage image = AstReader.decode(ByteBuffer.wrap(corrupt));
+                    for (String function : image.bodyRoots().keySet())
+                        image.body(function);
+                }
+                catch (IllegalArgumentException expected)
+                {
+                    // Reported as malformed
+                }
+            }
+        }
+    }
+
+    /// A file holding nothing but a bodies section with the given node rows and no roots.
+    private static ByteBuffer bodies(int nodes, java.util.function.Consumer<AstFormat.Sink> rows)
+    {
+        AstFormat.Sink payload = new AstFormat.Sink();
+        payload.putVarint(nodes);
+        rows.accept(payload);
+        payload.putVarint(0);
+
+        AstFormat.Sink out = new AstFormat.Sink();
+        out.putInt(AstFormat.MAGIC);
+        out.putVarint(AstFormat.VERSION);
+        out.putVarint(0);
+        out.put(AstFormat.SECTION_BODIES);
+        out.putVarint(payload.size());
+        out.putSink(payload);
+        out.put(AstFormat.SECTION_END);
+        return out.flipped();
+    }
+
+    private static void row(AstFormat.Sink out, ExpressionArena.Kind kind, int... childDeltas)
+    {
+        out.put(kind.ordinal());
+        out.putVarint(1);
+        out.putVarint(1);
+        out.putVarint(0);
+        out.putSignedVarint(0);
+        out.putVarint(childDeltas.length);
+        for (int delta : childDeltas)
+            out.putVarint(delta);
+    }
+
+    @Test
+    void testChildrenMustComeBeforeTheirParent()
+    {
+        ByteBuffer valid = bodies(2, out ->
+        {
+            row(out, ExpressionArena.Kind.BREAK);
+            row(out, ExpressionArena.Kind.LIST, 1);
+        });
+        assertEquals(2, AstReader.decode(valid).bodies().size());
+
+        ByteBuffer ahead = bodies(2, out ->
+        {
+            row(out, ExpressionArena.Kind.BREAK);
+            row(out, ExpressionArena.Kind.LIST, 2);
+        });
+        assertThrows(IllegalArgumentException.class, () -> AstReader.decode(ahead));
+    }
+
+    @Test
+    void testLambdaRowsNeedParametersAndABody()
+    {
+        ByteBuffer empty = bodies(1, out -> row(out, ExpressionArena.Kind.LAMBDA));
+        assertThrows(IllegalArgumentException.class, () -> AstReader.decode(empty));
+
+        ByteBuffer notAList = bodies(3, out ->
+        {
+            row(out, ExpressionArena.Kind.ARGS);
+            row(out, ExpressionArena.Kind.BREAK);
+            row(out, ExpressionArena.Kind.LAMBDA, 2, 1);
+        });
+        assertThrows(IllegalArgumentException.class, () -> AstReader.decode(notAList));
+    }
+}
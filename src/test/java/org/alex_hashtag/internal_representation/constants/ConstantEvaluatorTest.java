@@ -0,0 +1,126 @@
+package org.alex_hashtag.internal_representation.constants;
+
+import org.alex_hashtag.internal_representation.Expression.Expression;
+import org.alex_hashtag.internal_representation.ir.IrBuilder;
+import org.alex_hashtag.internal_representation.ir.IrFunction;
+import org.alex_hashtag.internal_representation.ir.Terminator;
+import org.alex_hashtag.internal_representation.ir.Value;
+import org.alex_hashtag.lexer.LexModule;
+import org.alex_hashtag.lib.results.Option;
+import org.alex_hashtag.lib.results.Result;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.EnumSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class ConstantEvaluatorTest
+{
+    private static List<Expression> statements(String body)
+    {
+        LexModule module = LexModule.create("package test; int64 f() { " + body + " }", "test.toucan");
+        return module.body("f").unwrap().get();
+    }
+
+    /// Evaluates the value returned by the last statement of `body`.
+    private static Result<Constant, String> returned(String body)
+    {
+        List<Expression> statements = statements(body);
+        Expression.Return last = (Expression.Return) statements.getLast();
+        return ConstantEvaluator.forBody(List.of(), statements).evaluate(last.expr());
+    }
+
+    /// What the IR of `body` returns from its entry block.
+    private static Value lowered(String body)
+    {
+        IrFunction function = IrBuilder.build("f", List.of(), false, statements(body));
+        return ((Terminator.Return) function.getEntry().getTerminator()).value();
+    }
+
+    private static Constant.Int integer(String body)
+    {
+        return (Constant.Int) returned(body).unwrap();
+    }
+
+    @Test
+    void integersWrapToTheWidthOfTheirType()
+    {
+        assertEquals(new Constant.Int(BigInteger.valueOf(-128), Option.some(Primitive.INT8)),
+                integer("int8 a = 127; return a + 1;"));
+        assertEquals(BigInteger.valueOf(255), integer("uint8 u = 0; return u - 1;").value());
+        assertEquals(BigInteger.valueOf(44), integer("int8 b = 300; return b;").value());
+        assertEquals(BigInteger.ONE.shiftLeft(127).negate(),
+                integer("int128 big = 170141183460469231731687303715884105727; return big + 1;").value());
+        assertEquals(BigInteger.valueOf(64), integer("int8 m = -128; return m >>> 1;").value());
+        assertEquals(BigInteger.valueOf(-64), integer("int8 m = -128; return m >> 1;").value());
+        assertEquals(BigInteger.valueOf(-3), integer("return -7 / 2;").value());
+    }
+
+    @Test
+    void floatsRoundToTheirPrecision()
+    {
+        Constant.Float single = (Constant.Float) returned("float32 f = 0.1; return f;").unwrap();
+        assertEquals(new BigDecimal(0.1f), single.value());
+        assertTrue(returned("float16 h = 70000.0; return h;").isErr());
+        assertEquals(0, new BigDecimal("0.75").compareTo(((Constant.Float) returned("return 3 / 4.0;").unwrap()).value()));
+    }
+
+    @Test
+    void sizeofAndTypeofAreResolved()
+    {
+        assertEquals(new Constant.Int(BigInteger.valueOf(8), Option.some(Primitive.USIZE)),
+                integer("return sizeof(int64);"));
+        assertEquals(BigInteger.ONE, integer("int8 b = 1; return sizeof(b);").value());
+        assertEquals(new Constant.Type("int64"), returned("return typeof(1 << 40);").unwrap());
+        assertEquals(new Constant.Bool(true), returned("uint16 a = 1; return typeof(a) == typeof(a + 1);").unwrap());
+    }
+
+    @Test
+    void logicalOperatorsFold()
+    {
+        assertEquals(new Constant.Bool(false), returned("return true and false;").unwrap());
+        assertEquals(new Constant.Bool(true), returned("return false or true;").unwrap());
+        assertEquals(new Constant.Bool(true), returned("bool t = true; return !t or t and !false;").unwrap());
+    }
+
+    @Test
+    void onlyWellDefinedConstantsFold()
+    {
+        assertTrue(returned("int32 n = 1; n = 2; return n + 1;").isErr());
+        assertTrue(returned("return 1 / 0;").isErr());
+        assertTrue(returned("int8 a = 1; int16 c = 2; return a + c;").isErr());
+        assertTrue(returned("return g() + 1;").isErr());
+    }
+
+    @Test
+    void bindingsOfOtherTypesAreLeftToRunTime()
+    {
+        List<Expression> statements = statements("int8 b = 300; int64 c = b; int64 d = 5; return c + d;");
+        ConstantEvaluator evaluator = ConstantEvaluator.forBody(List.of(), statements, EnumSet.of(Primitive.INT64));
+        Expression.Binary sum = (Expression.Binary) ((Expression.Return) statements.getLast()).expr();
+        assertTrue(evaluator.evaluate(sum).isErr(), "c reads the int8 b, so it is not a constant either.");
+        assertEquals(BigInteger.valueOf(5), ((Constant.Int) evaluator.evaluate(sum.right()).unwrap()).value());
+
+        // The IR does not wrap to int8, so neither does its folding
+        assertFalse(lowered("int8 b = 300; return b + 0;") instanceof Value.Int);
+        assertFalse(lowered("int8 a = 127; return a + 1;") instanceof Value.Int);
+        assertEquals(new Value.Int(6), lowered("int64 c = 5; return c + 1;"));
+        assertEquals(new Value.Int(1), lowered("int8 b = 300; return sizeof(b);"));
+    }
+
+    @Test
+    void resultsAreMemoizedPerNode()
+    {
+        LexModule module = LexModule.create("package test; int64 f() { return (1 + 2) * 3; }", "test.toucan");
+        List<Expression> statements = module.body("f").unwrap().get();
+        Expression product = ((Expression.Return) statements.getLast()).expr();
+        ConstantEvaluator evaluator = ConstantEvaluator.forBody(List.of(), statements);
+
+        assertSame(evaluator.evaluate(product), evaluator.evaluate(product));
+        assertEquals(BigInteger.valueOf(9), ((Constant.Int) evaluator.evaluate(product).unwrap()).value());
+    }
+}
@@ -0,0 +1,143 @@
+package org.alex_hashtag.internal_representation.ir.passes;
+
+import org.alex_hashtag.buildSystem.Optimization;
+import org.alex_hashtag.internal_representation.ir.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class PassManagerTest
+{
+    /// `f(x) { c = 2 + 3; if (c > 4) return x * c + x * c; else return 0; }`
+    private static IrFunction branchOnConstant()
+    {
+        IrFunction function = new IrFunction("f", List.of("x"), false);
+        Block entry = function.newBlock();
+        Block then = function.newBlock();
+        Block otherwise = function.newBlock();
+
+        Value x = register(function, entry, id -> new Instruction.Parameter(id, 0, "x"));
+        Value c = register(function, entry, id -> new Instruction.Binary(id, "+", new Value.Int(2), new Value.Int(3)));
+        Value condition = register(function, entry, id -> new Instruction.Binary(id, ">", c, new Value.Int(4)));
+        entry.setTerminator(new Terminator.Branch(condition, then.getId(), otherwise.getId()));
+
+        Value left = register(function, then, id -> new Instruction.Binary(id, "*", x, c));
+        Value right = register(function, then, id -> new Instruction.Binary(id, "*", c, x));
+        Value sum = register(function, then, id -> new Instruction.Binary(id, "+", left, right));
+        then.setTerminator(new Terminator.Return(sum));
+        otherwise.setTerminator(new Terminator.Return(new Value.Int(0)));
+        return function;
+    }
+
+    private static Value register(IrFunction function, Block block, java.util.function.IntFunction<Instruction> instruction)
+    {
+        int id = function.newRegister();
+        block.add(instruction.apply(id));
+        return new Value.Register(id);
+    }
+
+    private static long count(IrFunction function, Class<? extends Instruction> kind)
+    {
+        return function.getBlocks().stream()
+                .flatMap(block -> block.getInstructions().stream())
+                .filter(kind::isInstance)
+                .count();
+    }
+
+    @Test
+    void o0LeavesTheModuleAlone()
+    {
+        IrModule module = new IrModule();
+        module.add(branchOnConstant());
+        String before = module.toString();
+
+        assertFalse(PassManager.forLevel(Optimization.O0).run(module));
+        assertEquals(before, module.toString());
+    }
+
+    @Test
+    void foldsBranchesAndMergesCommonSubexpressions()
+    {
+        IrModule module = new IrModule();
+        IrFunction function = branchOnConstant();
+        module.add(function);
+
+        PassManager passes = PassManager.forLevel(Optimization.O2);
+        assertTrue(passes.run(module));
+
+        // 2 + 3 > 4 always holds: a single block remains, computing x * 5 once
+        assertEquals(1, function.getBlocks().size());
+        assertEquals(2, count(function, Instruction.Binary.class));
+        assertEquals(new Terminator.Return(new Value.Register(((Instruction.Binary) function.getEntry()
+                .getInstructions().getLast()).target())), function.getEntry().getTerminator());
+        assertEquals(List.of("inline", "constant-folding", "common-subexpression-elimination", "dead-code-elimination"),
+                passes.getTimings().stream().map(PassManager.Timing::pass).toList());
+    }
+
+    @Test
+    void inlinesSmallCallees()
+    {
+        IrFunction square = new IrFunction("square", List.of("x"), true);
+        Block body = square.newBlock();
+        Value x = register(square, body, id -> new Instruction.Parameter(id, 0, "x"));
+        Value product = register(square, body, id -> new Instruction.Binary(id, "*", x, x));
+        body.setTerminator(new Terminator.Return(product));
+
+        IrFunction caller = new IrFunction("main", List.of(), false);
+        Block entry = caller.newBlock();
+        Value result = register(caller, entry, id -> new Instruction.Call(id, "square", List.of(new Value.Int(7))));
+        entry.setTerminator(new Terminator.Return(result));
+
+        IrModule module = new IrModule();
+        module.add(square);
+        module.add(caller);
+        PassManager.forLevel(Optimization.Os).run(module);
+
+        assertEquals(0, count(caller, Instruction.Call.class));
+        assertEquals(new Terminator.Return(new Value.Int(49)), caller.getEntry().getTerminator());
+    }
+
+    /// `f(x) { return <left> operator <right>; }` after constant folding; `x` stands for the parameter.
+    private static Value folded(Value left, String operator, Value right)
+    {
+        IrFunction function = new IrFunction("f", List.of("x"), false);
+        Block entry = function.newBlock();
+        Value x = register(function, entry, id -> new Instruction.Parameter(id, 0, "x"));
+        Value a = left == null ? x : left;
+        Value b = right == null ? x : right;
+        Value result = register(function, entry, id -> new Instruction.Binary(id, operator, a, b));
+        entry.setTerminator(new Terminator.Return(result));
+        new ConstantFolding().run(function);
+        return ((Terminator.Return) function.getEntry().getTerminator()).value();
+    }
+
+    @Test
+    void identitiesNeedAnOperandOfAKnownKind()
+    {
+        // "s" + 0 is "s0" and 0 + "a" is "0a" in the VM, so neither may become its string operand
+        assertInstanceOf(Value.Register.class, folded(new Value.Str("s"), "+", new Value.Int(0)));
+        assertInstanceOf(Value.Register.class, folded(new Value.Int(0), "+", new Value.Str("a")));
+        assertInstanceOf(Value.Register.class, folded(null, "+", new Value.Int(0)));
+        assertInstanceOf(Value.Register.class, folded(new Value.Int(1), "*", null));
+        assertInstanceOf(Value.Register.class, folded(null, "&", new Value.Bool(true)));
+
+        // -0.0 + 0 is computed as a float, so the sign of the zero goes away
+        Value sum = folded(new Value.Float(-0.0), "+", new Value.Int(0));
+        assertEquals(new Value.Float(0.0), sum);
+        assertEquals(new Value.Float(-0.0), folded(new Value.Float(-0.0), "*", new Value.Int(1)));
+
+        // The result of a shift is an integer, so adding 0 to it is a no-op
+        IrFunction function = new IrFunction("f", List.of("x"), false);
+        Block entry = function.newBlock();
+        Value x = register(function, entry, id -> new Instruction.Parameter(id, 0, "x"));
+        Value shifted = register(function, entry, id -> new Instruction.Binary(id, "<<", x, new Value.Int(1)));
+        Value plus = register(function, entry, id -> new Instruction.Binary(id, "+", shifted, new Value.Int(0)));
+        Value times = register(function, entry, id -> new Instruction.Binary(id, "*", new Value.Int(1), plus));
+        entry.setTerminator(new Terminator.Return(times));
+        assertTrue(new ConstantFolding().run(function));
+        assertEquals(new Terminator.Return(shifted), function.getEntry().getTerminator());
+    }
+}
@@ -0,0 +1,139 @@
+package org.alex_hashtag.internal_representation.macros;
+
+import org.alex_hashtag.errors.ParsingErrorManager;
+import org.alex_hashtag.errors.ParsingErrorManager.ErrorType;
+import org.alex_hashtag.internal_representation.macros.Macro.Pattern;
+import org.alex_hashtag.tokenizationOLD.CoordinatesOLD;
+import org.alex_hashtag.tokenizationOLD.Token;
+import org.alex_hashtag.tokenizationOLD.TokenStream;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.alex_hashtag.tokenizationOLD.TokenType.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class MacroExpanderTest
+{
+    /// `macro square { ($x) -> $x * $x }`
+    private static Macro square()
+    {
+        Macro macro = new Macro(new CoordinatesOLD(1, 1), "test.square", true);
+        macro.addArm(new Pattern(List.of(new Pattern.VariableElement("$x", Pattern.MacroVarType.EXPRESSION))),
+                new TokenStream("test", "", new ArrayList<>(List.of(
+                        Token.stored(1, 20, MACRO_VARIABLE, "$x"),
+                        Token.basic(1, 23, MULTIPLICATION),
+                        Token.stored(1, 25, MACRO_VARIABLE, "$x")))));
+        return macro;
+    }
+
+    /// `macro forever { ($x) -> forever!($x) }`
+    private static Macro forever()
+    {
+        Macro macro = new Macro(new CoordinatesOLD(2, 1), "test.forever", true);
+        macro.addArm(new Pattern(List.of(new Pattern.VariableElement("$x", Pattern.MacroVarType.EXPRESSION))),
+                new TokenStream("test", "", new ArrayList<>(List.of(
+                        Token.stored(2, 20, MACRO_USE, "forever!"),
+                        Token.basic(2, 28, BRACE_OPEN),
+                        Token.stored(2, 29, MACRO_VARIABLE, "$x"),
+                        Token.basic(2, 31, BRACE_CLOSED)))));
+        return macro;
+    }
+
+    /// `name!(argument)` on the given row.
+    private static List<Token> use(int row, String name, String argument)
+    {
+        return List.of(
+                Token.stored(row, 1, MACRO_USE, name + "!"),
+                Token.basic(row, 8, BRACE_OPEN),
+                Token.stored(row, 9, IDENTIFIER, argument),
+                Token.basic(row, 10, BRACE_CLOSED),
+                Token.basic(row, 11, SEMI_COLON));
+    }
+
+    @SafeVarargs
+    private static List<Token> concat(List<Token>... parts)
+    {
+        return Arrays.stream(parts).flatMap(List::stream).toList();
+    }
+
+    private static ParsingErrorManager errors()
+    {
+        return new ParsingErrorManager("Test.toucan", "");
+    }
+
+    @Test
+    void testRepeatedInvocationIsServedFromTheCacheWithItsOwnPositions()
+    {
+        MacroExpander expander = new MacroExpander(List.of(square()), 8);
+        ParsingErrorManager errors = errors();
+        List<Token> out = expander.expand(concat(use(1, "square", "a"), use(2, "square", "a"), use(3, "square", "b")),
+                "test", errors);
+
+        assertFalse(errors.hasErrors());
+        assertEquals("a * a ; a * a ; b * b ;", MacroExpander.render(out));
+        assertEquals(1, expander.cacheHits());
+        assertEquals(2, expander.cacheMisses());
+        assertEquals(2, expander.cacheSize());
+
+        // The second expansion came from the cache, but points at the second invocation's argument
+        assertEquals(List.of(2, 1, 2), out.subList(4, 7).stream().map(token -> token.coordinates.row()).toList());
+        assertEquals(9, out.get(4).coordinates.column());
+        assertSame(out.get(5), out.get(1), "Tokens of the macro body are shared.");
+    }
+
+    @Test
+    void testCacheKeepsOnlyTheMostRecentExpansions()
+    {
+        MacroExpander expander = new MacroExpander(MacroIndex.of(List.of(square())), 8, 2);
+        List<Token> input = concat(use(1, "square", "a"), use(2, "square", "b"), use(3, "square", "a"),
+                use(4, "square", "c"), use(5, "square", "b"));
+        expander.expand(input, "test", errors());
+
+        // 'a' was used again before 'c' came in, so 'b' was the one dropped
+        assertEquals(2, expander.cacheSize());
+        assertEquals(1, expander.cacheHits());
+        assertEquals(4, expander.cacheMisses());
+
+        MacroExpander uncached = new MacroExpander(MacroIndex.of(List.of(square())), 8, 0);
+        assertEquals(MacroExpander.render(expander.expand(input, "test", errors())),
+                MacroExpander.render(uncached.expand(input, "test", errors())));
+        assertEquals(0, uncached.cacheSize());
+        assertEquals(0, uncached.cacheHits());
+    }
+
+    @Test
+    void testSelfExpandingMacroStopsAtTheDepthLimit()
+    {
+        MacroExpander expander = new MacroExpander(List.of(forever()), 4);
+        ParsingErrorManager errors = errors();
+        List<Token> out = expander.expand(use(7, "forever", "x"), "test", errors);
+
+        assertEquals(List.of(SEMI_COLON), out.stream().map(token -> token.type).toList());
+        assertTrue(errors.hasError(ErrorType.MACRO_DEPTH_EXCEEDED, 2, 20));
+        assertEquals(0, expander.cacheSize(), "Failed expansions are not cached.");
+    }
+
+    @Test
+    void testFaultyInvocationsAreReportedEveryTime()
+    {
+        MacroExpander expander = new MacroExpander(List.of(square()), 8);
+        ParsingErrorManager errors = errors();
+        List<Token> noArgument = List.of(Token.stored(3, 1, MACRO_USE, "square!"),
+                Token.basic(3, 8, BRACE_OPEN), Token.basic(3, 9, BRACE_CLOSED));
+        List<Token> unclosed = List.of(Token.stored(4, 1, MACRO_USE, "square!"), Token.basic(4, 8, BRACE_OPEN));
+        List<Token> out = expander.expand(concat(use(1, "missing", "a"), use(2, "missing", "a"), noArgument, unclosed),
+                "test", errors);
+
+        assertTrue(errors.hasError(ErrorType.UNKNOWN_MACRO, 1, 1));
+        assertTrue(errors.hasError(ErrorType.UNKNOWN_MACRO, 2, 1));
+        assertTrue(errors.hasError(ErrorType.NO_MATCHING_ARM, 3, 1));
+        assertTrue(errors.hasError(ErrorType.EXPECTED_FOUND, 4, 8));
+        assertEquals("; ; (", MacroExpander.render(out));
+        assertEquals(0, expander.cacheHits());
+        assertEquals(0, expander.cacheSize());
+    }
+}
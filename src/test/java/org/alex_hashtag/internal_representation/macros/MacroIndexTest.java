@@ -0,0 +1,105 @@
+package org.alex_hashtag.internal_representation.macros;
+
+import org.alex_hashtag.errors.ParsingErrorManager.ErrorType;
+import org.alex_hashtag.tokenizationOLD.TokenStream;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class MacroIndexTest
+{
+    private static final String TEXT = """
+            package text;
+            public macro shout { ($x) -> { $x } }
+            macro hidden { ($x) -> { $x } }
+            """;
+
+    private static final String APP = """
+            package app;
+            macro shout { ($x) -> { $x } }
+            public macro run { ($x) -> { $x } }
+            """;
+
+    private static TokenStream stream(String fileName, String source)
+    {
+        TokenStream stream = new TokenStream(Path.of(fileName), source);
+        assertFalse(stream.hasErrors());
+        return stream;
+    }
+
+    private static String resolved(MacroIndex index, String name, String fromPackage)
+    {
+        return index.resolve(name, fromPackage).map(Macro::getName).unwrapOr("-");
+    }
+
+    @Test
+    void testResolveHonoursVisibility()
+    {
+        MacroIndex index = MacroIndex.build(List.of(stream("Text.toucan", TEXT), stream("App.toucan", APP)));
+        assertFalse(index.hasErrors());
+
+        // A simple name prefers the invoking package, then any public macro
+        assertEquals("app.shout", resolved(index, "shout", "app"));
+        assertEquals("text.shout", resolved(index, "shout", "other"));
+        assertEquals("text.shout", resolved(index, "shout", null));
+        assertEquals("app.run", resolved(index, "run", "text"));
+
+        // Private macros are only visible from their own package
+        assertEquals("text.hidden", resolved(index, "hidden", "text"));
+        assertEquals("-", resolved(index, "hidden", "app"));
+        assertEquals("text.hidden", resolved(index, "text.hidden", "text"));
+        assertEquals("-", resolved(index, "text.hidden", "app"));
+        assertEquals("app.shout", resolved(index, "app.shout", "app"));
+        assertEquals("-", resolved(index, "app.shout", "text"));
+        assertEquals("text.shout", resolved(index, "text.shout", "app"));
+
+        assertTrue(index.lookup("text.hidden").isSome());
+        assertTrue(index.getPrivateMacros().containsKey("text.hidden"));
+        assertFalse(index.getPublicMacros().containsKey("text.hidden"));
+    }
+
+    private static MacroIndex.FileMacros file(List<MacroIndex.FileMacros> files, String fileName)
+    {
+        return files.stream().filter(file -> file.stream().getFilename().equals(fileName)).findFirst().orElseThrow();
+    }
+
+    @Test
+    void testDuplicatesAreReportedAgainstTheLaterFile()
+    {
+        String first = "package app;\npublic macro log { ($x) -> { $x } }\n";
+        String second = "package app;\nmacro other { ($x) -> { $x } }\nmacro log { ($x) -> { $x } }\n";
+        Random random = new Random(7);
+        for (int i = 0; i < 5; i++)
+        {
+            List<MacroIndex.FileMacros> files = new ArrayList<>(List.of(
+                    MacroIndex.FileMacros.parse(stream("B.toucan", second), null),
+                    MacroIndex.FileMacros.parse(stream("A.toucan", first), null)));
+            Collections.shuffle(files, random);
+            MacroIndex index = MacroIndex.merge(files);
+
+            assertTrue(index.getDuplicates("A.toucan").isNone());
+            assertTrue(index.getDuplicates("B.toucan").unwrap().hasError(ErrorType.DUPLICATE_MACRO, 3, 0));
+            assertFalse(file(files, "B.toucan").errorManager().hasErrors(), "The parsed file keeps no duplicates.");
+
+            // A private and a public macro of the same name collide, and the first file keeps it
+            assertTrue(index.lookup("app.log").unwrap().isPub());
+            assertEquals(List.of("app.log", "app.other"), index.getMacros().stream().map(Macro::getName).toList());
+        }
+    }
+
+    @Test
+    void testMacrosAreListedInFileNameOrder()
+    {
+        MacroIndex index = MacroIndex.build(List.of(stream("Text.toucan", TEXT), stream("App.toucan", APP)));
+
+        assertEquals(List.of("app.shout", "app.run", "text.shout", "text.hidden"),
+                index.getMacros().stream().map(Macro::getName).toList());
+    }
+}
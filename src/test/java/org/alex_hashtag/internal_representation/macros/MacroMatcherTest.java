@@ -0,0 +1,116 @@
+package org.alex_hashtag.internal_representation.macros;
+
+import org.alex_hashtag.internal_representation.macros.Macro.Pattern;
+import org.alex_hashtag.lib.results.Option;
+import org.alex_hashtag.tokenizationOLD.CoordinatesOLD;
+import org.alex_hashtag.tokenizationOLD.Token;
+import org.alex_hashtag.tokenizationOLD.TokenStream;
+import org.alex_hashtag.tokenizationOLD.TokenType;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.alex_hashtag.tokenizationOLD.TokenType.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class MacroMatcherTest
+{
+    private static Token t(TokenType type)
+    {
+        return Token.basic(1, 1, type);
+    }
+
+    private static Token id(String name)
+    {
+        return Token.stored(1, 1, IDENTIFIER, name);
+    }
+
+    private static Token num(String value)
+    {
+        return Token.stored(1, 1, INT_LITERAL, value);
+    }
+
+    private static Macro macro(Pattern... arms)
+    {
+        Macro macro = new Macro(new CoordinatesOLD(1, 1), "test", false);
+        for (Pattern arm : arms)
+            macro.addArm(arm, new TokenStream("test", "", new ArrayList<>()));
+        return macro;
+    }
+
+    private static Pattern.VariableElement var(String name, Pattern.MacroVarType type)
+    {
+        return new Pattern.VariableElement(name, type);
+    }
+
+    @Test
+    void firstMatchingArmWins()
+    {
+        MacroMatcher matcher = MacroMatcher.compile(macro(
+                new Pattern(List.of(var("a", Pattern.MacroVarType.IDENTIFIER))),
+                new Pattern(List.of(var("e", Pattern.MacroVarType.EXPRESSION))),
+                new Pattern(List.of(var("x", Pattern.MacroVarType.EXPRESSION),
+                        new Pattern.LiteralElement(","),
+                        var("y", Pattern.MacroVarType.EXPRESSION)))));
+
+        MacroMatcher.Match single = matcher.match(List.of(id("foo"))).unwrap();
+        assertEquals(0, single.arm());
+
+        MacroMatcher.Match expression = matcher.match(List.of(id("foo"), t(ADDITION), num("1"))).unwrap();
+        assertEquals(1, expression.arm());
+        assertEquals(3, expression.bindings().get("e").getFirst().length());
+
+        MacroMatcher.Match pair = matcher.match(List.of(id("f"), t(BRACE_OPEN), num("1"), t(COMMA), num("2"),
+                t(BRACE_CLOSED), t(COMMA), num("3"))).unwrap();
+        assertEquals(2, pair.arm());
+        assertEquals(new MacroMatcher.Slice(0, 6), pair.bindings().get("x").getFirst());
+        assertEquals(List.of(num("3").toString()), pair.tokens("y").getFirst().stream().map(Token::toString).toList());
+
+        assertTrue(matcher.match(List.of(t(COMMA))).isNone());
+    }
+
+    @Test
+    void repetitionBindsEveryIteration()
+    {
+        Pattern entry = new Pattern(List.of(var("k", Pattern.MacroVarType.IDENTIFIER),
+                new Pattern.LiteralElement(":"), var("v", Pattern.MacroVarType.EXPRESSION)));
+        MacroMatcher matcher = MacroMatcher.compile(macro(new Pattern(List.of(
+                new Pattern.RepetitionElement(entry, Pattern.RepetitionKind.ZERO_OR_MORE, ",")))));
+
+        Token colon = Token.stored(1, 1, COLON, ":");
+        MacroMatcher.Match match = matcher.match(List.of(id("a"), colon, num("1"), t(COMMA),
+                id("b"), colon, num("2"), t(COMMA), id("c"), colon, num("3"))).unwrap();
+        assertEquals(3, match.bindings().get("k").size());
+        assertEquals(new MacroMatcher.Slice(4, 5), match.bindings().get("k").get(1));
+        assertEquals(3, match.bindings().get("v").size());
+
+        assertTrue(matcher.match(List.of()).isSome());
+        assertTrue(matcher.match(List.of(id("a"), colon, num("1"), t(COMMA))).isNone());
+    }
+
+    @Test
+    void nestedRepetitionsStayLinear()
+    {
+        // $( $( $x ),* ),* over a long invocation would blow up a backtracking matcher
+        Pattern inner = new Pattern(List.of(new Pattern.RepetitionElement(
+                new Pattern(List.of(var("x", Pattern.MacroVarType.EXPRESSION))), Pattern.RepetitionKind.ZERO_OR_MORE, ",")));
+        Pattern outer = new Pattern(List.of(new Pattern.RepetitionElement(inner, Pattern.RepetitionKind.ZERO_OR_MORE, ",")));
+        MacroMatcher matcher = MacroMatcher.compile(macro(outer));
+
+        List<Token> input = new ArrayList<>();
+        for (int i = 0; i < 5_000; i++)
+        {
+            input.add(num(Integer.toString(i)));
+            input.add(t(COMMA));
+        }
+        input.add(t(SEMI_COLON));
+
+        assertTimeoutPreemptively(java.time.Duration.ofSeconds(5), () ->
+        {
+            Option<MacroMatcher.Match> match = matcher.match(input);
+            assertTrue(match.isNone());
+        });
+    }
+}
@@ -0,0 +1,89 @@
+package org.alex_hashtag.lexer;
+
+import org.alex_hashtag.lib.tokenization.Coordinates;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class SymbolIndexTest
+{
+
+    private static final String SHAPES = """
+            package geometry.shapes;
+            import class geometry.util.Vector;
+
+            class Circle { int64 radius; class Nested { } }
+            enum Kind { ROUND, SQUARE(int64) }
+            int64 area(Circle c)
+            {
+                int64 local = 1;
+                return c.radius * c.radius;
+            }
+            float64 scale = 2.0;
+            """;
+
+    private static final String MAIN = """
+            package app;
+            int64 main()
+            {
+                return 0;
+            }
+            """;
+
+    @Test
+    void testHeaderPassRecordsTopLevelDeclarationsOnly()
+    {
+        LexModule module = LexModule.create(SHAPES, "Shapes.toucan");
+
+        assertFalse(module.getErrorManager().hasErrors(), () -> module.getErrorManager().getErrors().toString());
+        assertEquals(List.of("geometry", "shapes"), module.getModuleName().namespace());
+        assertEquals(List.of("geometry", "util", "Vector"), module.getImports().getFirst().fragments());
+
+        assertEquals(List.of("Circle", "Kind", "area", "scale"),
+                module.getPrototypes().stream().map(SymbolIndex::nameOf).toList());
+        Prototype.Enum kind = (Prototype.Enum) module.getPrototypes().get(1);
+        assertEquals(List.of("ROUND", "SQUARE"), List.copyOf(kind.variants().keySet()));
+
+        // Bodies are only recorded, never parsed by this pass
+        assertTrue(module.body("area").isSome());
+        assertEquals(new Coordinates(6, 7), module.getLocations().get("area"));
+    }
+
+    @Test
+    void testIndexQualifiesNamesAcrossFiles()
+    {
+        SymbolIndex index = SymbolIndex.build(Map.of("Shapes.toucan", SHAPES, "Main.toucan", MAIN));
+
+        assertFalse(index.hasErrors());
+        assertEquals(List.of("Main.toucan", "Shapes.toucan"),
+                index.getModules().stream().map(LexModule::getFileName).toList());
+
+        SymbolIndex.Symbol area = index.lookup("geometry.shapes.area").unwrap();
+        assertEquals("Shapes.toucan", area.module().getFileName());
+        assertInstanceOf(Prototype.Function.class, area.prototype());
+        assertTrue(index.lookup("app.main").isSome());
+        assertTrue(index.lookup("area").isNone());
+        assertTrue(index.lookup("geometry.shapes.local").isNone());
+    }
+
+    @Test
+    void testDuplicatesAreReportedAgainstTheLaterFile()
+    {
+        String again = "package app;\nint64 main() { return 1; }\n";
+        for (int i = 0; i < 5; i++)
+        {
+            SymbolIndex index = SymbolIndex.build(Map.of("A.toucan", MAIN, "B.toucan", again));
+
+            LexModule first = index.getModules().get(0);
+            LexModule second = index.getModules().get(1);
+            assertFalse(first.getErrorManager().hasErrors());
+            assertEquals(1, second.getErrorManager().getErrors().size());
+            assertTrue(second.getErrorManager().getErrors().getFirst().getMessage().contains("A.toucan"));
+            assertSame(first, index.lookup("app.main").unwrap().module());
+        }
+    }
+}
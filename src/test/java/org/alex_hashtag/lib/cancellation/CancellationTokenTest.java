@@ -0,0 +1,63 @@
+package org.alex_hashtag.lib.cancellation;
+
+import org.alex_hashtag.lib.tokenization.TokenList;
+import org.alex_hashtag.lib.tokenization.TokenPostProcessor;
+import org.alex_hashtag.lib.tokenization.TokenRules;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class CancellationTokenTest
+{
+
+    private static final TokenRules RULES = TokenRules.builder()
+            .keyword("package")
+            .delimeter(";")
+            .operator(".")
+            .identifier("default", "^[A-Za-z_]\\w*")
+            .enableLongestMatchFirst()
+            .makeCaseSensitive()
+            .build();
+
+    private static TokenList tokenize(String code, CancellationToken cancellation)
+    {
+        return TokenList.create(code, RULES, TokenPostProcessor.builder().build(), null, cancellation);
+    }
+
+    @Test
+    void testCheckpointOnlyLooksAtEveryInterval()
+    {
+        CancellationToken cancellation = CancellationToken.create();
+        cancellation.cancel();
+
+        assertDoesNotThrow(() -> cancellation.checkpoint(CancellationToken.CHECK_INTERVAL - 1));
+        CancelledException e = assertThrows(CancelledException.class,
+                () -> cancellation.checkpoint(CancellationToken.CHECK_INTERVAL));
+        assertFalse(e.timedOut());
+    }
+
+    @Test
+    void testCancelledTokenizationReturnsNothing()
+    {
+        String code = "package a.b.c;\n".repeat(1000);
+        CancellationToken cancellation = CancellationToken.create();
+        cancellation.cancel();
+
+        assertThrows(CancelledException.class, () -> tokenize(code, cancellation));
+        assertEquals(tokenize(code, CancellationToken.NONE).size(), tokenize(code, CancellationToken.create()).size());
+    }
+
+    @Test
+    void testDeadline()
+    {
+        CancellationToken expired = CancellationToken.withTimeout(Duration.ZERO);
+        assertTrue(expired.isCancelled());
+        assertTrue(assertThrows(CancelledException.class, expired::throwIfCancelled).timedOut());
+
+        assertFalse(CancellationToken.withTimeout(Duration.ofHours(1)).isCancelled());
+        assertThrows(UnsupportedOperationException.class, CancellationToken.NONE::cancel);
+    }
+}
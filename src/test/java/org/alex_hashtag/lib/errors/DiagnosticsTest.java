@@ -0,0 +1,97 @@
+package org.alex_hashtag.lib.errors;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class DiagnosticsTest
+{
+
+    private record TestError(String getMessage, int getLine, int getColumn, String getToken, String getHint)
+            implements CompilerError
+    {
+    }
+
+    private static TestError error(int line, int column)
+    {
+        return new TestError("Unexpected token", line, column, "@", null);
+    }
+
+    @Test
+    void testCascadingErrorsAtTheSamePositionAreDropped()
+    {
+        List<Diagnostic> reported = new ArrayList<>();
+        Diagnostics diagnostics = new Diagnostics(reported::add, 0);
+        Diagnostics.File file = diagnostics.file("Test.toucan", "package a;\nint @ = 1;");
+
+        assertTrue(file.report(error(2, 5)));
+        assertFalse(file.report(error(2, 5)), "A second error at the same position is a cascade.");
+        assertTrue(file.report(error(2, 6)));
+
+        assertEquals(2, reported.size());
+        assertEquals(2, diagnostics.errorCount());
+        assertEquals("int @ = 1;", reported.get(0).sourceLine());
+    }
+
+    @Test
+    void testErrorLimitStopsTheFileWithASingleNote()
+    {
+        List<Diagnostic> reported = new ArrayList<>();
+        Diagnostics diagnostics = new Diagnostics(reported::add, 2);
+        Diagnostics.File file = diagnostics.file("Test.toucan", "");
+        Diagnostics.File other = diagnostics.file("Other.toucan", "");
+
+        file.report(error(1, 1));
+        assertFalse(file.limitReached());
+        file.report(error(2, 1));
+        assertTrue(file.limitReached());
+        assertFalse(file.report(error(3, 1)));
+        assertFalse(other.limitReached(), "The limit applies per file.");
+
+        assertEquals(3, reported.size());
+        assertEquals(Diagnostic.Severity.NOTE, reported.get(2).severity());
+        assertEquals(2, diagnostics.errorCount());
+    }
+
+    @Test
+    void testReportersOfOneFileShareTheLimitAndPositions()
+    {
+        List<Diagnostic> reported = new ArrayList<>();
+        Diagnostics diagnostics = new Diagnostics(reported::add, 2);
+        String source = "package a;\nint @ = 1;";
+        Diagnostics.File tokenizer = diagnostics.file("src/Test.toucan", source);
+        Diagnostics.File parser = diagnostics.file("src/../src/Test.toucan", source);
+
+        assertTrue(tokenizer.report(error(2, 5)));
+        assertFalse(parser.report(error(2, 5)), "The same file, named differently, shares its positions.");
+        assertTrue(parser.report(error(2, 6)));
+        assertTrue(tokenizer.limitReached());
+        assertFalse(diagnostics.file("src/Test.toucan", source).report(error(2, 7)));
+
+        // An edited file starts over
+        Diagnostics.File edited = diagnostics.file("src/Test.toucan", source + "\n");
+        assertFalse(edited.limitReached());
+        assertTrue(edited.report(error(2, 5)));
+        assertEquals(4, reported.size());
+    }
+
+    @Test
+    void testJsonSinkWritesOneEscapedObjectPerLine()
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (Diagnostics diagnostics = new Diagnostics(DiagnosticSink.json(new PrintStream(out)), 0))
+        {
+            Diagnostics.File file = diagnostics.file("Test.toucan", "x");
+            file.report(new TestError("Expected \"x\"", 1, 1, "y", null));
+        }
+
+        assertEquals("{\"severity\":\"error\",\"code\":\"TestError\",\"file\":\"Test.toucan\","
+                + "\"line\":1,\"column\":1,\"length\":1,\"message\":\"Expected \\\"x\\\"\"}\n", out.toString());
+    }
+}
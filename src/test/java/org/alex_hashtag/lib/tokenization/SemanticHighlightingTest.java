@@ -0,0 +1,117 @@
+package org.alex_hashtag.lib.tokenization;
+
+import org.alex_hashtag.lib.tokenization.SemanticHighlighting.Edit;
+import org.alex_hashtag.lib.tokenization.SemanticHighlighting.Type;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class SemanticHighlightingTest
+{
+
+    private static final TokenRules RULES = TokenRules.builder()
+            .keyword("return")
+            .delimeter("(").delimeter(")").delimeter(";")
+            .operator("+")
+            .identifier("default", "^[A-Za-z_]\\w*")
+            .identifier("macro", "^[A-Za-z_]\\w*!")
+            .literal("integer", "^[0-9]+")
+            .literal("string", "^\"[^\"]*\"")
+            .comment("/\\*[^*]*\\*+(?:[^/*][^*]*\\*+)*/")
+            .enableLongestMatchFirst()
+            .makeCaseSensitive()
+            .build();
+
+    private static final String CODE = """
+            /* two
+               lines */ return twice!(x + 1);
+            return "text";
+            """;
+
+    private static TokenList tokenize(String code)
+    {
+        return TokenList.create(code, RULES, TokenPostProcessor.builder().build());
+    }
+
+    private static int[] entry(int deltaLine, int deltaStart, int length, Type type)
+    {
+        return new int[]{deltaLine, deltaStart, length, type.ordinal(), 0};
+    }
+
+    private static int[] concat(int[]... entries)
+    {
+        return Arrays.stream(entries).flatMapToInt(Arrays::stream).toArray();
+    }
+
+    @Test
+    void testEncodeSplitsMultiLineTokensAndSkipsDelimiters()
+    {
+        int[] expected = concat(
+                entry(0, 0, 6, Type.COMMENT),
+                entry(1, 0, 11, Type.COMMENT),
+                entry(0, 12, 6, Type.KEYWORD),
+                entry(0, 7, 6, Type.MACRO),
+                entry(0, 7, 1, Type.VARIABLE),
+                entry(0, 2, 1, Type.OPERATOR),
+                entry(0, 2, 1, Type.NUMBER),
+                entry(1, 0, 6, Type.KEYWORD),
+                entry(0, 7, 6, Type.STRING));
+        assertArrayEquals(expected, SemanticHighlighting.encode(tokenize(CODE)));
+    }
+
+    @Test
+    void testExportedTypesMatchTheTokenRecords()
+    {
+        TokenList tokens = tokenize(CODE);
+        int[] types = SemanticHighlighting.types(tokens);
+        for (int i = 0; i < tokens.size(); i++)
+        {
+            int expected = SemanticHighlighting.typeOf(tokens.get(i)).map(Type::ordinal).unwrapOr(SemanticHighlighting.NONE);
+            assertEquals(expected, types[i], "Token " + i + ": " + tokens.get(i));
+        }
+    }
+
+    @Test
+    void testRangeKeepsTheLinesItCovers()
+    {
+        TokenList tokens = tokenize(CODE);
+
+        // The comment starts before line 1, so only its second line is in the range
+        assertArrayEquals(concat(
+                        entry(1, 0, 11, Type.COMMENT),
+                        entry(0, 12, 6, Type.KEYWORD),
+                        entry(0, 7, 6, Type.MACRO),
+                        entry(0, 7, 1, Type.VARIABLE),
+                        entry(0, 2, 1, Type.OPERATOR),
+                        entry(0, 2, 1, Type.NUMBER)),
+                SemanticHighlighting.encode(tokens, 1, 2));
+        assertArrayEquals(concat(entry(2, 0, 6, Type.KEYWORD), entry(0, 7, 6, Type.STRING)),
+                SemanticHighlighting.encode(tokens, 2, 100));
+        assertEquals(0, SemanticHighlighting.encode(tokens, 3, 100).length);
+    }
+
+    @Test
+    void testDeltaOnlyReplacesWhatChanged()
+    {
+        int[] before = SemanticHighlighting.encode(tokenize(CODE));
+        int[] after = SemanticHighlighting.encode(tokenize(CODE.replace("x + 1", "x + 10")));
+
+        List<Edit> edits = SemanticHighlighting.delta(before, after);
+        assertEquals(1, edits.size());
+        Edit edit = edits.getFirst();
+        assertEquals(30, edit.start());
+        assertEquals(5, edit.deleteCount());
+        assertArrayEquals(entry(0, 2, 2, Type.NUMBER), edit.data());
+
+        int[] patched = concat(
+                Arrays.copyOfRange(before, 0, edit.start()),
+                edit.data(),
+                Arrays.copyOfRange(before, edit.start() + edit.deleteCount(), before.length));
+        assertArrayEquals(after, patched);
+        assertTrue(SemanticHighlighting.delta(after, after).isEmpty());
+    }
+}
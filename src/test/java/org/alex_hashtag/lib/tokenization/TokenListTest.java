@@ -0,0 +1,81 @@
+package org.alex_hashtag.lib.tokenization;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class TokenListTest
+{
+
+    private TokenList tokens;
+
+    @BeforeEach
+    void setUp()
+    {
+        TokenRules rules = TokenRules.builder()
+                .keyword("package")
+                .delimeter(";")
+                .operator(".")
+                .identifier("default", "^[A-Za-z_]\\w*")
+                .enableLongestMatchFirst()
+                .makeCaseSensitive()
+                .build();
+
+        tokens = TokenList.create("package com.example;", rules, TokenPostProcessor.builder().build());
+    }
+
+    @Test
+    void testRemoveConsumesWithoutModifyingTheList()
+    {
+        TokenList.LookAheadIterator iterator = tokens.iterator();
+        iterator.next(); // Start
+        iterator.next(); // package
+        iterator.remove();
+
+        assertEquals("com", iterator.next().getValue());
+        assertEquals(7, tokens.size(), "Consuming tokens must not shrink the shared token list.");
+        assertEquals("package", tokens.iterator().lookAhead(1).getValue());
+    }
+
+    @Test
+    void testRemoveWithoutReadingThrows()
+    {
+        TokenList.LookAheadIterator iterator = tokens.iterator();
+        assertThrows(IllegalStateException.class, iterator::remove);
+    }
+
+    @Test
+    void testResetReturnsToLastConsumedToken()
+    {
+        TokenList.LookAheadIterator iterator = tokens.iterator();
+        iterator.next();
+        iterator.next();
+        iterator.remove();
+        iterator.next();
+        iterator.next();
+
+        iterator.reset();
+        assertEquals("com", iterator.next().getValue());
+    }
+
+    @Test
+    void testMarkRollbackAndCommit()
+    {
+        TokenList.LookAheadIterator iterator = tokens.iterator();
+        iterator.next(); // Start
+
+        iterator.mark();
+        iterator.next(); // package
+        iterator.mark();
+        iterator.next(); // com
+        iterator.rollback();
+        assertEquals("com", iterator.next().getValue());
+        iterator.commit();
+
+        assertEquals(3, iterator.position());
+        assertEquals(".", iterator.next().getValue());
+        assertThrows(IllegalStateException.class, iterator::commit);
+    }
+}
@@ -0,0 +1,96 @@
+package org.alex_hashtag.lib.tokenization;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class TokenTransformationsTest
+{
+    private static Token.Literal integer(String text)
+    {
+        return TokenTransformations.normalizeInteger(new Token.Literal(new Coordinates(1, 1), "integer", text));
+    }
+
+    private static String string(String text)
+    {
+        return TokenTransformations.decodeString(new Token.Literal(new Coordinates(1, 1), "string", text)).getValue();
+    }
+
+    private static Token.Literal real(String text)
+    {
+        return TokenTransformations.normalizeFloat(new Token.Literal(new Coordinates(1, 1), "float", text));
+    }
+
+    @Test
+    void testIntegersThatFitInALongCarryTheirValue()
+    {
+        Token.Literal plain = integer("1234");
+        assertEquals("1234", plain.getValue());
+        assertEquals(1234, plain.longValue());
+
+        assertEquals(255, integer("0xFF").longValue());
+        assertEquals("255", integer("0xFF").getValue());
+        assertEquals(5, integer("0b101").longValue());
+        assertEquals(8, integer("0o10").longValue());
+        assertEquals("1000000", integer("1_000_000").getValue());
+        assertEquals(Long.MAX_VALUE, integer("9223372036854775807").longValue());
+    }
+
+    @Test
+    void testLeadingZerosAreDropped()
+    {
+        Token.Literal padded = integer("007");
+        assertEquals("7", padded.getValue());
+        assertEquals(7, padded.longValue());
+        assertEquals("0", integer("0").getValue());
+        assertEquals("0", integer("000").getValue());
+        assertEquals("10", integer("0_10").getValue());
+    }
+
+    @Test
+    void testMalformedIntegersAreRejected()
+    {
+        assertThrows(NumberFormatException.class, () -> integer("0b102"));
+        assertThrows(NumberFormatException.class, () -> integer("12a"));
+        assertThrows(NumberFormatException.class, () -> integer("0x"));
+        assertThrows(NumberFormatException.class, () -> integer("0x__"));
+        assertThrows(NumberFormatException.class, () -> integer("0xFFFF_FFFF_FFFF_FFFF_FG"));
+    }
+
+    @Test
+    void testWiderIntegersFallBackToText()
+    {
+        Token.Literal wide = integer("9223372036854775808");
+        assertFalse(wide.isLong());
+        assertEquals("9223372036854775808", wide.getValue());
+        assertEquals("18446744073709551615", integer("0xFFFF_FFFF_FFFF_FFFF").getValue());
+        assertThrows(IllegalStateException.class, wide::longValue);
+    }
+
+    @Test
+    void testFloatsKeepEveryDigit()
+    {
+        Token.Literal pi = real("3.141_592_653_589_793_238_46");
+        assertEquals("3.14159265358979323846", pi.getValue());
+        assertEquals(Math.PI, pi.doubleValue());
+        assertEquals(1.5e10, real("1.5e10").doubleValue());
+        assertFalse(real("1e999").isDouble());
+    }
+
+    @Test
+    void testEscapesDecodeLeftToRight()
+    {
+        assertEquals("a\\nb", string("\"a\\\\nb\""), "An escaped backslash must not start a \\n escape.");
+        assertEquals("tab\there \"quoted\"", string("\"tab\\there \\\"quoted\\\"\""));
+        assertEquals("\u00e9\uD83D\uDE00", string("\"\\u00e9\\U0001F600\""));
+        assertEquals("\\q \\u12", string("\"\\q \\u12\""));
+    }
+
+    @Test
+    void testMultiLineStringsLoseTheirCommonIndentation()
+    {
+        String literal = "\"\"\"\n    SELECT *\n      FROM t\\n\n\n    WHERE x\n    \"\"\"";
+        assertEquals("\nSELECT *\n  FROM t\n\n\nWHERE x", string(literal));
+    }
+}
@@ -0,0 +1,355 @@
+package org.alex_hashtag.lsp;
+
+import org.alex_hashtag.lib.results.Option;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class LanguageServerTest
+{
+    private static final String URI = "file:///workspace/demo.toucan";
+    private static final String SOURCE = """
+            package demo;
+            /* block
+               comment */
+            int64 square(int64 x)
+            {
+                return x * x;
+            }
+            int64 main()
+            {
+                return square(3);
+            }
+            """;
+
+    private Connection client;
+    private OutputStream toServer;
+    private final BlockingQueue<Map<String, Object>> received = new LinkedBlockingQueue<>();
+    private Future<Integer> server;
+    private ExecutorService threads;
+
+    @BeforeEach
+    void start() throws IOException, InterruptedException
+    {
+        PipedOutputStream toServer = new PipedOutputStream();
+        this.toServer = toServer;
+        PipedInputStream serverIn = new PipedInputStream(toServer, 1 << 16);
+        ServerOutput serverOut = new ServerOutput();
+        client = new Connection(serverOut.input(), toServer);
+
+        threads = Executors.newVirtualThreadPerTaskExecutor();
+        server = threads.submit(() ->
+        {
+            try (serverOut)
+            {
+                return new LanguageServer(serverIn, serverOut).run();
+            }
+        });
+        threads.execute(() ->
+        {
+            try
+            {
+                for (Option<Map<String, Object>> message = client.read(); message.isSome(); message = client.read())
+                    received.add(message.unwrap());
+            } catch (IOException e)
+            {
+                // The server is gone
+            }
+        });
+
+        request(1, "initialize", Map.of("capabilities", Map.of()));
+        assertNotNull(awaitResponse(1).get("result"));
+        client.notify("initialized", Map.of());
+        client.notify("textDocument/didOpen", Map.of("textDocument",
+                Map.of("uri", URI, "languageId", "toucan", "version", 1, "text", SOURCE)));
+    }
+
+    @AfterEach
+    void stop()
+    {
+        threads.shutdownNow();
+    }
+
+    @Test
+    void semanticTokensSplitMultiLineTokensAndMarkDeclarations() throws InterruptedException
+    {
+        request(2, "textDocument/semanticTokens/full", Map.of("textDocument", Map.of("uri", URI)));
+        List<List<Long>> rows = rows((List<?>) result(awaitResponse(2), "data"));
+
+        long comment = SemanticTokens.TYPES.indexOf("comment");
+        assertTrue(rows.contains(List.of(1L, 0L, 8L, comment, 0L)));
+        assertTrue(rows.contains(List.of(2L, 0L, 13L, comment, 0L)));
+
+        long function = SemanticTokens.FUNCTION;
+        long declaration = 1L << SemanticTokens.MODIFIERS.indexOf("declaration");
+        assertTrue(rows.contains(List.of(3L, 6L, 6L, function, declaration)));
+        assertTrue(rows.contains(List.of(9L, 11L, 6L, function, 0L)));
+    }
+
+    @Test
+    void semanticTokensOfARangeAreThoseOfTheFullResult() throws InterruptedException
+    {
+        request(2, "textDocument/semanticTokens/full", Map.of("textDocument", Map.of("uri", URI)));
+        List<List<Long>> full = rows((List<?>) result(awaitResponse(2), "data"));
+
+        // The second line of the comment through the declaration of `square`
+        request(3, "textDocument/semanticTokens/range", Map.of("textDocument", Map.of("uri", URI),
+                "range", range(2, 0, 3, 0)));
+        List<List<Long>> ranged = rows((List<?>) result(awaitResponse(3), "data"));
+        assertEquals(full.stream().filter(row -> row.getFirst() == 2 || row.getFirst() == 3).toList(), ranged);
+        assertFalse(ranged.isEmpty());
+    }
+
+    /// Decodes the relative positions back into (line, character, length, type, modifiers) rows.
+    private static List<List<Long>> rows(List<?> data)
+    {
+        List<List<Long>> rows = new ArrayList<>();
+        long line = 0, character = 0;
+        for (int i = 0; i < data.size(); i += 5)
+        {
+            long deltaLine = (Long) data.get(i), deltaStart = (Long) data.get(i + 1);
+            character = deltaLine == 0 ? character + deltaStart : deltaStart;
+            line += deltaLine;
+            rows.add(List.of(line, character, (Long) data.get(i + 2), (Long) data.get(i + 3), (Long) data.get(i + 4)));
+        }
+        return rows;
+    }
+
+    @Test
+    void semanticTokensDeltaPatchesThePreviousResult() throws InterruptedException
+    {
+        request(2, "textDocument/semanticTokens/full", Map.of("textDocument", Map.of("uri", URI)));
+        Map<String, Object> full = awaitResponse(2);
+        List<Object> data = new ArrayList<>((List<?>) result(full, "data"));
+
+        // `square(3)` becomes `square(30)`
+        client.notify("textDocument/didChange", Map.of(
+                "textDocument", Map.of("uri", URI, "version", 2),
+                "contentChanges", List.of(Map.of("range", range(9, 18, 9, 19), "text", "30"))));
+        request(3, "textDocument/semanticTokens/full/delta", Map.of("textDocument", Map.of("uri", URI),
+                "previousResultId", result(full, "resultId")));
+        List<?> edits = (List<?>) result(awaitResponse(3), "edits");
+        assertEquals(1, edits.size());
+        Map<?, ?> edit = (Map<?, ?>) edits.getFirst();
+        int start = ((Long) edit.get("start")).intValue();
+        data.subList(start, start + ((Long) edit.get("deleteCount")).intValue()).clear();
+        data.addAll(start, (List<?>) edit.get("data"));
+
+        request(4, "textDocument/semanticTokens/full", Map.of("textDocument", Map.of("uri", URI)));
+        assertEquals(result(awaitResponse(4), "data"), data);
+    }
+
+    @Test
+    void definitionAndSymbolsFollowTheOpenDocument() throws InterruptedException
+    {
+        request(2, "textDocument/definition", at(9, 13));
+        List<?> locations = (List<?>) awaitResponse(2).get("result");
+        assertEquals(1, locations.size());
+        assertEquals(Map.of("start", Map.of("line", 3L, "character", 6L), "end", Map.of("line", 3L, "character", 12L)),
+                ((Map<?, ?>) locations.getFirst()).get("range"));
+
+        request(3, "textDocument/documentSymbol", Map.of("textDocument", Map.of("uri", URI)));
+        List<?> symbols = (List<?>) awaitResponse(3).get("result");
+        assertEquals(List.of("square", "main"), symbols.stream().map(symbol -> ((Map<?, ?>) symbol).get("name")).toList());
+    }
+
+    @Test
+    void definitionOfAMacroUseIsItsMacroKeyword() throws InterruptedException
+    {
+        String uri = "file:///workspace/macros.toucan";
+        client.notify("textDocument/didOpen", Map.of("textDocument", Map.of("uri", uri, "languageId", "toucan",
+                "version", 1, "text", "package demo;\nmacro twice { }\nint64 main()\n{\n    twice!(1);\n}\n")));
+
+        request(2, "textDocument/definition", Map.of("textDocument", Map.of("uri", uri),
+                "position", Map.of("line", 4, "character", 6)));
+        List<?> locations = (List<?>) awaitResponse(2).get("result");
+        assertEquals(1, locations.size());
+        assertEquals(Map.of("start", Map.of("line", 1L, "character", 0L), "end", Map.of("line", 1L, "character", 5L)),
+                ((Map<?, ?>) locations.getFirst()).get("range"));
+    }
+
+    @Test
+    void definitionFollowsEditsOfOtherDocuments() throws InterruptedException
+    {
+        String library = "file:///workspace/library.toucan";
+        String user = "file:///workspace/user.toucan";
+        client.notify("textDocument/didOpen", Map.of("textDocument", Map.of("uri", library, "languageId", "toucan",
+                "version", 1, "text", "package library;\nint64 cube(int64 x)\n{\n    return x * x * x;\n}\n")));
+        client.notify("textDocument/didOpen", Map.of("textDocument", Map.of("uri", user, "languageId", "toucan",
+                "version", 1, "text", "package user;\nint64 run()\n{\n    return cube(2);\n}\n")));
+        Map<String, Object> atCube = Map.of("textDocument", Map.of("uri", user),
+                "position", Map.of("line", 3, "character", 12));
+
+        request(2, "textDocument/definition", atCube);
+        List<?> before = (List<?>) awaitResponse(2).get("result");
+        assertEquals(1, before.size());
+        assertEquals(library, ((Map<?, ?>) before.getFirst()).get("uri"));
+
+        // Renaming the function in the library leaves the use without a definition
+        client.notify("textDocument/didChange", Map.of(
+                "textDocument", Map.of("uri", library, "version", 2),
+                "contentChanges", List.of(Map.of("range", range(1, 6, 1, 10), "text", "cubed"))));
+        request(3, "textDocument/definition", atCube);
+        assertEquals(List.of(), awaitResponse(3).get("result"));
+    }
+
+    @Test
+    void malformedMessagesAreAnsweredAndReadingGoesOn() throws InterruptedException, IOException
+    {
+        byte[] broken = "{\"jsonrpc\": \"2.0\", \"id\": 2,".getBytes(java.nio.charset.StandardCharsets.UTF_8);
+        toServer.write(("Content-Length: " + broken.length + "\r\n\r\n").getBytes(java.nio.charset.StandardCharsets.US_ASCII));
+        toServer.write(broken);
+        toServer.write("Content-Length: 2\r\n\r\n[]".getBytes(java.nio.charset.StandardCharsets.US_ASCII));
+        toServer.flush();
+
+        Map<String, Object> parseError = await(message -> message.containsKey("error"));
+        assertNull(parseError.get("id"));
+        assertEquals((long) LanguageServer.PARSE_ERROR, ((Map<?, ?>) parseError.get("error")).get("code"));
+        Map<String, Object> invalid = await(message -> message.containsKey("error"));
+        assertEquals((long) LanguageServer.INVALID_REQUEST, ((Map<?, ?>) invalid.get("error")).get("code"));
+
+        request(3, "textDocument/documentSymbol", Map.of("textDocument", Map.of("uri", URI)));
+        assertEquals(2, ((List<?>) awaitResponse(3).get("result")).size());
+    }
+
+    @Test
+    void incrementalChangesArePublishedAsDiagnostics() throws InterruptedException, ExecutionException, TimeoutException
+    {
+        // Drop the closing parenthesis of `square(3)`
+        client.notify("textDocument/didChange", Map.of(
+                "textDocument", Map.of("uri", URI, "version", 2),
+                "contentChanges", List.of(Map.of("range", range(9, 19, 9, 20), "text", ""))));
+
+        Map<String, Object> published = await(message ->
+                "textDocument/publishDiagnostics".equals(message.get("method"))
+                        && Long.valueOf(2).equals(((Map<?, ?>) message.get("params")).get("version")));
+        assertFalse(((List<?>) ((Map<?, ?>) published.get("params")).get("diagnostics")).isEmpty());
+
+        request(4, "shutdown", null);
+        assertTrue(awaitResponse(4).containsKey("result"));
+        client.notify("exit", null);
+        assertEquals(Integer.valueOf(0), server.get(10, TimeUnit.SECONDS));
+    }
+
+    private static Object result(Map<String, Object> response, String key)
+    {
+        return ((Map<?, ?>) response.get("result")).get(key);
+    }
+
+    private static Map<String, Object> range(int startLine, int startCharacter, int endLine, int endCharacter)
+    {
+        return Map.of(
+                "start", Map.of("line", startLine, "character", startCharacter),
+                "end", Map.of("line", endLine, "character", endCharacter));
+    }
+
+    private void request(int id, String method, Object params)
+    {
+        Map<String, Object> message = new LinkedHashMap<>();
+        message.put("jsonrpc", "2.0");
+        message.put("id", id);
+        message.put("method", method);
+        message.put("params", params);
+        client.send(message);
+    }
+
+    private Map<String, Object> await(Predicate<Map<String, Object>> wanted) throws InterruptedException
+    {
+        while (true)
+        {
+            Map<String, Object> message = received.poll(10, TimeUnit.SECONDS);
+            assertNotNull(message, "No answer from the server");
+            if (wanted.test(message))
+                return message;
+        }
+    }
+
+    private Map<String, Object> awaitResponse(long id) throws InterruptedException
+    {
+        return await(message -> Long.valueOf(id).equals(message.get("id")));
+    }
+
+    private static Map<String, Object> at(int line, int character)
+    {
+        return Map.of("textDocument", Map.of("uri", URI), "position", Map.of("line", line, "character", character));
+    }
+
+    /// The server's output as an in-memory pipe. A `PipedInputStream` fails once the last thread
+    /// that wrote to it has ended, and the server answers from short-lived virtual threads.
+    private static final class ServerOutput extends OutputStream
+    {
+        private static final byte[] CLOSED = new byte[0];
+        private final BlockingQueue<byte[]> chunks = new LinkedBlockingQueue<>();
+
+        @Override
+        public void write(int b)
+        {
+            chunks.add(new byte[]{(byte) b});
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len)
+        {
+            if (len > 0)
+                chunks.add(Arrays.copyOfRange(b, off, off + len));
+        }
+
+        @Override
+        public void close()
+        {
+            chunks.add(CLOSED);
+        }
+
+        InputStream input()
+        {
+            return new InputStream()
+            {
+                private byte[] chunk = new byte[0];
+                private int position;
+
+                @Override
+                public int read() throws IOException
+                {
+                    byte[] b = new byte[1];
+                    return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+                }
+
+                /// Reads what is left of the current chunk, waiting for the next one if needed.
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException
+                {
+                    while (position == chunk.length)
+                    {
+                        if (chunk == CLOSED)
+                            return -1;
+                        try
+                        {
+                            chunk = chunks.take();
+                        } catch (InterruptedException e)
+                        {
+                            throw new InterruptedIOException();
+                        }
+                        position = 0;
+                    }
+                    int count = Math.min(len, chunk.length - position);
+                    System.arraycopy(chunk, position, b, off, count);
+                    position += count;
+                    return count;
+                }
+            };
+        }
+    }
+}
@@ -10,7 +10,6 @@ import org.junit.jupiter.api.Test;
 import java.nio.file.Paths;
 import java.util.Iterator;
 
-import static com.github.stefanbirkner.systemlambda.SystemLambda.catchSystemExit;
 import static org.junit.jupiter.api.Assertions.*;
 
 class TokenStreamTest {
@@ -165,12 +164,9 @@ class TokenStreamTest {
                 }
                 """;
 
-        // Use System Lambda to catch System.exit
-        int status = catchSystemExit(() -> {
-            TokenStream ts = new TokenStream(Paths.get("UnclosedString.toucan"), sourceWithUnclosedString);
-        });
+        TokenStream ts = new TokenStream(Paths.get("UnclosedString.toucan"), sourceWithUnclosedString);
 
-        assertEquals(1, status, "System.exit should be called with status 1 for unclosed string literal.");
+        assertTrue(ts.hasErrors(), "An unclosed string literal should be reported as an error.");
     }
 
     @Test
@@ -187,12 +183,9 @@ class TokenStreamTest {
                 }
                 """;
 
-        // Use System Lambda to catch System.exit
-        int status = catchSystemExit(() -> {
-            TokenStream ts = new TokenStream(Paths.get("InvalidToken.toucan"), sourceWithInvalidToken);
-        });
+        TokenStream ts = new TokenStream(Paths.get("InvalidToken.toucan"), sourceWithInvalidToken);
 
-        assertEquals(1, status, "System.exit should be called with status 1 for invalid token.");
+        assertTrue(ts.hasErrors(), "An invalid token should be reported as an error.");
     }
 
     @Test
@@ -306,12 +299,9 @@ class TokenStreamTest {
                 }
                 """;
 
-        // Use System Lambda to catch System.exit
-        int status = catchSystemExit(() -> {
-            TokenStream ts = new TokenStream(Paths.get("Identifiers.toucan"), source);
-        });
+        TokenStream ts = new TokenStream(Paths.get("Identifiers.toucan"), source);
 
-        assertEquals(1, status, "System.exit should be called with status 1 for invalid identifier.");
+        assertTrue(ts.hasErrors(), "An invalid identifier should be reported as an error.");
     }
 
     @Test
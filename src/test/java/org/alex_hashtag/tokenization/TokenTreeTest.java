@@ -0,0 +1,84 @@
+package org.alex_hashtag.tokenization;
+
+import org.alex_hashtag.tokenizationOLD.Token;
+import org.alex_hashtag.tokenizationOLD.TokenStream;
+import org.alex_hashtag.tokenizationOLD.TokenTree;
+import org.alex_hashtag.tokenizationOLD.TokenType;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.alex_hashtag.tokenizationOLD.TokenType.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class TokenTreeTest
+{
+    private static List<Token> tokens(TokenType... types)
+    {
+        return Arrays.stream(types).map(type -> Token.basic(1, 1, type)).toList();
+    }
+
+    @Test
+    void testGroupsPairWithTheirClosers()
+    {
+        // ( [ { } ] $( ) ) x
+        List<Token> tokens = tokens(BRACE_OPEN, BRACKET_OPEN, CURLY_OPEN, CURLY_CLOSED, BRACKET_CLOSED,
+                MACRO_REPEAT_OPEN, BRACE_CLOSED, BRACE_CLOSED, IDENTIFIER);
+        TokenTree tree = TokenTree.of(tokens);
+
+        assertEquals(7, tree.closer(0));
+        assertEquals(4, tree.closer(1));
+        assertEquals(3, tree.closer(2));
+        assertEquals(6, tree.closer(5));
+        assertEquals(-1, tree.closer(3), "A closer opens nothing.");
+        assertEquals(-1, tree.closer(8));
+        assertEquals(-1, tree.closer(-1));
+        assertEquals(-1, tree.closer(tokens.size()));
+
+        assertEquals(tokens.subList(1, 7), tree.inner(0));
+        assertTrue(tree.inner(2).isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> tree.inner(8));
+    }
+
+    @Test
+    void testUnbalancedInputLeavesEarlierGroupsOpen()
+    {
+        // ( [ ) ] { }  the ')' closes nothing, so neither '(' nor '[' is closed, later groups still pair
+        TokenTree mismatched = TokenTree.of(tokens(BRACE_OPEN, BRACKET_OPEN, BRACE_CLOSED, BRACKET_CLOSED,
+                CURLY_OPEN, CURLY_CLOSED));
+        assertEquals(-1, mismatched.closer(0));
+        assertEquals(-1, mismatched.closer(1));
+        assertEquals(5, mismatched.closer(4));
+
+        // ( ( )  the outer group is never closed
+        TokenTree unclosed = TokenTree.of(tokens(BRACE_OPEN, BRACE_OPEN, BRACE_CLOSED));
+        assertEquals(-1, unclosed.closer(0));
+        assertEquals(2, unclosed.closer(1));
+        assertThrows(IllegalArgumentException.class, () -> unclosed.inner(0));
+
+        // A '$(' is closed by ')' only
+        assertEquals(-1, TokenTree.of(tokens(MACRO_REPEAT_OPEN, BRACKET_CLOSED)).closer(0));
+    }
+
+    @Test
+    void testLexerEmitsMacroUseAndItsArgumentsAsOrdinaryTokens()
+    {
+        TokenStream stream = new TokenStream(Path.of("Use.toucan"), "package demo;\nint64 f() { twice!(a, [b]); }\n");
+        assertFalse(stream.hasErrors());
+
+        List<Token> tokens = stream.tokens;
+        int use = 0;
+        while (tokens.get(use).type != MACRO_USE)
+            use++;
+        assertEquals("twice!", tokens.get(use).internal.orElseThrow());
+
+        TokenTree tree = TokenTree.of(tokens);
+        assertEquals(BRACE_OPEN, tokens.get(use + 1).type);
+        assertEquals(List.of(IDENTIFIER, COMMA, BRACKET_OPEN, IDENTIFIER, BRACKET_CLOSED),
+                tree.inner(use + 1).stream().map(token -> token.type).toList());
+        assertEquals(SEMI_COLON, tokens.get(tree.closer(use + 1) + 1).type);
+    }
+}
@@ -0,0 +1,140 @@
+package org.alex_hashtag.vm;
+
+import org.alex_hashtag.internal_representation.ir.*;
+import org.alex_hashtag.internal_representation.ir.passes.ConstantFolding;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class InterpreterTest
+{
+    /// `fib(n) { a = 0; b = 1; i = 0; while (i < n) { a, b = b, a + b; i++; } return a; }`, whose loop
+    /// header swaps two phis, so the copies on the back edge have to be sequenced.
+    private static IrFunction iterativeFib()
+    {
+        IrFunction function = new IrFunction("fib", List.of("n"), false);
+        Block entry = function.newBlock();
+        Block header = function.newBlock();
+        Block body = function.newBlock();
+        Block exit = function.newBlock();
+
+        Value n = register(function, entry, id -> new Instruction.Parameter(id, 0, "n"));
+        entry.setTerminator(new Terminator.Jump(header.getId()));
+
+        int a = function.newRegister();
+        int b = function.newRegister();
+        int i = function.newRegister();
+        int sum = function.newRegister();
+        int next = function.newRegister();
+        header.add(phi(a, entry, new Value.Int(0), body, new Value.Register(b)));
+        header.add(phi(b, entry, new Value.Int(1), body, new Value.Register(sum)));
+        header.add(phi(i, entry, new Value.Int(0), body, new Value.Register(next)));
+        Value condition = register(function, header, id -> new Instruction.Binary(id, "<", new Value.Register(i), n));
+        header.setTerminator(new Terminator.Branch(condition, body.getId(), exit.getId()));
+
+        body.add(new Instruction.Binary(sum, "+", new Value.Register(a), new Value.Register(b)));
+        body.add(new Instruction.Binary(next, "+", new Value.Register(i), new Value.Int(1)));
+        body.setTerminator(new Terminator.Jump(header.getId()));
+        exit.setTerminator(new Terminator.Return(new Value.Register(a)));
+        return function;
+    }
+
+    /// `main(d) { echo(fib(10)); return 100 / d; }`
+    private static IrFunction echoAndDivide()
+    {
+        IrFunction function = new IrFunction("main", List.of("d"), false);
+        Block entry = function.newBlock();
+        Value d = register(function, entry, id -> new Instruction.Parameter(id, 0, "d"));
+        Value fib = register(function, entry, id -> new Instruction.Call(id, "fib", List.of(new Value.Int(10))));
+        register(function, entry, id -> new Instruction.Call(id, "echo", List.of(fib)));
+        Value quotient = register(function, entry, id -> new Instruction.Binary(id, "/", new Value.Int(100), d));
+        entry.setTerminator(new Terminator.Return(quotient));
+        return function;
+    }
+
+    private static Instruction.Phi phi(int target, Block first, Value fromFirst, Block second, Value fromSecond)
+    {
+        return new Instruction.Phi(target, List.of(
+                new Instruction.Phi.Incoming(first.getId(), fromFirst),
+                new Instruction.Phi.Incoming(second.getId(), fromSecond)));
+    }
+
+    private static Value register(IrFunction function, Block block, java.util.function.IntFunction<Instruction> instruction)
+    {
+        int id = function.newRegister();
+        block.add(instruction.apply(id));
+        return new Value.Register(id);
+    }
+
+    private static Program program()
+    {
+        IrModule module = new IrModule();
+        module.add(iterativeFib());
+        module.add(echoAndDivide());
+        return BytecodeCompiler.compile(module);
+    }
+
+    @Test
+    void loopWithSwappedPhisComputesFibonacci()
+    {
+        Interpreter interpreter = new Interpreter(program(), System.out);
+
+        assertEquals(0L, interpreter.call("fib", 0L));
+        assertEquals(55L, interpreter.call("fib", 10L));
+        assertEquals(12586269025L, interpreter.call("fib", 50L));
+    }
+
+    @Test
+    void callsEchoToTheOutputStream()
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Interpreter interpreter = new Interpreter(program(), new PrintStream(out, true));
+
+        assertEquals(25L, interpreter.call("main", 4L));
+        assertEquals("55", out.toString().strip());
+    }
+
+    @Test
+    void runtimeErrorsNameTheFunction()
+    {
+        Interpreter interpreter = new Interpreter(program(), new PrintStream(new ByteArrayOutputStream()));
+
+        VmException error = assertThrows(VmException.class, () -> interpreter.call("main", 0L));
+        assertEquals("main", error.getFunction());
+        assertTrue(error.getMessage().startsWith("Division by zero"));
+    }
+
+    @Test
+    void integerArithmeticWrapsLikeConstantFolding()
+    {
+        long[][] operands = {{Long.MAX_VALUE, 1}, {Long.MIN_VALUE, -1}, {Long.MIN_VALUE, 63}, {-8, 1}, {3, 7}};
+        for (String operator : List.of("+", "-", "*", "/", "%", "&", "|", "^", "<<", ">>", ">>>"))
+        {
+            IrFunction function = new IrFunction("op", List.of("a", "b"), false);
+            Block entry = function.newBlock();
+            Value a = register(function, entry, id -> new Instruction.Parameter(id, 0, "a"));
+            Value b = register(function, entry, id -> new Instruction.Parameter(id, 1, "b"));
+            Value result = register(function, entry, id -> new Instruction.Binary(id, operator, a, b));
+            entry.setTerminator(new Terminator.Return(result));
+            IrModule module = new IrModule();
+            module.add(function);
+            Interpreter interpreter = new Interpreter(BytecodeCompiler.compile(module), System.out);
+
+            for (long[] pair : operands)
+            {
+                // What folding leaves alone, such as a negative shift, is an error at run time
+                Value folded = ConstantFolding.foldBinary(operator, new Value.Int(pair[0]), new Value.Int(pair[1]));
+                if (folded == null)
+                    assertThrows(VmException.class, () -> interpreter.call("op", pair[0], pair[1]));
+                else
+                    assertEquals(((Value.Int) folded).value(), interpreter.call("op", pair[0], pair[1]),
+                            pair[0] + " " + operator + " " + pair[1]);
+            }
+        }
+    }
+}